@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.BehaviorTree.Status;
+
+/**
+ * Behavior tree leaf whose work takes longer than a tick.
+ * <p>
+ * The first tick hands the work to a dedicated worker thread and returns
+ * {@link Status#RUNNING}; later ticks return {@link Status#RUNNING} until the
+ * work is done and then return its result. Ticks never block or allocate.
+ * If the action is halted while its work is in progress, the result is
+ * discarded and the work is not restarted until it has finished.
+ * <p>
+ * The worker thread is started by the first tick and runs until
+ * {@link #close()}, after which the action can not be started again.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public abstract class AbstractAsyncAction implements BehaviorTree.Behavior {
+
+  // Handshake between the ticking thread and the worker
+  private static final int IDLE = 0;
+  private static final int PENDING = 1;
+  private static final int HALTED = 2;
+  private static final int DONE = 3;
+
+  private final String threadName;
+  private final AtomicInteger state = new AtomicInteger(IDLE);
+  private final Object lifecycleLock = new Object();
+
+  // Handed over through the state, which orders the accesses on either side
+  private RasPiRobotBoard board;
+  private Status result;
+
+  private volatile boolean closed;
+  private Thread worker;
+
+  /**
+   * @param name
+   *          Suffix of the worker thread's name
+   */
+  protected AbstractAsyncAction(final String name) {
+    this.threadName = "rrb4j-" + name;
+  }
+
+  /**
+   * Performs the work on the worker thread; may block.
+   *
+   * @param board
+   *          The board driven by the tree
+   * @return {@link Status#SUCCESS} or {@link Status#FAILURE}
+   */
+  protected abstract Status perform(RasPiRobotBoard board);
+
+  /**
+   * Called on the ticking thread when the work is done, before its result is
+   * returned. Override to copy what the work produced onto the blackboard.
+   *
+   * @param blackboard
+   *          The values shared by the tree
+   * @param status
+   *          The result of {@link #perform(RasPiRobotBoard)}
+   * @return The result of the tick
+   */
+  protected Status complete(final Blackboard blackboard, final Status status) {
+    return status;
+  }
+
+  @Override
+  public final Status tick(final RasPiRobotBoard board, final Blackboard blackboard) {
+    switch (state.get()) {
+      case IDLE:
+        Validate.validState(!closed, "Action is closed");
+        this.board = board;
+        state.set(PENDING);
+        LockSupport.unpark(ensureWorker());
+        return Status.RUNNING;
+      case DONE:
+        state.set(IDLE);
+        return complete(blackboard, result);
+      default:
+        return Status.RUNNING;
+    }
+  }
+
+  @Override
+  public final void halt() {
+    if (!state.compareAndSet(PENDING, HALTED)) {
+      state.compareAndSet(DONE, IDLE);
+    }
+  }
+
+  /**
+   * @return True if work has been handed to the worker and its result not yet returned
+   */
+  public boolean isBusy() {
+    return state.get() != IDLE;
+  }
+
+  /**
+   * Stops the worker thread once any work in progress has finished.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the worker to stop
+   */
+  public void close() throws InterruptedException {
+    final Thread thread;
+    synchronized (lifecycleLock) {
+      closed = true;
+      thread = worker;
+      worker = null;
+    }
+
+    if (thread != null) {
+      LockSupport.unpark(thread);
+      thread.join();
+    }
+  }
+
+  private Thread ensureWorker() {
+    synchronized (lifecycleLock) {
+      if (worker == null && !closed) {
+        worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+      }
+
+      return worker;
+    }
+  }
+
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private void run() {
+    ThreadPlacement.placeCurrentThread();
+    while (!closed) {
+      final int current = state.get();
+      if (current == PENDING) {
+        Status status;
+        try {
+          status = perform(board);
+        } catch (final RuntimeException e) {
+          status = Status.FAILURE;
+        }
+
+        result = status;
+        if (!state.compareAndSet(PENDING, DONE)) {
+          // Halted while performing; nobody wants the result
+          state.set(IDLE);
+        }
+      } else if (current == HALTED) {
+        state.set(IDLE);
+      } else {
+        LockSupport.park(this);
+      }
+    }
+  }
+}
@@ -21,6 +21,11 @@
 package com.callidusrobotics.rrb4j;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.Validate;
 
@@ -29,8 +34,6 @@ import com.pi4j.io.gpio.GpioPinDigitalInput;
 import com.pi4j.io.gpio.GpioPinDigitalOutput;
 import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.PinState;
-import com.pi4j.wiringpi.Gpio;
-import com.pi4j.wiringpi.SoftPwm;
 
 /**
  * Base class for implementations of <code>RasPiRobotBoard</code>.
@@ -38,10 +41,24 @@ import com.pi4j.wiringpi.SoftPwm;
  * @author Rusty Gerard
  * @since 1.0.0
  */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.TooManyFields", "PMD.GodClass", "PMD.LawOfDemeter"})
 abstract class AbstractRasPiRobot implements RasPiRobotBoard {
 
   private static final String NOT_IMPLEMENTED = "This has not yet been implemented";
 
+  // Number of steps in the SoftPwm duty cycle range
+  static final int PWM_RANGE = PwmDriver.RANGE;
+
+  // Maximum number of distinct pins in a transaction; more than the board has outputs
+  private static final int TRANSACTION_PINS = 16;
+
+  // Resolution and size of the timer wheel used by the motor idle timeout
+  private static final int IDLE_TICKS = 10;
+  private static final int IDLE_WHEEL_SIZE = 16;
+
+  // Holder reused by getRangeCm() so that ranging does not allocate; one per thread since boards are shared
+  private static final ThreadLocal<RangeReading> SCRATCH_READING = ThreadLocal.withInitial(RangeReading::new);
+
   protected GpioController gpio;
   protected GpioPinDigitalOutput led1Pin, led2Pin;
   protected GpioPinDigitalInput switch1Pin, switch2Pin;
@@ -51,10 +68,37 @@ abstract class AbstractRasPiRobot implements RasPiRobotBoard {
   protected GpioPinDigitalOutput rangeTriggerPin;
   protected GpioPinDigitalInput rangeEchoPin;
 
-  private boolean motorsInitialized;
+  // Set when the pins are on the GPIO character device rather than wiringPi
+  GpioChipProvider gpioChip;
+
+  private volatile boolean motorsInitialized;
+  private volatile PwmDriver pwmDriver = SoftPwmDriver.INSTANCE;
+  private volatile BoardClock clock = BoardClock.SYSTEM;
   protected final float pwmScale;
-  protected MotorDirection m1Direction;
-  protected MotorDirection m2Direction;
+  protected volatile MotorDirection m1Direction;
+  protected volatile MotorDirection m2Direction;
+
+  // Duty cycles requested by the last call to setMotors(), before any safety limit is applied
+  private volatile int m1Duty, m2Duty;
+
+  // Upper bound on the duty cycle of motors running forward, lowered by the proximity reflex
+  private volatile int forwardDutyLimit = PWM_RANGE;
+  private final Object motorDutyLock = new Object();
+
+  // Serializes setMotors() so that one command's dead time and H-bridge writes never interleave with another's
+  private final Object phaseLock = new Object();
+
+  // Used only by setMotors() to update the four H-bridge inputs together; guarded by phaseLock
+  private GpioTransaction phaseTransaction;
+
+  // Releases the PWM channels once the motors have been stopped for the idle timeout; null while disabled
+  private final Object idleLock = new Object();
+  private TimerWheel idleWheel;
+  private volatile TimerWheel.Timeout idleTimeout;
+  private volatile long idleNanos;
+
+  // Copy-on-write so that notifying listeners does not allocate or lock
+  private volatile CommandListener[] commandListeners = new CommandListener[0];
 
   protected AbstractRasPiRobot() {
     // Default voltage settings that the RRBv3 Python library uses
@@ -70,67 +114,102 @@ abstract class AbstractRasPiRobot implements RasPiRobotBoard {
 
   @Override
   public void setLed1(final boolean enabled) {
-    led1Pin.setState(enabled);
+    writeOutput(led1Pin, BoardOutput.LED1, enabled);
   }
 
   @Override
   public void setLed2(final boolean enabled) {
-    led2Pin.setState(enabled);
+    writeOutput(led2Pin, BoardOutput.LED2, enabled);
   }
 
   @Override
   public boolean switch1Closed() {
-    return switch1Pin.isLow();
+    return readSwitch(switch1Pin, 1);
   }
 
   @Override
   public boolean switch2Closed() {
-    return switch2Pin.isLow();
+    return readSwitch(switch2Pin, 2);
   }
 
   @Override
   public void setOc1(final boolean enabled) {
-    oc1Pin.setState(enabled);
+    writeOutput(oc1Pin, BoardOutput.OC1, enabled);
   }
 
   @Override
   public void setOc2(final boolean enabled) {
-    oc2Pin.setState(enabled);
+    writeOutput(oc2Pin, BoardOutput.OC2, enabled);
+  }
+
+  private void writeOutput(final GpioPinDigitalOutput pin, final BoardOutput output, final boolean enabled) {
+    final Object event = HardwareEvents.beginOutputWrite();
+    pin.setState(enabled);
+    HardwareEvents.endOutputWrite(event, output, enabled);
+
+    notifyOutputCommanded(output, enabled);
+  }
+
+  private boolean readSwitch(final GpioPinDigitalInput pin, final int switchNumber) {
+    final Object event = HardwareEvents.beginSwitchRead();
+    final boolean closed = pin.isLow();
+    HardwareEvents.endSwitchRead(event, switchNumber, closed);
+
+    return closed;
   }
 
   @Override
   public void setMotors(final float m1Speed, final MotorDirection m1Direction, final float m2Speed, final MotorDirection m2Direction) {
-    Validate.notNull(m1Direction, "MotorDirection can not be null");
-    Validate.notNull(m2Direction, "MotorDirection can not be null");
+    // Validate's message overloads take varargs, which would allocate on every command
+    Objects.requireNonNull(m1Direction, "MotorDirection can not be null");
+    Objects.requireNonNull(m2Direction, "MotorDirection can not be null");
     Validate.inclusiveBetween(0.0, 1.0, m1Speed, "Motor speed must be in the range [0, 1]");
     Validate.inclusiveBetween(0.0, 1.0, m2Speed, "Motor speed must be in the range [0, 1]");
 
-    if (!motorsInitialized) {
-      softPwmCreate(m1PwmPin);
-      softPwmCreate(m2PwmPin);
+    final Object event = HardwareEvents.beginMotorCommand();
+    final int duty1 = (int) (PWM_RANGE * m1Speed * pwmScale);
+    final int duty2 = (int) (PWM_RANGE * m2Speed * pwmScale);
+    final boolean directionChange;
+
+    synchronized (phaseLock) {
+      // Stop the motors before reversing polarity
+      directionChange = this.m1Direction != m1Direction || this.m2Direction != m2Direction;
+      if (directionChange) {
+        m1Duty = 0;
+        m2Duty = 0;
+        writeMotorDuty(false);
+
+        this.m1Direction = m1Direction;
+        this.m2Direction = m2Direction;
+
+        final Object deadTime = HardwareEvents.beginDeadTime();
+        sleepMillis(HB_DELAY_MILLIS);
+        HardwareEvents.endDeadTime(deadTime, HB_DELAY_MILLIS);
+      }
 
-      motorsInitialized = true;
+      if (phaseTransaction == null) {
+        phaseTransaction = newTransaction();
+      }
+
+      phaseTransaction.set(m1PhasePin1, m1Direction != MotorDirection.FORWARD)
+                      .set(m1PhasePin2, m1Direction == MotorDirection.FORWARD)
+                      .set(m2PhasePin1, m2Direction != MotorDirection.FORWARD)
+                      .set(m2PhasePin2, m2Direction == MotorDirection.FORWARD)
+                      .commit();
+
+      m1Duty = duty1;
+      m2Duty = duty2;
+      // Released channels stay stopped until the motors are commanded to move
+      writeMotorDuty(duty1 != 0 || duty2 != 0);
     }
 
-    // Stop the motors before reversing polarity
-    if (this.m1Direction != m1Direction || this.m2Direction != m2Direction) {
-      softPwmWrite(m1PwmPin, 0);
-      softPwmWrite(m2PwmPin, 0);
+    updateIdleTimeout();
 
-      this.m1Direction = m1Direction;
-      this.m2Direction = m2Direction;
+    HardwareEvents.endMotorCommand(event, duty1, m1Direction, duty2, m2Direction, directionChange);
 
-      try {
-        Thread.sleep(HB_DELAY_MILLIS);
-      } catch (InterruptedException e) {}
+    for (final CommandListener listener : commandListeners) {
+      listener.motorsCommanded(duty1, m1Direction, duty2, m2Direction);
     }
-
-    m1PhasePin1.setState(m1Direction != MotorDirection.FORWARD);
-    m1PhasePin2.setState(m1Direction == MotorDirection.FORWARD);
-    m2PhasePin1.setState(m2Direction != MotorDirection.FORWARD);
-    m2PhasePin2.setState(m2Direction == MotorDirection.FORWARD);
-    softPwmWrite(m1PwmPin, (int) (100 * m1Speed * pwmScale));
-    softPwmWrite(m2PwmPin, (int) (100 * m2Speed * pwmScale));
   }
 
   //@Override
@@ -138,9 +217,35 @@ abstract class AbstractRasPiRobot implements RasPiRobotBoard {
     throw new UnsupportedOperationException(NOT_IMPLEMENTED);
   }
 
-  @SuppressWarnings("PMD.PrematureDeclaration")
   @Override
   public float getRangeCm() throws IOException {
+    final RangeReading reading = measureRange(SCRATCH_READING.get());
+    if (reading.getStatus() == RangeReading.NOT_CONNECTED) {
+      throw new IOException("Rangefinder is not connected");
+    }
+
+    return reading.getDistanceCm();
+  }
+
+  /**
+   * SR-04 ultrasonic rangefinder accessor that reports failures through the
+   * status of the reading instead of throwing.
+   *
+   * @param reading
+   *          The holder to fill, not null
+   * @return The same holder
+   */
+  public RangeReading measureRange(final RangeReading reading) {
+    Objects.requireNonNull(reading, "Reading can not be null");
+
+    final Object event = HardwareEvents.beginRangePing();
+    ping(reading);
+    HardwareEvents.endRangePing(event, reading);
+
+    return reading;
+  }
+
+  private void ping(final RangeReading reading) {
     // Pulse the trigger pin for 10 microseconds
     rangeTriggerPin.setState(PinState.HIGH);
     delayMicroseconds(TRIGGER_MICROS);
@@ -148,56 +253,365 @@ abstract class AbstractRasPiRobot implements RasPiRobotBoard {
 
     // Wait for start of echo pulse from the rangefinder (rising edge of echo pin)
     if (!waitForEvent(rangeEchoPin, PinState.HIGH, ECHO_DELAY_MICROS)) {
-      throw new IOException("Rangefinder is not connected");
+      reading.set(RangeReading.NOT_CONNECTED, Float.NaN, 0);
+      return;
     }
     final long sendTime = currentTimeNanos();
 
     // Measure pulse width (time until falling edge of echo pin)
-    if (!waitForEvent(rangeEchoPin, PinState.LOW, MAX_PULSE_MICROS)) {
+    final boolean received = waitForEvent(rangeEchoPin, PinState.LOW, MAX_PULSE_MICROS);
+    final long elapsedNanos = currentTimeNanos() - sendTime;
+    final long pulseNanos = received ? echoPulseNanos(elapsedNanos) : elapsedNanos;
+    if (!received) {
       // Echo went beyond maximum measurable distance
-      return Float.POSITIVE_INFINITY;
+      reading.set(RangeReading.OUT_OF_RANGE, Float.POSITIVE_INFINITY, pulseNanos);
+      return;
     }
-    final long receiveTime = currentTimeNanos();
 
     // Compute distance traveled (halved to account for round-trip duration)
-    final long durationMicros = (receiveTime - sendTime) / (1000L * 2);
-    final float distMm = SOS_MM_MICROS * durationMicros;
+    final long durationMicros = pulseNanos / (1000L * 2);
+    final float distCm = SOS_MM_MICROS * durationMicros / 10.0f;
+
+    reading.set(distCm < RANGE_MIN_CM ? RangeReading.BELOW_MINIMUM : RangeReading.VALID, distCm, pulseNanos);
+  }
+
+  // Prefers the pulse width timed by the kernel when the GPIO chip provides it
+  private long echoPulseNanos(final long measuredNanos) {
+    if (gpioChip != null) {
+      final long kernelNanos = gpioChip.getPulseNanos(rangeEchoPin.getPin());
+      if (kernelNanos > 0) {
+        return kernelNanos;
+      }
+    }
+
+    return measuredNanos;
+  }
+
+  /**
+   * Replaces the real-time clock that the board reads, waits and sleeps on,
+   * e.g. with a {@link VirtualClock} in tests.
+   *
+   * @param clock
+   *          The clock to use, not null
+   */
+  public void setClock(final BoardClock clock) {
+    Validate.notNull(clock, "Clock can not be null");
+
+    this.clock = clock;
+  }
+
+  /**
+   * @return The clock the board reads, waits and sleeps on
+   */
+  public BoardClock getClock() {
+    return clock;
+  }
+
+  /**
+   * Replaces the wiringPi SoftPwm driver used to generate the motor PWM
+   * signals, e.g. with a {@link PwmEngine}.
+   *
+   * @param driver
+   *          The driver to use, not null
+   * @throws IllegalStateException
+   *           If the motors have already been started
+   */
+  public void setPwmDriver(final PwmDriver driver) {
+    Validate.notNull(driver, "PWM driver can not be null");
+    Validate.validState(!motorsInitialized, "PWM driver can not be changed after the motors have been started");
+
+    pwmDriver = driver;
+  }
+
+  /**
+   * Creates a transaction for updating several of the board outputs, or other
+   * output pins, together with as few GPIO operations as possible.
+   *
+   * @return A new, empty transaction
+   */
+  public GpioTransaction newTransaction() {
+    return new GpioTransaction(TRANSACTION_PINS, this);
+  }
+
+  /**
+   * Registers a listener for commands issued to this board.
+   *
+   * @param listener
+   *          The listener to add, not null
+   */
+  public void addCommandListener(final CommandListener listener) {
+    Validate.notNull(listener, "Listener can not be null");
+
+    synchronized (motorDutyLock) {
+      final CommandListener[] listeners = Arrays.copyOf(commandListeners, commandListeners.length + 1);
+      listeners[listeners.length - 1] = listener;
+      commandListeners = listeners;
+    }
+  }
+
+  /**
+   * Unregisters a listener previously passed to {@link #addCommandListener(CommandListener)}.
+   *
+   * @param listener
+   *          The listener to remove
+   */
+  public void removeCommandListener(final CommandListener listener) {
+    synchronized (motorDutyLock) {
+      final List<CommandListener> listeners = new ArrayList<>(Arrays.asList(commandListeners));
+      listeners.remove(listener);
+      commandListeners = listeners.toArray(new CommandListener[listeners.size()]);
+    }
+  }
+
+  // Commands both motors to zero speed in their current directions, as setMotors() would
+  void commandStop() {
+    final MotorDirection direction1 = m1Direction == null ? MotorDirection.FORWARD : m1Direction;
+    final MotorDirection direction2 = m2Direction == null ? MotorDirection.FORWARD : m2Direction;
+
+    setMotors(0.0f, direction1, 0.0f, direction2);
+  }
+
+  // Stops both motors without treating it as a command; directions are left unchanged
+  void stopMotors() {
+    m1Duty = 0;
+    m2Duty = 0;
+
+    writeMotorDuty(false);
+    updateIdleTimeout();
+  }
 
-    return distMm / 10.0f;
+  // Output pin that drives one of the board outputs
+  GpioPinDigitalOutput getOutputPin(final BoardOutput output) {
+    switch (output) {
+      case LED1:
+        return led1Pin;
+      case LED2:
+        return led2Pin;
+      case OC1:
+        return oc1Pin;
+      default:
+        return oc2Pin;
+    }
+  }
+
+  // Sets one of the board outputs through its public mutator
+  void setOutput(final BoardOutput output, final boolean enabled) {
+    switch (output) {
+      case LED1:
+        setLed1(enabled);
+        break;
+      case LED2:
+        setLed2(enabled);
+        break;
+      case OC1:
+        setOc1(enabled);
+        break;
+      default:
+        setOc2(enabled);
+        break;
+    }
+  }
+
+  void notifyOutputCommanded(final BoardOutput output, final boolean enabled) {
+    for (final CommandListener listener : commandListeners) {
+      listener.outputCommanded(output, enabled);
+    }
+  }
+
+  // Caps the duty cycle of any motor running forward and applies the cap immediately
+  void limitForwardDuty(final int maxDuty) {
+    forwardDutyLimit = Math.max(0, Math.min(PWM_RANGE, maxDuty));
+
+    writeMotorDuty(false);
+  }
+
+  // Duty cycle limit currently imposed on motors running forward
+  int getForwardDutyLimit() {
+    return forwardDutyLimit;
+  }
+
+  // Highest duty cycle requested by setMotors() for a motor running forward
+  int getCommandedForwardDuty() {
+    final int duty1 = m1Direction == MotorDirection.FORWARD ? m1Duty : 0;
+    final int duty2 = m2Direction == MotorDirection.FORWARD ? m2Duty : 0;
+
+    return Math.max(duty1, duty2);
+  }
+
+  // Duty cycle driving motor-1, after the forward duty limit
+  int getM1AppliedDuty() {
+    return appliedDuty(m1Duty, m1Direction);
+  }
+
+  // Duty cycle driving motor-2, after the forward duty limit
+  int getM2AppliedDuty() {
+    return appliedDuty(m2Duty, m2Direction);
+  }
+
+  private int appliedDuty(final int duty, final MotorDirection direction) {
+    return direction == MotorDirection.FORWARD ? Math.min(duty, forwardDutyLimit) : duty;
+  }
+
+  // True while the motor PWM channels are running
+  boolean isMotorPwmActive() {
+    return motorsInitialized;
+  }
+
+  // Writes the requested duty cycles to the motors, clamped by the forward duty limit, and notifies listeners
+  // Released PWM channels are restarted at zero duty first if startChannels is set, otherwise left stopped
+  private void writeMotorDuty(final boolean startChannels) {
+    synchronized (motorDutyLock) {
+      if (motorsInitialized || startChannels) {
+        if (!motorsInitialized) {
+          softPwmCreate(m1PwmPin);
+          softPwmCreate(m2PwmPin);
+          motorsInitialized = true;
+        }
+
+        final int limit = forwardDutyLimit;
+        softPwmWrite(m1PwmPin, m1Direction == MotorDirection.FORWARD ? Math.min(m1Duty, limit) : m1Duty);
+        softPwmWrite(m2PwmPin, m2Direction == MotorDirection.FORWARD ? Math.min(m2Duty, limit) : m2Duty);
+      }
+    }
+
+    final int duty1 = getM1AppliedDuty();
+    final int duty2 = getM2AppliedDuty();
+    for (final CommandListener listener : commandListeners) {
+      listener.motorDutyApplied(duty1, m1Direction, duty2, m2Direction);
+    }
+  }
+
+  /**
+   * Stops the motor PWM channels after the motors have been commanded to zero
+   * speed for the given time, so that a parked robot does not keep the PWM
+   * threads busy. The channels are restarted by the next call to
+   * {@link #setMotors(float, MotorDirection, float, MotorDirection)} with a
+   * non-zero speed; zero-speed commands leave them stopped. The time is
+   * measured on the board's clock as it is when this method is called.
+   *
+   * @param idleMillis
+   *          Time at zero speed before the channels are stopped, or zero to keep them running (the default)
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the previous idle timer to stop
+   */
+  public void setMotorIdleTimeout(final long idleMillis) throws InterruptedException {
+    Validate.isTrue(idleMillis >= 0, "Idle timeout can not be negative");
+
+    synchronized (idleLock) {
+      final TimerWheel oldWheel = idleWheel;
+      if (oldWheel != null) {
+        idleTimeout.cancel();
+        idleTimeout = null;
+        idleWheel = null;
+        oldWheel.stop();
+      }
+
+      idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+      if (idleMillis > 0) {
+        idleWheel = new TimerWheel(clock, "rrb4j-motor-idle", Math.max(1, idleMillis / IDLE_TICKS), IDLE_WHEEL_SIZE);
+        idleTimeout = idleWheel.newTimeout(this::releaseIdleMotors);
+        idleWheel.start();
+        updateIdleTimeout();
+      }
+    }
+  }
+
+  // Arms the idle timeout while both motors are stopped and their channels are running
+  private void updateIdleTimeout() {
+    final TimerWheel.Timeout timeout = idleTimeout;
+    if (timeout == null) {
+      return;
+    }
+
+    if (m1Duty == 0 && m2Duty == 0) {
+      if (motorsInitialized && !timeout.isArmed()) {
+        timeout.reset(idleNanos);
+      }
+    } else {
+      timeout.cancel();
+    }
+  }
+
+  private void releaseIdleMotors() {
+    synchronized (motorDutyLock) {
+      // A command may have raced with the timer; only release channels that are still idle
+      if (m1Duty == 0 && m2Duty == 0) {
+        releaseMotors();
+      }
+    }
+  }
+
+  private void releaseMotors() {
+    synchronized (motorDutyLock) {
+      if (motorsInitialized) {
+        softPwmStop(m1PwmPin);
+        softPwmStop(m2PwmPin);
+        motorsInitialized = false;
+      }
+    }
   }
 
   @Override
   public void shutdown() {
+    try {
+      setMotorIdleTimeout(0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    m1Duty = 0;
+    m2Duty = 0;
+    releaseMotors();
+
     gpio.shutdown();
   }
 
-  // Wrapper around SoftPwm.softPwmCreate to hide static methods
+  // Wrapper around PwmDriver.create to hide the driver
   protected void softPwmCreate(final Pin pin) {
-    SoftPwm.softPwmCreate(pin.getAddress(), 0, 100);
+    pwmDriver.create(pin);
   }
 
-  // Wrapper around SoftPwm.softPwmStop to hide static methods
+  // Wrapper around PwmDriver.stop to hide the driver
   protected void softPwmStop(final Pin pin) {
-    SoftPwm.softPwmStop(pin.getAddress());
+    pwmDriver.stop(pin);
   }
 
-  // Wrapper around SoftPwm.softPwmWrite to hide static methods
+  // Wrapper around PwmDriver.write to hide the driver
   protected void softPwmWrite(final Pin pin, final int value) {
-    SoftPwm.softPwmWrite(pin.getAddress(), value);
+    final Object event = HardwareEvents.beginPwmWrite();
+    pwmDriver.write(pin, value);
+    HardwareEvents.endPwmWrite(event, pin, value);
   }
 
-  // Wrapper around Gpio.delayMicroseconds to hide static methods
+  // Busy wait on the board's clock
   protected void delayMicroseconds(final long microseconds) {
-    Gpio.delayMicroseconds(microseconds);
+    final Object event = HardwareEvents.beginDelay();
+    clock.delayMicros(microseconds);
+    HardwareEvents.endDelay(event, microseconds);
+  }
+
+  // Sleep on the board's clock
+  protected void sleepMillis(final long millis) {
+    try {
+      clock.sleepMillis(millis);
+    } catch (InterruptedException e) {}
   }
 
-  // Wrapper around System.nanoTime to hide static methods
+  // Monotonic time of the board's clock
   protected long currentTimeNanos() {
-    return System.nanoTime();
+    return clock.nanoTime();
   }
 
   // Wait up to a specified number of microseconds for the input pin to indicate a particular value
   protected boolean waitForEvent(final GpioPinDigitalInput pin, final PinState value, final long timeoutMicros) {
+    final Object event = HardwareEvents.beginGpioWait();
+    final boolean received = pollForEvent(pin, value, timeoutMicros);
+    HardwareEvents.endGpioWait(event, pin, value, timeoutMicros, received);
+
+    return received;
+  }
+
+  private boolean pollForEvent(final GpioPinDigitalInput pin, final PinState value, final long timeoutMicros) {
     // TODO: Re-write this to use interrupts instead of software polling? This seems to be *good enough* for centimeter resolution.
     final long startTime = currentTimeNanos();
     long endTime = startTime;
@@ -0,0 +1,455 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Tick-based behavior tree that drives a board.
+ * <p>
+ * A tree is described with the static node factories, such as
+ * <code>selector(sequence(leaf(tooClose), leaf(turn)), leaf(forward))</code>,
+ * and compiled once into flat arrays in depth-first order. A tick walks the
+ * arrays by index and only calls into the {@link Behavior} objects at the edges
+ * of the tree, so it does not allocate.
+ * <p>
+ * Composites remember their running child: a sequence or selector whose
+ * child returned {@link Status#RUNNING} resumes at that child on the next
+ * tick. Leaves that take longer than a tick return {@link Status#RUNNING}
+ * until they are done; {@link AbstractAsyncAction} runs such work on its own thread
+ * so that a tick never blocks. A running leaf whose result is no longer
+ * wanted, because a parallel finished or the tree was halted, is told so
+ * through {@link Behavior#halt()}.
+ * <p>
+ * A tree is not thread-safe; tick it from a single control thread.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.LawOfDemeter"})
+public final class BehaviorTree {
+
+  // Node kinds
+  static final int KIND_LEAF = 0;
+  static final int KIND_SEQUENCE = 1;
+  static final int KIND_SELECTOR = 2;
+  static final int KIND_PARALLEL = 3;
+  static final int KIND_INVERT = 4;
+  static final int KIND_SUCCEED = 5;
+  static final int KIND_REPEAT = 6;
+
+  private final RasPiRobotBoard board;
+  private final Blackboard blackboard;
+
+  // Indexed by node, in depth-first order; a node's first child follows it and ends[] skips its subtree
+  private final int[] kinds;
+  private final int[] params;
+  private final int[] ends;
+  private final Behavior[] leaves;
+
+  // Per-node tick state: the running child or repetition, the settled result under a parallel, and whether it is running
+  private final int[] cursors;
+  private final Status[] settled;
+  private final boolean[] running;
+
+  private long ticks;
+
+  /**
+   * Compiles a tree with an empty blackboard.
+   *
+   * @param board
+   *          The board passed to every leaf, not null
+   * @param root
+   *          The root node, not null
+   */
+  public BehaviorTree(final RasPiRobotBoard board, final Subtree root) {
+    this(board, root, new Blackboard());
+  }
+
+  /**
+   * @param board
+   *          The board passed to every leaf, not null
+   * @param root
+   *          The root node, not null
+   * @param blackboard
+   *          The blackboard passed to every leaf, not null
+   */
+  public BehaviorTree(final RasPiRobotBoard board, final Subtree root, final Blackboard blackboard) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.notNull(root, "Root can not be null");
+    Validate.notNull(blackboard, "Blackboard can not be null");
+
+    this.board = board;
+    this.blackboard = blackboard;
+
+    final int size = root.size();
+    kinds = new int[size];
+    params = new int[size];
+    ends = new int[size];
+    leaves = new Behavior[size];
+    cursors = new int[size];
+    settled = new Status[size];
+    running = new boolean[size];
+
+    flatten(root, 0);
+  }
+
+  /**
+   * Result of ticking a node.
+   */
+  public enum Status {
+    SUCCESS, FAILURE, RUNNING
+  }
+
+  /**
+   * Action or condition at the edge of a tree.
+   */
+  @FunctionalInterface
+  public interface Behavior {
+    /**
+     * Performs one step of the behavior; must not block.
+     *
+     * @param board
+     *          The board driven by the tree
+     * @param blackboard
+     *          The values shared by the tree
+     * @return The result, {@link Status#RUNNING} if the behavior needs more ticks
+     */
+    Status tick(RasPiRobotBoard board, Blackboard blackboard);
+
+    /**
+     * Called instead of the next tick when the leaf returned
+     * {@link Status#RUNNING} and its result is no longer wanted.
+     */
+    default void halt() {
+      // Most leaves finish within a tick and have nothing to abandon
+    }
+  }
+
+  /**
+   * Immutable description of a subtree, compiled by the tree constructor.
+   */
+  public static final class Subtree {
+    private final int kind;
+    private final int param;
+    private final Behavior leaf;
+    private final Subtree[] children;
+
+    Subtree(final int kind, final int param, final Behavior leaf, final Subtree... children) {
+      Validate.noNullElements(children, "Children can not be null");
+
+      this.kind = kind;
+      this.param = param;
+      this.leaf = leaf;
+      this.children = children.clone();
+    }
+
+    private int size() {
+      int size = 1;
+      for (final Subtree child : children) {
+        size += child.size();
+      }
+
+      return size;
+    }
+  }
+
+  /**
+   * @param leaf
+   *          The action or condition, not null
+   * @return A node that ticks the leaf
+   */
+  public static Subtree leaf(final Behavior leaf) {
+    Validate.notNull(leaf, "Leaf can not be null");
+
+    return new Subtree(KIND_LEAF, 0, leaf);
+  }
+
+  /**
+   * @param children
+   *          At least one node
+   * @return A node that ticks its children in order until one does not succeed
+   */
+  public static Subtree sequence(final Subtree... children) {
+    Validate.notEmpty(children, "Sequence must have children");
+
+    return new Subtree(KIND_SEQUENCE, 0, null, children);
+  }
+
+  /**
+   * @param children
+   *          At least one node
+   * @return A node that ticks its children in order until one does not fail
+   */
+  public static Subtree selector(final Subtree... children) {
+    Validate.notEmpty(children, "Selector must have children");
+
+    return new Subtree(KIND_SELECTOR, 0, null, children);
+  }
+
+  /**
+   * Ticks every unfinished child on each tick. Succeeds as soon as
+   * <code>successes</code> children have succeeded and fails as soon as that
+   * is no longer possible; children still running are then halted.
+   *
+   * @param successes
+   *          Number of children that must succeed, in the range [1, number of children]
+   * @param children
+   *          At least one node
+   * @return A node that ticks its children side by side
+   */
+  public static Subtree parallel(final int successes, final Subtree... children) {
+    Validate.notEmpty(children, "Parallel must have children");
+    Validate.inclusiveBetween(1, children.length, successes, "Successes must be in the range [1, number of children]");
+
+    return new Subtree(KIND_PARALLEL, successes, null, children);
+  }
+
+  /**
+   * @param child
+   *          The decorated node, not null
+   * @return A node that swaps the success and failure of its child
+   */
+  public static Subtree invert(final Subtree child) {
+    return new Subtree(KIND_INVERT, 0, null, child);
+  }
+
+  /**
+   * @param child
+   *          The decorated node, not null
+   * @return A node that succeeds whenever its child finishes
+   */
+  public static Subtree succeed(final Subtree child) {
+    return new Subtree(KIND_SUCCEED, 0, null, child);
+  }
+
+  /**
+   * Runs its child again each time it succeeds, one run per tick at most.
+   *
+   * @param count
+   *          Number of runs after which the node succeeds, or zero to repeat forever
+   * @param child
+   *          The decorated node, not null
+   * @return A node that fails as soon as its child fails
+   */
+  public static Subtree repeat(final int count, final Subtree child) {
+    Validate.isTrue(count >= 0, "Count must not be negative");
+
+    return new Subtree(KIND_REPEAT, count, null, child);
+  }
+
+  /**
+   * Ticks the tree once from the root.
+   *
+   * @return The result of the root
+   */
+  public Status tick() {
+    ticks++;
+
+    return tickNode(0);
+  }
+
+  /**
+   * Halts every running leaf and clears the state of every node, so that
+   * the next tick starts the tree from scratch. The blackboard is kept.
+   */
+  public void halt() {
+    halt(0);
+  }
+
+  /**
+   * @return The board driven by the tree
+   */
+  public RasPiRobotBoard getBoard() {
+    return board;
+  }
+
+  /**
+   * @return The values shared by the tree
+   */
+  public Blackboard getBlackboard() {
+    return blackboard;
+  }
+
+  /**
+   * @return The number of nodes in the tree
+   */
+  public int size() {
+    return kinds.length;
+  }
+
+  /**
+   * @return The number of ticks so far
+   */
+  public long getTicks() {
+    return ticks;
+  }
+
+  // Copies a subtree into the arrays starting at index and returns the index after it
+  private int flatten(final Subtree node, final int index) {
+    kinds[index] = node.kind;
+    params[index] = node.param;
+    leaves[index] = node.leaf;
+    cursors[index] = firstCursor(node.kind, index);
+
+    int next = index + 1;
+    for (final Subtree child : node.children) {
+      next = flatten(child, next);
+    }
+    ends[index] = next;
+
+    return next;
+  }
+
+  private static int firstCursor(final int kind, final int index) {
+    return kind == KIND_SEQUENCE || kind == KIND_SELECTOR ? index + 1 : 0;
+  }
+
+  private Status tickNode(final int node) {
+    final Status status;
+    switch (kinds[node]) {
+      case KIND_LEAF:
+        status = leaves[node].tick(board, blackboard);
+        break;
+      case KIND_SEQUENCE:
+        status = tickComposite(node, Status.SUCCESS);
+        break;
+      case KIND_SELECTOR:
+        status = tickComposite(node, Status.FAILURE);
+        break;
+      case KIND_PARALLEL:
+        status = tickParallel(node);
+        break;
+      case KIND_INVERT:
+        status = invert(tickNode(node + 1));
+        break;
+      case KIND_SUCCEED:
+        status = tickNode(node + 1) == Status.RUNNING ? Status.RUNNING : Status.SUCCESS;
+        break;
+      default:
+        status = tickRepeat(node);
+        break;
+    }
+
+    running[node] = status == Status.RUNNING;
+
+    return status;
+  }
+
+  // Sequences carry on through successes and selectors through failures
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private Status tickComposite(final int node, final Status carryOn) {
+    for (int child = cursors[node]; child < ends[node]; child = ends[child]) {
+      final Status status = tickNode(child);
+      if (status == Status.RUNNING) {
+        cursors[node] = child;
+        return status;
+      }
+
+      if (status != carryOn) {
+        cursors[node] = node + 1;
+        return status;
+      }
+    }
+
+    cursors[node] = node + 1;
+
+    return carryOn;
+  }
+
+  private Status tickParallel(final int node) {
+    int children = 0;
+    int successes = 0;
+    int failures = 0;
+    for (int child = node + 1; child < ends[node]; child = ends[child]) {
+      if (settled[child] == null) {
+        final Status status = tickNode(child);
+        if (status != Status.RUNNING) {
+          settled[child] = status;
+        }
+      }
+
+      children++;
+      if (settled[child] == Status.SUCCESS) {
+        successes++;
+      } else if (settled[child] == Status.FAILURE) {
+        failures++;
+      }
+    }
+
+    if (successes >= params[node]) {
+      haltChildren(node);
+      return Status.SUCCESS;
+    }
+
+    if (failures > children - params[node]) {
+      haltChildren(node);
+      return Status.FAILURE;
+    }
+
+    return Status.RUNNING;
+  }
+
+  private Status tickRepeat(final int node) {
+    final Status status = tickNode(node + 1);
+    if (status == Status.FAILURE) {
+      cursors[node] = 0;
+      return status;
+    }
+
+    if (status == Status.SUCCESS) {
+      cursors[node]++;
+      if (params[node] > 0 && cursors[node] >= params[node]) {
+        cursors[node] = 0;
+        return status;
+      }
+    }
+
+    return Status.RUNNING;
+  }
+
+  private static Status invert(final Status status) {
+    if (status == Status.SUCCESS) {
+      return Status.FAILURE;
+    }
+
+    return status == Status.FAILURE ? Status.SUCCESS : status;
+  }
+
+  private void haltChildren(final int node) {
+    for (int child = node + 1; child < ends[node]; child = ends[child]) {
+      halt(child);
+    }
+  }
+
+  // Subtrees are contiguous, so halting one is a scan over its index range
+  private void halt(final int node) {
+    for (int i = node; i < ends[node]; i++) {
+      if (running[i] && kinds[i] == KIND_LEAF) {
+        leaves[i].halt();
+      }
+
+      running[i] = false;
+      settled[i] = null;
+      cursors[i] = firstCursor(kinds[i], i);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Named values shared by the nodes of a {@link BehaviorTree}.
+ * <p>
+ * Names are resolved to integer keys once, while the tree is being set up;
+ * reading and writing by key during a tick is a plain array access. Values
+ * are floats and read as <code>Float#NaN</code> until they are first set, so
+ * flags are stored as 0 or 1. A blackboard belongs to the thread that ticks
+ * its tree and is not thread-safe.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class Blackboard {
+  private final Map<String, Integer> keys = new HashMap<>();
+  private float[] values = new float[0];
+
+  /**
+   * Resolves a name to its key, defining it if necessary.
+   *
+   * @param name
+   *          The name of the value, not blank
+   * @return The key of the value
+   */
+  public int key(final String name) {
+    Validate.notBlank(name, "Name can not be blank");
+
+    final Integer existing = keys.get(name);
+    if (existing != null) {
+      return existing;
+    }
+
+    final int key = values.length;
+    values = Arrays.copyOf(values, key + 1);
+    values[key] = Float.NaN;
+    keys.put(name, key);
+
+    return key;
+  }
+
+  /**
+   * @param key
+   *          A key returned by {@link #key(String)}
+   * @return The value, or <code>Float#NaN</code> if it has not been set
+   */
+  public float get(final int key) {
+    return values[key];
+  }
+
+  /**
+   * @param key
+   *          A key returned by {@link #key(String)}
+   * @param value
+   *          The new value
+   */
+  public void set(final int key, final float value) {
+    values[key] = value;
+  }
+
+  /**
+   * @param key
+   *          A key returned by {@link #key(String)}
+   * @return True if the value is 1
+   */
+  public boolean isSet(final int key) {
+    return values[key] == 1.0f;
+  }
+
+  /**
+   * @param key
+   *          A key returned by {@link #key(String)}
+   * @param flag
+   *          Stored as 1 if true, otherwise 0
+   */
+  public void set(final int key, final boolean flag) {
+    values[key] = flag ? 1.0f : 0.0f;
+  }
+
+  /**
+   * Sets every value back to <code>Float#NaN</code>, keeping the keys.
+   */
+  public void clear() {
+    Arrays.fill(values, Float.NaN);
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Source of time for the board: monotonic time, short busy delays and
+ * sleeps.
+ * <p>
+ * Boards use {@link #SYSTEM} unless another clock is set with
+ * {@link RasPiRobot3#setClock(BoardClock)}. Tests set a {@link VirtualClock}
+ * so that range measurements, the H-bridge dead time and anything else that
+ * reads the board's time run instantly and deterministically.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public interface BoardClock {
+
+  /**
+   * Real time: {@link System#nanoTime()}, busy waits and
+   * {@link Thread#sleep(long)}.
+   */
+  BoardClock SYSTEM = new BoardClock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public void delayMicros(final long micros) {
+      // Sleeping would overshoot delays this short by far more than their length
+      final long deadline = System.nanoTime() + 1000L * micros;
+      long now = System.nanoTime();
+      while (now - deadline < 0) {
+        now = System.nanoTime();
+      }
+    }
+
+    @Override
+    public void sleepMillis(final long millis) throws InterruptedException {
+      Thread.sleep(millis);
+    }
+  };
+
+  /**
+   * @return The current time in nanoseconds, only meaningful relative to
+   *         other readings of the same clock
+   */
+  long nanoTime();
+
+  /**
+   * Waits without giving up the processor, for delays of a few microseconds.
+   *
+   * @param micros
+   *          The number of microseconds to wait
+   */
+  void delayMicros(long micros);
+
+  /**
+   * Waits while other threads run.
+   *
+   * @param millis
+   *          The number of milliseconds to wait
+   * @throws InterruptedException
+   *           If the waiting thread is interrupted
+   */
+  void sleepMillis(long millis) throws InterruptedException;
+}
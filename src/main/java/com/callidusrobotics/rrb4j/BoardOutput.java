@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Digital outputs of the board that applications switch on and off.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public enum BoardOutput {
+  LED1, LED2, OC1, OC2
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the work of a scheduler as it falls due on a {@link BoardClock}.
+ * <p>
+ * The scheduler supplies a step that does whatever work is due and returns
+ * the clock time at which its next work falls due, {@link #IDLE} if it has
+ * none until {@link #wake()} is called, or {@link #FINISHED} to end the loop. On
+ * a real clock the steps run on a daemon thread of the loop's own, which
+ * parks between them. On a {@link VirtualClock} there is no thread: each
+ * step is scheduled on the clock and runs on the thread that advances the
+ * clock to its time, and {@link #start()} and {@link #wake()} run a step at
+ * once on the calling thread, so tests drive the scheduler deterministically
+ * with {@link VirtualClock#advance(long)}.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+final class ClockLoop {
+
+  /**
+   * Returned by a step that has no work until the loop is woken.
+   */
+  static final long IDLE = Long.MAX_VALUE;
+
+  /**
+   * Returned by a step to end the loop.
+   */
+  static final long FINISHED = Long.MIN_VALUE;
+
+  // Generation passed by wake(), which steps whatever was scheduled
+  private static final long ANY_GENERATION = -1;
+
+  private final BoardClock clock;
+  private final String name;
+  private final int priority;
+  private final LongSupplier step;
+  private final Object lifecycleLock = new Object();
+  private final Object stepLock = new Object();
+
+  private volatile boolean running;
+  private volatile Thread thread;
+
+  // Number of steps run on a virtual clock; steps scheduled before the latest one are skipped
+  private long generation;
+
+  /**
+   * @param clock
+   *          The clock the work falls due on
+   * @param name
+   *          Name of the thread that runs the steps on a real clock
+   * @param priority
+   *          Priority of that thread
+   * @param step
+   *          Does the work that is due and returns when the next work falls due
+   */
+  ClockLoop(final BoardClock clock, final String name, final int priority, final LongSupplier step) {
+    this.clock = clock;
+    this.name = name;
+    this.priority = priority;
+    this.step = step;
+  }
+
+  void start() {
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      running = true;
+      if (!(clock instanceof VirtualClock)) {
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        thread.start();
+        return;
+      }
+    }
+
+    wake();
+  }
+
+  // Runs a step now rather than when the last step asked to be run
+  void wake() {
+    if (clock instanceof VirtualClock) {
+      ((VirtualClock) clock).runLocked(() -> stepVirtual(ANY_GENERATION));
+    } else {
+      final Thread current = thread;
+      if (current != null) {
+        LockSupport.unpark(current);
+      }
+    }
+  }
+
+  void stop() throws InterruptedException {
+    final Thread stopped;
+    synchronized (lifecycleLock) {
+      running = false;
+      stopped = thread;
+      thread = null;
+    }
+
+    if (stopped != null && stopped != Thread.currentThread()) {
+      LockSupport.unpark(stopped);
+      stopped.join();
+    }
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  BoardClock getClock() {
+    return clock;
+  }
+
+  private void run() {
+    ThreadPlacement.placeCurrentThread();
+    while (running) {
+      final long next = step.getAsLong();
+      if (next == FINISHED) {
+        running = false;
+      } else if (next == IDLE) {
+        LockSupport.park(this);
+      } else {
+        final long remaining = next - clock.nanoTime();
+        if (remaining > 0) {
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+    }
+  }
+
+  // Called with the virtual clock's lock held
+  private void stepVirtual(final long expected) {
+    synchronized (stepLock) {
+      if (!running || expected != ANY_GENERATION && expected != generation) {
+        return;
+      }
+
+      final long next = step.getAsLong();
+      final long scheduled = ++generation;
+      if (next == FINISHED) {
+        running = false;
+      } else if (next != IDLE && running) {
+        final VirtualClock virtualClock = (VirtualClock) clock;
+        virtualClock.schedule(Math.max(0, next - virtualClock.peekNanos()), () -> stepVirtual(scheduled));
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Receives the commands that applications issue to a board, and the motor
+ * duty cycles the board applies.
+ * <p>
+ * Listeners are called synchronously on the commanding thread after the
+ * command or duty cycle has been applied, so implementations must return
+ * quickly.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public interface CommandListener {
+
+  /**
+   * Called after each call to <code>setMotors()</code>.
+   *
+   * @param m1Duty
+   *          Duty cycle requested for motor-1 after voltage scaling, in the range [0, 100]
+   * @param m1Direction
+   *          Direction of rotation of motor-1
+   * @param m2Duty
+   *          Duty cycle requested for motor-2 after voltage scaling, in the range [0, 100]
+   * @param m2Direction
+   *          Direction of rotation of motor-2
+   */
+  default void motorsCommanded(int m1Duty, MotorDirection m1Direction, int m2Duty, MotorDirection m2Direction) {
+    // Ignored unless overridden
+  }
+
+  /**
+   * Called after each write of the duty cycles driving the motors. Unlike
+   * {@link #motorsCommanded(int, MotorDirection, int, MotorDirection)} this
+   * also reports changes the board makes without a command, such as the
+   * zero duty written before a change of direction, the watchdog stop and
+   * the proximity reflex's forward limit.
+   *
+   * @param m1Duty
+   *          Duty cycle driving motor-1 after voltage scaling and any forward duty limit, in the range [0, 100]
+   * @param m1Direction
+   *          Direction of rotation of motor-1, or null if the motors have never been commanded
+   * @param m2Duty
+   *          Duty cycle driving motor-2 after voltage scaling and any forward duty limit, in the range [0, 100]
+   * @param m2Direction
+   *          Direction of rotation of motor-2, or null if the motors have never been commanded
+   */
+  default void motorDutyApplied(int m1Duty, MotorDirection m1Direction, int m2Duty, MotorDirection m2Direction) {
+    // Ignored unless overridden
+  }
+
+  /**
+   * Called after each call to one of the LED or OC mutators.
+   *
+   * @param output
+   *          The output that was set
+   * @param enabled
+   *          True if the output was turned on
+   */
+  default void outputCommanded(BoardOutput output, boolean enabled) {
+    // Ignored unless overridden
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Deadman watchdog that brakes the motors and switches off the open
+ * collectors when the application stops sending commands.
+ * <p>
+ * Every call to <code>setMotors()</code> that leaves a motor running re-arms
+ * the motor timeout; every call that turns an OC on re-arms the timeout for
+ * that OC. Commands that stop the motors or turn an OC off disarm the
+ * corresponding timeout. When a timeout expires the watchdog stops the
+ * motors, or turns the OC off, and logs the trip with its timestamps.
+ * <p>
+ * Timeouts are kept on a {@link TimerWheel}, so re-arming on every command
+ * costs a single volatile write. The wheel runs on the board's clock as it
+ * was when the watchdog was created, so on a {@link VirtualClock} the
+ * watchdog trips while the clock is advanced.
+ * <p>
+ * The watchdog can not tell the application's commands from those of the
+ * library's own loops. A running {@link SpeedController}, {@link ScriptRunner}
+ * or {@link PatternEngine} commands the board on its own schedule and keeps
+ * the watchdog re-armed after the application has gone quiet, so these
+ * helpers must not be relied on to run under the watchdog: the application
+ * has to stop them itself when it stops driving them.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public class CommandWatchdog implements CommandListener {
+
+  /**
+   * Default number of milliseconds without a command before the watchdog trips.
+   */
+  public static final long DEFAULT_MILLIS = 500;
+
+  private static final Logger LOGGER = Logger.getLogger(CommandWatchdog.class.getName());
+
+  // Number of ticks per timeout, which bounds how late a trip can be
+  private static final int TICKS_PER_TIMEOUT = 10;
+
+  private final RasPiRobot3 board;
+  private final long motorTimeoutNanos;
+  private final long ocTimeoutNanos;
+  private final TimerWheel wheel;
+  private final TimerWheel.Timeout motorTimeout;
+  private final Map<BoardOutput, TimerWheel.Timeout> ocTimeouts = new EnumMap<>(BoardOutput.class);
+  private final AtomicLong tripCount = new AtomicLong();
+  private volatile long lastTripMillis;
+
+  /**
+   * Uses the default timeout of {@value #DEFAULT_MILLIS} ms for both the motors and the OCs.
+   *
+   * @param board
+   *          The board to guard, not null
+   */
+  public CommandWatchdog(final RasPiRobot3 board) {
+    this(board, DEFAULT_MILLIS, DEFAULT_MILLIS);
+  }
+
+  /**
+   * @param board
+   *          The board to guard, not null
+   * @param motorTimeoutMs
+   *          Milliseconds without a motor command before the motors are stopped, must be positive
+   * @param ocTimeoutMs
+   *          Milliseconds without an OC command before an enabled OC is turned off, or zero to leave the OCs unguarded
+   */
+  public CommandWatchdog(final RasPiRobot3 board, final long motorTimeoutMs, final long ocTimeoutMs) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.isTrue(motorTimeoutMs > 0, "Motor timeout must be positive");
+    Validate.isTrue(ocTimeoutMs >= 0, "OC timeout must not be negative");
+
+    this.board = board;
+    this.motorTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(motorTimeoutMs);
+    this.ocTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ocTimeoutMs);
+
+    final long shortestMillis = ocTimeoutMs == 0 ? motorTimeoutMs : Math.min(motorTimeoutMs, ocTimeoutMs);
+    wheel = new TimerWheel(board.getClock(), "rrb4j-watchdog", Math.max(1, shortestMillis / TICKS_PER_TIMEOUT), 64);
+
+    motorTimeout = wheel.newTimeout(this::tripMotors);
+    ocTimeouts.put(BoardOutput.OC1, wheel.newTimeout(() -> tripOutput(BoardOutput.OC1)));
+    ocTimeouts.put(BoardOutput.OC2, wheel.newTimeout(() -> tripOutput(BoardOutput.OC2)));
+  }
+
+  /**
+   * Starts watching commands issued to the board.
+   */
+  public void start() {
+    board.addCommandListener(this);
+    wheel.start();
+  }
+
+  /**
+   * Stops watching commands; pending timeouts are discarded.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the timer to stop
+   */
+  public void stop() throws InterruptedException {
+    board.removeCommandListener(this);
+    motorTimeout.cancel();
+    for (final TimerWheel.Timeout timeout : ocTimeouts.values()) {
+      timeout.cancel();
+    }
+
+    wheel.stop();
+  }
+
+  /**
+   * @return The number of times the watchdog has tripped
+   */
+  public long getTripCount() {
+    return tripCount.get();
+  }
+
+  /**
+   * @return Wall-clock time of the most recent trip in epoch milliseconds, or zero if it never tripped
+   */
+  public long getLastTripMillis() {
+    return lastTripMillis;
+  }
+
+  /**
+   * @return True if the motors are running and the motor timeout is armed
+   */
+  public boolean isMotorTimeoutArmed() {
+    return motorTimeout.isArmed();
+  }
+
+  @Override
+  public void motorsCommanded(final int m1Duty, final MotorDirection m1Direction, final int m2Duty, final MotorDirection m2Direction) {
+    if (m1Duty == 0 && m2Duty == 0) {
+      motorTimeout.cancel();
+    } else {
+      motorTimeout.reset(motorTimeoutNanos);
+    }
+  }
+
+  @Override
+  public void outputCommanded(final BoardOutput output, final boolean enabled) {
+    final TimerWheel.Timeout timeout = ocTimeouts.get(output);
+    if (timeout == null || ocTimeoutNanos == 0) {
+      return;
+    }
+
+    if (enabled) {
+      timeout.reset(ocTimeoutNanos);
+    } else {
+      timeout.cancel();
+    }
+  }
+
+  private void tripMotors() {
+    board.stopMotors();
+    logTrip("motors", motorTimeout, motorTimeoutNanos);
+  }
+
+  private void tripOutput(final BoardOutput output) {
+    board.setOutput(output, false);
+    logTrip(output.name(), ocTimeouts.get(output), ocTimeoutNanos);
+  }
+
+  private void logTrip(final String channel, final TimerWheel.Timeout timeout, final long timeoutNanos) {
+    final long nowMillis = System.currentTimeMillis();
+    final long silentMillis = TimeUnit.NANOSECONDS.toMillis(wheel.getClock().nanoTime() - (timeout.getDeadlineNanos() - timeoutNanos));
+
+    tripCount.incrementAndGet();
+    lastTripMillis = nowMillis;
+
+    LOGGER.warning(String.format("Watchdog tripped at %s: no %s command since %s (%d ms, timeout %d ms)",
+        Instant.ofEpochMilli(nowMillis), channel, Instant.ofEpochMilli(nowMillis - silentMillis), silentMillis, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Reads a gamepad straight from its Linux event device and feeds a
+ * {@link GamepadMapping}.
+ * <p>
+ * Records of the kernel's <code>struct input_event</code> are read from
+ * <code>/dev/input/eventN</code> through a {@link FileChannel} into a direct
+ * buffer that is reused for every read, so nothing is allocated per event.
+ * Axis and button events update the mapping, and each
+ * <code>SYN_REPORT</code> applies it, so the commands for one physical
+ * change go out together as soon as the kernel has delivered it. After a
+ * <code>SYN_DROPPED</code> the events up to the next report are discarded,
+ * as the kernel documentation requires.
+ * <p>
+ * Any file with the same record layout can be read, such as a recording of
+ * a device or a FIFO that replays one; input ends at the end of the file.
+ * However the input ends, including a read error when the gamepad is
+ * unplugged, the axes are centred and the buttons released so that the robot
+ * does not keep driving on its last command.
+ * The record size depends on the kernel's word size and can be given
+ * explicitly when replaying a recording from another machine.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public class GamepadInput {
+
+  /**
+   * Size in bytes of an input event on a 32-bit kernel.
+   */
+  public static final int EVENT_SIZE_32 = 16;
+
+  /**
+   * Size in bytes of an input event on a 64-bit kernel.
+   */
+  public static final int EVENT_SIZE_64 = 24;
+
+  // Event types and codes from linux/input-event-codes.h
+  static final int EV_SYN = 0x00;
+  static final int EV_KEY = 0x01;
+  static final int EV_ABS = 0x03;
+  static final int SYN_REPORT = 0;
+  static final int SYN_DROPPED = 3;
+
+  // Number of events read at most by one system call
+  static final int BATCH_EVENTS = 64;
+
+  private final Path device;
+  private final GamepadMapping mapping;
+  private final int eventSize;
+  private final ByteBuffer buffer;
+  private final TimingStats latencyStats = new TimingStats();
+  private final Object lifecycleLock = new Object();
+
+  // Counted by the reader, then published through the volatile fields
+  private long decoded;
+  private long dropped;
+  private boolean dropping;
+
+  private volatile long eventCount;
+  private volatile long droppedReports;
+  private volatile boolean running;
+  private FileChannel channel;
+  private Thread thread;
+
+  /**
+   * Uses the record size of the running JVM's word size.
+   *
+   * @param device
+   *          The event device or recording to read, not null
+   * @param mapping
+   *          The mapping to feed, not null
+   */
+  public GamepadInput(final Path device, final GamepadMapping mapping) {
+    this(device, mapping, "64".equals(System.getProperty("sun.arch.data.model")) ? EVENT_SIZE_64 : EVENT_SIZE_32);
+  }
+
+  /**
+   * @param device
+   *          The event device or recording to read, not null
+   * @param mapping
+   *          The mapping to feed, not null
+   * @param eventSize
+   *          Size of an input event record, {@link #EVENT_SIZE_32} or {@link #EVENT_SIZE_64}
+   */
+  public GamepadInput(final Path device, final GamepadMapping mapping, final int eventSize) {
+    Validate.notNull(device, "Device can not be null");
+    Validate.notNull(mapping, "Mapping can not be null");
+    Validate.isTrue(eventSize == EVENT_SIZE_32 || eventSize == EVENT_SIZE_64, "Event size must be %d or %d", EVENT_SIZE_32, EVENT_SIZE_64);
+
+    this.device = device;
+    this.mapping = mapping;
+    this.eventSize = eventSize;
+    this.buffer = ByteBuffer.allocateDirect(eventSize * BATCH_EVENTS).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Opens the device and starts reading it on a dedicated maximum-priority thread.
+   *
+   * @throws IOException
+   *           If the device can not be opened
+   */
+  public void start() throws IOException {
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      channel = FileChannel.open(device, StandardOpenOption.READ);
+      running = true;
+      thread = new Thread(this::run, "rrb4j-gamepad");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops reading and closes the device. The axes are centred and the buttons
+   * released, so the motors stop and held outputs turn off.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the reader to stop
+   */
+  public void stop() throws InterruptedException {
+    final Thread reader;
+    synchronized (lifecycleLock) {
+      reader = thread;
+      thread = null;
+      running = false;
+    }
+
+    if (reader != null) {
+      // Interrupting a thread blocked on a file channel closes the channel and wakes it up
+      reader.interrupt();
+      reader.join();
+    }
+  }
+
+  /**
+   * @return True until the reader is stopped or reaches the end of its input
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return The number of input events decoded
+   */
+  public long getEventCount() {
+    return eventCount;
+  }
+
+  /**
+   * @return The number of reports discarded because the kernel's buffer overflowed
+   */
+  public long getDroppedReports() {
+    return droppedReports;
+  }
+
+  /**
+   * Input latency: the time from the read that delivered a report returning
+   * until the commands it caused have been sent to the board.
+   *
+   * @return The latency statistics, updated live
+   */
+  public TimingStats getLatencyStats() {
+    return latencyStats;
+  }
+
+  private void run() {
+    ThreadPlacement.placeCurrentThread();
+    try {
+      pump(channel);
+    } catch (final ClosedChannelException e) {
+      // stop() closed the channel under a blocked read
+    } catch (final IOException e) {
+      // A gamepad unplugged mid-read; stop like at the end of the input
+    } finally {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        // Nothing left to read from it either way
+      }
+
+      try {
+        // Without input the last command would stand, so let go of the sticks and buttons
+        mapping.release();
+        mapping.apply();
+      } finally {
+        running = false;
+      }
+    }
+  }
+
+  // Decodes records until the end of the input; a record split across reads is completed by the next read
+  void pump(final FileChannel input) throws IOException {
+    buffer.clear();
+    while (input.read(buffer) >= 0) {
+      final long readNanos = System.nanoTime();
+      buffer.flip();
+      while (buffer.remaining() >= eventSize) {
+        decode(buffer.position(), readNanos);
+        buffer.position(buffer.position() + eventSize);
+      }
+      buffer.compact();
+
+      eventCount = decoded;
+      droppedReports = dropped;
+    }
+  }
+
+  // Fields follow the kernel's struct timeval, which is two words
+  private void decode(final int offset, final long readNanos) {
+    final int typeOffset = offset + eventSize - 8;
+    final int type = buffer.getShort(typeOffset) & 0xFFFF;
+    final int code = buffer.getShort(typeOffset + 2) & 0xFFFF;
+    final int value = buffer.getInt(typeOffset + 4);
+    decoded++;
+
+    if (type == EV_SYN) {
+      synchronize(code, readNanos);
+    } else if (!dropping) {
+      if (type == EV_ABS) {
+        mapping.axisMoved(code, value);
+      } else if (type == EV_KEY && value != 2) {
+        // A value of 2 is autorepeat of a held button
+        mapping.buttonChanged(code, value != 0);
+      }
+    }
+  }
+
+  private void synchronize(final int code, final long readNanos) {
+    if (code == SYN_DROPPED) {
+      dropping = true;
+      dropped++;
+    } else if (code == SYN_REPORT) {
+      if (dropping) {
+        dropping = false;
+      } else if (mapping.apply() > 0) {
+        latencyStats.record(System.nanoTime() - readNanos);
+      }
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Maps gamepad axes and buttons to board commands.
+ * <p>
+ * Two axes drive the motors arcade style: the throttle axis sets the common
+ * speed and the steering axis the difference between the left (M1) and right
+ * (M2) motors. Each axis is normalized from its raw range to [-1, 1], then a
+ * deadzone around the centre is cut out and the remainder rescaled, and
+ * finally an exponential curve <code>(1 - expo) * x + expo * x^3</code> is
+ * applied so that small deflections give fine control. Buttons switch board
+ * outputs, either while held or toggled on each press.
+ * <p>
+ * Input events update the gamepad state; {@link #apply()} then sends only
+ * the commands whose result changed since the last one sent, so an idle
+ * stick or a jittering axis inside the deadzone costs no GPIO writes. Motor
+ * speeds are compared at the resolution of the PWM duty cycle.
+ * <p>
+ * Configure the mapping before input starts; it is then used by the input
+ * thread alone.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class GamepadMapping {
+
+  /**
+   * Left stick horizontal axis.
+   */
+  public static final int ABS_X = 0x00;
+
+  /**
+   * Left stick vertical axis, negative when pushed forward.
+   */
+  public static final int ABS_Y = 0x01;
+
+  /**
+   * Right stick horizontal axis.
+   */
+  public static final int ABS_RX = 0x03;
+
+  /**
+   * Right stick vertical axis, negative when pushed forward.
+   */
+  public static final int ABS_RY = 0x04;
+
+  /**
+   * Bottom face button (A on Xbox layouts).
+   */
+  public static final int BTN_SOUTH = 0x130;
+
+  /**
+   * Right face button (B on Xbox layouts).
+   */
+  public static final int BTN_EAST = 0x131;
+
+  /**
+   * Top face button (Y on Xbox layouts).
+   */
+  public static final int BTN_NORTH = 0x133;
+
+  /**
+   * Left face button (X on Xbox layouts).
+   */
+  public static final int BTN_WEST = 0x134;
+
+  /**
+   * Default raw axis minimum, that of most USB gamepads' sticks.
+   */
+  public static final int AXIS_DEFAULT_MIN = -32768;
+
+  /**
+   * Default raw axis maximum, that of most USB gamepads' sticks.
+   */
+  public static final int AXIS_DEFAULT_MAX = 32767;
+
+  /**
+   * Default proportion of each axis around the centre that reads as zero.
+   */
+  public static final float DEADZONE_DEFAULT = 0.1f;
+
+  // Number of absolute axis and key codes defined by the kernel
+  static final int ABS_COUNT = 0x40;
+  static final int KEY_COUNT = 0x300;
+
+  private static final BoardOutput[] OUTPUTS = BoardOutput.values();
+
+  private final RasPiRobotBoard board;
+
+  // Axis configuration and normalized state, indexed by axis code
+  private final int[] axisMins = new int[ABS_COUNT];
+  private final int[] axisMaxs = new int[ABS_COUNT];
+  private final float[] deadzones = new float[ABS_COUNT];
+  private final float[] expos = new float[ABS_COUNT];
+  private final boolean[] inverted = new boolean[ABS_COUNT];
+  private final float[] axisValues = new float[ABS_COUNT];
+
+  // Button configuration, indexed by key code
+  private final BoardOutput[] buttonOutputs = new BoardOutput[KEY_COUNT];
+  private final boolean[] toggles = new boolean[KEY_COUNT];
+
+  // Desired and last sent output states, indexed by output ordinal
+  private final boolean[] outputs = new boolean[OUTPUTS.length];
+  private final boolean[] sentOutputs = new boolean[outputs.length];
+
+  private int throttleAxis = ABS_Y;
+  private int steerAxis = ABS_X;
+  private int sentM1Duty;
+  private int sentM2Duty;
+  private long commandCount;
+
+  /**
+   * Drives with the left stick: every axis has the default range and
+   * deadzone and a linear curve, and forward on {@link #ABS_Y} is inverted
+   * so that it drives forward. No buttons are mapped.
+   *
+   * @param board
+   *          The board to command, not null
+   */
+  public GamepadMapping(final RasPiRobotBoard board) {
+    Validate.notNull(board, "Board can not be null");
+    this.board = board;
+
+    Arrays.fill(axisMins, AXIS_DEFAULT_MIN);
+    Arrays.fill(axisMaxs, AXIS_DEFAULT_MAX);
+    Arrays.fill(deadzones, DEADZONE_DEFAULT);
+    inverted[ABS_Y] = true;
+    inverted[ABS_RY] = true;
+  }
+
+  /**
+   * @param throttleAxis
+   *          Code of the axis that drives forward and back
+   * @param steerAxis
+   *          Code of the axis that steers, positive to the right
+   */
+  public void setDriveAxes(final int throttleAxis, final int steerAxis) {
+    Validate.inclusiveBetween(0, ABS_COUNT - 1, throttleAxis, "Unknown throttle axis %d", throttleAxis);
+    Validate.inclusiveBetween(0, ABS_COUNT - 1, steerAxis, "Unknown steering axis %d", steerAxis);
+
+    this.throttleAxis = throttleAxis;
+    this.steerAxis = steerAxis;
+  }
+
+  /**
+   * @param code
+   *          Code of the axis
+   * @param min
+   *          Raw value at full deflection in the negative direction
+   * @param max
+   *          Raw value at full deflection in the positive direction, must be greater than min
+   * @param deadzone
+   *          Proportion of the axis around the centre that reads as zero, valid values in the range [0, 1)
+   * @param expo
+   *          Weight of the cubic term of the curve, valid values in the range [0, 1]
+   * @param invert
+   *          True to swap the directions of the axis
+   */
+  public void configureAxis(final int code, final int min, final int max, final float deadzone, final float expo, final boolean invert) {
+    Validate.inclusiveBetween(0, ABS_COUNT - 1, code, "Unknown axis %d", code);
+    Validate.isTrue(max > min, "Maximum must be greater than minimum");
+    Validate.isTrue(deadzone >= 0.0f && deadzone < 1.0f, "Deadzone must be in the range [0, 1)");
+    Validate.inclusiveBetween(0.0, 1.0, expo, "Expo must be in the range [0, 1]");
+
+    axisMins[code] = min;
+    axisMaxs[code] = max;
+    deadzones[code] = deadzone;
+    expos[code] = expo;
+    inverted[code] = invert;
+  }
+
+  /**
+   * @param code
+   *          Code of the button
+   * @param output
+   *          The output the button switches, or null to unmap the button
+   * @param toggle
+   *          True to toggle the output on each press, false to keep it on while the button is held
+   */
+  public void mapButton(final int code, final BoardOutput output, final boolean toggle) {
+    Validate.inclusiveBetween(0, KEY_COUNT - 1, code, "Unknown button %d", code);
+
+    buttonOutputs[code] = output;
+    toggles[code] = toggle;
+  }
+
+  /**
+   * @param code
+   *          Code of the axis
+   * @return The shaped position of the axis in the range [-1, 1]
+   */
+  public float getAxis(final int code) {
+    return axisValues[code];
+  }
+
+  /**
+   * @return The number of board commands sent
+   */
+  public long getCommandCount() {
+    return commandCount;
+  }
+
+  // Records the raw position of an axis; codes the kernel does not define are ignored
+  void axisMoved(final int code, final int value) {
+    if (code >= 0 && code < ABS_COUNT) {
+      axisValues[code] = shape(code, value);
+    }
+  }
+
+  // Records a button press or release; autorepeat is not reported here
+  void buttonChanged(final int code, final boolean pressed) {
+    if (code < 0 || code >= KEY_COUNT || buttonOutputs[code] == null) {
+      return;
+    }
+
+    final int output = buttonOutputs[code].ordinal();
+    if (toggles[code]) {
+      outputs[output] ^= pressed;
+    } else {
+      outputs[output] = pressed;
+    }
+  }
+
+  // Centres every axis and releases every button, as if the gamepad had been let go
+  void release() {
+    Arrays.fill(axisValues, 0.0f);
+    for (int code = 0; code < KEY_COUNT; code++) {
+      buttonChanged(code, false);
+    }
+  }
+
+  /**
+   * Sends the commands whose result changed since they were last sent.
+   *
+   * @return The number of commands sent
+   */
+  public int apply() {
+    int sent = applyOutputs();
+
+    final float throttle = axisValues[throttleAxis];
+    final float steer = axisValues[steerAxis];
+    float m1Speed = throttle + steer;
+    float m2Speed = throttle - steer;
+
+    // Scale both sides alike so that steering at full throttle keeps the ratio between them
+    final float peak = Math.max(Math.abs(m1Speed), Math.abs(m2Speed));
+    if (peak > 1.0f) {
+      m1Speed /= peak;
+      m2Speed /= peak;
+    }
+
+    final int m1Duty = Math.round(m1Speed * AbstractRasPiRobot.PWM_RANGE);
+    final int m2Duty = Math.round(m2Speed * AbstractRasPiRobot.PWM_RANGE);
+    if (m1Duty != sentM1Duty || m2Duty != sentM2Duty) {
+      board.setMotors(speedOf(m1Duty), directionOf(m1Duty), speedOf(m2Duty), directionOf(m2Duty));
+      sentM1Duty = m1Duty;
+      sentM2Duty = m2Duty;
+      sent++;
+    }
+
+    commandCount += sent;
+
+    return sent;
+  }
+
+  private int applyOutputs() {
+    int sent = 0;
+    for (int i = 0; i < outputs.length; i++) {
+      if (outputs[i] != sentOutputs[i]) {
+        setOutput(OUTPUTS[i], outputs[i]);
+        sentOutputs[i] = outputs[i];
+        sent++;
+      }
+    }
+
+    return sent;
+  }
+
+  private void setOutput(final BoardOutput output, final boolean enabled) {
+    switch (output) {
+      case LED1:
+        board.setLed1(enabled);
+        break;
+      case LED2:
+        board.setLed2(enabled);
+        break;
+      case OC1:
+        board.setOc1(enabled);
+        break;
+      default:
+        board.setOc2(enabled);
+        break;
+    }
+  }
+
+  private float shape(final int code, final int value) {
+    final float centre = (axisMins[code] + (float) axisMaxs[code]) / 2.0f;
+    final float halfRange = (axisMaxs[code] - (float) axisMins[code]) / 2.0f;
+    float position = Math.max(-1.0f, Math.min(1.0f, (value - centre) / halfRange));
+    if (inverted[code]) {
+      position = -position;
+    }
+
+    final float magnitude = Math.abs(position);
+    final float deadzone = deadzones[code];
+    if (magnitude <= deadzone) {
+      return 0.0f;
+    }
+
+    final float rescaled = Math.copySign((magnitude - deadzone) / (1.0f - deadzone), position);
+    final float expo = expos[code];
+
+    return (1.0f - expo) * rescaled + expo * rescaled * rescaled * rescaled;
+  }
+
+  private static float speedOf(final int duty) {
+    return (float) Math.abs(duty) / AbstractRasPiRobot.PWM_RANGE;
+  }
+
+  private static MotorDirection directionOf(final int duty) {
+    return duty < 0 ? MotorDirection.REVERSE : MotorDirection.FORWARD;
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.pi4j.io.gpio.PinPullResistance;
+
+/**
+ * The ioctl layer of a Linux GPIO character device (<code>/dev/gpiochipN</code>)
+ * used by {@link GpioChipProvider}.
+ * <p>
+ * Each method corresponds to one call of the kernel's line handle and line
+ * event API, so the provider can be tested without a real chip. Handles are
+ * the file descriptors returned by the kernel. Implementations bind to the
+ * kernel through native code, since pi4j 1.1 does not expose
+ * <code>ioctl()</code>; {@link JnaGpioChipDevice} does so through JNA.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public interface GpioChipDevice extends Closeable {
+
+  /**
+   * Edge read from a line event handle.
+   */
+  final class Event {
+    private int offset;
+    private boolean rising;
+    private long timestampNanos;
+
+    /**
+     * @param lineOffset
+     *          The offset of the line on the chip
+     * @param risingEdge
+     *          True for a rising edge, false for a falling edge
+     * @param kernelNanos
+     *          The time the kernel saw the edge, in nanoseconds
+     */
+    public void set(final int lineOffset, final boolean risingEdge, final long kernelNanos) {
+      offset = lineOffset;
+      rising = risingEdge;
+      timestampNanos = kernelNanos;
+    }
+
+    /**
+     * @return The offset of the line on the chip
+     */
+    public int getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return True for a rising edge, false for a falling edge
+     */
+    public boolean isRising() {
+      return rising;
+    }
+
+    /**
+     * @return The time the kernel saw the edge, in nanoseconds
+     */
+    public long getTimestampNanos() {
+      return timestampNanos;
+    }
+  }
+
+  /**
+   * Opens the chip.
+   *
+   * @param path
+   *          The character device, e.g. {@value GpioChipProvider#DEVICE_DEFAULT}
+   * @throws IOException
+   *           If the device can not be opened
+   */
+  void open(String path) throws IOException;
+
+  /**
+   * Requests output lines as one handle (<code>GPIO_GET_LINEHANDLE_IOCTL</code>).
+   *
+   * @param offsets
+   *          The offsets of the lines on the chip
+   * @param values
+   *          The initial value of each line
+   * @param consumer
+   *          The label shown for the lines by the kernel
+   * @return The handle
+   * @throws IOException
+   *           If the lines are busy or do not exist
+   */
+  int requestOutputs(int[] offsets, boolean[] values, String consumer) throws IOException;
+
+  /**
+   * Sets every line of an output handle at once
+   * (<code>GPIOHANDLE_SET_LINE_VALUES_IOCTL</code>).
+   *
+   * @param values
+   *          The value of each line, in the order the lines were requested
+   * @param handle
+   *          The output handle
+   * @throws IOException
+   *           If the handle is not valid
+   */
+  void setValues(boolean[] values, int handle) throws IOException;
+
+  /**
+   * Requests edge events on both edges of an input line
+   * (<code>GPIO_GET_LINEEVENT_IOCTL</code>).
+   *
+   * @param offset
+   *          The offset of the line on the chip
+   * @param pull
+   *          The bias to request, or <code>OFF</code> for none
+   * @param consumer
+   *          The label shown for the line by the kernel
+   * @return The handle
+   * @throws IOException
+   *           If the line is busy or does not exist
+   */
+  int requestEvents(int offset, PinPullResistance pull, String consumer) throws IOException;
+
+  /**
+   * Reads the current value of an event line
+   * (<code>GPIOHANDLE_GET_LINE_VALUES_IOCTL</code>).
+   *
+   * @param handle
+   *          The event handle
+   * @return True if the line is high
+   * @throws IOException
+   *           If the handle is not valid
+   */
+  boolean getValue(int handle) throws IOException;
+
+  /**
+   * Waits for the next edge on any event handle (<code>poll()</code> and
+   * <code>read()</code>).
+   *
+   * @param event
+   *          The holder to fill in
+   * @param timeoutMillis
+   *          The longest time to wait
+   * @return True if an edge was read, false if the wait timed out or the
+   *         handle that ended it was released meanwhile
+   * @throws IOException
+   *           If the handles can not be read
+   */
+  boolean readEvent(Event event, long timeoutMillis) throws IOException;
+
+  /**
+   * Releases a handle (<code>close()</code>).
+   *
+   * @param handle
+   *          The handle to release
+   * @throws IOException
+   *           If the handle is not valid
+   */
+  void release(int handle) throws IOException;
+}
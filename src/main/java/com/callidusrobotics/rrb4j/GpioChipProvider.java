@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioProviderBase;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiGpioProvider;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+
+/**
+ * GPIO provider backed by the Linux GPIO character device instead of the
+ * deprecated sysfs and <code>/dev/mem</code> paths used by wiringPi.
+ * <p>
+ * Every output of the board (LEDs, OCs, motor PWM and phase pins and the
+ * range trigger) is requested as one multi-line handle. Writing a pin sets
+ * all of them with a single ioctl, and a {@link GpioTransaction} committed on
+ * this provider changes all of its pins with a single ioctl too. Inputs are
+ * requested as edge event lines; a daemon thread reads the edges as the
+ * kernel timestamped them and dispatches them to the pins' listeners, so
+ * the switches need no polling and the echo pulse of the rangefinder is
+ * timed by the kernel rather than by the thread waiting for it.
+ * <p>
+ * Line offsets are BCM GPIO numbers, which is how the Raspberry Pi's main
+ * chip numbers its lines. The motor PWM pins are ordinary outputs here, so
+ * use a {@link PwmEngine} rather than wiringPi SoftPwm to drive them.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public final class GpioChipProvider extends GpioProviderBase {
+  private static final Logger LOGGER = Logger.getLogger(GpioChipProvider.class.getName());
+
+  /**
+   * Character device of the Raspberry Pi's main GPIO chip.
+   */
+  public static final String DEVICE_DEFAULT = "/dev/gpiochip0";
+
+  static final String CONSUMER = "rrb4j";
+
+  // Offsets past the last GPIO of any Raspberry Pi
+  private static final int MAX_LINES = 64;
+  private static final long EVENT_WAIT_MS = 100;
+
+  private static final Role[] OUTPUT_ROLES = {
+    Role.LED1, Role.LED2, Role.OC1, Role.OC2, Role.M1_PWM, Role.M2_PWM,
+    Role.M1_PHASE1, Role.M1_PHASE2, Role.M2_PHASE1, Role.M2_PHASE2, Role.RANGE_TRIGGER
+  };
+
+  private final GpioChipDevice device;
+  private final PinMap pinMap;
+
+  // The output handle and the value of each of its lines, guarded by writeLock
+  private final Object writeLock = new Object();
+  private final int[] outputIndex = new int[MAX_LINES];
+  private final boolean[] outputValues = new boolean[OUTPUT_ROLES.length];
+  private final int outputHandle;
+  private int batchDepth;
+  private boolean batchDirty;
+  private long writeCount;
+
+  // Input lines by offset; states are 0 (low), 1 (high) or -1 (not requested)
+  private final AtomicReferenceArray<Pin> inputPins = new AtomicReferenceArray<>(MAX_LINES);
+  private final int[] eventHandles = new int[MAX_LINES];
+  private final AtomicIntegerArray inputStates = new AtomicIntegerArray(MAX_LINES);
+  private final AtomicLongArray risingNanos = new AtomicLongArray(MAX_LINES);
+  private final AtomicLongArray fallingNanos = new AtomicLongArray(MAX_LINES);
+
+  // Reused by the event thread for every edge
+  private final GpioChipDevice.Event event = new GpioChipDevice.Event();
+  private final Object lifecycleLock = new Object();
+  private volatile boolean running;
+  private Thread thread;
+
+  /**
+   * Opens the chip and requests the board's outputs.
+   *
+   * @param device
+   *          The ioctl layer, not null
+   * @param path
+   *          The character device, e.g. {@link #DEVICE_DEFAULT}, not blank
+   * @param pinMap
+   *          The wiring of the board, not null
+   * @throws IOException
+   *           If the chip can not be opened or the outputs are busy
+   */
+  public GpioChipProvider(final GpioChipDevice device, final String path, final PinMap pinMap) throws IOException {
+    super();
+    Validate.notNull(device, "Device can not be null");
+    Validate.notBlank(path, "Device path can not be blank");
+    Validate.notNull(pinMap, "Pin map can not be null");
+
+    this.device = device;
+    this.pinMap = pinMap;
+
+    Arrays.fill(outputIndex, -1);
+    Arrays.fill(eventHandles, -1);
+    for (int i = 0; i < MAX_LINES; i++) {
+      inputStates.set(i, -1);
+    }
+
+    final int[] offsets = new int[OUTPUT_ROLES.length];
+    for (int i = 0; i < OUTPUT_ROLES.length; i++) {
+      offsets[i] = offsetOf(pinMap.get(OUTPUT_ROLES[i]));
+      outputIndex[offsets[i]] = i;
+    }
+
+    device.open(path);
+    try {
+      outputHandle = device.requestOutputs(offsets, outputValues, CONSUMER);
+    } catch (final IOException e) {
+      device.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return A new GPIO controller backed by this provider
+   */
+  public GpioController newController() {
+    return new GpioControllerImpl(this);
+  }
+
+  /**
+   * @return The wiring of the board whose outputs were requested
+   */
+  public PinMap getPinMap() {
+    return pinMap;
+  }
+
+  @Override
+  public String getName() {
+    // RaspiPin pins can only be provisioned on a provider with this name
+    return RaspiGpioProvider.NAME;
+  }
+
+  @Override
+  public void export(final Pin pin, final PinMode mode) {
+    final int offset = offsetOf(pin);
+    if (mode == PinMode.DIGITAL_OUTPUT) {
+      Validate.isTrue(outputIndex[offset] >= 0, "%s is not an output of the board", pin);
+    } else {
+      Validate.isTrue(mode == PinMode.DIGITAL_INPUT, "Unsupported pin mode: %s", mode);
+      requestInput(pin, PinPullResistance.OFF);
+    }
+
+    super.export(pin, mode);
+  }
+
+  @Override
+  public void setPullResistance(final Pin pin, final PinPullResistance resistance) {
+    super.setPullResistance(pin, resistance);
+
+    // The bias is part of the line request, so the line is requested again
+    if (eventHandles[offsetOf(pin)] >= 0) {
+      requestInput(pin, resistance);
+    }
+  }
+
+  @Override
+  public void setState(final Pin pin, final PinState state) {
+    super.setState(pin, state);
+
+    synchronized (writeLock) {
+      outputValues[outputIndex[offsetOf(pin)]] = state.isHigh();
+      if (batchDepth > 0) {
+        batchDirty = true;
+      } else {
+        writeOutputs();
+      }
+    }
+  }
+
+  @Override
+  public PinState getState(final Pin pin) {
+    final int state = inputStates.get(offsetOf(pin));
+    if (state < 0) {
+      return super.getState(pin);
+    }
+
+    return state == 0 ? PinState.LOW : PinState.HIGH;
+  }
+
+  @Override
+  public void unexport(final Pin pin) {
+    super.unexport(pin);
+
+    final int offset = offsetOf(pin);
+    synchronized (lifecycleLock) {
+      if (eventHandles[offset] >= 0) {
+        release(eventHandles[offset]);
+        eventHandles[offset] = -1;
+        inputStates.set(offset, -1);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    if (isShutdown()) {
+      return;
+    }
+
+    super.shutdown();
+    final Thread reader;
+    synchronized (lifecycleLock) {
+      running = false;
+      reader = thread;
+      thread = null;
+    }
+
+    if (reader != null) {
+      try {
+        reader.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized (lifecycleLock) {
+      for (int offset = 0; offset < MAX_LINES; offset++) {
+        if (eventHandles[offset] >= 0) {
+          release(eventHandles[offset]);
+          eventHandles[offset] = -1;
+        }
+      }
+      release(outputHandle);
+
+      try {
+        device.close();
+      } catch (final IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to close GPIO chip", e);
+      }
+    }
+  }
+
+  /**
+   * @return The number of ioctls issued to set the outputs
+   */
+  public long getWriteCount() {
+    synchronized (writeLock) {
+      return writeCount;
+    }
+  }
+
+  /**
+   * Holds back output writes until the matching {@link #endBatch()}, then
+   * writes every change with one ioctl. Batches nest.
+   */
+  void beginBatch() {
+    synchronized (writeLock) {
+      batchDepth++;
+    }
+  }
+
+  void endBatch() {
+    synchronized (writeLock) {
+      batchDepth--;
+      if (batchDepth == 0 && batchDirty) {
+        writeOutputs();
+      }
+    }
+  }
+
+  /**
+   * @param pin
+   *          An input pin
+   * @return The kernel-timed width of the last complete high pulse on the pin
+   *         in nanoseconds, or -1 if none has been seen
+   */
+  long getPulseNanos(final Pin pin) {
+    final int offset = offsetOf(pin);
+    final long rising = risingNanos.get(offset);
+    final long falling = fallingNanos.get(offset);
+
+    return rising > 0 && falling > rising ? falling - rising : -1;
+  }
+
+  private static int offsetOf(final Pin pin) {
+    final int offset = pin.getAddress();
+    // Checked by hand since every write comes through here and Validate would allocate its arguments
+    if (offset < 0 || offset >= MAX_LINES) {
+      throw new IllegalArgumentException("No line for " + pin);
+    }
+
+    return offset;
+  }
+
+  private void writeOutputs() {
+    try {
+      device.setValues(outputValues, outputHandle);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Failed to set GPIO outputs", e);
+    }
+
+    writeCount++;
+    batchDirty = false;
+  }
+
+  private void requestInput(final Pin pin, final PinPullResistance pull) {
+    final int offset = offsetOf(pin);
+    synchronized (lifecycleLock) {
+      if (eventHandles[offset] >= 0) {
+        release(eventHandles[offset]);
+      }
+
+      try {
+        eventHandles[offset] = device.requestEvents(offset, pull, CONSUMER);
+        inputPins.set(offset, pin);
+        inputStates.set(offset, device.getValue(eventHandles[offset]) ? 1 : 0);
+      } catch (final IOException e) {
+        eventHandles[offset] = -1;
+        throw new UncheckedIOException("Failed to request events for " + pin, e);
+      }
+
+      if (!running) {
+        running = true;
+        thread = new Thread(this::run, "rrb4j-gpiochip-events");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+  }
+
+  private void release(final int handle) {
+    try {
+      device.release(handle);
+    } catch (final IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to release GPIO line handle", e);
+    }
+  }
+
+  private void run() {
+    ThreadPlacement.placeCurrentThread();
+    while (running) {
+      try {
+        if (device.readEvent(event, EVENT_WAIT_MS)) {
+          dispatch(event);
+        }
+      } catch (final IOException e) {
+        // Only shutdown() ends the thread; back off so that a lasting failure does not spin
+        LOGGER.log(Level.WARNING, "Failed to read GPIO events", e);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(EVENT_WAIT_MS));
+      }
+    }
+  }
+
+  private void dispatch(final GpioChipDevice.Event edge) {
+    final int offset = edge.getOffset();
+    final Pin pin = offset >= 0 && offset < MAX_LINES ? inputPins.get(offset) : null;
+    if (pin == null) {
+      return;
+    }
+
+    // Timestamp first, so that whoever sees the new state can time the pulse
+    final boolean rising = edge.isRising();
+    (rising ? risingNanos : fallingNanos).set(offset, edge.getTimestampNanos());
+
+    if (inputStates.getAndSet(offset, rising ? 1 : 0) != (rising ? 1 : 0)) {
+      dispatchPinDigitalStateChangeEvent(pin, PinState.getState(rising));
+    }
+  }
+}
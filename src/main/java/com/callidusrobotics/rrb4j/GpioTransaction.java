@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Objects;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+
+/**
+ * A set of output pin changes that are applied together.
+ * <p>
+ * Changes are staged with {@link #set(GpioPinDigitalOutput, boolean)} and
+ * written by {@link #commit()}: every pin driven low first, then every pin
+ * driven high. Clearing before setting means a pair of H-bridge inputs passes
+ * through the coast state rather than the brake state while it changes
+ * direction.
+ * <p>
+ * The transaction remembers the state it last wrote to each pin and skips
+ * pins that would not change, so re-committing the same states costs no GPIO
+ * operations at all. This assumes nothing else writes those pins; call
+ * {@link #invalidate()} if something might have.
+ * <p>
+ * pi4j's multi-pin <code>GpioController.setState()</code> is deliberately not
+ * used: it still writes one pin at a time and searches the list of
+ * provisioned pins for each of them first. A board's transaction on a
+ * {@link GpioChipProvider} writes the whole commit with a single ioctl, so
+ * the pins change at the same instant.
+ * <p>
+ * Staging and committing do not allocate. Transactions are not thread-safe;
+ * each thread should use its own.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class GpioTransaction {
+  private final AbstractRasPiRobot board;
+
+  // Staged pins in the order they were first staged, with their target states and board outputs (if any)
+  private final GpioPinDigitalOutput[] pins;
+  private final boolean[] states;
+  private final BoardOutput[] outputs;
+  private int size;
+
+  // Pins written by this transaction and the state each was last written to
+  private final GpioPinDigitalOutput[] written;
+  private final boolean[] writtenStates;
+  private int writtenSize;
+
+  private long writeCount;
+
+  /**
+   * @param capacity
+   *          The maximum number of distinct pins in the transaction, must be positive
+   */
+  public GpioTransaction(final int capacity) {
+    this(capacity, null);
+  }
+
+  // Constructor for transactions that can also stage the outputs of a board
+  GpioTransaction(final int capacity, final AbstractRasPiRobot board) {
+    Validate.isTrue(capacity > 0, "Capacity must be positive");
+
+    this.board = board;
+    pins = new GpioPinDigitalOutput[capacity];
+    states = new boolean[capacity];
+    outputs = new BoardOutput[capacity];
+    written = new GpioPinDigitalOutput[capacity];
+    writtenStates = new boolean[capacity];
+  }
+
+  /**
+   * Stages a change to an output pin. Staging the same pin again replaces its
+   * previously staged state.
+   *
+   * @param pin
+   *          The pin to change, not null
+   * @param high
+   *          True to drive the pin high, false to drive it low
+   * @return This transaction
+   * @throws IllegalStateException
+   *           If the transaction already holds its capacity of distinct pins
+   */
+  public GpioTransaction set(final GpioPinDigitalOutput pin, final boolean high) {
+    Objects.requireNonNull(pin, "Pin can not be null");
+
+    stage(pin, high, null);
+    return this;
+  }
+
+  /**
+   * Stages a change to one of the board's outputs. Command listeners
+   * registered on the board are notified when the transaction is committed.
+   *
+   * @param output
+   *          The output to change, not null
+   * @param enabled
+   *          True to enable the output, false to disable it
+   * @return This transaction
+   * @throws IllegalStateException
+   *           If the transaction was not created by a board, or already holds its capacity of distinct pins
+   */
+  public GpioTransaction set(final BoardOutput output, final boolean enabled) {
+    Objects.requireNonNull(output, "Output can not be null");
+    if (board == null) {
+      throw new IllegalStateException("Transaction is not bound to a board");
+    }
+
+    stage(board.getOutputPin(output), enabled, output);
+    return this;
+  }
+
+  /**
+   * @return The number of distinct pins staged since the last commit
+   */
+  public int getStagedCount() {
+    return size;
+  }
+
+  /**
+   * @return The number of pin writes issued by all commits so far
+   */
+  public long getWriteCount() {
+    return writeCount;
+  }
+
+  /**
+   * Discards all staged changes.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      pins[i] = null;
+      outputs[i] = null;
+    }
+
+    size = 0;
+  }
+
+  /**
+   * Forgets the states last written to each pin, so that the next commit
+   * writes every staged pin.
+   */
+  public void invalidate() {
+    for (int i = 0; i < writtenSize; i++) {
+      written[i] = null;
+    }
+
+    writtenSize = 0;
+  }
+
+  /**
+   * Writes all staged changes, low pins before high pins, and clears the
+   * transaction.
+   */
+  public void commit() {
+    final GpioChipProvider chip = board == null ? null : board.gpioChip;
+    if (chip == null) {
+      write(false);
+      write(true);
+    } else {
+      chip.beginBatch();
+      try {
+        write(false);
+        write(true);
+      } finally {
+        chip.endBatch();
+      }
+    }
+
+    if (board != null) {
+      for (int i = 0; i < size; i++) {
+        if (outputs[i] != null) {
+          board.notifyOutputCommanded(outputs[i], states[i]);
+        }
+      }
+    }
+
+    clear();
+  }
+
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private void stage(final GpioPinDigitalOutput pin, final boolean high, final BoardOutput output) {
+    for (int i = 0; i < size; i++) {
+      if (pins[i] == pin) {
+        states[i] = high;
+        return;
+      }
+    }
+
+    // Only format the message on failure; Validate would box the capacity on every call
+    if (size == pins.length) {
+      throw new IllegalStateException("Transaction can not hold more than " + pins.length + " pins");
+    }
+    pins[size] = pin;
+    states[size] = high;
+    outputs[size] = output;
+    size++;
+  }
+
+  // Writes the staged pins with the given target state that are not already in that state
+  private void write(final boolean high) {
+    for (int i = 0; i < size; i++) {
+      if (states[i] != high) {
+        continue;
+      }
+
+      final int index = indexOfWritten(pins[i]);
+      if (index < writtenSize && writtenStates[index] == high) {
+        continue;
+      }
+
+      pins[i].setState(high);
+      writeCount++;
+
+      // Pins beyond the capacity of the cache are always written
+      if (index == writtenSize && writtenSize < written.length) {
+        written[writtenSize++] = pins[i];
+      }
+      if (index < writtenSize) {
+        writtenStates[index] = high;
+      }
+    }
+  }
+
+  // Position of the pin among the written pins, or writtenSize if it has not been written
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private int indexOfWritten(final GpioPinDigitalOutput pin) {
+    int index = 0;
+    while (index < writtenSize && written[index] != pin) {
+      index++;
+    }
+
+    return index;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.pi4j.io.gpio.GpioPin;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * Emits JDK Flight Recorder events for hardware interactions, so that GPIO
+ * waits, PWM writes and rangefinder pings show up on the same timeline as GC
+ * and thread events.
+ * <p>
+ * This class does not reference the <code>jdk.jfr</code> API itself; the event
+ * types live in {@link JfrHardwareEvents}, which is only loaded when the JVM
+ * has a flight recorder. Events are passed between <code>begin</code> and
+ * <code>end</code> calls as opaque tokens. While no recording is running every
+ * <code>begin</code> method returns <code>null</code> after a single volatile
+ * read, and every <code>end</code> method ignores a <code>null</code> token.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.LawOfDemeter"})
+final class HardwareEvents {
+  private static final Logger LOGGER = Logger.getLogger(HardwareEvents.class.getName());
+
+  private static final boolean AVAILABLE = init();
+
+  // True while at least one flight recording is running; maintained by JfrHardwareEvents
+  private static volatile boolean recording;
+
+  private HardwareEvents() {
+    // Static methods only
+  }
+
+  private static boolean init() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+      return JfrHardwareEvents.register();
+    } catch (ClassNotFoundException | LinkageError e) {
+      LOGGER.log(Level.FINE, "Flight recorder is not available, hardware events are disabled", e);
+      return false;
+    }
+  }
+
+  // Called when recordings start or stop
+  static void setRecording(final boolean active) {
+    recording = active;
+  }
+
+  /**
+   * @return True if the JVM supports flight recorder events
+   */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * @return True if events are currently being emitted
+   */
+  static boolean isRecording() {
+    return recording;
+  }
+
+  static Object beginGpioWait() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.GpioWait()) : null;
+  }
+
+  static void endGpioWait(final Object token, final GpioPin pin, final PinState state, final long timeoutMicros, final boolean received) {
+    if (token != null) {
+      JfrHardwareEvents.endGpioWait(token, pin.getPin().getAddress(), state.isHigh(), timeoutMicros, received);
+    }
+  }
+
+  static Object beginDelay() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.Delay()) : null;
+  }
+
+  static void endDelay(final Object token, final long micros) {
+    if (token != null) {
+      JfrHardwareEvents.endDelay(token, micros);
+    }
+  }
+
+  static Object beginPwmWrite() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.PwmWrite()) : null;
+  }
+
+  static void endPwmWrite(final Object token, final Pin pin, final int duty) {
+    if (token != null) {
+      JfrHardwareEvents.endPwmWrite(token, pin.getAddress(), duty);
+    }
+  }
+
+  static Object beginMotorCommand() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.MotorCommand()) : null;
+  }
+
+  static void endMotorCommand(final Object token, final int m1Duty, final Enum<?> m1Direction, final int m2Duty, final Enum<?> m2Direction,
+      final boolean directionChange) {
+    if (token != null) {
+      JfrHardwareEvents.endMotorCommand(token, m1Duty, m1Direction.name(), m2Duty, m2Direction.name(), directionChange);
+    }
+  }
+
+  static Object beginDeadTime() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.DeadTime()) : null;
+  }
+
+  static void endDeadTime(final Object token, final long millis) {
+    if (token != null) {
+      JfrHardwareEvents.endDeadTime(token, millis);
+    }
+  }
+
+  static Object beginRangePing() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.RangePing()) : null;
+  }
+
+  static void endRangePing(final Object token, final RangeReading reading) {
+    if (token != null) {
+      JfrHardwareEvents.endRangePing(token, reading.getStatus(), reading.getDistanceCm(), reading.getPulseNanos());
+    }
+  }
+
+  static Object beginOutputWrite() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.OutputWrite()) : null;
+  }
+
+  static void endOutputWrite(final Object token, final BoardOutput output, final boolean enabled) {
+    if (token != null) {
+      JfrHardwareEvents.endOutputWrite(token, output.name(), enabled);
+    }
+  }
+
+  static Object beginSwitchRead() {
+    return recording ? JfrHardwareEvents.begin(new JfrHardwareEvents.SwitchRead()) : null;
+  }
+
+  static void endSwitchRead(final Object token, final int switchNumber, final boolean closed) {
+    if (token != null) {
+      JfrHardwareEvents.endSwitchRead(token, switchNumber, closed);
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event types for {@link HardwareEvents}.
+ * <p>
+ * Only {@link HardwareEvents} may refer to this class, and only after checking
+ * that the flight recorder is available. Tokens are typed as
+ * <code>Object</code> so that verifying the caller never loads a
+ * <code>jdk.jfr</code> class.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.LawOfDemeter"})
+final class JfrHardwareEvents {
+  private static final String CATEGORY = "RRB4J";
+  private static final String GPIO = "GPIO";
+  private static final String MOTORS = "Motors";
+
+  // Result of a ping, indexed by RangeReading status so that recording one allocates nothing
+  private static final String[] RANGE_RESULTS = {"valid", "not connected", "out of range", "below minimum"};
+
+  private JfrHardwareEvents() {
+    // Static methods only
+  }
+
+  @Name("com.callidusrobotics.rrb4j.GpioWait")
+  @Label("GPIO Wait")
+  @Description("Polling an input pin for a state change")
+  @Category({CATEGORY, GPIO})
+  static final class GpioWait extends Event {
+    @Label("Pin")
+    int pin;
+
+    @Label("Awaited State High")
+    boolean high;
+
+    @Label("Timeout")
+    @Timespan(Timespan.MICROSECONDS)
+    long timeoutMicros;
+
+    @Label("Received")
+    boolean received;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.Delay")
+  @Label("Busy Delay")
+  @Description("Busy wait on the board clock")
+  @Category({CATEGORY, GPIO})
+  static final class Delay extends Event {
+    @Label("Requested")
+    @Timespan(Timespan.MICROSECONDS)
+    long micros;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.PwmWrite")
+  @Label("PWM Write")
+  @Description("Duty cycle written to a motor PWM channel")
+  @Category({CATEGORY, MOTORS})
+  static final class PwmWrite extends Event {
+    @Label("Pin")
+    int pin;
+
+    @Label("Duty")
+    int duty;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.MotorCommand")
+  @Label("Motor Command")
+  @Description("Call to setMotors, including any H-bridge dead time")
+  @Category({CATEGORY, MOTORS})
+  static final class MotorCommand extends Event {
+    @Label("Motor 1 Duty")
+    int m1Duty;
+
+    @Label("Motor 1 Direction")
+    String m1Direction;
+
+    @Label("Motor 2 Duty")
+    int m2Duty;
+
+    @Label("Motor 2 Direction")
+    String m2Direction;
+
+    @Label("Direction Change")
+    boolean directionChange;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.DeadTime")
+  @Label("H-Bridge Dead Time")
+  @Description("Sleep with both motors stopped before reversing polarity")
+  @Category({CATEGORY, MOTORS})
+  static final class DeadTime extends Event {
+    @Label("Requested")
+    @Timespan(Timespan.MILLISECONDS)
+    long millis;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.RangePing")
+  @Label("Rangefinder Ping")
+  @Description("Trigger pulse and echo measurement of the ultrasonic rangefinder")
+  @Category({CATEGORY, "Rangefinder"})
+  static final class RangePing extends Event {
+    @Label("Result")
+    String result;
+
+    @Label("Distance (cm)")
+    float distanceCm;
+
+    @Label("Echo Pulse")
+    @Timespan(Timespan.NANOSECONDS)
+    long pulseNanos;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.OutputWrite")
+  @Label("Output Write")
+  @Description("LED or open collector output switched")
+  @Category({CATEGORY, GPIO})
+  static final class OutputWrite extends Event {
+    @Label("Output")
+    String output;
+
+    @Label("Enabled")
+    boolean enabled;
+  }
+
+  @Name("com.callidusrobotics.rrb4j.SwitchRead")
+  @Label("Switch Read")
+  @Description("Switch input read")
+  @Category({CATEGORY, GPIO})
+  static final class SwitchRead extends Event {
+    @Label("Switch")
+    int switchNumber;
+
+    @Label("Closed")
+    boolean closed;
+  }
+
+  // Tracks whether any recording is running; returns false if the recorder can not be used
+  static boolean register() {
+    if (!FlightRecorder.isAvailable()) {
+      return false;
+    }
+
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recordingStateChanged(final Recording changed) {
+        updateRecording();
+      }
+    });
+
+    if (FlightRecorder.isInitialized()) {
+      updateRecording();
+    }
+
+    return true;
+  }
+
+  private static void updateRecording() {
+    boolean active = false;
+    for (final Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+      if (recording.getState() == RecordingState.RUNNING) {
+        active = true;
+        break;
+      }
+    }
+
+    HardwareEvents.setRecording(active);
+  }
+
+  // Starts timing an event; returns null if its type is disabled in every running recording
+  static Object begin(final Object token) {
+    final Event event = (Event) token;
+    if (!event.isEnabled()) {
+      return null;
+    }
+
+    event.begin();
+    return event;
+  }
+
+  static void endGpioWait(final Object token, final int pin, final boolean high, final long timeoutMicros, final boolean received) {
+    final GpioWait event = (GpioWait) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.pin = pin;
+      event.high = high;
+      event.timeoutMicros = timeoutMicros;
+      event.received = received;
+      event.commit();
+    }
+  }
+
+  static void endDelay(final Object token, final long micros) {
+    final Delay event = (Delay) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.micros = micros;
+      event.commit();
+    }
+  }
+
+  static void endPwmWrite(final Object token, final int pin, final int duty) {
+    final PwmWrite event = (PwmWrite) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.pin = pin;
+      event.duty = duty;
+      event.commit();
+    }
+  }
+
+  static void endMotorCommand(final Object token, final int m1Duty, final String m1Direction, final int m2Duty, final String m2Direction,
+      final boolean directionChange) {
+    final MotorCommand event = (MotorCommand) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.m1Duty = m1Duty;
+      event.m1Direction = m1Direction;
+      event.m2Duty = m2Duty;
+      event.m2Direction = m2Direction;
+      event.directionChange = directionChange;
+      event.commit();
+    }
+  }
+
+  static void endDeadTime(final Object token, final long millis) {
+    final DeadTime event = (DeadTime) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.millis = millis;
+      event.commit();
+    }
+  }
+
+  static void endRangePing(final Object token, final int status, final float distanceCm, final long pulseNanos) {
+    final RangePing event = (RangePing) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.result = status >= 0 && status < RANGE_RESULTS.length ? RANGE_RESULTS[status] : "unknown";
+      event.distanceCm = distanceCm;
+      event.pulseNanos = pulseNanos;
+      event.commit();
+    }
+  }
+
+  static void endOutputWrite(final Object token, final String output, final boolean enabled) {
+    final OutputWrite event = (OutputWrite) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.output = output;
+      event.enabled = enabled;
+      event.commit();
+    }
+  }
+
+  static void endSwitchRead(final Object token, final int switchNumber, final boolean closed) {
+    final SwitchRead event = (SwitchRead) token;
+    event.end();
+    if (event.shouldCommit()) {
+      event.switchNumber = switchNumber;
+      event.closed = closed;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.PinPullResistance;
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * {@link GpioChipDevice} bound to the C library through JNA.
+ * <p>
+ * Lines are requested with version 1 of the kernel's GPIO character device
+ * API, which every kernel since 4.8 provides; pull bias needs 5.5 or later.
+ * The C functions are bound by JNA direct mapping, so setting and reading
+ * lines does not box arguments, and the buffers those calls use are
+ * allocated once. {@link #readEvent(GpioChipDevice.Event, long)} polls every
+ * event handle at once and must only be called by one thread at a time, as
+ * {@link GpioChipProvider} does.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.LawOfDemeter"})
+public class JnaGpioChipDevice implements GpioChipDevice {
+
+  /**
+   * Most lines one handle can hold (<code>GPIOHANDLES_MAX</code>).
+   */
+  public static final int MAX_HANDLE_LINES = 64;
+
+  // <linux/gpio.h> ioctl numbers for the version 1 API
+  static final long GET_LINEHANDLE = 0xC16CB403L;
+  static final long GET_LINEEVENT = 0xC030B404L;
+  static final long GET_LINE_VALUES = 0xC040B408L;
+  static final long SET_LINE_VALUES = 0xC040B409L;
+
+  // struct gpiohandle_request size and field offsets
+  static final int HANDLE_SIZE = 364;
+  static final int HANDLE_FLAGS = 256;
+  static final int HANDLE_DEFAULTS = 260;
+  static final int HANDLE_LABEL = 324;
+  static final int HANDLE_LINES = 356;
+  static final int HANDLE_FD = 360;
+
+  // struct gpioevent_request size and field offsets
+  static final int EVENT_SIZE = 48;
+  static final int EVENT_FLAGS = 4;
+  static final int EVENT_EDGES = 8;
+  static final int EVENT_LABEL = 12;
+  static final int EVENT_FD = 44;
+
+  // struct gpioevent_data, padded to eight bytes on ARM and 64-bit targets
+  static final int EVENT_DATA_SIZE = 16;
+  static final int EVENT_ID_OFFSET = 8;
+
+  static final int LABEL_SIZE = 32;
+
+  static final int REQUEST_INPUT = 1;
+  static final int REQUEST_OUTPUT = 1 << 1;
+  static final int BIAS_PULL_UP = 1 << 5;
+  static final int BIAS_PULL_DOWN = 1 << 6;
+  static final int BOTH_EDGES = 3;
+  static final int RISING_EDGE_ID = 1;
+
+  private static final int O_RDWR = 2;
+  private static final int O_CLOEXEC = 0x80000;
+  private static final short POLLIN = 1;
+  private static final int POLLFD_SIZE = 8;
+  private static final int REVENTS_OFFSET = 6;
+  private static final int EINTR = 4;
+  private static final int EBADF = 9;
+
+  private static final NativeLong LINEHANDLE_IOCTL = new NativeLong(GET_LINEHANDLE);
+  private static final NativeLong LINEEVENT_IOCTL = new NativeLong(GET_LINEEVENT);
+  private static final NativeLong GET_VALUES_IOCTL = new NativeLong(GET_LINE_VALUES);
+  private static final NativeLong SET_VALUES_IOCTL = new NativeLong(SET_LINE_VALUES);
+  private static final NativeLong EVENT_DATA_LENGTH = new NativeLong(EVENT_DATA_SIZE);
+
+  private final Object chipLock = new Object();
+  private final Object valuesLock = new Object();
+  private final Memory values = new Memory(MAX_HANDLE_LINES);
+  private final Memory eventData = new Memory(EVENT_DATA_SIZE);
+
+  // Line offset of each event handle, in the order they are polled
+  private final Map<Integer, Integer> eventLines = new LinkedHashMap<>();
+  private volatile PollSet pollSet = new PollSet(null, new int[0]);
+
+  private volatile String path;
+  private int chipHandle = -1;
+
+  // Descriptors polled by readEvent(), rebuilt whenever an event handle is added or released
+  private static final class PollSet {
+    final Memory descriptors;
+    final int[] lineOffsets;
+
+    @SuppressWarnings("PMD.UseVarargs")
+    PollSet(final Memory descriptors, final int[] lineOffsets) {
+      this.descriptors = descriptors;
+      this.lineOffsets = lineOffsets;
+    }
+  }
+
+  // Direct-mapped C library functions, bound on first use
+  private static final class CLibrary {
+    static {
+      Native.register(CLibrary.class, "c");
+    }
+
+    private CLibrary() {
+      // Static methods only
+    }
+
+    static native int open(String path, int flags) throws LastErrorException;
+
+    static native int ioctl(int handle, NativeLong request, Pointer argument) throws LastErrorException;
+
+    static native int poll(Pointer descriptors, int count, int timeoutMillis) throws LastErrorException;
+
+    static native NativeLong read(int handle, Pointer buffer, NativeLong count) throws LastErrorException;
+
+    static native int close(int handle) throws LastErrorException;
+  }
+
+  @Override
+  public void open(final String devicePath) throws IOException {
+    Validate.notBlank(devicePath, "Device path can not be blank");
+
+    synchronized (chipLock) {
+      Validate.validState(chipHandle < 0, "The chip is already open");
+
+      try {
+        chipHandle = CLibrary.open(devicePath, O_RDWR | O_CLOEXEC);
+        path = devicePath;
+      } catch (final LastErrorException e) {
+        throw new IOException("Failed to open " + devicePath, e);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("PMD.UseVarargs")
+  public int requestOutputs(final int[] offsets, final boolean[] initialValues, final String consumer) throws IOException {
+    Validate.isTrue(offsets.length > 0 && offsets.length <= MAX_HANDLE_LINES, "A handle holds 1 to " + MAX_HANDLE_LINES + " lines");
+    Validate.isTrue(offsets.length == initialValues.length, "Every line needs an initial value");
+
+    final Memory request = new Memory(HANDLE_SIZE);
+    request.clear();
+    for (int i = 0; i < offsets.length; i++) {
+      request.setInt(i * Integer.BYTES, offsets[i]);
+      request.setByte(HANDLE_DEFAULTS + i, (byte) (initialValues[i] ? 1 : 0));
+    }
+    request.setInt(HANDLE_FLAGS, REQUEST_OUTPUT);
+    writeLabel(request, HANDLE_LABEL, consumer);
+    request.setInt(HANDLE_LINES, offsets.length);
+
+    ioctl(openHandle(), LINEHANDLE_IOCTL, request, "Failed to request output lines");
+    return request.getInt(HANDLE_FD);
+  }
+
+  @Override
+  @SuppressWarnings("PMD.UseVarargs")
+  public void setValues(final boolean[] lineValues, final int handle) throws IOException {
+    synchronized (valuesLock) {
+      for (int i = 0; i < lineValues.length; i++) {
+        values.setByte(i, (byte) (lineValues[i] ? 1 : 0));
+      }
+
+      ioctl(handle, SET_VALUES_IOCTL, values, "Failed to set line values");
+    }
+  }
+
+  @Override
+  public int requestEvents(final int offset, final PinPullResistance pull, final String consumer) throws IOException {
+    final Memory request = new Memory(EVENT_SIZE);
+    request.clear();
+    request.setInt(0, offset);
+    request.setInt(EVENT_FLAGS, REQUEST_INPUT | biasFlags(pull));
+    request.setInt(EVENT_EDGES, BOTH_EDGES);
+    writeLabel(request, EVENT_LABEL, consumer);
+
+    ioctl(openHandle(), LINEEVENT_IOCTL, request, "Failed to request events on line " + offset);
+    final int handle = request.getInt(EVENT_FD);
+
+    synchronized (chipLock) {
+      eventLines.put(handle, offset);
+      rebuildPollSet();
+    }
+
+    return handle;
+  }
+
+  @Override
+  public boolean getValue(final int handle) throws IOException {
+    synchronized (valuesLock) {
+      ioctl(handle, GET_VALUES_IOCTL, values, "Failed to read line value");
+      return values.getByte(0) != 0;
+    }
+  }
+
+  @Override
+  public boolean readEvent(final Event event, final long timeoutMillis) throws IOException {
+    final PollSet polled = pollSet;
+    final int count = polled.lineOffsets.length;
+
+    try {
+      if (CLibrary.poll(polled.descriptors, count, (int) Math.min(Integer.MAX_VALUE, Math.max(0, timeoutMillis))) <= 0) {
+        return false;
+      }
+
+      for (int i = 0; i < count; i++) {
+        // Released handles report POLLNVAL and are skipped until the next poll set
+        if ((polled.descriptors.getShort(i * POLLFD_SIZE + REVENTS_OFFSET) & POLLIN) != 0) {
+          return readEdge(event, polled.descriptors.getInt(i * POLLFD_SIZE), polled.lineOffsets[i]);
+        }
+      }
+
+      return false;
+    } catch (final LastErrorException e) {
+      if (e.getErrorCode() == EINTR) {
+        return false;
+      }
+
+      throw new IOException("Failed to poll GPIO line events", e);
+    }
+  }
+
+  @Override
+  public void release(final int handle) throws IOException {
+    synchronized (chipLock) {
+      if (eventLines.remove(handle) != null) {
+        rebuildPollSet();
+      }
+    }
+
+    close(handle);
+  }
+
+  @Override
+  public void close() throws IOException {
+    final int handle;
+    synchronized (chipLock) {
+      handle = chipHandle;
+      chipHandle = -1;
+    }
+
+    if (handle >= 0) {
+      close(handle);
+    }
+  }
+
+  static int biasFlags(final PinPullResistance pull) {
+    switch (pull) {
+      case PULL_UP:
+        return BIAS_PULL_UP;
+      case PULL_DOWN:
+        return BIAS_PULL_DOWN;
+      default:
+        return 0;
+    }
+  }
+
+  // Only called by the polling thread, so the event buffer needs no lock
+  private boolean readEdge(final Event event, final int handle, final int offset) throws IOException {
+    try {
+      if (CLibrary.read(handle, eventData, EVENT_DATA_LENGTH).intValue() < EVENT_DATA_SIZE) {
+        return false;
+      }
+    } catch (final LastErrorException e) {
+      // The handle was released after it was polled, such as when the line was re-requested with a new pull
+      if (e.getErrorCode() == EBADF) {
+        return false;
+      }
+
+      throw new IOException("Failed to read event on line " + offset, e);
+    }
+
+    event.set(offset, eventData.getInt(EVENT_ID_OFFSET) == RISING_EDGE_ID, eventData.getLong(0));
+    return true;
+  }
+
+  private int openHandle() {
+    synchronized (chipLock) {
+      Validate.validState(chipHandle >= 0, "The chip is not open");
+      return chipHandle;
+    }
+  }
+
+  // Called with the chip lock held
+  private void rebuildPollSet() {
+    final int count = eventLines.size();
+    final Memory descriptors = count == 0 ? null : new Memory((long) count * POLLFD_SIZE);
+    final int[] offsets = new int[count];
+
+    int index = 0;
+    for (final Map.Entry<Integer, Integer> entry : eventLines.entrySet()) {
+      descriptors.setInt(index * POLLFD_SIZE, entry.getKey());
+      descriptors.setShort(index * POLLFD_SIZE + Integer.BYTES, POLLIN);
+      descriptors.setShort(index * POLLFD_SIZE + REVENTS_OFFSET, (short) 0);
+      offsets[index] = entry.getValue();
+      index++;
+    }
+
+    pollSet = new PollSet(descriptors, offsets);
+  }
+
+  private static void writeLabel(final Memory request, final int offset, final String consumer) {
+    final byte[] label = consumer.getBytes(StandardCharsets.US_ASCII);
+
+    // The rest of the field is already zero, which terminates the string
+    request.write(offset, label, 0, Math.min(label.length, LABEL_SIZE - 1));
+  }
+
+  private void ioctl(final int handle, final NativeLong request, final Pointer argument, final String message) throws IOException {
+    try {
+      CLibrary.ioctl(handle, request, argument);
+    } catch (final LastErrorException e) {
+      throw new IOException(message + " on " + path, e);
+    }
+  }
+
+  private static void close(final int handle) throws IOException {
+    try {
+      CLibrary.close(handle);
+    } catch (final LastErrorException e) {
+      throw new IOException("Failed to close GPIO handle " + handle, e);
+    }
+  }
+}
@@ -21,12 +21,15 @@
 package com.callidusrobotics.rrb4j;
 
 import java.io.IOException;
-
-import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import java.io.InputStream;
+import java.nio.file.Paths;
 
 /**
  * Sample driver application to demonstrate the <code>RasPiRobotBoard</code>
  * interface.
+ * <p>
+ * The demo is a {@link MotionScript}; another script can be played in its
+ * place by passing its path as the third argument.
  *
  * @author Rusty Gerard
  * @since 1.0.0
@@ -34,6 +37,8 @@ import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
  */
 @SuppressWarnings("PMD.ShortClassName")
 public final class Main {
+  private static final String DEMO_SCRIPT = "demo.script";
+
   private Main() {
     // No need to initialize this class
   }
@@ -41,69 +46,48 @@ public final class Main {
   /**
    * Driver main method.
    *
-   * @param args Optional positional CLI arguments to pass to the <code>RasPiRobot3</code> constructor:
+   * @param args Optional positional CLI arguments:
    * <ol>
    *   <li>batteryVoltage</li>
    *   <li>motorVoltage</li>
+   *   <li>scriptPath</li>
    * </ol>
    * @throws InterruptedException If the thread is interrupted
+   * @throws IOException If the script can not be read
    * @see RasPiRobot3#RasPiRobot3(float, float)
+   * @see MotionScript
    */
   @SuppressWarnings({"PMD.NPathComplexity", "PMD.LawOfDemeter"})
-  public static void main(final String[] args) throws InterruptedException {
-    final RasPiRobotBoard rrb3;
+  public static void main(final String[] args) throws InterruptedException, IOException {
+    final RasPiRobot3 rrb3;
 
     if (args.length > 1) {
       final float batteryVoltage = Float.parseFloat(args[0]);
       final float motorVoltage = Float.parseFloat(args[1]);
 
-      rrb3 = new RasPiRobot3(batteryVoltage, motorVoltage);
+      rrb3 = new RasPiRobot3(PinMap.detect(), batteryVoltage, motorVoltage);
     } else {
-      rrb3 = new RasPiRobot3();
+      rrb3 = new RasPiRobot3(PinMap.detect());
     }
 
-    System.out.print("Blinking LEDs");
-    for (int i = 0; i < 10; i++) {
-      rrb3.setLed1(i % 2 == 0);
-      rrb3.setLed2(i % 2 == 0);
-
-      System.out.print(".");
-
-      Thread.sleep(1000);
+    final MotionScript script;
+    if (args.length > 2) {
+      script = MotionScript.load(Paths.get(args[2]));
+    } else {
+      try (InputStream input = Main.class.getResourceAsStream(DEMO_SCRIPT)) {
+        script = MotionScript.read(input);
+      }
     }
-    System.out.println("");
 
-    System.out.println("Switch1: " + (rrb3.switch1Closed() ? "closed" : "open"));
-    System.out.println("Switch2: " + (rrb3.switch2Closed() ? "closed" : "open"));
+    final ScriptRunner runner = new ScriptRunner(rrb3, script);
+    runner.start();
+    final ScriptRunner.Status status = runner.await();
 
-    System.out.println("Toggling OC1...");
-    rrb3.setOc1(true);
-    Thread.sleep(5000);
-    rrb3.setOc1(false);
-
-    System.out.println("Toggling OC2...");
-    rrb3.setOc2(true);
-    Thread.sleep(5000);
-    rrb3.setOc2(false);
-
-    try {
-      System.out.println("Rangefinder: " + rrb3.getRangeCm() + " cm");
-    } catch (final IOException e) {
-      System.out.println("Rangefinder: not connected");
+    System.out.println("Script " + status + ", step lateness: " + runner.getLatenessStats());
+    if (runner.getFailure() != null) {
+      runner.getFailure().printStackTrace();
     }
 
-    System.out.println("Motors: forward...");
-    rrb3.setMotors(0.25f, MotorDirection.FORWARD, 0.25f, MotorDirection.FORWARD);
-    Thread.sleep(5000);
-
-    System.out.println("Motors: stop...");
-    rrb3.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
-    Thread.sleep(1000);
-
-    System.out.println("Motors: reverse...");
-    rrb3.setMotors(0.25f, MotorDirection.REVERSE, 0.25f, MotorDirection.REVERSE);
-    Thread.sleep(5000);
-
     rrb3.shutdown();
   }
 }
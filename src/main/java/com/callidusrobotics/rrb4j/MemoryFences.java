@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Memory fences for data shared with other processes through a mapped buffer.
+ * <p>
+ * Java 8 has no public fence API and the loads and stores of a
+ * {@link java.nio.MappedByteBuffer} are plain accesses. Each fence here is a
+ * volatile store followed by a volatile load of a private guard field: no
+ * earlier access may move below the store, and no later access may move above
+ * the load, so the pair orders every earlier load and store before every later
+ * one. This costs a full barrier where a load or store fence would do, which
+ * is negligible next to the polling interval, and keeps the library free of
+ * <code>sun.misc.Unsafe</code> and the compiler warnings it brings.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+final class MemoryFences {
+  // Written and read only for the ordering the accesses imply
+  private static volatile int guard;
+
+  private MemoryFences() {
+    // Static methods only
+  }
+
+  // Orders earlier loads before later loads and stores
+  static void loadFence() {
+    fullFence();
+  }
+
+  // Orders earlier loads and stores before later stores
+  static void storeFence() {
+    fullFence();
+  }
+
+  private static void fullFence() {
+    guard = 0;
+    if (guard != 0) {
+      throw new IllegalStateException("The fence guard is only ever zero");
+    }
+  }
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Immutable timeline of board commands at absolute offsets from the start of
+ * the script, played by a {@link ScriptRunner}.
+ * <p>
+ * Scripts are written one step per line as <code>offset command [args]</code>.
+ * The offset is in milliseconds from the start of the script, or from the
+ * previous step if prefixed with <code>+</code>. Offsets never decrease.
+ * Blank lines and text after <code>#</code> are ignored.
+ *
+ * <pre>
+ * 0     motors 0.25 F 0.25 F      # speed and direction (F or R) of M1, M2
+ * 0     led1 on                   # led1, led2, oc1, oc2: on or off
+ * 0     blink led2 500 500        # on and off time in ms
+ * +0    pulse oc1 1000            # on time in ms
+ * 2000  stop led2                 # stops a pattern and turns the output off
+ * 2000  stop                      # stops the motors
+ * 2000  print Range: {range}      # also {switch1} and {switch2}
+ * 2000  wait switch1 closed 5000  # switch1, switch2: closed or open
+ * 2000  wait range &lt; 20           # range &lt; or &gt; cm
+ * 4000  end                       # holds the script until its offset
+ * </pre>
+ *
+ * A <code>wait</code> step holds the script until its condition is met,
+ * failing the script if an optional timeout in ms expires first. Time spent
+ * waiting past the offset of the step shifts every later step by the same
+ * amount, so offsets after a wait are measured from the end of the wait.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ * @see ScriptRunner
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.LawOfDemeter"})
+public final class MotionScript {
+  private static final String ON_TEXT = "on";
+  private static final String CLOSED = "closed";
+
+  private final List<ScriptStep> steps;
+
+  private MotionScript(final List<ScriptStep> steps) {
+    this.steps = Collections.unmodifiableList(steps);
+  }
+
+  /**
+   * @param text
+   *          The script source, not null
+   * @return The parsed script
+   * @throws IllegalArgumentException
+   *           If a line can not be parsed, with its line number
+   */
+  public static MotionScript parse(final String text) {
+    Validate.notNull(text, "Text can not be null");
+
+    final List<ScriptStep> steps = new ArrayList<>();
+    final String[] lines = text.split("\r?\n", -1);
+    long offsetNanos = 0;
+    for (int i = 0; i < lines.length; i++) {
+      final int comment = lines[i].indexOf('#');
+      final String line = (comment < 0 ? lines[i] : lines[i].substring(0, comment)).trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      try {
+        final ScriptStep step = parseStep(line, offsetNanos);
+        steps.add(step);
+        offsetNanos = step.offsetNanos;
+      } catch (final IllegalArgumentException e) {
+        throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+      }
+    }
+
+    return new MotionScript(steps);
+  }
+
+  /**
+   * @param path
+   *          The UTF-8 script file, not null
+   * @return The parsed script
+   * @throws IOException
+   *           If the file can not be read
+   * @see #parse(String)
+   */
+  public static MotionScript load(final Path path) throws IOException {
+    Validate.notNull(path, "Path can not be null");
+
+    return parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param input
+   *          The UTF-8 script source, not null; read to the end but not closed
+   * @return The parsed script
+   * @throws IOException
+   *           If the stream can not be read
+   * @see #parse(String)
+   */
+  public static MotionScript read(final InputStream input) throws IOException {
+    Validate.notNull(input, "Input can not be null");
+
+    final StringBuilder text = new StringBuilder();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      text.append(line).append('\n');
+    }
+
+    return parse(text.toString());
+  }
+
+  /**
+   * @return The number of steps in the script
+   */
+  public int size() {
+    return steps.size();
+  }
+
+  /**
+   * @param index
+   *          The index of the step
+   * @return The offset of the step from the start of the script in ms, not counting time spent in waits
+   */
+  public long getOffsetMillis(final int index) {
+    return TimeUnit.NANOSECONDS.toMillis(steps.get(index).offsetNanos);
+  }
+
+  /**
+   * @param index
+   *          The index of the step
+   * @return The source line of the step, without comments
+   */
+  public String getStepText(final int index) {
+    return steps.get(index).text;
+  }
+
+  /**
+   * @return The offset of the last step in ms, not counting time spent in waits
+   */
+  public long getDurationMillis() {
+    return steps.isEmpty() ? 0 : getOffsetMillis(steps.size() - 1);
+  }
+
+  List<ScriptStep> getSteps() {
+    return steps;
+  }
+
+  private static ScriptStep parseStep(final String line, final long previousNanos) {
+    final String[] tokens = line.split("\\s+");
+    Validate.isTrue(tokens.length > 1, "Expected an offset and a command: %s", line);
+
+    final long offsetNanos;
+    if (tokens[0].charAt(0) == '+') {
+      offsetNanos = previousNanos + parseMillis(tokens[0].substring(1));
+    } else {
+      offsetNanos = parseMillis(tokens[0]);
+    }
+    Validate.isTrue(offsetNanos >= previousNanos, "Offset %s is before the previous step", tokens[0]);
+
+    final String command = tokens[1].toLowerCase(Locale.ROOT);
+    switch (command) {
+      case "motors":
+        return new ScriptStep(offsetNanos, line, parseMotors(tokens));
+      case "stop":
+        return new ScriptStep(offsetNanos, line, parseStop(tokens));
+      case "blink":
+        expectArgs(tokens, 3);
+        return new ScriptStep(offsetNanos, line, patternAction(parseOutput(tokens[2]), OutputPattern.blink(parseLong(tokens[3]), parseLong(tokens[4]))));
+      case "pulse":
+        expectArgs(tokens, 2);
+        return new ScriptStep(offsetNanos, line, patternAction(parseOutput(tokens[2]), OutputPattern.pulse(parseLong(tokens[3]))));
+      case "print":
+        return new ScriptStep(offsetNanos, line, printAction(line.substring(line.indexOf(tokens[1]) + tokens[1].length()).trim()));
+      case "wait":
+        return parseWait(tokens, offsetNanos, line);
+      case "end":
+        expectArgs(tokens, 0);
+        return new ScriptStep(offsetNanos, line, runner -> {
+          // Holds the script until its offset
+        });
+      default:
+        expectArgs(tokens, 1);
+        return new ScriptStep(offsetNanos, line, outputAction(parseOutput(tokens[1]), parseSwitch(tokens[2], ON_TEXT, "off")));
+    }
+  }
+
+  private static Action parseMotors(final String... tokens) {
+    expectArgs(tokens, 4);
+
+    final float m1Speed = parseSpeed(tokens[2]);
+    final MotorDirection m1Direction = parseDirection(tokens[3]);
+    final float m2Speed = parseSpeed(tokens[4]);
+    final MotorDirection m2Direction = parseDirection(tokens[5]);
+
+    return runner -> runner.getBoard().setMotors(m1Speed, m1Direction, m2Speed, m2Direction);
+  }
+
+  private static Action parseStop(final String... tokens) {
+    if (tokens.length == 2) {
+      return runner -> runner.getBoard().commandStop();
+    }
+
+    expectArgs(tokens, 1);
+    final BoardOutput output = parseOutput(tokens[2]);
+
+    return runner -> runner.stopPattern(output);
+  }
+
+  private static ScriptStep parseWait(final String[] tokens, final long offsetNanos, final String line) {
+    Validate.isTrue(tokens.length > 3, "Expected a condition: %s", line);
+
+    final Condition condition;
+    final int timeoutIndex;
+    if ("range".equalsIgnoreCase(tokens[2])) {
+      Validate.isTrue(tokens.length > 4, "Expected a comparison and a distance: %s", line);
+      condition = rangeCondition(tokens[3], parseFloat(tokens[4]));
+      timeoutIndex = 5;
+    } else {
+      condition = switchCondition(tokens[2], parseSwitch(tokens[3], CLOSED, "open"));
+      timeoutIndex = 4;
+    }
+
+    Validate.isTrue(tokens.length <= timeoutIndex + 1, "Unexpected arguments: %s", line);
+    final long timeoutNanos = tokens.length > timeoutIndex ? parseMillis(tokens[timeoutIndex]) : 0;
+
+    return new ScriptStep(offsetNanos, line, condition, timeoutNanos);
+  }
+
+  private static Condition rangeCondition(final String comparison, final float rangeCm) {
+    if ("<".equals(comparison)) {
+      return (board, reading) -> board.measureRange(reading).isValid() && reading.getDistanceCm() < rangeCm;
+    }
+
+    Validate.isTrue(">".equals(comparison), "Expected < or >: %s", comparison);
+
+    // Nothing in range is further away than any distance
+    return (board, reading) -> {
+      board.measureRange(reading);
+      return reading.getStatus() == RangeReading.OUT_OF_RANGE || reading.isValid() && reading.getDistanceCm() > rangeCm;
+    };
+  }
+
+  private static Condition switchCondition(final String name, final boolean closed) {
+    if ("switch1".equalsIgnoreCase(name)) {
+      return (board, reading) -> board.switch1Closed() == closed;
+    }
+
+    Validate.isTrue("switch2".equalsIgnoreCase(name), "Unknown switch: %s", name);
+
+    return (board, reading) -> board.switch2Closed() == closed;
+  }
+
+  private static Action patternAction(final BoardOutput output, final OutputPattern pattern) {
+    return runner -> runner.getPatterns().play(output, pattern);
+  }
+
+  private static Action outputAction(final BoardOutput output, final boolean enabled) {
+    return runner -> runner.setOutput(output, enabled);
+  }
+
+  private static Action printAction(final String message) {
+    if (message.indexOf('{') < 0) {
+      return runner -> runner.print(message);
+    }
+
+    return runner -> runner.print(runner.expand(message));
+  }
+
+  private static void expectArgs(final String[] tokens, final int count) {
+    Validate.isTrue(tokens.length == count + 2, "Expected %d arguments for %s", count, tokens[1]);
+  }
+
+  private static BoardOutput parseOutput(final String name) {
+    try {
+      return BoardOutput.valueOf(name.toUpperCase(Locale.ROOT));
+    } catch (final IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown command or output: " + name, e);
+    }
+  }
+
+  private static boolean parseSwitch(final String value, final String trueValue, final String falseValue) {
+    if (trueValue.equalsIgnoreCase(value)) {
+      return true;
+    }
+
+    Validate.isTrue(falseValue.equalsIgnoreCase(value), "Expected %s or %s: %s", trueValue, falseValue, value);
+
+    return false;
+  }
+
+  private static MotorDirection parseDirection(final String value) {
+    if ("F".equalsIgnoreCase(value) || "forward".equalsIgnoreCase(value)) {
+      return MotorDirection.FORWARD;
+    }
+
+    Validate.isTrue("R".equalsIgnoreCase(value) || "reverse".equalsIgnoreCase(value), "Expected F or R: %s", value);
+
+    return MotorDirection.REVERSE;
+  }
+
+  private static float parseSpeed(final String value) {
+    final float speed = parseFloat(value);
+    Validate.inclusiveBetween(0.0f, 1.0f, speed, "Speed must be in the range [0, 1]: " + value);
+
+    return speed;
+  }
+
+  private static long parseMillis(final String value) {
+    final long millis = parseLong(value);
+    Validate.isTrue(millis >= 0, "Time can not be negative: %s", value);
+
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private static long parseLong(final String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Expected an integer: " + value, e);
+    }
+  }
+
+  private static float parseFloat(final String value) {
+    try {
+      return Float.parseFloat(value);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Expected a number: " + value, e);
+    }
+  }
+
+  // Command of a step, run on the script thread
+  interface Action {
+    void execute(ScriptRunner runner);
+  }
+
+  // Condition of a wait step, polled on the script thread
+  interface Condition {
+    boolean isMet(RasPiRobot3 board, RangeReading reading);
+  }
+
+  static final class ScriptStep {
+    final long offsetNanos;
+    final String text;
+    final Action action;
+    final Condition condition;
+    final long timeoutNanos;
+
+    ScriptStep(final long offsetNanos, final String text, final Action action) {
+      this.offsetNanos = offsetNanos;
+      this.text = text;
+      this.action = action;
+      this.condition = null;
+      this.timeoutNanos = 0;
+    }
+
+    ScriptStep(final long offsetNanos, final String text, final Condition condition, final long timeoutNanos) {
+      this.offsetNanos = offsetNanos;
+      this.text = text;
+      this.action = null;
+      this.condition = condition;
+      this.timeoutNanos = timeoutNanos;
+    }
+  }
+}
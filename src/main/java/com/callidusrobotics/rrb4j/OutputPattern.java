@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Immutable on/off timing pattern for a board output.
+ * <p>
+ * A pattern is precomputed into a sequence of segment durations that
+ * alternate between on and off, starting with on. Repeating patterns start
+ * over after the last segment; one-shot patterns leave the output off.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ * @see PatternEngine
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class OutputPattern {
+  // Morse code for A-Z followed by 0-9
+  private static final String[] MORSE_CODES = {
+    ".-", "-...", "-.-.", "-..", ".", "..-.", "--.", "....", "..", ".---", "-.-", ".-..", "--",
+    "-.", "---", ".--.", "--.-", ".-.", "...", "-", "..-", "...-", ".--", "-..-", "-.--", "--..",
+    "-----", ".----", "..---", "...--", "....-", ".....", "-....", "--...", "---..", "----."
+  };
+
+  private static final int DASH_UNITS = 3;
+  private static final int LETTER_GAP_UNITS = 3;
+  private static final int WORD_GAP_UNITS = 7;
+
+  private final long[] segmentNanos;
+  private final boolean repeating;
+
+  private OutputPattern(final long[] segmentNanos, final boolean repeating) {
+    this.segmentNanos = segmentNanos;
+    this.repeating = repeating;
+  }
+
+  /**
+   * Square wave that repeats until stopped.
+   *
+   * @param onMillis
+   *          Milliseconds on in each period, must be positive
+   * @param offMillis
+   *          Milliseconds off in each period, must be positive
+   * @return The pattern
+   */
+  public static OutputPattern blink(final long onMillis, final long offMillis) {
+    Validate.isTrue(onMillis > 0 && offMillis > 0, "Durations must be positive");
+
+    return new OutputPattern(toNanos(onMillis, offMillis), true);
+  }
+
+  /**
+   * Bursts of pulses separated by a pause, repeating until stopped.
+   *
+   * @param pulses
+   *          Number of pulses in each burst, must be positive
+   * @param onMillis
+   *          Milliseconds on for each pulse, must be positive
+   * @param offMillis
+   *          Milliseconds off between pulses, must be positive
+   * @param gapMillis
+   *          Milliseconds off after each burst, must be positive
+   * @return The pattern
+   */
+  public static OutputPattern pulseTrain(final int pulses, final long onMillis, final long offMillis, final long gapMillis) {
+    Validate.isTrue(pulses > 0, "Number of pulses must be positive");
+    Validate.isTrue(onMillis > 0 && offMillis > 0 && gapMillis > 0, "Durations must be positive");
+
+    final long[] millis = new long[2 * pulses];
+    for (int i = 0; i < pulses; i++) {
+      millis[2 * i] = onMillis;
+      millis[2 * i + 1] = offMillis;
+    }
+    millis[millis.length - 1] = gapMillis;
+
+    return new OutputPattern(toNanos(millis), true);
+  }
+
+  /**
+   * Single pulse, after which the output is left off.
+   *
+   * @param onMillis
+   *          Milliseconds on, must be positive
+   * @return The pattern
+   */
+  public static OutputPattern pulse(final long onMillis) {
+    Validate.isTrue(onMillis > 0, "Duration must be positive");
+
+    return new OutputPattern(toNanos(onMillis), false);
+  }
+
+  /**
+   * International Morse code for a message, repeating after a word gap until
+   * stopped.
+   *
+   * @param message
+   *          Letters, digits and spaces, with at least one letter or digit
+   * @param unitMillis
+   *          Duration of a dot in milliseconds, must be positive
+   * @return The pattern
+   */
+  public static OutputPattern morse(final String message, final long unitMillis) {
+    Validate.notBlank(message, "Message can not be blank");
+    Validate.isTrue(unitMillis > 0, "Unit duration must be positive");
+
+    // Encode as unit counts: even indexes on, odd indexes off
+    final long[] units = new long[message.length() * 2 * 5];
+    int length = 0;
+    for (final char letter : message.toUpperCase(Locale.ROOT).toCharArray()) {
+      if (letter == ' ') {
+        if (length > 0) {
+          units[length - 1] = WORD_GAP_UNITS;
+        }
+        continue;
+      }
+
+      final String code = MORSE_CODES[morseIndex(letter)];
+      for (int i = 0; i < code.length(); i++) {
+        units[length++] = code.charAt(i) == '-' ? DASH_UNITS : 1;
+        units[length++] = 1;
+      }
+      units[length - 1] = LETTER_GAP_UNITS;
+    }
+
+    Validate.isTrue(length > 0, "Message must contain a letter or digit");
+    units[length - 1] = WORD_GAP_UNITS;
+
+    final long[] millis = Arrays.copyOf(units, length);
+    for (int i = 0; i < length; i++) {
+      millis[i] *= unitMillis;
+    }
+
+    return new OutputPattern(toNanos(millis), true);
+  }
+
+  private static int morseIndex(final char letter) {
+    if (letter >= 'A' && letter <= 'Z') {
+      return letter - 'A';
+    }
+
+    Validate.isTrue(letter >= '0' && letter <= '9', "Character can not be sent in Morse code: %s", letter);
+
+    return letter - '0' + 26;
+  }
+
+  private static long[] toNanos(final long... millis) {
+    final long[] nanos = new long[millis.length];
+    for (int i = 0; i < millis.length; i++) {
+      nanos[i] = TimeUnit.MILLISECONDS.toNanos(millis[i]);
+    }
+
+    return nanos;
+  }
+
+  /**
+   * @return A pattern with the same timing that plays once and leaves the output off
+   */
+  public OutputPattern once() {
+    return repeating ? new OutputPattern(segmentNanos, false) : this;
+  }
+
+  /**
+   * @return True if the pattern starts over after its last segment
+   */
+  public boolean isRepeating() {
+    return repeating;
+  }
+
+  /**
+   * @return The number of on and off segments in one cycle
+   */
+  public int getSegmentCount() {
+    return segmentNanos.length;
+  }
+
+  /**
+   * @param index
+   *          Segment index; even segments are on, odd segments are off
+   * @return The segment duration in nanoseconds
+   */
+  public long getSegmentNanos(final int index) {
+    return segmentNanos[index];
+  }
+
+  /**
+   * @return The duration of one cycle in nanoseconds
+   */
+  public long getCycleNanos() {
+    long total = 0;
+    for (final long nanos : segmentNanos) {
+      total += nanos;
+    }
+
+    return total;
+  }
+}
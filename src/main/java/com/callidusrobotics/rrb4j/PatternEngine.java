@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Plays {@link OutputPattern}s on the LEDs and open collectors of a board.
+ * <p>
+ * All patterns run from a single timer thread, which sleeps on the board's
+ * clock until the next scheduled edge of any output; on a
+ * {@link VirtualClock} the edges are written by the thread that advances the
+ * clock instead. Edges are computed from the start of each
+ * pattern rather than from the previous write, so timing errors do not
+ * accumulate. The engine tracks the state of every output, including
+ * changes made through the board mutators, and skips writes that would not
+ * change the state of the pin. Each edge that turns an open collector on
+ * re-arms a {@link CommandWatchdog}, so a blinking OC is never tripped.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public class PatternEngine implements CommandListener {
+  private static final BoardOutput[] OUTPUTS = BoardOutput.values();
+  private static final int STATE_UNKNOWN = -1;
+  private static final int STATE_OFF = 0;
+  private static final int STATE_ON = 1;
+
+  private final RasPiRobot3 board;
+  private final BoardClock clock;
+  private final ClockLoop loop;
+  private final Object scheduleLock = new Object();
+
+  // Schedule of each output, indexed by ordinal and guarded by scheduleLock
+  private final OutputPattern[] patterns = new OutputPattern[OUTPUTS.length];
+  private final int[] segments = new int[OUTPUTS.length];
+  private final long[] segmentEnds = new long[OUTPUTS.length];
+
+  // Last known state of each output
+  private final AtomicIntegerArray states = new AtomicIntegerArray(OUTPUTS.length);
+
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong skippedCount = new AtomicLong();
+
+  /**
+   * Schedules the patterns on the board's clock as it is when the engine is created.
+   *
+   * @param board
+   *          The board whose outputs are driven, not null
+   */
+  public PatternEngine(final RasPiRobot3 board) {
+    Validate.notNull(board, "Board can not be null");
+
+    this.board = board;
+    this.clock = board.getClock();
+    this.loop = new ClockLoop(clock, "rrb4j-pattern-engine", Thread.NORM_PRIORITY, this::step);
+    for (int i = 0; i < OUTPUTS.length; i++) {
+      states.set(i, STATE_UNKNOWN);
+    }
+
+    board.addCommandListener(this);
+  }
+
+  /**
+   * Starts playing a pattern on an output, replacing any pattern already
+   * playing on it.
+   *
+   * @param output
+   *          The output to drive, not null
+   * @param pattern
+   *          The pattern to play, not null
+   */
+  public void play(final BoardOutput output, final OutputPattern pattern) {
+    Validate.notNull(output, "Output can not be null");
+    Validate.notNull(pattern, "Pattern can not be null");
+
+    // Read before taking the schedule lock: a virtual clock holds its own lock while it runs the timer,
+    // which then takes the schedule lock
+    final long now = clock.nanoTime();
+
+    synchronized (scheduleLock) {
+      Validate.validState(!board.gpio.isShutdown(), "Board has been shut down");
+
+      final int index = output.ordinal();
+      patterns[index] = pattern;
+
+      // The timer advances to the first segment and writes its state
+      segments[index] = -1;
+      segmentEnds[index] = now;
+    }
+
+    // Outside the schedule lock, since on a virtual clock the timer steps on this thread
+    if (loop.isRunning()) {
+      loop.wake();
+    } else {
+      loop.start();
+    }
+  }
+
+  /**
+   * Stops the pattern playing on an output and turns the output off.
+   *
+   * @param output
+   *          The output to stop, not null
+   */
+  public void stop(final BoardOutput output) {
+    Validate.notNull(output, "Output can not be null");
+
+    synchronized (scheduleLock) {
+      patterns[output.ordinal()] = null;
+      write(output.ordinal(), false);
+    }
+  }
+
+  /**
+   * @param output
+   *          The output to query, not null
+   * @return True if a pattern is playing on the output
+   */
+  public boolean isPlaying(final BoardOutput output) {
+    synchronized (scheduleLock) {
+      return patterns[output.ordinal()] != null;
+    }
+  }
+
+  /**
+   * Stops all patterns, turns their outputs off and stops the timer thread.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the timer thread to stop
+   */
+  public void shutdown() throws InterruptedException {
+    synchronized (scheduleLock) {
+      for (final BoardOutput output : OUTPUTS) {
+        if (patterns[output.ordinal()] != null) {
+          stop(output);
+        }
+      }
+    }
+
+    board.removeCommandListener(this);
+    loop.stop();
+  }
+
+  /**
+   * @return The number of times the engine has written an output pin
+   */
+  public long getWriteCount() {
+    return writeCount.get();
+  }
+
+  /**
+   * @return The number of writes skipped because the output was already in the scheduled state
+   */
+  public long getSkippedWriteCount() {
+    return skippedCount.get();
+  }
+
+  @Override
+  public void outputCommanded(final BoardOutput output, final boolean enabled) {
+    states.set(output.ordinal(), enabled ? STATE_ON : STATE_OFF);
+  }
+
+  // Writes every edge that is due and returns the time of the next one
+  private long step() {
+    long next = ClockLoop.IDLE;
+
+    synchronized (scheduleLock) {
+      // Read the clock under the lock so that it is never behind the start of a new pattern
+      final long now = clock.nanoTime();
+      for (int i = 0; i < OUTPUTS.length; i++) {
+        if (patterns[i] != null) {
+          advance(i, now);
+        }
+
+        if (patterns[i] != null && (next == ClockLoop.IDLE || segmentEnds[i] - next < 0)) {
+          next = segmentEnds[i];
+        }
+      }
+    }
+
+    return next;
+  }
+
+  // Moves an output through every segment that has ended and writes the resulting state
+  @SuppressWarnings("PMD.PrematureDeclaration")
+  private void advance(final int index, final long now) {
+    final OutputPattern pattern = patterns[index];
+    final int segment = segments[index];
+
+    while (segmentEnds[index] - now <= 0) {
+      segments[index]++;
+      if (segments[index] == pattern.getSegmentCount()) {
+        if (!pattern.isRepeating()) {
+          patterns[index] = null;
+          write(index, false);
+          return;
+        }
+
+        segments[index] = 0;
+      }
+
+      segmentEnds[index] += pattern.getSegmentNanos(segments[index]);
+    }
+
+    // Nothing to do if the timer woke up before the current segment ended
+    if (segments[index] != segment) {
+      write(index, segments[index] % 2 == 0);
+    }
+  }
+
+  private void write(final int index, final boolean enabled) {
+    if (states.get(index) == (enabled ? STATE_ON : STATE_OFF)) {
+      skippedCount.incrementAndGet();
+      return;
+    }
+
+    writeCount.incrementAndGet();
+    board.setOutput(OUTPUTS[index], enabled);
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Immutable gains of a {@link SpeedController}.
+ * <p>
+ * Errors are in ticks per second and the output is a proportional duty cycle
+ * in the range [0, 1], so the gains convert speed into duty.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class PidGains {
+  private final float proportional;
+  private final float integral;
+  private final float derivative;
+  private final float feedForward;
+
+  /**
+   * @param proportional
+   *          Duty per tick/s of error, not negative
+   * @param integral
+   *          Duty per tick of accumulated error, not negative
+   * @param derivative
+   *          Duty per tick/s<sup>2</sup> of change in the measured speed, not negative
+   * @param feedForward
+   *          Duty per tick/s of target speed, typically the inverse of the speed at full duty, not negative
+   */
+  public PidGains(final float proportional, final float integral, final float derivative, final float feedForward) {
+    Validate.isTrue(proportional >= 0.0f, "Proportional gain can not be negative: %f", proportional);
+    Validate.isTrue(integral >= 0.0f, "Integral gain can not be negative: %f", integral);
+    Validate.isTrue(derivative >= 0.0f, "Derivative gain can not be negative: %f", derivative);
+    Validate.isTrue(feedForward >= 0.0f, "Feed-forward gain can not be negative: %f", feedForward);
+
+    this.proportional = proportional;
+    this.integral = integral;
+    this.derivative = derivative;
+    this.feedForward = feedForward;
+  }
+
+  /**
+   * @return Duty per tick/s of error
+   */
+  public float getProportional() {
+    return proportional;
+  }
+
+  /**
+   * @return Duty per tick of accumulated error
+   */
+  public float getIntegral() {
+    return integral;
+  }
+
+  /**
+   * @return Duty per tick/s<sup>2</sup> of change in the measured speed
+   */
+  public float getDerivative() {
+    return derivative;
+  }
+
+  /**
+   * @return Duty per tick/s of target speed
+   */
+  public float getFeedForward() {
+    return feedForward;
+  }
+
+  @Override
+  public String toString() {
+    return "kp=" + proportional + ", ki=" + integral + ", kd=" + derivative + ", kff=" + feedForward;
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.system.SystemInfo;
+
+/**
+ * Immutable assignment of the board's functions to BCM GPIO pins.
+ * <p>
+ * {@link #RRB3} and {@link #RRB3_REV1} describe the stock wiring; custom
+ * wirings can be derived from them with {@link #with(Role, Pin)}. A map never
+ * assigns the same pin to two roles, so a board provisions each pin exactly
+ * once.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class PinMap {
+  private static final Logger LOGGER = Logger.getLogger(PinMap.class.getName());
+
+  /**
+   * Functions of the board that are wired to a GPIO pin.
+   */
+  public enum Role {
+    LED1, LED2, SWITCH1, SWITCH2, OC1, OC2,
+    M1_PWM, M2_PWM, M1_PHASE1, M1_PHASE2, M2_PHASE1, M2_PHASE2,
+    RANGE_TRIGGER, RANGE_ECHO,
+    ENCODER1_A, ENCODER1_B, ENCODER2_A, ENCODER2_B
+  }
+
+  /**
+   * Wiring of the RRB3 on a Raspberry Pi with the revision 2 (or later) header.
+   * The optional wheel encoders use GPIO 16, 19, 20 and 26, which are only
+   * present on the 40-pin header.
+   */
+  public static final PinMap RRB3 = new PinMap(
+      RaspiPin.GPIO_08, RaspiPin.GPIO_07, RaspiPin.GPIO_11, RaspiPin.GPIO_09, RaspiPin.GPIO_22, RaspiPin.GPIO_27,
+      RaspiPin.GPIO_24, RaspiPin.GPIO_14, RaspiPin.GPIO_17, RaspiPin.GPIO_04, RaspiPin.GPIO_10, RaspiPin.GPIO_25,
+      RaspiPin.GPIO_18, RaspiPin.GPIO_23,
+      RaspiPin.GPIO_16, RaspiPin.GPIO_19, RaspiPin.GPIO_20, RaspiPin.GPIO_26);
+
+  /**
+   * Wiring of the RRB3 on a revision 1 Raspberry Pi Model B, where header pin
+   * 13 is GPIO 21 instead of GPIO 27.
+   */
+  public static final PinMap RRB3_REV1 = RRB3.with(Role.OC2, RaspiPin.GPIO_21);
+
+  private final Map<Role, Pin> pins;
+
+  // Pins in the declaration order of Role
+  @SuppressWarnings("PMD.UseVarargs")
+  private PinMap(final Pin... rolePins) {
+    this(toMap(rolePins));
+  }
+
+  private PinMap(final Map<Role, Pin> pins) {
+    final Set<Pin> distinct = new HashSet<>(pins.values());
+    Validate.isTrue(distinct.size() == pins.size(), "Each pin can only be assigned to one role: %s", pins);
+
+    this.pins = Collections.unmodifiableMap(pins);
+  }
+
+  private static Map<Role, Pin> toMap(final Pin... rolePins) {
+    final Map<Role, Pin> map = new EnumMap<>(Role.class);
+    for (final Role role : Role.values()) {
+      map.put(role, rolePins[role.ordinal()]);
+    }
+
+    return map;
+  }
+
+  /**
+   * @param role
+   *          The role to look up, not null
+   * @return The pin assigned to the role
+   */
+  public Pin get(final Role role) {
+    Validate.notNull(role, "Role can not be null");
+
+    return pins.get(role);
+  }
+
+  /**
+   * Derives a custom wiring from this one.
+   *
+   * @param role
+   *          The role to reassign, not null
+   * @param pin
+   *          The pin to assign to the role, not null
+   * @return A new map with the role reassigned
+   * @throws IllegalArgumentException
+   *           If the pin is already assigned to another role
+   */
+  public PinMap with(final Role role, final Pin pin) {
+    Validate.notNull(role, "Role can not be null");
+    Validate.notNull(pin, "Pin can not be null");
+
+    final Map<Role, Pin> map = new EnumMap<>(pins);
+    map.put(role, pin);
+
+    return new PinMap(map);
+  }
+
+  /**
+   * @param boardType
+   *          The Raspberry Pi model, not null
+   * @return The stock wiring of the RRB3 on that model
+   */
+  public static PinMap forBoardType(final SystemInfo.BoardType boardType) {
+    Validate.notNull(boardType, "Board type can not be null");
+
+    return boardType == SystemInfo.BoardType.RaspberryPi_B_Rev1 ? RRB3_REV1 : RRB3;
+  }
+
+  /**
+   * Selects the stock wiring for the Raspberry Pi this is running on.
+   *
+   * @return The wiring for the detected model, or {@link #RRB3} if the model can not be determined
+   */
+  public static PinMap detect() {
+    try {
+      return forBoardType(SystemInfo.getBoardType());
+    } catch (IOException | UnsupportedOperationException e) {
+      LOGGER.log(Level.WARNING, "Unable to detect the Raspberry Pi model, assuming the revision 2 header", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return RRB3;
+  }
+
+  @Override
+  public String toString() {
+    return pins.toString();
+  }
+}
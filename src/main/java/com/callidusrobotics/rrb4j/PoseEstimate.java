@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Reusable copy of a {@link PoseEstimator}'s estimate.
+ * <p>
+ * Filled by {@link PoseEstimator#read(PoseEstimate)}, so a control loop can
+ * poll the pose without allocating. Positions are in cm and headings in
+ * radians, counter-clockwise from the x axis. An estimate is not
+ * thread-safe; each reading thread should own one.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class PoseEstimate {
+  // Row-major, in the order x, y, heading
+  final double[] covariance = new double[9];
+  double xCm;
+  double yCm;
+  double heading;
+  long timeNanos;
+  long sequence;
+
+  /**
+   * @return The estimated x coordinate in cm
+   */
+  public double getX() {
+    return xCm;
+  }
+
+  /**
+   * @return The estimated y coordinate in cm
+   */
+  public double getY() {
+    return yCm;
+  }
+
+  /**
+   * @return The estimated heading in radians, in the range (-pi, pi]
+   */
+  public double getHeading() {
+    return heading;
+  }
+
+  /**
+   * @param row
+   *          0 for x, 1 for y or 2 for heading
+   * @param column
+   *          0 for x, 1 for y or 2 for heading
+   * @return The covariance of the two state variables, in cm and radians
+   */
+  public double getCovariance(final int row, final int column) {
+    return covariance[row * 3 + column];
+  }
+
+  /**
+   * @return The board time in nanoseconds up to which the estimate has been integrated
+   */
+  public long getTimeNanos() {
+    return timeNanos;
+  }
+
+  /**
+   * @return The number of updates published before this estimate, so readers can tell whether it changed
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("(%.1f, %.1f) cm at %.1f deg", xCm, yCm, Math.toDegrees(heading));
+  }
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Dead-reckoning estimate of the robot's position and heading, with its
+ * covariance.
+ * <p>
+ * The estimator listens to the duty cycles the board applies to its motors
+ * and integrates differential-drive kinematics over the time each was in
+ * effect, using the duty cycle actually applied (after voltage scaling and
+ * any forward duty limit) and the direction of each motor. Motor-1 drives
+ * the left wheel and motor-2 the right. Every change is seen as it is
+ * written, including the stop for the H-bridge dead time before a change
+ * of direction, the idle and watchdog stops and the proximity reflex's
+ * forward limit.
+ * <p>
+ * Wheel speed is assumed to be proportional to duty cycle, which makes
+ * the estimate only as good as that calibration; set a wheel feedback
+ * source, such as the board's encoders, to integrate measured wheel travel
+ * instead. Wheel slip makes the covariance grow with the distance each
+ * wheel travels; external position or heading fixes shrink it again by a
+ * Kalman update.
+ * <p>
+ * Call {@link #update()} to integrate up to the present between changes.
+ * Any thread may update or correct the estimate, and any
+ * thread may {@link #read(PoseEstimate)} it without locking: every update
+ * is published as one consistent snapshot through a sequence lock.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class PoseEstimator implements CommandListener {
+
+  /**
+   * Default variance of the travel of a wheel driven by duty cycle alone, in cm^2 per cm travelled.
+   */
+  public static final double SLIP_DEFAULT = 0.1;
+
+  /**
+   * Typical variance of the travel of a wheel measured by feedback, in cm^2 per cm travelled.
+   */
+  public static final double FEEDBACK_SLIP = 0.01;
+
+  // Longest interval integrated as one arc, so the covariance follows the curve
+  static final long STEP_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  // Layout of the published snapshot
+  private static final int SEQUENCE = 0;
+  private static final int POSE = 1;
+  private static final int COVARIANCE = 4;
+  private static final int TIME = 13;
+  private static final int SNAPSHOT_SIZE = 14;
+
+  private final RasPiRobot3 board;
+  private final double fullSpeedCmS;
+  private final double wheelBaseCm;
+  private final AtomicLongArray snapshot = new AtomicLongArray(SNAPSHOT_SIZE);
+  private final Object writeLock = new Object();
+
+  // Guarded by writeLock
+  private final double[] covariance = new double[9];
+  private final double[] scratch = new double[9];
+  private double xCm;
+  private double yCm;
+  private double heading;
+  private long timeNanos;
+  private double leftSpeed;
+  private double rightSpeed;
+  private double commandSlip = SLIP_DEFAULT;
+  private LongSupplier leftTicks;
+  private LongSupplier rightTicks;
+  private double cmPerTick;
+  private double feedbackSlip;
+  private long lastLeftTicks;
+  private long lastRightTicks;
+
+  /**
+   * Starts at the origin facing along the x axis with no uncertainty.
+   *
+   * @param board
+   *          The board whose commands are integrated, not null
+   * @param fullSpeedCmS
+   *          Wheel speed at 100% duty cycle, must be positive
+   * @param wheelBaseCm
+   *          Distance between the wheels, must be positive
+   */
+  public PoseEstimator(final RasPiRobot3 board, final double fullSpeedCmS, final double wheelBaseCm) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.isTrue(fullSpeedCmS > 0.0, "Wheel speed must be positive");
+    Validate.isTrue(wheelBaseCm > 0.0, "Wheel base must be positive");
+
+    this.board = board;
+    this.fullSpeedCmS = fullSpeedCmS;
+    this.wheelBaseCm = wheelBaseCm;
+    this.timeNanos = board.currentTimeNanos();
+    publish();
+  }
+
+  /**
+   * Starts integrating the board's motor commands from now.
+   */
+  public void start() {
+    synchronized (writeLock) {
+      timeNanos = board.currentTimeNanos();
+      sampleMotors();
+      publish();
+    }
+
+    board.addCommandListener(this);
+  }
+
+  /**
+   * Stops integrating, after integrating up to now.
+   */
+  public void stop() {
+    board.removeCommandListener(this);
+    update();
+  }
+
+  /**
+   * Replaces the estimate, for example with a known starting position.
+   *
+   * @param xCm
+   *          The x coordinate in cm
+   * @param yCm
+   *          The y coordinate in cm
+   * @param heading
+   *          The heading in radians
+   * @param positionVariance
+   *          Variance of each coordinate in cm^2, must not be negative
+   * @param headingVariance
+   *          Variance of the heading in radians^2, must not be negative
+   */
+  public void setPose(final double xCm, final double yCm, final double heading, final double positionVariance, final double headingVariance) {
+    Validate.isTrue(positionVariance >= 0.0, "Position variance must not be negative");
+    Validate.isTrue(headingVariance >= 0.0, "Heading variance must not be negative");
+
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+      this.xCm = xCm;
+      this.yCm = yCm;
+      this.heading = normalize(heading);
+      Arrays.fill(covariance, 0.0);
+      covariance[0] = positionVariance;
+      covariance[4] = positionVariance;
+      covariance[8] = headingVariance;
+      publish();
+    }
+  }
+
+  /**
+   * Integrates measured wheel travel instead of assuming it from duty cycle.
+   *
+   * @param leftTicks
+   *          Tick count of the left (motor-1) wheel, such as <code>board.getEncoder1()::getTicks</code>, or null to go back to duty cycle
+   * @param rightTicks
+   *          Tick count of the right (motor-2) wheel, or null to go back to duty cycle
+   * @param cmPerTick
+   *          Wheel travel per tick, must be positive
+   * @param slipVariance
+   *          Variance of the measured travel in cm^2 per cm travelled, must not be negative
+   */
+  public void setWheelFeedback(final LongSupplier leftTicks, final LongSupplier rightTicks, final double cmPerTick, final double slipVariance) {
+    Validate.isTrue((leftTicks == null) == (rightTicks == null), "Set both wheels or neither");
+    Validate.isTrue(cmPerTick > 0.0, "Travel per tick must be positive");
+    Validate.isTrue(slipVariance >= 0.0, "Slip variance must not be negative");
+
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+      this.leftTicks = leftTicks;
+      this.rightTicks = rightTicks;
+      this.cmPerTick = cmPerTick;
+      this.feedbackSlip = slipVariance;
+      if (leftTicks != null) {
+        lastLeftTicks = leftTicks.getAsLong();
+        lastRightTicks = rightTicks.getAsLong();
+      }
+    }
+  }
+
+  /**
+   * @param slipVariance
+   *          Variance of the travel of a wheel driven by duty cycle alone in cm^2 per cm travelled, must not be negative
+   */
+  public void setCommandSlip(final double slipVariance) {
+    Validate.isTrue(slipVariance >= 0.0, "Slip variance must not be negative");
+
+    synchronized (writeLock) {
+      commandSlip = slipVariance;
+    }
+  }
+
+  /**
+   * Integrates up to now.
+   */
+  public void update() {
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+      publish();
+    }
+  }
+
+  /**
+   * Fuses an external position fix into the estimate.
+   *
+   * @param fixXCm
+   *          The measured x coordinate in cm
+   * @param fixYCm
+   *          The measured y coordinate in cm
+   * @param variance
+   *          Variance of each measured coordinate in cm^2, must be positive
+   */
+  public void correctPosition(final double fixXCm, final double fixYCm, final double variance) {
+    Validate.isTrue(variance > 0.0, "Variance must be positive");
+
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+
+      // Kalman gain K = P H' (H P H' + R)^-1 with H selecting x and y
+      final double s00 = covariance[0] + variance;
+      final double s01 = covariance[1];
+      final double s11 = covariance[4] + variance;
+      final double det = s00 * s11 - s01 * s01;
+      final double i00 = s11 / det;
+      final double i01 = -s01 / det;
+      final double i11 = s00 / det;
+
+      final double innovationX = fixXCm - xCm;
+      final double innovationY = fixYCm - yCm;
+      for (int row = 0; row < 3; row++) {
+        final double rowX = covariance[row * 3];
+        final double rowY = covariance[row * 3 + 1];
+        scratch[row * 3] = rowX * i00 + rowY * i01;
+        scratch[row * 3 + 1] = rowX * i01 + rowY * i11;
+      }
+
+      xCm += scratch[0] * innovationX + scratch[1] * innovationY;
+      yCm += scratch[3] * innovationX + scratch[4] * innovationY;
+      heading = normalize(heading + scratch[6] * innovationX + scratch[7] * innovationY);
+
+      // P = P - K H P, where H P is the first two rows of P
+      subtractGain(0, 2);
+      publish();
+    }
+  }
+
+  /**
+   * Fuses an external heading fix, such as a compass reading, into the estimate.
+   *
+   * @param fixHeading
+   *          The measured heading in radians
+   * @param variance
+   *          Variance of the measured heading in radians^2, must be positive
+   */
+  public void correctHeading(final double fixHeading, final double variance) {
+    Validate.isTrue(variance > 0.0, "Variance must be positive");
+
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+
+      final double innovation = normalize(fixHeading - heading);
+      final double inverse = 1.0 / (covariance[8] + variance);
+      for (int row = 0; row < 3; row++) {
+        scratch[row * 3 + 2] = covariance[row * 3 + 2] * inverse;
+      }
+
+      xCm += scratch[2] * innovation;
+      yCm += scratch[5] * innovation;
+      heading = normalize(heading + scratch[8] * innovation);
+
+      // P = P - K H P, where H P is the last row of P
+      subtractGain(2, 3);
+      publish();
+    }
+  }
+
+  /**
+   * Copies the latest published estimate without locking.
+   *
+   * @param estimate
+   *          Receives the estimate, not null
+   * @return The estimate, for convenience
+   */
+  public PoseEstimate read(final PoseEstimate estimate) {
+    long sequence;
+    do {
+      sequence = snapshot.get(SEQUENCE);
+      estimate.xCm = Double.longBitsToDouble(snapshot.get(POSE));
+      estimate.yCm = Double.longBitsToDouble(snapshot.get(POSE + 1));
+      estimate.heading = Double.longBitsToDouble(snapshot.get(POSE + 2));
+      for (int i = 0; i < 9; i++) {
+        estimate.covariance[i] = Double.longBitsToDouble(snapshot.get(COVARIANCE + i));
+      }
+      estimate.timeNanos = snapshot.get(TIME);
+    } while ((sequence & 1) != 0 || sequence != snapshot.get(SEQUENCE));
+
+    estimate.sequence = sequence >>> 1;
+
+    return estimate;
+  }
+
+  @Override
+  public void motorDutyApplied(final int m1Duty, final MotorDirection m1Direction, final int m2Duty, final MotorDirection m2Direction) {
+    synchronized (writeLock) {
+      integrateTo(board.currentTimeNanos());
+      leftSpeed = wheelSpeed(m1Duty, m1Direction);
+      rightSpeed = wheelSpeed(m2Duty, m2Direction);
+      publish();
+    }
+  }
+
+  // Called with the write lock held
+  private void sampleMotors() {
+    leftSpeed = wheelSpeed(board.getM1AppliedDuty(), board.m1Direction);
+    rightSpeed = wheelSpeed(board.getM2AppliedDuty(), board.m2Direction);
+  }
+
+  private double wheelSpeed(final int duty, final MotorDirection direction) {
+    final double speed = fullSpeedCmS * duty / AbstractRasPiRobot.PWM_RANGE;
+
+    return direction == MotorDirection.REVERSE ? -speed : speed;
+  }
+
+  // Called with the write lock held
+  private void integrateTo(final long now) {
+    if (now <= timeNanos) {
+      return;
+    }
+
+    if (leftTicks == null) {
+      for (long start = timeNanos; start < now && (leftSpeed != 0.0 || rightSpeed != 0.0); start += STEP_MAX_NANOS) {
+        final double seconds = Math.min(STEP_MAX_NANOS, now - start) / NANOS_PER_SECOND;
+        step(leftSpeed * seconds, rightSpeed * seconds, commandSlip);
+      }
+    } else {
+      final long left = leftTicks.getAsLong();
+      final long right = rightTicks.getAsLong();
+      step((left - lastLeftTicks) * cmPerTick, (right - lastRightTicks) * cmPerTick, feedbackSlip);
+      lastLeftTicks = left;
+      lastRightTicks = right;
+    }
+
+    timeNanos = now;
+  }
+
+  // Moves along an arc and propagates the covariance: P = F P F' + G Q G'
+  private void step(final double leftCm, final double rightCm, final double slip) {
+    final double distance = (leftCm + rightCm) / 2.0;
+    final double turn = (rightCm - leftCm) / wheelBaseCm;
+    final double midHeading = heading + turn / 2.0;
+    final double cos = Math.cos(midHeading);
+    final double sin = Math.sin(midHeading);
+
+    // Chord of the arc, which is exact for constant wheel speeds
+    final double chord = Math.abs(turn) < 1e-9 ? distance : distance * Math.sin(turn / 2.0) / (turn / 2.0);
+    xCm += chord * cos;
+    yCm += chord * sin;
+    heading = normalize(heading + turn);
+
+    // F = [1 0 -d sin; 0 1 d cos; 0 0 1]
+    final double f02 = -distance * sin;
+    final double f12 = distance * cos;
+    final double p00 = covariance[0] + 2 * f02 * covariance[2] + f02 * f02 * covariance[8];
+    final double p01 = covariance[1] + f02 * covariance[5] + f12 * covariance[2] + f02 * f12 * covariance[8];
+    final double p02 = covariance[2] + f02 * covariance[8];
+    final double p11 = covariance[4] + 2 * f12 * covariance[5] + f12 * f12 * covariance[8];
+    final double p12 = covariance[5] + f12 * covariance[8];
+
+    // G maps the travel of each wheel to the state; Q = diag(slip * |left|, slip * |right|)
+    final double leftVariance = slip * Math.abs(leftCm);
+    final double rightVariance = slip * Math.abs(rightCm);
+    final double arm = distance / (2.0 * wheelBaseCm);
+    final double gx0 = cos / 2.0 + arm * sin;
+    final double gx1 = cos / 2.0 - arm * sin;
+    final double gy0 = sin / 2.0 - arm * cos;
+    final double gy1 = sin / 2.0 + arm * cos;
+    final double gh0 = -1.0 / wheelBaseCm;
+    final double gh1 = 1.0 / wheelBaseCm;
+
+    set(0, 0, p00 + gx0 * gx0 * leftVariance + gx1 * gx1 * rightVariance);
+    set(0, 1, p01 + gx0 * gy0 * leftVariance + gx1 * gy1 * rightVariance);
+    set(0, 2, p02 + gx0 * gh0 * leftVariance + gx1 * gh1 * rightVariance);
+    set(1, 1, p11 + gy0 * gy0 * leftVariance + gy1 * gy1 * rightVariance);
+    set(1, 2, p12 + gy0 * gh0 * leftVariance + gy1 * gh1 * rightVariance);
+    set(2, 2, covariance[8] + gh0 * gh0 * leftVariance + gh1 * gh1 * rightVariance);
+  }
+
+  // P = P - K H P, for a gain in the same columns of scratch as the measured rows of P
+  private void subtractGain(final int firstRow, final int endRow) {
+    final double[] product = new double[9];
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < 3; column++) {
+        double correction = 0.0;
+        for (int measured = firstRow; measured < endRow; measured++) {
+          correction += scratch[row * 3 + measured] * covariance[measured * 3 + column];
+        }
+        product[row * 3 + column] = covariance[row * 3 + column] - correction;
+      }
+    }
+
+    System.arraycopy(product, 0, covariance, 0, covariance.length);
+    symmetrize();
+  }
+
+  private void set(final int row, final int column, final double value) {
+    covariance[row * 3 + column] = value;
+    covariance[column * 3 + row] = value;
+  }
+
+  private void symmetrize() {
+    set(0, 1, (covariance[1] + covariance[3]) / 2.0);
+    set(0, 2, (covariance[2] + covariance[6]) / 2.0);
+    set(1, 2, (covariance[5] + covariance[7]) / 2.0);
+  }
+
+  // Called with the write lock held; the sequence is odd while the snapshot is being written
+  private void publish() {
+    final long sequence = snapshot.get(SEQUENCE);
+    snapshot.set(SEQUENCE, sequence + 1);
+    snapshot.set(POSE, Double.doubleToRawLongBits(xCm));
+    snapshot.set(POSE + 1, Double.doubleToRawLongBits(yCm));
+    snapshot.set(POSE + 2, Double.doubleToRawLongBits(heading));
+    for (int i = 0; i < 9; i++) {
+      snapshot.set(COVARIANCE + i, Double.doubleToRawLongBits(covariance[i]));
+    }
+    snapshot.set(TIME, timeNanos);
+    snapshot.set(SEQUENCE, sequence + 2);
+  }
+
+  private static double normalize(final double angle) {
+    double normalized = angle % (2 * Math.PI);
+    if (normalized <= -Math.PI) {
+      normalized += 2 * Math.PI;
+    } else if (normalized > Math.PI) {
+      normalized -= 2 * Math.PI;
+    }
+
+    return normalized;
+  }
+}
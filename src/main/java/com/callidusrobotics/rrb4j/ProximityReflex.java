@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Safety layer that stops or slows the motors when the rangefinder detects an
+ * obstacle, independently of the application thread.
+ * <p>
+ * The reflex samples the rangefinder from its own high-priority thread,
+ * timed on the board's {@link BoardClock}. The
+ * stopping distance grows with the commanded forward speed:
+ * <code>stopDistance = minStopCm + stopCmPerSpeed * speed</code>, where
+ * <code>speed</code> is the highest forward duty cycle in the range [0, 1].
+ * Inside the stopping distance forward motion is cut; inside
+ * <code>slowFactor</code> times the stopping distance forward duty is limited
+ * to <code>slowDuty</code>. The limit overrides later calls to
+ * <code>setMotors()</code> until the path is clear again. Motors running in
+ * reverse are never limited so the robot can back away from the obstacle.
+ * <p>
+ * While the reflex is running it owns the rangefinder; applications should
+ * read {@link #getLastRangeCm()} instead of calling
+ * {@link RasPiRobotBoard#getRangeCm()} concurrently.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public class ProximityReflex {
+
+  /**
+   * Default minimum stopping distance in cm.
+   */
+  public static final float STOP_DEFAULT_CM = 10.0f;
+
+  /**
+   * Default additional stopping distance at full speed in cm.
+   */
+  public static final float STOP_PER_SPEED_CM = 40.0f;
+
+  /**
+   * Default multiplier of the stopping distance at which motors are slowed.
+   */
+  public static final float SLOW_DEFAULT_MULT = 2.0f;
+
+  /**
+   * Default proportional duty cycle that motors are limited to when slowed.
+   */
+  public static final float SLOW_DEFAULT_DUTY = 0.25f;
+
+  /**
+   * Default number of milliseconds between rangefinder pings.
+   */
+  public static final int PERIOD_DEFAULT_MS = 50;
+
+  // Consecutive failed pings after which the sensor is presumed lost and the motors are stopped
+  static final int MAX_FAILED_PINGS = 3;
+
+  // Distance beyond a threshold that must be seen before the corresponding limit is released
+  static final float HYSTERESIS_CM = 2.0f;
+
+  private final RasPiRobot3 board;
+  private final RangeReading reading = new RangeReading();
+  private final float minStopCm;
+  private final float stopCmPerSpeed;
+  private final float slowFactor;
+  private final int slowDuty;
+  private final long periodNanos;
+  private final TimingStats latencyStats = new TimingStats();
+  private final Object lifecycleLock = new Object();
+
+  private volatile float lastRangeCm = Float.NaN;
+  private volatile SensorHistory rangeHistory;
+  private volatile boolean running;
+  private int failedPings;
+  private ClockLoop loop;
+
+  /**
+   * Uses the default thresholds and sampling period.
+   *
+   * @param board
+   *          The board whose motors are guarded, not null
+   */
+  public ProximityReflex(final RasPiRobot3 board) {
+    this(board, STOP_DEFAULT_CM, STOP_PER_SPEED_CM, SLOW_DEFAULT_MULT, SLOW_DEFAULT_DUTY, PERIOD_DEFAULT_MS);
+  }
+
+  /**
+   * @param board
+   *          The board whose motors are guarded, not null
+   * @param minStopCm
+   *          Stopping distance when the motors are barely moving, must be positive
+   * @param stopCmPerSpeed
+   *          Additional stopping distance at full speed, must not be negative
+   * @param slowFactor
+   *          Multiplier of the stopping distance at which motors are slowed, must be at least 1
+   * @param slowDuty
+   *          Proportional duty cycle that motors are limited to when slowed, valid values in the range [0, 1]
+   * @param periodMillis
+   *          Number of milliseconds between rangefinder pings, must be positive
+   */
+  public ProximityReflex(final RasPiRobot3 board, final float minStopCm, final float stopCmPerSpeed, final float slowFactor, final float slowDuty, final int periodMillis) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.isTrue(minStopCm > 0.0f, "Minimum stopping distance must be positive");
+    Validate.isTrue(stopCmPerSpeed >= 0.0f, "Stopping distance per speed must not be negative");
+    Validate.isTrue(slowFactor >= 1.0f, "Slow factor must be at least 1");
+    Validate.inclusiveBetween(0.0, 1.0, slowDuty, "Slow duty must be in the range [0, 1]");
+    Validate.isTrue(periodMillis > 0, "Period must be positive");
+
+    this.board = board;
+    this.minStopCm = minStopCm;
+    this.stopCmPerSpeed = stopCmPerSpeed;
+    this.slowFactor = slowFactor;
+    this.slowDuty = (int) (AbstractRasPiRobot.PWM_RANGE * slowDuty);
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+  }
+
+  /**
+   * Starts sampling the rangefinder on a dedicated maximum-priority thread.
+   */
+  public void start() {
+    final ClockLoop started;
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      running = true;
+      loop = new ClockLoop(board.getClock(), "rrb4j-proximity-reflex", Thread.MAX_PRIORITY, this::step);
+      started = loop;
+    }
+
+    // Outside the lifecycle lock, since on a virtual clock the first ping runs on this thread
+    started.start();
+  }
+
+  /**
+   * Stops sampling and releases any limit imposed on the motors.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the reflex to stop
+   */
+  public void stop() throws InterruptedException {
+    final ClockLoop stopped;
+    synchronized (lifecycleLock) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      stopped = loop;
+      loop = null;
+    }
+
+    stopped.stop();
+    board.limitForwardDuty(AbstractRasPiRobot.PWM_RANGE);
+  }
+
+  /**
+   * @return True if the reflex thread is sampling the rangefinder
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return True if the reflex is currently limiting the motors
+   */
+  public boolean isEngaged() {
+    return board.getForwardDutyLimit() < AbstractRasPiRobot.PWM_RANGE;
+  }
+
+  /**
+   * @return The most recent rangefinder reading in cm, <code>Float#POSITIVE_INFINITY</code>
+   *         if out of range or <code>Float#NaN</code> if the sensor did not respond
+   */
+  public float getLastRangeCm() {
+    return lastRangeCm;
+  }
+
+  /**
+   * Records every reading of the reflex thread, so applications can query
+   * the range history instead of sampling the rangefinder themselves.
+   * Readings out of range are recorded as <code>Float#POSITIVE_INFINITY</code>;
+   * failed pings are not recorded.
+   *
+   * @param history
+   *          The history to record to, or null to stop recording
+   */
+  public void setRangeHistory(final SensorHistory history) {
+    rangeHistory = history;
+  }
+
+  /**
+   * @return The history readings are recorded to, or null
+   */
+  public SensorHistory getRangeHistory() {
+    return rangeHistory;
+  }
+
+  /**
+   * Reflex latency: the time from the end of a rangefinder reading until the
+   * resulting duty cycle limit has been written to the motors. Only readings
+   * that change the limit are recorded.
+   *
+   * @return The latency statistics, updated live
+   */
+  public TimingStats getLatencyStats() {
+    return latencyStats;
+  }
+
+  /**
+   * @param speed
+   *          Proportional forward speed, valid values in the range [0, 1]
+   * @return The distance in cm below which forward motion is stopped at that speed
+   */
+  public float getStopDistanceCm(final float speed) {
+    return minStopCm + stopCmPerSpeed * speed;
+  }
+
+  // Pings once and returns the board time at which the next ping is due
+  private long step() {
+    if (!running) {
+      return ClockLoop.FINISHED;
+    }
+
+    // Not connected reads as NaN, which counts as a failed ping
+    board.measureRange(reading);
+    final long readingTime = board.currentTimeNanos();
+    final float rangeCm = reading.getDistanceCm();
+    evaluate(rangeCm, readingTime);
+
+    final SensorHistory history = rangeHistory;
+    if (history != null) {
+      history.record(readingTime, rangeCm);
+    }
+
+    return readingTime + periodNanos;
+  }
+
+  // Computes the duty cycle limit for a rangefinder reading and applies it if it changed
+  void evaluate(final float rangeCm, final long readingTimeNanos) {
+    lastRangeCm = rangeCm;
+
+    final int currentLimit = board.getForwardDutyLimit();
+    final int limit;
+    if (Float.isNaN(rangeCm)) {
+      // Fail safe: a sensor that stops responding can not see obstacles either
+      failedPings++;
+      limit = failedPings >= MAX_FAILED_PINGS ? 0 : currentLimit;
+    } else {
+      failedPings = 0;
+      limit = computeLimit(rangeCm, currentLimit);
+    }
+
+    if (limit != currentLimit) {
+      board.limitForwardDuty(limit);
+      latencyStats.record(board.currentTimeNanos() - readingTimeNanos);
+    }
+  }
+
+  private int computeLimit(final float rangeCm, final int currentLimit) {
+    final float speed = (float) board.getCommandedForwardDuty() / AbstractRasPiRobot.PWM_RANGE;
+    final float stopCm = getStopDistanceCm(speed);
+
+    // Apply hysteresis so that a reading hovering on a threshold does not chatter the motors
+    final float stopReleaseCm = currentLimit == 0 ? stopCm + HYSTERESIS_CM : stopCm;
+    if (rangeCm < stopReleaseCm) {
+      return 0;
+    }
+
+    final float slowCm = stopCm * slowFactor;
+    final float slowReleaseCm = currentLimit < AbstractRasPiRobot.PWM_RANGE ? slowCm + HYSTERESIS_CM : slowCm;
+    if (rangeCm < slowReleaseCm) {
+      return slowDuty;
+    }
+
+    return AbstractRasPiRobot.PWM_RANGE;
+  }
+}
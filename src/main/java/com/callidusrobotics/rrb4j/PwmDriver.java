@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import com.pi4j.io.gpio.Pin;
+
+/**
+ * Software PWM generator for the motor outputs of a board.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ * @see SoftPwmDriver
+ * @see PwmEngine
+ */
+public interface PwmDriver {
+
+  /**
+   * Number of steps in the duty cycle range accepted by {@link #write(Pin, int)}.
+   */
+  int RANGE = 100;
+
+  /**
+   * Starts generating PWM on a pin with a duty cycle of zero.
+   *
+   * @param pin
+   *          The pin to drive, not null
+   */
+  void create(Pin pin);
+
+  /**
+   * Stops generating PWM on a pin and drives it low.
+   *
+   * @param pin
+   *          A pin previously passed to {@link #create(Pin)}
+   */
+  void stop(Pin pin);
+
+  /**
+   * Sets the duty cycle of a pin.
+   *
+   * @param pin
+   *          A pin previously passed to {@link #create(Pin)}
+   * @param value
+   *          Duty cycle in the range [0, {@value #RANGE}]
+   */
+  void write(Pin pin, int value);
+}
@@ -0,0 +1,428 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPin;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * Software PWM generator that drives any number of digital outputs from a
+ * single timing thread.
+ * <p>
+ * Every period starts by raising all pins with a partial duty cycle; each pin
+ * is then lowered at its own offset into the period. The offsets are kept in a
+ * precomputed edge schedule sorted by time, which is rebuilt only when a duty
+ * cycle changes. Pins at 0% or 100% are written once and take no part in the
+ * schedule, and the thread parks while no pin needs edges.
+ * <p>
+ * The schedule is double-buffered: writers rebuild the pending buffer in place
+ * from a primitive array of duty cycles, and the timing thread swaps it with
+ * the buffer it plays at the start of a period. Changing a duty cycle
+ * therefore allocates nothing once every pin has been created.
+ * <p>
+ * The engine can replace wiringPi SoftPwm for the motors through
+ * {@link AbstractRasPiRobot#setPwmDriver(PwmDriver)}, and can also drive the
+ * LEDs and OCs since pins that are already provisioned are reused. Edge
+ * jitter and the CPU time of the timing thread are measured so they can be
+ * compared with the native implementation.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class PwmEngine implements PwmDriver {
+
+  /**
+   * Default PWM frequency, the same as wiringPi SoftPwm with a range of 100.
+   */
+  public static final int DEFAULT_HZ = 100;
+
+  // Remaining wait below which the timing thread spins instead of parking
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final GpioController gpio;
+  private final int resolution;
+  private final long periodNanos;
+  private final Object scheduleLock = new Object();
+  private final Map<Pin, Integer> slots = new HashMap<>();
+  private final TimingStats jitterStats = new TimingStats();
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  // Pins in the order they were first created, indexed by slot and guarded by scheduleLock
+  private GpioPinDigitalOutput[] outputs = new GpioPinDigitalOutput[0];
+  private int[] duties = new int[0];
+  private boolean[] created = new boolean[0];
+  private int slotCount;
+
+  // Buffer rebuilt by writers and buffer played by the timing thread, swapped under scheduleLock
+  private Schedule pending = new Schedule(0);
+  private Schedule active = new Schedule(0);
+  private volatile boolean changed;
+
+  private volatile boolean running;
+  private Thread thread;
+
+  // Edge schedule of the duty cycles, rebuilt in place; the first count entries of each array are used
+  static final class Schedule {
+    final GpioPinDigitalOutput[] pulsed;
+    final long[] fallNanos;
+    final GpioPinDigitalOutput[] steadyHigh;
+    final GpioPinDigitalOutput[] steadyLow;
+    int pulsedCount;
+    int highCount;
+    int lowCount;
+
+    Schedule(final int capacity) {
+      pulsed = new GpioPinDigitalOutput[capacity];
+      fallNanos = new long[capacity];
+      steadyHigh = new GpioPinDigitalOutput[capacity];
+      steadyLow = new GpioPinDigitalOutput[capacity];
+    }
+  }
+
+  /**
+   * Uses the default frequency of {@value #DEFAULT_HZ} Hz and a resolution of {@value PwmDriver#RANGE} steps.
+   *
+   * @param gpio
+   *          Controller used to provision the output pins, not null
+   */
+  public PwmEngine(final GpioController gpio) {
+    this(gpio, DEFAULT_HZ, RANGE);
+  }
+
+  /**
+   * @param gpio
+   *          Controller used to provision the output pins, not null
+   * @param frequencyHz
+   *          Number of PWM periods per second, must be positive
+   * @param resolution
+   *          Number of duty cycle steps per period, must be positive and no finer than one microsecond
+   */
+  public PwmEngine(final GpioController gpio, final int frequencyHz, final int resolution) {
+    Validate.notNull(gpio, "GPIO controller can not be null");
+    Validate.isTrue(frequencyHz > 0, "Frequency must be positive");
+    Validate.isTrue(resolution > 0, "Resolution must be positive");
+
+    this.gpio = gpio;
+    this.resolution = resolution;
+    this.periodNanos = TimeUnit.SECONDS.toNanos(1) / frequencyHz;
+
+    Validate.isTrue(periodNanos / resolution >= TimeUnit.MICROSECONDS.toNanos(1), "Resolution is finer than one microsecond");
+  }
+
+  /**
+   * Starts generating PWM on a pin, starting the timing thread if needed. A
+   * pin that is already provisioned as a digital output is reused.
+   */
+  @Override
+  public void create(final Pin pin) {
+    Validate.notNull(pin, "Pin can not be null");
+
+    synchronized (scheduleLock) {
+      Integer slot = slots.get(pin);
+      if (slot == null) {
+        final GpioPin provisioned = gpio.getProvisionedPin(pin);
+        final GpioPinDigitalOutput output = provisioned instanceof GpioPinDigitalOutput
+            ? (GpioPinDigitalOutput) provisioned
+            : gpio.provisionDigitalOutputPin(pin, "PWM" + pin.getAddress(), PinState.LOW);
+        slot = addSlot(pin, output);
+      }
+
+      created[slot] = true;
+      duties[slot] = 0;
+      rebuild();
+      start();
+    }
+  }
+
+  @Override
+  public void stop(final Pin pin) {
+    synchronized (scheduleLock) {
+      final Integer slot = slots.get(pin);
+      if (slot == null || !created[slot]) {
+        return;
+      }
+
+      // Stopped pins stay in the schedule as steady-low so the timing thread is the only writer
+      created[slot] = false;
+      duties[slot] = 0;
+      rebuild();
+    }
+  }
+
+  /**
+   * Sets the duty cycle of a pin on the driver scale of [0, {@value PwmDriver#RANGE}].
+   */
+  @Override
+  public void write(final Pin pin, final int value) {
+    writeSteps(pin, (int) ((long) Math.max(0, Math.min(RANGE, value)) * resolution / RANGE));
+  }
+
+  /**
+   * Sets the duty cycle of a pin at the full resolution of the engine.
+   *
+   * @param pin
+   *          A pin previously passed to {@link #create(Pin)}
+   * @param steps
+   *          Duty cycle in the range [0, resolution]
+   */
+  public void writeSteps(final Pin pin, final int steps) {
+    // Checked by hand so that a valid write allocates nothing, not even a varargs array
+    if (steps < 0 || steps > resolution) {
+      throw new IllegalArgumentException("Duty cycle must be in the range [0, resolution]");
+    }
+
+    synchronized (scheduleLock) {
+      final Integer slot = slots.get(pin);
+      if (slot == null || !created[slot]) {
+        throw new IllegalStateException("PWM has not been created on this pin");
+      }
+
+      if (duties[slot] != steps) {
+        duties[slot] = steps;
+        rebuild();
+      }
+    }
+  }
+
+  /**
+   * Starts the timing thread.
+   */
+  public void start() {
+    synchronized (scheduleLock) {
+      if (running) {
+        return;
+      }
+
+      running = true;
+      thread = new Thread(this::run, "rrb4j-pwm-engine");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops the timing thread and drives every pin low.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the timing thread to stop
+   */
+  public void shutdown() throws InterruptedException {
+    final Thread stopped;
+    synchronized (scheduleLock) {
+      running = false;
+      stopped = thread;
+      thread = null;
+    }
+
+    if (stopped != null) {
+      LockSupport.unpark(stopped);
+      stopped.join();
+    }
+
+    synchronized (scheduleLock) {
+      for (int slot = 0; slot < slotCount; slot++) {
+        outputs[slot].setState(PinState.LOW);
+      }
+    }
+  }
+
+  /**
+   * @return The length of one PWM period in nanoseconds
+   */
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * @return The number of duty cycle steps per period
+   */
+  public int getResolution() {
+    return resolution;
+  }
+
+  /**
+   * Edge jitter: how late each scheduled falling edge was written.
+   *
+   * @return The jitter statistics, updated live
+   */
+  public TimingStats getJitterStats() {
+    return jitterStats;
+  }
+
+  /**
+   * @return CPU time consumed by the timing thread in nanoseconds, or -1 if it is not running or not measurable
+   */
+  public long getCpuTimeNanos() {
+    final Thread current = thread;
+    if (current == null || !threadBean.isThreadCpuTimeSupported()) {
+      return -1;
+    }
+
+    return threadBean.getThreadCpuTime(current.getId());
+  }
+
+  // Latest schedule, for tests
+  Schedule getSchedule() {
+    synchronized (scheduleLock) {
+      return changed ? pending : active;
+    }
+  }
+
+  // Gives a newly created pin the next slot, growing the slot arrays; caller must hold scheduleLock
+  private int addSlot(final Pin pin, final GpioPinDigitalOutput output) {
+    final int slot = slotCount++;
+    outputs = Arrays.copyOf(outputs, slotCount);
+    duties = Arrays.copyOf(duties, slotCount);
+    created = Arrays.copyOf(created, slotCount);
+    outputs[slot] = output;
+    slots.put(pin, slot);
+
+    return slot;
+  }
+
+  // Rebuilds the pending schedule in place from the duty cycles; caller must hold scheduleLock
+  private void rebuild() {
+    if (pending.pulsed.length < slotCount) {
+      pending = new Schedule(slotCount);
+    }
+
+    final Schedule next = pending;
+    next.pulsedCount = 0;
+    next.highCount = 0;
+    next.lowCount = 0;
+    for (int slot = 0; slot < slotCount; slot++) {
+      final int steps = duties[slot];
+      if (steps == resolution) {
+        next.steadyHigh[next.highCount++] = outputs[slot];
+      } else if (steps > 0) {
+        insertPulsed(next, outputs[slot], periodNanos * steps / resolution);
+      } else {
+        next.steadyLow[next.lowCount++] = outputs[slot];
+      }
+    }
+
+    changed = true;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  // Insertion sort by falling edge, keeping pins with the same edge in slot order
+  private static void insertPulsed(final Schedule next, final GpioPinDigitalOutput output, final long fallNanos) {
+    int index = next.pulsedCount++;
+    while (index > 0 && next.fallNanos[index - 1] > fallNanos) {
+      next.pulsed[index] = next.pulsed[index - 1];
+      next.fallNanos[index] = next.fallNanos[index - 1];
+      index--;
+    }
+
+    next.pulsed[index] = output;
+    next.fallNanos[index] = fallNanos;
+  }
+
+  // Makes the pending schedule the one played by the timing thread
+  private Schedule swap() {
+    synchronized (scheduleLock) {
+      final Schedule played = pending;
+      pending = active;
+      active = played;
+      changed = false;
+
+      return played;
+    }
+  }
+
+  private void run() {
+    ThreadPlacement.placeCurrentThread();
+    Schedule current = new Schedule(0);
+    long periodStart = System.nanoTime();
+
+    while (running) {
+      if (changed) {
+        current = swap();
+        applySteady(current);
+      }
+
+      if (current.pulsedCount == 0) {
+        // Nothing to toggle until a duty cycle changes
+        LockSupport.park(this);
+        periodStart = System.nanoTime();
+        continue;
+      }
+
+      for (int i = 0; i < current.pulsedCount; i++) {
+        current.pulsed[i].setState(PinState.HIGH);
+      }
+
+      for (int i = 0; i < current.pulsedCount; i++) {
+        final long edge = periodStart + current.fallNanos[i];
+        waitUntil(edge);
+        current.pulsed[i].setState(PinState.LOW);
+        jitterStats.record(System.nanoTime() - edge);
+      }
+
+      periodStart += periodNanos;
+      waitUntil(periodStart);
+
+      // Start afresh rather than trying to catch up after an overrun, e.g. a GC pause
+      final long now = System.nanoTime();
+      if (now - periodStart > periodNanos) {
+        periodStart = now;
+      }
+    }
+  }
+
+  private static void applySteady(final Schedule current) {
+    for (int i = 0; i < current.highCount; i++) {
+      current.steadyHigh[i].setState(PinState.HIGH);
+    }
+
+    for (int i = 0; i < current.lowCount; i++) {
+      current.steadyLow[i].setState(PinState.LOW);
+    }
+  }
+
+  private void waitUntil(final long deadline) {
+    long remaining = deadline - System.nanoTime();
+    while (remaining > 0 && running) {
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+      }
+
+      remaining = deadline - System.nanoTime();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
+/**
+ * Decodes a quadrature wheel encoder wired to two GPIO inputs.
+ * <p>
+ * Every edge on either channel is decoded from its pin interrupt into a
+ * signed tick count: four ticks per cycle, counting up while channel A leads
+ * channel B. Swap the channels to reverse the direction. Decoding is
+ * lock-free, and reading the count, the velocity or the number of lost edges
+ * is wait-free from any thread.
+ * <p>
+ * Velocity is the number of ticks in a sliding window divided by its length.
+ * The window is divided into slices of equal length; only complete slices
+ * are counted, so the estimate lags by up to one slice.
+ * <p>
+ * An edge is lost when an interrupt reports a channel at the level it was
+ * already at, meaning the opposite edge was never seen. Lost edges are
+ * counted but can not be corrected, since their direction is unknown.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public class QuadratureEncoder implements GpioPinListenerDigital, VelocitySource {
+
+  /**
+   * Default length of the velocity window in ms.
+   */
+  public static final long WINDOW_DEFAULT_MS = 100;
+
+  /**
+   * Default number of slices in the velocity window.
+   */
+  public static final int SLICES_DEFAULT = 10;
+
+  // Bits of the channels in the decoder state
+  static final int CHANNEL_A = 2;
+  static final int CHANNEL_B = 1;
+
+  // Tick delta indexed by (previous state << 2 | current state)
+  private static final int[] TRANSITIONS = {
+    0, -1, +1, 0,
+    +1, 0, 0, -1,
+    -1, 0, 0, +1,
+    0, +1, -1, 0
+  };
+
+  // Each slice packs its id into the high bits and its biased tick count into the low bits
+  private static final int COUNT_BITS = 24;
+  private static final long COUNT_BIAS = 1L << (COUNT_BITS - 1);
+  private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+  private static final long ID_MASK = -1L >>> COUNT_BITS;
+
+  private final GpioPinDigitalInput pinA;
+  private final GpioPinDigitalInput pinB;
+  private final AtomicInteger state = new AtomicInteger();
+  private final AtomicLong ticks = new AtomicLong();
+  private final AtomicLong lostEdges = new AtomicLong();
+  private final AtomicLongArray slices;
+  private final long sliceNanos;
+
+  /**
+   * Uses the default velocity window.
+   *
+   * @param pinA
+   *          The input of channel A, not null
+   * @param pinB
+   *          The input of channel B, not null
+   */
+  public QuadratureEncoder(final GpioPinDigitalInput pinA, final GpioPinDigitalInput pinB) {
+    this(pinA, pinB, WINDOW_DEFAULT_MS, SLICES_DEFAULT);
+  }
+
+  /**
+   * @param pinA
+   *          The input of channel A, not null
+   * @param pinB
+   *          The input of channel B, not null
+   * @param windowMillis
+   *          Length of the velocity window in ms, must be positive
+   * @param sliceCount
+   *          Number of slices in the velocity window, must be positive
+   */
+  public QuadratureEncoder(final GpioPinDigitalInput pinA, final GpioPinDigitalInput pinB, final long windowMillis, final int sliceCount) {
+    Validate.notNull(pinA, "Pin A can not be null");
+    Validate.notNull(pinB, "Pin B can not be null");
+    Validate.isTrue(windowMillis > 0, "Window must be positive: %d", windowMillis);
+    Validate.isTrue(sliceCount > 0, "Slice count must be positive: %d", sliceCount);
+
+    this.pinA = pinA;
+    this.pinB = pinB;
+    this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / sliceCount;
+    Validate.isTrue(sliceNanos > 0, "Window is too short for %d slices", sliceCount);
+
+    // One more slot than slices for the slice in progress
+    this.slices = new AtomicLongArray(sliceCount + 1);
+    for (int i = 0; i < slices.length(); i++) {
+      slices.set(i, COUNT_BIAS);
+    }
+
+    state.set((pinA.isHigh() ? CHANNEL_A : 0) | (pinB.isHigh() ? CHANNEL_B : 0));
+    pinA.addListener(this);
+    pinB.addListener(this);
+  }
+
+  @Override
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  public void handleGpioPinDigitalStateChangeEvent(final GpioPinDigitalStateChangeEvent event) {
+    final int channel = event.getPin() == pinA ? CHANNEL_A : CHANNEL_B;
+    edge(channel, event.getState().isHigh(), System.nanoTime());
+  }
+
+  /**
+   * Stops decoding edges.
+   */
+  public void close() {
+    pinA.removeListener(this);
+    pinB.removeListener(this);
+  }
+
+  /**
+   * @return The signed number of ticks counted since construction
+   */
+  public long getTicks() {
+    return ticks.get();
+  }
+
+  /**
+   * @return The number of edges that were missed
+   */
+  public long getLostEdges() {
+    return lostEdges.get();
+  }
+
+  /**
+   * @return The signed velocity in ticks per second over the window
+   */
+  @Override
+  public float getTicksPerSecond() {
+    return getTicksPerSecond(System.nanoTime());
+  }
+
+  // Decodes an edge on a channel; lock-free so that concurrent interrupt threads never block
+  void edge(final int channel, final boolean high, final long timeNanos) {
+    int previous;
+    int current;
+    do {
+      previous = state.get();
+      current = high ? previous | channel : previous & ~channel;
+      if (current == previous) {
+        lostEdges.incrementAndGet();
+        return;
+      }
+    } while (!state.compareAndSet(previous, current));
+
+    final int delta = TRANSITIONS[previous << 2 | current];
+    ticks.addAndGet(delta);
+    addToSlice(Math.floorDiv(timeNanos, sliceNanos), delta);
+  }
+
+  // Sums the complete slices of the window ending at the given time
+  float getTicksPerSecond(final long timeNanos) {
+    final long current = Math.floorDiv(timeNanos, sliceNanos);
+    final int length = slices.length();
+
+    long sum = 0;
+    for (int i = 0; i < length; i++) {
+      final long packed = slices.get(i);
+      final long age = (current - (packed >>> COUNT_BITS)) & ID_MASK;
+      if (age > 0 && age < length) {
+        sum += (packed & COUNT_MASK) - COUNT_BIAS;
+      }
+    }
+
+    return sum * (float) TimeUnit.SECONDS.toNanos(1) / ((length - 1) * sliceNanos);
+  }
+
+  private void addToSlice(final long slice, final int delta) {
+    final int index = (int) Math.floorMod(slice, (long) slices.length());
+    final long sliceId = slice & ID_MASK;
+
+    long packed;
+    long updated;
+    do {
+      packed = slices.get(index);
+      if (packed >>> COUNT_BITS == sliceId) {
+        updated = packed + delta;
+      } else {
+        updated = sliceId << COUNT_BITS | (COUNT_BIAS + delta);
+      }
+    } while (!slices.compareAndSet(index, packed, updated));
+  }
+}
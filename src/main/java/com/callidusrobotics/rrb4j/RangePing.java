@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+
+import com.callidusrobotics.rrb4j.BehaviorTree.Status;
+
+/**
+ * Behavior tree leaf that reads the rangefinder without blocking the tree.
+ * <p>
+ * The reading is stored on the blackboard in cm: <code>Float#POSITIVE_INFINITY</code>
+ * if out of range, or <code>Float#NaN</code> if the sensor did not respond,
+ * in which case the leaf fails.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public class RangePing extends AbstractAsyncAction {
+  private final int rangeKey;
+  private final RangeReading reading = new RangeReading();
+
+  // Written by the worker, read once the work is done
+  private float rangeCm = Float.NaN;
+
+  /**
+   * @param rangeKey
+   *          The blackboard key the reading is stored under
+   */
+  public RangePing(final int rangeKey) {
+    super("range-ping");
+    this.rangeKey = rangeKey;
+  }
+
+  @Override
+  @SuppressWarnings("PMD.LawOfDemeter")
+  protected Status perform(final RasPiRobotBoard board) {
+    if (board instanceof AbstractRasPiRobot) {
+      rangeCm = ((AbstractRasPiRobot) board).measureRange(reading).getDistanceCm();
+    } else {
+      try {
+        rangeCm = board.getRangeCm();
+      } catch (final IOException e) {
+        rangeCm = Float.NaN;
+      }
+    }
+
+    return Float.isNaN(rangeCm) ? Status.FAILURE : Status.SUCCESS;
+  }
+
+  @Override
+  protected Status complete(final Blackboard blackboard, final Status status) {
+    blackboard.set(rangeKey, rangeCm);
+
+    return status;
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Reusable result of a rangefinder measurement.
+ * <p>
+ * Filled by {@link AbstractRasPiRobot#measureRange(RangeReading)}, which
+ * reports failures through {@link #getStatus()} instead of throwing, so a
+ * control loop can poll a flaky sensor without allocating. A reading is not
+ * thread-safe; each polling thread should own one.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class RangeReading {
+  /**
+   * The echo was received and the distance is within the sensor's range.
+   */
+  public static final int VALID = 0;
+
+  /**
+   * The echo never started, so the sensor is probably not connected.
+   */
+  public static final int NOT_CONNECTED = 1;
+
+  /**
+   * The echo did not end in time; the target is beyond the maximum range.
+   */
+  public static final int OUT_OF_RANGE = 2;
+
+  /**
+   * The echo was received but the distance is below the sensor's minimum range.
+   */
+  public static final int BELOW_MINIMUM = 3;
+
+  private int status = NOT_CONNECTED;
+  private float distanceCm = Float.NaN;
+  private long pulseNanos;
+
+  // Records the outcome of a measurement
+  void set(final int status, final float distanceCm, final long pulseNanos) {
+    this.status = status;
+    this.distanceCm = distanceCm;
+    this.pulseNanos = pulseNanos;
+  }
+
+  /**
+   * @return One of {@link #VALID}, {@link #NOT_CONNECTED}, {@link #OUT_OF_RANGE} or {@link #BELOW_MINIMUM}
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return True if the status is {@link #VALID}
+   */
+  public boolean isValid() {
+    return status == VALID;
+  }
+
+  /**
+   * @return The estimated distance in centimeters, <code>Float#POSITIVE_INFINITY</code>
+   *         if out of range, or <code>Float#NaN</code> if not connected
+   */
+  public float getDistanceCm() {
+    return distanceCm;
+  }
+
+  /**
+   * @return Width of the echo pulse in nanoseconds, or zero if the echo never started
+   */
+  public long getPulseNanos() {
+    return pulseNanos;
+  }
+
+  @Override
+  public String toString() {
+    switch (status) {
+      case VALID:
+        return distanceCm + " cm";
+      case OUT_OF_RANGE:
+        return "out of range";
+      case BELOW_MINIMUM:
+        return "below minimum (" + distanceCm + " cm)";
+      default:
+        return "not connected";
+    }
+  }
+}
@@ -20,12 +20,14 @@
 
 package com.callidusrobotics.rrb4j;
 
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
 import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.PinPullResistance;
 import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiGpioProvider;
-import com.pi4j.io.gpio.RaspiPin;
 import com.pi4j.io.gpio.RaspiPinNumberingScheme;
 
 /**
@@ -39,6 +41,12 @@ import com.pi4j.io.gpio.RaspiPinNumberingScheme;
  * @since 1.0.0
  */
 public class RasPiRobot3 extends AbstractRasPiRobot {
+  private final Object encoderLock = new Object();
+  private PinMap pinMap;
+  private volatile QuadratureEncoder encoder1;
+  private volatile QuadratureEncoder encoder2;
+  private PwmEngine chipPwm;
+
   /**
    * Uses default voltage settings:
    * <ul>
@@ -51,71 +59,213 @@ public class RasPiRobot3 extends AbstractRasPiRobot {
    * </ul>
    */
   public RasPiRobot3() {
+    this(PinMap.RRB3);
+  }
+
+  /**
+   * @param batteryVoltage
+   *          The nominal voltage of the power source
+   * @param motorVoltage
+   *          The maximum voltage of the motors
+   */
+  public RasPiRobot3(final float batteryVoltage, final float motorVoltage) {
+    this(PinMap.RRB3, batteryVoltage, motorVoltage);
+  }
+
+  /**
+   * Uses default voltage settings.
+   *
+   * @param pinMap
+   *          The wiring of the board, e.g. {@link PinMap#detect()}
+   */
+  public RasPiRobot3(final PinMap pinMap) {
     super();
 
     GpioFactory.setDefaultProvider(new RaspiGpioProvider(RaspiPinNumberingScheme.BROADCOM_PIN_NUMBERING));
     gpio = GpioFactory.getInstance();
 
-    init();
+    init(pinMap);
   }
 
   /**
+   * @param pinMap
+   *          The wiring of the board, e.g. {@link PinMap#detect()}
    * @param batteryVoltage
    *          The nominal voltage of the power source
    * @param motorVoltage
    *          The maximum voltage of the motors
    */
-  public RasPiRobot3(final float batteryVoltage, final float motorVoltage) {
+  public RasPiRobot3(final PinMap pinMap, final float batteryVoltage, final float motorVoltage) {
     super(batteryVoltage, motorVoltage);
 
     GpioFactory.setDefaultProvider(new RaspiGpioProvider(RaspiPinNumberingScheme.BROADCOM_PIN_NUMBERING));
     gpio = GpioFactory.getInstance();
 
-    init();
+    init(pinMap);
+  }
+
+  /**
+   * Uses default voltage settings and drives the board through the Linux GPIO
+   * character device. The motor PWM is generated by a {@link PwmEngine} on
+   * the board's own controller, which {@link #shutdown()} stops.
+   *
+   * @param chip
+   *          The GPIO chip, whose pin map is used for the board
+   */
+  public RasPiRobot3(final GpioChipProvider chip) {
+    this(chip.newController(), chip.getPinMap());
+    useChip(chip);
+  }
+
+  /**
+   * Drives the board through the Linux GPIO character device. The motor PWM
+   * is generated by a {@link PwmEngine} on the board's own controller, which
+   * {@link #shutdown()} stops.
+   *
+   * @param chip
+   *          The GPIO chip, whose pin map is used for the board
+   * @param batteryVoltage
+   *          The nominal voltage of the power source
+   * @param motorVoltage
+   *          The maximum voltage of the motors
+   */
+  public RasPiRobot3(final GpioChipProvider chip, final float batteryVoltage, final float motorVoltage) {
+    this(chip.newController(), chip.getPinMap(), batteryVoltage, motorVoltage);
+    useChip(chip);
   }
 
   // Constructor for unit tests
   RasPiRobot3(final GpioController gpio) {
+    this(gpio, PinMap.RRB3);
+  }
+
+  // Constructor for unit tests
+  RasPiRobot3(final GpioController gpio, final float batteryVoltage, final float motorVoltage) {
+    this(gpio, PinMap.RRB3, batteryVoltage, motorVoltage);
+  }
+
+  // Constructor for unit tests
+  RasPiRobot3(final GpioController gpio, final PinMap pinMap) {
     super();
 
     this.gpio = gpio;
 
-    init();
+    init(pinMap);
   }
 
   // Constructor for unit tests
-  RasPiRobot3(final GpioController gpio, final float batteryVoltage, final float motorVoltage) {
+  RasPiRobot3(final GpioController gpio, final PinMap pinMap, final float batteryVoltage, final float motorVoltage) {
     super(batteryVoltage, motorVoltage);
 
     this.gpio = gpio;
 
-    init();
+    init(pinMap);
+  }
+
+  /**
+   * @return The wiring of the board
+   */
+  public PinMap getPinMap() {
+    return pinMap;
+  }
+
+  /**
+   * Provisions the wheel encoder inputs of the pin map and starts decoding
+   * their edges. Does nothing if the encoders are already enabled.
+   */
+  public void enableEncoders() {
+    synchronized (encoderLock) {
+      if (encoder1 != null) {
+        return;
+      }
+
+      encoder1 = new QuadratureEncoder(
+          gpio.provisionDigitalInputPin(pinMap.get(Role.ENCODER1_A), "Encoder1A", PinPullResistance.PULL_UP),
+          gpio.provisionDigitalInputPin(pinMap.get(Role.ENCODER1_B), "Encoder1B", PinPullResistance.PULL_UP));
+      encoder2 = new QuadratureEncoder(
+          gpio.provisionDigitalInputPin(pinMap.get(Role.ENCODER2_A), "Encoder2A", PinPullResistance.PULL_UP),
+          gpio.provisionDigitalInputPin(pinMap.get(Role.ENCODER2_B), "Encoder2B", PinPullResistance.PULL_UP));
+    }
   }
 
-  private void init() {
-    led1Pin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_08, "LED1", PinState.LOW);
+  /**
+   * @return The encoder of motor 1
+   * @throws IllegalStateException
+   *           If the encoders have not been enabled
+   * @see #enableEncoders()
+   */
+  public QuadratureEncoder getEncoder1() {
+    final QuadratureEncoder encoder = encoder1;
+    Validate.validState(encoder != null, "Encoders have not been enabled");
+
+    return encoder;
+  }
+
+  /**
+   * @return The encoder of motor 2
+   * @throws IllegalStateException
+   *           If the encoders have not been enabled
+   * @see #enableEncoders()
+   */
+  public QuadratureEncoder getEncoder2() {
+    final QuadratureEncoder encoder = encoder2;
+    Validate.validState(encoder != null, "Encoders have not been enabled");
+
+    return encoder;
+  }
+
+  /**
+   * Also stops the PWM engine installed for a GPIO chip, before the pins are released.
+   */
+  @Override
+  @SuppressWarnings("PMD.LawOfDemeter")
+  public void shutdown() {
+    if (chipPwm != null) {
+      try {
+        chipPwm.shutdown();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    super.shutdown();
+  }
+
+  // The character device has no hardware or wiringPi PWM, so the motor pins are timed in Java
+  private void useChip(final GpioChipProvider chip) {
+    gpioChip = chip;
+    chipPwm = new PwmEngine(gpio);
+    setPwmDriver(chipPwm);
+  }
+
+  // Provisions every pin in the map except the optional encoders exactly once
+  private void init(final PinMap pinMap) {
+    Validate.notNull(pinMap, "Pin map can not be null");
+    this.pinMap = pinMap;
+
+    led1Pin = gpio.provisionDigitalOutputPin(pinMap.get(Role.LED1), "LED1", PinState.LOW);
     led1Pin.setShutdownOptions(true, PinState.LOW);
 
-    led2Pin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_07, "LED2", PinState.LOW);
+    led2Pin = gpio.provisionDigitalOutputPin(pinMap.get(Role.LED2), "LED2", PinState.LOW);
     led2Pin.setShutdownOptions(true, PinState.LOW);
 
     // TODO: Add support for debounce and event listeners
-    switch1Pin = gpio.provisionDigitalInputPin(RaspiPin.GPIO_11, "Switch1");
-    switch2Pin = gpio.provisionDigitalInputPin(RaspiPin.GPIO_09, "Switch2");
+    switch1Pin = gpio.provisionDigitalInputPin(pinMap.get(Role.SWITCH1), "Switch1");
+    switch2Pin = gpio.provisionDigitalInputPin(pinMap.get(Role.SWITCH2), "Switch2");
 
-    oc1Pin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_22, "OC1", PinState.LOW);
-    oc2Pin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_27, "OC2", PinState.LOW);
+    oc1Pin = gpio.provisionDigitalOutputPin(pinMap.get(Role.OC1), "OC1", PinState.LOW);
+    oc2Pin = gpio.provisionDigitalOutputPin(pinMap.get(Role.OC2), "OC2", PinState.LOW);
 
-    m1PwmPin = RaspiPin.GPIO_24;
-    m2PwmPin = RaspiPin.GPIO_14;
-    m1PhasePin1 = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_17, "M1Phase1", PinState.LOW);
-    m1PhasePin2 = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_04, "M1Phase2", PinState.LOW);
-    m2PhasePin1 = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_10, "M2Phase1", PinState.LOW);
-    m2PhasePin2 = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_25, "M2Phase2", PinState.LOW);
+    m1PwmPin = pinMap.get(Role.M1_PWM);
+    m2PwmPin = pinMap.get(Role.M2_PWM);
+    m1PhasePin1 = gpio.provisionDigitalOutputPin(pinMap.get(Role.M1_PHASE1), "M1Phase1", PinState.LOW);
+    m1PhasePin2 = gpio.provisionDigitalOutputPin(pinMap.get(Role.M1_PHASE2), "M1Phase2", PinState.LOW);
+    m2PhasePin1 = gpio.provisionDigitalOutputPin(pinMap.get(Role.M2_PHASE1), "M2Phase1", PinState.LOW);
+    m2PhasePin2 = gpio.provisionDigitalOutputPin(pinMap.get(Role.M2_PHASE2), "M2Phase2", PinState.LOW);
 
-    rangeTriggerPin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_18, "Trigger", PinState.LOW);
+    rangeTriggerPin = gpio.provisionDigitalOutputPin(pinMap.get(Role.RANGE_TRIGGER), "Trigger", PinState.LOW);
     rangeTriggerPin.setShutdownOptions(true, PinState.LOW);
 
-    rangeEchoPin = gpio.provisionDigitalInputPin(RaspiPin.GPIO_23, "Echo", PinPullResistance.PULL_DOWN);
+    rangeEchoPin = gpio.provisionDigitalInputPin(pinMap.get(Role.RANGE_ECHO), "Echo", PinPullResistance.PULL_DOWN);
   }
 }
@@ -21,12 +21,12 @@
 package com.callidusrobotics.rrb4j;
 
 import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
 
 /**
  * RasPiRobot Board v3 (hardware revision 1) implementation.
  * <p>
+ * Equivalent to a {@link RasPiRobot3} wired with {@link PinMap#RRB3_REV1}.
+ * <p>
  * This implementation is thread-safe but not reentrant.<br>
  * Multi-threaded applications will need to implement their own synchronization
  * for each underlying hardware resource to prevent contention problems.
@@ -47,9 +47,7 @@ public class RasPiRobot3Rev1 extends RasPiRobot3 {
    * </ul>
    */
   public RasPiRobot3Rev1() {
-    super();
-
-    init();
+    super(PinMap.RRB3_REV1);
   }
 
   /**
@@ -59,27 +57,16 @@ public class RasPiRobot3Rev1 extends RasPiRobot3 {
    *          The maximum voltage of the motors
    */
   public RasPiRobot3Rev1(final float batteryVoltage, final float motorVoltage) {
-    super(batteryVoltage, motorVoltage);
-
-    init();
+    super(PinMap.RRB3_REV1, batteryVoltage, motorVoltage);
   }
 
   // Constructor for unit tests
   RasPiRobot3Rev1(final GpioController gpio) {
-    super(gpio);
-
-    init();
+    super(gpio, PinMap.RRB3_REV1);
   }
 
   // Constructor for unit tests
   RasPiRobot3Rev1(final GpioController gpio, final float batteryVoltage, final float motorVoltage) {
-    super(gpio, batteryVoltage, motorVoltage);
-
-    init();
-  }
-
-  // Variations in the original hardware revision compared to the latest revision
-  private void init() {
-    oc2Pin = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_21, "OC2", PinState.LOW);
+    super(gpio, PinMap.RRB3_REV1, batteryVoltage, motorVoltage);
   }
 }
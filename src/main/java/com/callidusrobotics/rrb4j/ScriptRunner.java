@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.MotionScript.ScriptStep;
+
+/**
+ * Plays a {@link MotionScript} on a board from a dedicated thread.
+ * <p>
+ * Every step is scheduled at its offset from the start of the script on the
+ * board's clock rather than after the previous step, so a slow step delays
+ * only itself and errors do not accumulate over the script. The runner
+ * records how late each step started against its schedule. On a
+ * {@link VirtualClock} there is no dedicated thread: steps run on the thread
+ * that advances the clock to their offset, and the script only ends as the
+ * clock is advanced.
+ * <p>
+ * Patterns are played by a {@link PatternEngine} owned by the runner, which
+ * turns their outputs off when the script ends. A script that is cancelled,
+ * times out or fails also stops the motors. A runner plays its script once.
+ * Its steps re-arm a {@link CommandWatchdog} just as application commands
+ * do.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class ScriptRunner {
+  private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * Progress of a script.
+   */
+  public enum Status {
+    READY, RUNNING, COMPLETED, CANCELLED, TIMED_OUT, FAILED
+  }
+
+  private final RasPiRobot3 board;
+  private final MotionScript script;
+  private final PrintStream out;
+  private final Object lifecycleLock = new Object();
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  // Written by the loop, then published through completedSteps
+  private final long[] latenessNanos;
+  private final TimingStats latenessStats = new TimingStats();
+  private final RangeReading reading = new RangeReading();
+  private PatternEngine patterns;
+
+  private volatile Status status = Status.READY;
+  private volatile int completedSteps;
+  private volatile boolean cancelled;
+  private volatile RuntimeException failure;
+  private ClockLoop loop;
+
+  // Progress through the script past completedSteps, owned by the loop
+  private long baseNanos;
+  private boolean waiting;
+  private long waitStartNanos;
+  private long wakeNanos;
+
+  /**
+   * @param board
+   *          The board to command, not null
+   * @param script
+   *          The script to play, not null
+   */
+  public ScriptRunner(final RasPiRobot3 board, final MotionScript script) {
+    this(board, script, System.out);
+  }
+
+  /**
+   * @param board
+   *          The board to command, not null
+   * @param script
+   *          The script to play, not null
+   * @param out
+   *          The destination of <code>print</code> steps, not null
+   */
+  public ScriptRunner(final RasPiRobot3 board, final MotionScript script, final PrintStream out) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.notNull(script, "Script can not be null");
+    Validate.notNull(out, "Output stream can not be null");
+
+    this.board = board;
+    this.script = script;
+    this.out = out;
+    this.latenessNanos = new long[script.size()];
+  }
+
+  /**
+   * Starts playing the script and returns immediately.
+   *
+   * @throws IllegalStateException
+   *           If the runner has already been started
+   */
+  public void start() {
+    final ClockLoop started;
+    synchronized (lifecycleLock) {
+      Validate.validState(status == Status.READY, "Script has already been started");
+
+      status = Status.RUNNING;
+      final BoardClock clock = board.getClock();
+      baseNanos = clock.nanoTime();
+      loop = new ClockLoop(clock, "rrb4j-motion-script", Thread.MAX_PRIORITY, this::step);
+      started = loop;
+    }
+
+    // Outside the lifecycle lock, since on a virtual clock the first steps run on this thread
+    started.start();
+  }
+
+  /**
+   * Stops the script after the current step and waits for it to end.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the script to end
+   */
+  public void cancel() throws InterruptedException {
+    final ClockLoop stopped;
+    synchronized (lifecycleLock) {
+      cancelled = true;
+      stopped = loop;
+    }
+
+    if (stopped != null) {
+      stopped.wake();
+      done.await();
+      stopped.stop();
+    }
+  }
+
+  /**
+   * Waits for a started script to end.
+   *
+   * @return The final status of the script
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting
+   */
+  public Status await() throws InterruptedException {
+    done.await();
+
+    return status;
+  }
+
+  /**
+   * Waits for a started script to end, at most for the given time.
+   *
+   * @param timeoutMillis
+   *          The maximum time to wait in ms
+   * @return True if the script ended
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting
+   */
+  public boolean await(final long timeoutMillis) throws InterruptedException {
+    return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return The progress of the script
+   */
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return True if the script has been started and has not ended
+   */
+  public boolean isRunning() {
+    return status == Status.RUNNING;
+  }
+
+  /**
+   * @return The number of steps that have finished
+   */
+  public int getCompletedSteps() {
+    return completedSteps;
+  }
+
+  /**
+   * @param index
+   *          The index of a finished step
+   * @return The time between the scheduled start of the step and its actual start in ns
+   * @see #getCompletedSteps()
+   */
+  public long getLatenessNanos(final int index) {
+    Validate.isTrue(index >= 0 && index < completedSteps, "ScriptStep %d has not finished", index);
+
+    return latenessNanos[index];
+  }
+
+  /**
+   * @return Statistics of the lateness of every started step, updated live
+   */
+  public TimingStats getLatenessStats() {
+    return latenessStats;
+  }
+
+  /**
+   * @return The exception that failed the script, or null
+   */
+  public RuntimeException getFailure() {
+    return failure;
+  }
+
+  RasPiRobot3 getBoard() {
+    return board;
+  }
+
+  PatternEngine getPatterns() {
+    if (patterns == null) {
+      patterns = new PatternEngine(board);
+    }
+
+    return patterns;
+  }
+
+  void stopPattern(final BoardOutput output) {
+    if (patterns == null) {
+      board.setOutput(output, false);
+    } else {
+      patterns.stop(output);
+    }
+  }
+
+  void setOutput(final BoardOutput output, final boolean enabled) {
+    if (patterns != null && patterns.isPlaying(output)) {
+      patterns.stop(output);
+    }
+
+    board.setOutput(output, enabled);
+  }
+
+  void print(final String message) {
+    out.println(message);
+  }
+
+  // Replaces the sensor placeholders of a print step with current readings
+  String expand(final String message) {
+    String expanded = message;
+    if (expanded.contains("{switch1}")) {
+      expanded = expanded.replace("{switch1}", board.switch1Closed() ? "closed" : "open");
+    }
+
+    if (expanded.contains("{switch2}")) {
+      expanded = expanded.replace("{switch2}", board.switch2Closed() ? "closed" : "open");
+    }
+
+    if (expanded.contains("{range}")) {
+      expanded = expanded.replace("{range}", board.measureRange(reading).toString());
+    }
+
+    return expanded;
+  }
+
+  // Plays every step that is due and returns when the script next needs to run
+  @SuppressWarnings("PMD.AvoidCatchingGenericException")
+  private long step() {
+    Status result;
+    try {
+      result = play();
+    } catch (final RuntimeException e) {
+      failure = e;
+      result = Status.FAILED;
+    }
+
+    if (result == Status.RUNNING) {
+      return wakeNanos;
+    }
+
+    finish(result);
+    return ClockLoop.FINISHED;
+  }
+
+  private void finish(final Status result) {
+    if (patterns != null) {
+      try {
+        patterns.shutdown();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (result != Status.COMPLETED) {
+      board.stopMotors();
+    }
+
+    status = result;
+    done.countDown();
+  }
+
+  // Returns RUNNING while the script waits until wakeNanos
+  private Status play() {
+    final List<ScriptStep> steps = script.getSteps();
+    for (int index = completedSteps; index < steps.size(); index++) {
+      if (cancelled) {
+        return Status.CANCELLED;
+      }
+
+      final Status result = playStep(index, steps.get(index));
+      if (result != Status.COMPLETED) {
+        return result;
+      }
+
+      completedSteps = index + 1;
+    }
+
+    return Status.COMPLETED;
+  }
+
+  // Plays one step once it is due; returns COMPLETED when it has finished
+  private Status playStep(final int index, final ScriptStep step) {
+    final long deadline = baseNanos + step.offsetNanos;
+    if (!waiting) {
+      final long now = loop.getClock().nanoTime();
+      if (now - deadline < 0) {
+        wakeNanos = deadline;
+        return Status.RUNNING;
+      }
+
+      final long lateness = now - deadline;
+      latenessNanos[index] = lateness;
+      latenessStats.record(lateness);
+
+      if (step.condition == null) {
+        step.action.execute(this);
+        return Status.COMPLETED;
+      }
+
+      waiting = true;
+      waitStartNanos = now;
+    }
+
+    return awaitCondition(step, deadline);
+  }
+
+  // Polls the condition of a wait step; time spent waiting past its offset shifts the rest of the script
+  private Status awaitCondition(final ScriptStep step, final long deadline) {
+    if (step.condition.isMet(board, reading)) {
+      baseNanos += loop.getClock().nanoTime() - deadline;
+      waiting = false;
+      return Status.COMPLETED;
+    }
+
+    final long now = loop.getClock().nanoTime();
+    if (step.timeoutNanos > 0 && now - waitStartNanos >= step.timeoutNanos) {
+      return Status.TIMED_OUT;
+    }
+
+    wakeNanos = now + POLL_NANOS;
+    return Status.RUNNING;
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Reusable copy of an event taken from a {@link SensorEventBus}.
+ * <p>
+ * Consumers pass the same instance to every call of
+ * {@link SensorEventBus.Subscription#poll(SensorEvent)} so that reading the
+ * stream does not allocate. An event is not thread-safe; each consuming
+ * thread should own one.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class SensorEvent {
+  /**
+   * Kinds of sensor events.
+   */
+  public enum Type {
+    /** A switch opened or closed; the source is the switch number. */
+    SWITCH,
+
+    /** The rangefinder was read; the value is the distance in cm. */
+    RANGE,
+
+    /** A range reading crossed a threshold; the source is the threshold index. */
+    THRESHOLD
+  }
+
+  private Type type;
+  private int source;
+  private boolean active;
+  private float value = Float.NaN;
+  private long sequence;
+  private long timeNanos;
+
+  // Overwrites every field, so that slots and consumer copies can be reused
+  void set(final Type type, final int source, final boolean active, final float value, final long sequence, final long timeNanos) {
+    this.type = type;
+    this.source = source;
+    this.active = active;
+    this.value = value;
+    this.sequence = sequence;
+    this.timeNanos = timeNanos;
+  }
+
+  void copyFrom(final SensorEvent other) {
+    set(other.type, other.source, other.active, other.value, other.sequence, other.timeNanos);
+  }
+
+  /**
+   * @return The kind of event, or null if nothing has been copied into this event yet
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return The switch number of a switch event, the threshold index of a threshold event, or zero
+   */
+  public int getSource() {
+    return source;
+  }
+
+  /**
+   * @return True if a switch closed or a range reading fell below a threshold
+   */
+  public boolean isActive() {
+    return active;
+  }
+
+  /**
+   * @return The range reading in cm of a range or threshold event, otherwise <code>Float#NaN</code>
+   */
+  public float getValue() {
+    return value;
+  }
+
+  /**
+   * @return The position of the event in the stream, starting at zero
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The board time in nanoseconds at which the pin edge or range reading was observed
+   */
+  public long getTimeNanos() {
+    return timeNanos;
+  }
+
+  @Override
+  public String toString() {
+    if (type == null) {
+      return "none";
+    }
+
+    switch (type) {
+      case SWITCH:
+        return "#" + sequence + " switch" + source + (active ? " closed" : " open");
+      case RANGE:
+        return "#" + sequence + " range " + value + " cm";
+      default:
+        return "#" + sequence + " threshold" + source + (active ? " below " : " above ") + value + " cm";
+    }
+  }
+}
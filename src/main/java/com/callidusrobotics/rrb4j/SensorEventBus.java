@@ -0,0 +1,583 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.SensorEvent.Type;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
+/**
+ * Single ordered stream of timestamped switch edges, range readings and
+ * range threshold crossings.
+ * <p>
+ * Switch edges are published from the pin interrupts and range readings from
+ * a sampling thread owned by the bus, timed on the board's
+ * {@link BoardClock}. Every event is copied into a slot of a
+ * bounded ring buffer that is allocated up front, and each
+ * {@link Subscription} reads the whole stream in publication order at its own
+ * pace. When the slowest subscription is a full buffer behind, the
+ * {@link OverflowPolicy} decides what happens to the next event.
+ * <p>
+ * Events carry the board time at which the edge or reading was observed, and
+ * each subscription measures the delay from then until the event was taken.
+ * <p>
+ * While the bus samples the rangefinder it owns it; applications should not
+ * read the rangefinder concurrently, nor run a {@link ProximityReflex}. Use a
+ * sampling period of zero and {@link #publishRange(float, long)} to feed the
+ * bus from another sampler instead.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class SensorEventBus {
+
+  /**
+   * Handling of an event published while the buffer is full.
+   */
+  public enum OverflowPolicy {
+    /** The publisher waits until the slowest subscription takes an event. */
+    BLOCK,
+
+    /** The oldest event is overwritten; subscriptions that had not taken it count it as dropped. */
+    DROP_OLDEST,
+
+    /**
+     * A range reading replaces the newest event if that is a range reading no
+     * subscription has taken yet; any other event blocks.
+     */
+    COALESCE
+  }
+
+  /**
+   * Default number of events in the buffer.
+   */
+  public static final int CAPACITY_DEFAULT = 256;
+
+  /**
+   * Default number of milliseconds between rangefinder readings.
+   */
+  public static final int PERIOD_DEFAULT_MS = 50;
+
+  // Distance beyond a threshold that must be seen before a crossing back above it is published
+  static final float HYSTERESIS_CM = 2.0f;
+
+  private final RasPiRobot3 board;
+  private final SensorEvent[] slots;
+  private final OverflowPolicy policy;
+  private final long periodNanos;
+  private final RangeReading reading = new RangeReading();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final List<Subscription> subscriptions = new ArrayList<>();
+  private final GpioPinListenerDigital switch1Listener = event -> publishSwitch(1, event.getState().isLow());
+  private final GpioPinListenerDigital switch2Listener = event -> publishSwitch(2, event.getState().isLow());
+  private final Object lifecycleLock = new Object();
+
+  // Guarded by lock
+  private float[] thresholds = new float[0];
+  private boolean[] below = new boolean[0];
+  private long head;
+  private long coalesced;
+  private long stops;
+
+  private volatile boolean running;
+  private ClockLoop loop;
+
+  /**
+   * Uses the default capacity and sampling period, dropping the oldest event on overflow.
+   *
+   * @param board
+   *          The board whose sensors are published, not null
+   */
+  public SensorEventBus(final RasPiRobot3 board) {
+    this(board, CAPACITY_DEFAULT, OverflowPolicy.DROP_OLDEST, PERIOD_DEFAULT_MS);
+  }
+
+  /**
+   * @param board
+   *          The board whose sensors are published, not null
+   * @param capacity
+   *          Number of events in the buffer, must be positive
+   * @param policy
+   *          Handling of events published while the buffer is full, not null
+   * @param periodMillis
+   *          Number of milliseconds between rangefinder readings, or zero to
+   *          leave the rangefinder to another sampler
+   */
+  @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+  public SensorEventBus(final RasPiRobot3 board, final int capacity, final OverflowPolicy policy, final int periodMillis) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.isTrue(capacity > 0, "Capacity must be positive");
+    Validate.notNull(policy, "Overflow policy can not be null");
+    Validate.isTrue(periodMillis >= 0, "Period must not be negative");
+
+    this.board = board;
+    this.policy = policy;
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+
+    slots = new SensorEvent[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new SensorEvent();
+    }
+  }
+
+  /**
+   * Publishes a threshold event whenever a range reading falls below the
+   * threshold, and again when a reading rises above it by more than a small
+   * hysteresis. Readings start out above every threshold.
+   *
+   * @param thresholdCm
+   *          Distance in cm, must be positive
+   * @return The index of the threshold, which is the source of its events
+   */
+  public int addRangeThreshold(final float thresholdCm) {
+    Validate.isTrue(thresholdCm > 0.0f, "Threshold must be positive");
+
+    lock.lock();
+    try {
+      final int index = thresholds.length;
+      final float[] newThresholds = new float[index + 1];
+      System.arraycopy(thresholds, 0, newThresholds, 0, index);
+      newThresholds[index] = thresholdCm;
+
+      thresholds = newThresholds;
+      // Keep the state of the existing thresholds so that they do not cross again
+      below = Arrays.copyOf(below, index + 1);
+
+      return index;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Creates a subscription that receives every event published from now on.
+   *
+   * @return A new subscription
+   */
+  public Subscription subscribe() {
+    lock.lock();
+    try {
+      final Subscription subscription = new Subscription(head);
+      subscriptions.add(subscription);
+
+      return subscription;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts listening to the switches and, unless the sampling period is zero,
+   * sampling the rangefinder on a dedicated thread.
+   */
+  public void start() {
+    final ClockLoop started;
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      running = true;
+      board.switch1Pin.addListener(switch1Listener);
+      board.switch2Pin.addListener(switch2Listener);
+
+      if (periodNanos > 0) {
+        loop = new ClockLoop(board.getClock(), "rrb4j-sensor-events", Thread.NORM_PRIORITY, this::step);
+      }
+      started = loop;
+    }
+
+    // Outside the lifecycle lock, since on a virtual clock the first reading is taken on this thread
+    if (started != null) {
+      started.start();
+    }
+  }
+
+  /**
+   * Stops listening and sampling. Events already published can still be
+   * taken. A publisher waiting for room in the buffer gives up and its event
+   * is abandoned.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the sampling thread to stop
+   */
+  public void stop() throws InterruptedException {
+    final ClockLoop stopped;
+    synchronized (lifecycleLock) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      board.switch1Pin.removeListener(switch1Listener);
+      board.switch2Pin.removeListener(switch2Listener);
+      stopped = loop;
+      loop = null;
+    }
+
+    lock.lock();
+    try {
+      stops++;
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    if (stopped != null) {
+      stopped.stop();
+    }
+  }
+
+  /**
+   * @return True if the bus is listening to the switches
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Publishes a range reading taken by another sampler, followed by any
+   * threshold crossings it causes.
+   *
+   * @param rangeCm
+   *          The distance in cm, <code>Float#POSITIVE_INFINITY</code> if out
+   *          of range or <code>Float#NaN</code> if the sensor did not respond
+   * @param readingTimeNanos
+   *          The board time in nanoseconds at which the reading ended
+   */
+  public void publishRange(final float rangeCm, final long readingTimeNanos) {
+    lock.lock();
+    try {
+      if (!publish(Type.RANGE, 0, false, rangeCm, readingTimeNanos)) {
+        return;
+      }
+
+      // A failed ping says nothing about obstacles, so it never crosses a threshold
+      if (Float.isNaN(rangeCm)) {
+        return;
+      }
+
+      for (int i = 0; i < thresholds.length; i++) {
+        final boolean isBelow = rangeCm < (below[i] ? thresholds[i] + HYSTERESIS_CM : thresholds[i]);
+        if (isBelow != below[i]) {
+          below[i] = isBelow;
+          if (!publish(Type.THRESHOLD, i, isBelow, rangeCm, readingTimeNanos)) {
+            return;
+          }
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of events published so far, not counting coalesced range readings
+   */
+  public long getPublishedCount() {
+    lock.lock();
+    try {
+      return head;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of range readings that replaced an earlier reading instead of being published
+   */
+  public long getCoalescedCount() {
+    lock.lock();
+    try {
+      return coalesced;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of events the buffer holds
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  // Stamps the edge before anything else so that the measured delay covers the whole path
+  void publishSwitch(final int switchNumber, final boolean closed) {
+    final long timeNanos = board.currentTimeNanos();
+
+    lock.lock();
+    try {
+      publish(Type.SWITCH, switchNumber, closed, Float.NaN, timeNanos);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Called with the lock held; returns false if the event was abandoned by stop() or an interrupt
+  private boolean publish(final Type type, final int source, final boolean active, final float value, final long timeNanos) {
+    final long stopsBefore = stops;
+    while (head - oldestCursor() >= slots.length) {
+      if (policy == OverflowPolicy.DROP_OLDEST) {
+        dropOldest();
+        break;
+      }
+
+      if (policy == OverflowPolicy.COALESCE && type == Type.RANGE && coalesce(value, timeNanos)) {
+        return true;
+      }
+
+      try {
+        notFull.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+
+      if (stops != stopsBefore) {
+        return false;
+      }
+    }
+
+    slot(head).set(type, source, active, value, head, timeNanos);
+    head++;
+    notEmpty.signalAll();
+
+    return true;
+  }
+
+  // Called with the lock held while the buffer is full
+  private void dropOldest() {
+    final long oldest = head - slots.length;
+    for (final Subscription subscription : subscriptions) {
+      if (subscription.cursor == oldest) {
+        subscription.cursor++;
+        subscription.dropped++;
+      }
+    }
+  }
+
+  // Called with the lock held while the buffer is full
+  private boolean coalesce(final float value, final long timeNanos) {
+    final SensorEvent newest = slot(head - 1);
+    if (newest.getType() != Type.RANGE) {
+      return false;
+    }
+
+    for (final Subscription subscription : subscriptions) {
+      if (subscription.cursor == head) {
+        return false;
+      }
+    }
+
+    newest.set(Type.RANGE, 0, false, value, head - 1, timeNanos);
+    coalesced++;
+
+    return true;
+  }
+
+  // Called with the lock held
+  private long oldestCursor() {
+    long oldest = head;
+    for (final Subscription subscription : subscriptions) {
+      oldest = Math.min(oldest, subscription.cursor);
+    }
+
+    return oldest;
+  }
+
+  private SensorEvent slot(final long sequence) {
+    return slots[(int) (sequence % slots.length)];
+  }
+
+  // Takes one reading and returns the board time at which the next is due
+  private long step() {
+    if (!running) {
+      return ClockLoop.FINISHED;
+    }
+
+    board.measureRange(reading);
+    final long readingTime = board.currentTimeNanos();
+
+    lock.lock();
+    try {
+      // Checked under the lock so that a reading taken as stop() releases publishers can not block after it
+      if (!running) {
+        return ClockLoop.FINISHED;
+      }
+
+      publishRange(reading.getDistanceCm(), readingTime);
+    } finally {
+      lock.unlock();
+    }
+
+    return readingTime + periodNanos;
+  }
+
+  /**
+   * A reader of the event stream with its own position in it.
+   * <p>
+   * A subscription must only be read from one thread at a time. A subscription
+   * that is not read holds back publishers under the blocking policies, so
+   * close it once it is no longer needed.
+   */
+  public final class Subscription {
+    private final TimingStats delayStats = new TimingStats();
+
+    // Guarded by lock
+    private long cursor;
+    private long dropped;
+    private boolean closed;
+
+    Subscription(final long cursor) {
+      this.cursor = cursor;
+    }
+
+    /**
+     * Takes the next event if one is available.
+     *
+     * @param event
+     *          Receives a copy of the event, not null
+     * @return True if an event was taken, false if there was none
+     */
+    public boolean poll(final SensorEvent event) {
+      lock.lock();
+      try {
+        if (closed || cursor == head) {
+          return false;
+        }
+
+        next(event);
+      } finally {
+        lock.unlock();
+      }
+
+      delayStats.record(board.currentTimeNanos() - event.getTimeNanos());
+
+      return true;
+    }
+
+    /**
+     * Takes the next event, waiting for one to be published if necessary.
+     *
+     * @param event
+     *          Receives a copy of the event, not null
+     * @param timeoutMillis
+     *          Maximum number of milliseconds to wait
+     * @return True if an event was taken, false if the timeout elapsed or the subscription was closed
+     * @throws InterruptedException
+     *           If the calling thread is interrupted while waiting
+     */
+    public boolean take(final SensorEvent event, final long timeoutMillis) throws InterruptedException {
+      long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+      lock.lockInterruptibly();
+      try {
+        while (cursor == head) {
+          if (closed || remainingNanos <= 0) {
+            return false;
+          }
+
+          remainingNanos = notEmpty.awaitNanos(remainingNanos);
+        }
+
+        if (closed) {
+          return false;
+        }
+
+        next(event);
+      } finally {
+        lock.unlock();
+      }
+
+      delayStats.record(board.currentTimeNanos() - event.getTimeNanos());
+
+      return true;
+    }
+
+    /**
+     * Stops receiving events and releases any publisher waiting on this subscription.
+     */
+    public void close() {
+      lock.lock();
+      try {
+        closed = true;
+        subscriptions.remove(this);
+        notFull.signalAll();
+        notEmpty.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return The number of events published but not yet taken
+     */
+    public long getBacklog() {
+      lock.lock();
+      try {
+        return closed ? 0 : head - cursor;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * @return The number of events overwritten before this subscription could take them
+     */
+    public long getDroppedCount() {
+      lock.lock();
+      try {
+        return dropped;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Event delay: the time from when a pin edge or range reading was
+     * observed until its event was taken from this subscription.
+     *
+     * @return The delay statistics, updated live
+     */
+    public TimingStats getDelayStats() {
+      return delayStats;
+    }
+
+    // Called with the lock held
+    private void next(final SensorEvent event) {
+      event.copyFrom(slot(cursor));
+      cursor++;
+      notFull.signalAll();
+    }
+  }
+}
@@ -0,0 +1,525 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded history of a sensor reading, such as the rangefinder distance, with
+ * window queries at several resolutions.
+ * <p>
+ * Recent readings are kept in a ring of primitive timestamps and values. As
+ * readings arrive they are also folded into rings of fixed-width buckets,
+ * one ring per resolution, each holding the min, max, sum and count of its
+ * readings. All storage is allocated up front, so memory use is fixed by the
+ * capacities given to the constructor; recording and querying never
+ * allocate.
+ * <p>
+ * A window query is answered from the finest ring that still covers the
+ * whole window. The ends of the window are found by binary search over the
+ * ring's timestamps, the count and mean come from running prefix totals, and
+ * the min and max from a segment tree over the ring, so a query takes
+ * logarithmic time in the capacity of the ring. Recording a reading updates
+ * the trees in logarithmic time as well. Bucket results include whole
+ * buckets, so the start of the window is rounded down to the width of the
+ * bucket. <code>NaN</code> readings, such as a rangefinder that
+ * did not respond, are not recorded.
+ * <p>
+ * Readings must come from a single thread in non-decreasing time order; any
+ * thread may query.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public final class SensorHistory {
+
+  private final Object historyLock = new Object();
+
+  // Raw readings with the running total of the values up to each one, guarded by historyLock
+  private final long[] times;
+  private final float[] values;
+  private final double[] rawTotals;
+  private final MinMaxTree rawTree;
+  private int rawHead = -1;
+  private int rawSize;
+
+  // Buckets, indexed by [level][slot] and guarded by historyLock
+  private final long[] widths;
+  private final long[][] starts;
+  private final float[][] mins;
+  private final float[][] maxs;
+  private final double[][] sums;
+  private final int[][] counts;
+  private final double[][] sumTotals;
+  private final long[][] countTotals;
+  private final MinMaxTree[] trees;
+  private final int[] heads;
+  private final int[] sizes;
+
+  /**
+   * @param rawCapacity
+   *          Number of raw readings to keep, must be positive
+   * @param bucketCapacity
+   *          Number of buckets to keep at each resolution, must be positive
+   * @param bucketMillis
+   *          Bucket width of each resolution in ms, finest first, each a multiple of the previous
+   */
+  @SuppressWarnings("PMD.UseVarargs")
+  public SensorHistory(final int rawCapacity, final int bucketCapacity, final long... bucketMillis) {
+    Validate.isTrue(rawCapacity > 0, "Raw capacity must be positive: %d", rawCapacity);
+    Validate.isTrue(bucketCapacity > 0, "Bucket capacity must be positive: %d", bucketCapacity);
+    Validate.notNull(bucketMillis, "Bucket widths can not be null");
+
+    final int levels = bucketMillis.length;
+    widths = new long[levels];
+    for (int i = 0; i < levels; i++) {
+      Validate.isTrue(bucketMillis[i] > 0, "Bucket width must be positive: %d", bucketMillis[i]);
+      Validate.isTrue(i == 0 || bucketMillis[i] % bucketMillis[i - 1] == 0, "Bucket width %d is not a multiple of %d", bucketMillis[i], i == 0 ? 0 : bucketMillis[i - 1]);
+      widths[i] = TimeUnit.MILLISECONDS.toNanos(bucketMillis[i]);
+    }
+
+    times = new long[rawCapacity];
+    values = new float[rawCapacity];
+    rawTotals = new double[rawCapacity];
+    rawTree = new MinMaxTree(rawCapacity);
+    starts = new long[levels][bucketCapacity];
+    mins = new float[levels][bucketCapacity];
+    maxs = new float[levels][bucketCapacity];
+    sums = new double[levels][bucketCapacity];
+    counts = new int[levels][bucketCapacity];
+    sumTotals = new double[levels][bucketCapacity];
+    countTotals = new long[levels][bucketCapacity];
+    trees = new MinMaxTree[levels];
+    Arrays.setAll(trees, level -> new MinMaxTree(bucketCapacity));
+    heads = new int[levels];
+    sizes = new int[levels];
+    Arrays.fill(heads, -1);
+  }
+
+  /**
+   * Adds a reading to the history.
+   *
+   * @param timeNanos
+   *          The time of the reading in ns, such as the board's {@link BoardClock}, not before the previous reading
+   * @param value
+   *          The reading; <code>NaN</code> is ignored
+   */
+  public void record(final long timeNanos, final float value) {
+    if (Float.isNaN(value)) {
+      return;
+    }
+
+    synchronized (historyLock) {
+      Validate.isTrue(rawSize == 0 || timeNanos >= times[rawHead], "Readings must be recorded in time order");
+
+      final double total = rawSize == 0 ? 0.0 : rawTotals[rawHead];
+      rawHead = (rawHead + 1) % times.length;
+      times[rawHead] = timeNanos;
+      values[rawHead] = value;
+      rawTotals[rawHead] = total + value;
+      rawTree.set(rawHead, value, value);
+      rawSize = Math.min(rawSize + 1, times.length);
+
+      for (int level = 0; level < widths.length; level++) {
+        addToBucket(level, timeNanos - Math.floorMod(timeNanos, widths[level]), value);
+      }
+    }
+  }
+
+  /**
+   * Aggregates the readings in a window of time, answered at the finest
+   * resolution that covers the whole window.
+   *
+   * @param fromNanos
+   *          Start of the window, inclusive
+   * @param toNanos
+   *          End of the window, inclusive
+   * @param result
+   *          The result to fill, not null
+   * @return The result
+   */
+  public Aggregate aggregate(final long fromNanos, final long toNanos, final Aggregate result) {
+    Validate.notNull(result, "Result can not be null");
+
+    synchronized (historyLock) {
+      if (widths.length == 0 || rawSize < times.length || times[oldest(rawHead, rawSize, times.length)] <= fromNanos) {
+        aggregateRaw(fromNanos, toNanos, result);
+        return result;
+      }
+
+      int level = 0;
+      while (level < widths.length - 1 && !covers(level, fromNanos)) {
+        level++;
+      }
+
+      aggregateBuckets(level, fromNanos, toNanos, result);
+      return result;
+    }
+  }
+
+  /**
+   * Aggregates the readings in the window that ends at the latest reading.
+   *
+   * @param windowNanos
+   *          Length of the window
+   * @param result
+   *          The result to fill, not null
+   * @return The result
+   * @see #aggregate(long, long, Aggregate)
+   */
+  public Aggregate aggregateLatest(final long windowNanos, final Aggregate result) {
+    final long latest;
+    synchronized (historyLock) {
+      latest = rawSize == 0 ? 0 : times[rawHead];
+    }
+
+    return aggregate(latest - windowNanos, latest, result);
+  }
+
+  /**
+   * Visits the buckets of one resolution that overlap a window, oldest first.
+   * Buckets without readings are skipped.
+   *
+   * @param level
+   *          Index of the resolution in the widths given to the constructor
+   * @param fromNanos
+   *          Start of the window
+   * @param visitor
+   *          The visitor to call for each bucket, not null
+   * @return The number of buckets visited
+   */
+  public int forEachBucket(final int level, final long fromNanos, final BucketVisitor visitor) {
+    Validate.isTrue(level >= 0 && level < widths.length, "No such resolution: %d", level);
+    Validate.notNull(visitor, "Visitor can not be null");
+
+    synchronized (historyLock) {
+      final int capacity = starts[level].length;
+      final int overlapping = countOverlapping(level, fromNanos);
+      for (int i = 0; i < overlapping; i++) {
+        final int slot = Math.floorMod(heads[level] - overlapping + 1 + i, capacity);
+        visitor.visit(starts[level][slot], mins[level][slot], maxs[level][slot], (float) (sums[level][slot] / counts[level][slot]), counts[level][slot]);
+      }
+
+      return overlapping;
+    }
+  }
+
+  /**
+   * @return The number of raw readings held
+   */
+  public int getRawSize() {
+    synchronized (historyLock) {
+      return rawSize;
+    }
+  }
+
+  /**
+   * @return The approximate number of bytes of storage, fixed at construction
+   */
+  public long getMemoryBytes() {
+    // Each slot also has a running total and two leaves and two inner nodes in a segment tree
+    final long treeBytes = 4L * Float.BYTES;
+    final long rawBytes = (long) Long.BYTES + Float.BYTES + Double.BYTES + treeBytes;
+    final long bucketBytes = (long) Long.BYTES + Float.BYTES + Float.BYTES + Double.BYTES + Integer.BYTES + Double.BYTES + Long.BYTES + treeBytes;
+    return times.length * rawBytes + bucketBytes * widths.length * (widths.length == 0 ? 0 : starts[0].length);
+  }
+
+  /**
+   * Discards all readings.
+   */
+  public void clear() {
+    synchronized (historyLock) {
+      rawHead = -1;
+      rawSize = 0;
+      Arrays.fill(heads, -1);
+      Arrays.fill(sizes, 0);
+    }
+  }
+
+  private void addToBucket(final int level, final long start, final float value) {
+    final int head = heads[level];
+    if (sizes[level] > 0 && starts[level][head] == start) {
+      mins[level][head] = Math.min(mins[level][head], value);
+      maxs[level][head] = Math.max(maxs[level][head], value);
+      sums[level][head] += value;
+      counts[level][head]++;
+      sumTotals[level][head] += value;
+      countTotals[level][head]++;
+      trees[level].set(head, mins[level][head], maxs[level][head]);
+      return;
+    }
+
+    final double sumTotal = sizes[level] == 0 ? 0.0 : sumTotals[level][head];
+    final long countTotal = sizes[level] == 0 ? 0 : countTotals[level][head];
+    final int capacity = starts[level].length;
+    final int slot = (head + 1) % capacity;
+    heads[level] = slot;
+    sizes[level] = Math.min(sizes[level] + 1, capacity);
+    starts[level][slot] = start;
+    mins[level][slot] = value;
+    maxs[level][slot] = value;
+    sums[level][slot] = value;
+    counts[level][slot] = 1;
+    sumTotals[level][slot] = sumTotal + value;
+    countTotals[level][slot] = countTotal + 1;
+    trees[level].set(slot, value, value);
+  }
+
+  // True if the buckets of a level reach back to the start of the window
+  private boolean covers(final int level, final long fromNanos) {
+    final int capacity = starts[level].length;
+    return sizes[level] < capacity || starts[level][oldest(heads[level], sizes[level], capacity)] <= fromNanos;
+  }
+
+  // Number of newest buckets of a level that overlap a window starting at fromNanos
+  private int countOverlapping(final int level, final long fromNanos) {
+    return sizes[level] - firstOverlapping(level, fromNanos);
+  }
+
+  // Index, oldest first, of the first bucket of a level that ends after fromNanos
+  private int firstOverlapping(final int level, final long fromNanos) {
+    final long width = widths[level];
+    if (fromNanos < Long.MIN_VALUE + width) {
+      return 0;
+    }
+
+    return search(starts[level], heads[level], sizes[level], fromNanos - width, true);
+  }
+
+  private void aggregateRaw(final long fromNanos, final long toNanos, final Aggregate result) {
+    result.reset(0);
+
+    final int first = search(times, rawHead, rawSize, fromNanos, false);
+    final int end = search(times, rawHead, rawSize, toNanos, true);
+    if (end > first) {
+      final int firstSlot = slot(rawHead, rawSize, times.length, first);
+      final double sum = rawTotals[slot(rawHead, rawSize, times.length, end - 1)] - rawTotals[firstSlot] + values[firstSlot];
+      addWindow(rawTree, firstSlot, end - first, sum, end - first, result);
+    }
+  }
+
+  private void aggregateBuckets(final int level, final long fromNanos, final long toNanos, final Aggregate result) {
+    result.reset(widths[level]);
+
+    final int head = heads[level];
+    final int size = sizes[level];
+    final int capacity = starts[level].length;
+    final int first = firstOverlapping(level, fromNanos);
+    final int end = search(starts[level], head, size, toNanos, true);
+    if (end > first) {
+      final int firstSlot = slot(head, size, capacity, first);
+      final int lastSlot = slot(head, size, capacity, end - 1);
+      final double sum = sumTotals[level][lastSlot] - sumTotals[level][firstSlot] + sums[level][firstSlot];
+      final long count = countTotals[level][lastSlot] - countTotals[level][firstSlot] + counts[level][firstSlot];
+      addWindow(trees[level], firstSlot, end - first, sum, (int) count, result);
+    }
+  }
+
+  // Adds a run of slots, which may wrap around the end of the ring, to a result
+  private static void addWindow(final MinMaxTree tree, final int firstSlot, final int slots, final double sum, final int count, final Aggregate result) {
+    final int end = firstSlot + slots;
+    final int capacity = tree.size;
+    if (end <= capacity) {
+      result.add(tree.min(firstSlot, end), tree.max(firstSlot, end), sum, count);
+    } else {
+      final float min = Math.min(tree.min(firstSlot, capacity), tree.min(0, end - capacity));
+      final float max = Math.max(tree.max(firstSlot, capacity), tree.max(0, end - capacity));
+      result.add(min, max, sum, count);
+    }
+  }
+
+  // Binary search of a ring of non-decreasing keys for the index, oldest first, of the first key after the
+  // value (or at it, unless strict); the size of the ring if there is none
+  private static int search(final long[] keys, final int head, final int size, final long value, final boolean strict) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final long key = keys[slot(head, size, keys.length, mid)];
+      if (key > value || !strict && key == value) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+
+    return low;
+  }
+
+  private static int slot(final int head, final int size, final int capacity, final int index) {
+    return Math.floorMod(head - size + 1 + index, capacity);
+  }
+
+  private static int oldest(final int head, final int size, final int capacity) {
+    return Math.floorMod(head - size + 1, capacity);
+  }
+
+  // Segment tree of the min and max over the slots of a ring, updated in place
+  static final class MinMaxTree {
+    final int size;
+    private final float[] mins;
+    private final float[] maxs;
+
+    MinMaxTree(final int size) {
+      this.size = size;
+      mins = new float[2 * size];
+      maxs = new float[2 * size];
+      Arrays.fill(mins, Float.POSITIVE_INFINITY);
+      Arrays.fill(maxs, Float.NEGATIVE_INFINITY);
+    }
+
+    void set(final int slot, final float min, final float max) {
+      int node = slot + size;
+      mins[node] = min;
+      maxs[node] = max;
+      for (node >>= 1; node > 0; node >>= 1) {
+        mins[node] = Math.min(mins[2 * node], mins[2 * node + 1]);
+        maxs[node] = Math.max(maxs[2 * node], maxs[2 * node + 1]);
+      }
+    }
+
+    // Lowest min of the slots in [from, until)
+    float min(final int from, final int until) {
+      float result = Float.POSITIVE_INFINITY;
+      for (int low = from + size, high = until + size; low < high; low >>= 1, high >>= 1) {
+        if ((low & 1) == 1) {
+          result = Math.min(result, mins[low++]);
+        }
+        if ((high & 1) == 1) {
+          result = Math.min(result, mins[--high]);
+        }
+      }
+
+      return result;
+    }
+
+    // Highest max of the slots in [from, until)
+    float max(final int from, final int until) {
+      float result = Float.NEGATIVE_INFINITY;
+      for (int low = from + size, high = until + size; low < high; low >>= 1, high >>= 1) {
+        if ((low & 1) == 1) {
+          result = Math.max(result, maxs[low++]);
+        }
+        if ((high & 1) == 1) {
+          result = Math.max(result, maxs[--high]);
+        }
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * Receives the buckets of a downsampled query, oldest first.
+   */
+  public interface BucketVisitor {
+
+    /**
+     * @param startNanos
+     *          Start time of the bucket
+     * @param min
+     *          Lowest reading in the bucket
+     * @param max
+     *          Highest reading in the bucket
+     * @param mean
+     *          Mean of the readings in the bucket
+     * @param count
+     *          Number of readings in the bucket, at least 1
+     */
+    void visit(long startNanos, float min, float max, float mean, int count);
+  }
+
+  /**
+   * Reusable result of a window query.
+   */
+  public static final class Aggregate {
+    private int count;
+    private float min;
+    private float max;
+    private double sum;
+    private long resolutionNanos;
+
+    void reset(final long resolutionNanos) {
+      this.count = 0;
+      this.min = Float.NaN;
+      this.max = Float.NaN;
+      this.sum = 0.0;
+      this.resolutionNanos = resolutionNanos;
+    }
+
+    void add(final float min, final float max, final double sum, final int count) {
+      if (this.count == 0 || min < this.min) {
+        this.min = min;
+      }
+
+      if (this.count == 0 || max > this.max) {
+        this.max = max;
+      }
+
+      this.sum += sum;
+      this.count += count;
+    }
+
+    /**
+     * @return The number of readings in the window
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * @return The lowest reading in the window, or <code>NaN</code> if there were none
+     */
+    public float getMin() {
+      return min;
+    }
+
+    /**
+     * @return The highest reading in the window, or <code>NaN</code> if there were none
+     */
+    public float getMax() {
+      return max;
+    }
+
+    /**
+     * @return The mean of the readings in the window, or <code>NaN</code> if there were none
+     */
+    public float getMean() {
+      return count == 0 ? Float.NaN : (float) (sum / count);
+    }
+
+    /**
+     * @return The bucket width that answered the query in ns, or 0 if answered from raw readings
+     */
+    public long getResolutionNanos() {
+      return resolutionNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", min=" + min + ", max=" + max + ", mean=" + getMean();
+    }
+  }
+}
@@ -0,0 +1,406 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Memory-mapped file through which other processes command the board and read
+ * its state without system calls.
+ * <p>
+ * The file (ideally on a tmpfs such as <code>/dev/shm</code>) holds a ring of
+ * commands written by a single client process and a state block written by
+ * this channel. Sending a command or reading the state is a handful of loads
+ * and stores to shared memory; only this channel's thread polls. The layout is
+ * fixed, little-endian and versioned so clients in any language can use it.
+ * Offsets are in bytes from the start of the file:
+ *
+ * <pre>
+ * Header, written once by the channel
+ *     0  int    magic, the bytes "RRB4"
+ *     4  int    layout version, 1
+ *     8  int    command capacity, a power of two
+ *    12  int    command record size, 16
+ *    16  int    offset of the first command record, 256
+ * Command ring indices, counting records written and taken, wrapping
+ *    64  int    head, written by the client after each record
+ *    96  int    tail, written by the channel after taking records
+ * State block, guarded by a sequence lock
+ *   128  int    sequence, odd while the channel is writing
+ *   132  int    flags: switch1 closed = 1, switch2 closed = 2, LED1 = 4, LED2 = 8, OC1 = 16, OC2 = 32
+ *   136  long   board time of the sample in nanoseconds
+ *   144  float  range in cm, NaN if unknown
+ *   148  int    motor-1 duty cycle as applied, negative in reverse
+ *   152  int    motor-2 duty cycle as applied, negative in reverse
+ *   156  int    commands applied
+ *   160  int    commands rejected
+ * Command records from offset 256, record n at 256 + 16 * (n &amp; (capacity - 1))
+ *     0  int    opcode: 1 = motors, 2 = output
+ *     4  int    output number for opcode 2 (LED1 = 0, LED2 = 1, OC1 = 2, OC2 = 3)
+ *     8  float  motors: motor-1 speed in [-1, 1], negative in reverse; output: non-zero turns it on
+ *    12  float  motors: motor-2 speed in [-1, 1], negative in reverse
+ * </pre>
+ *
+ * A client writes a record only while <code>head - tail</code> is less than
+ * the capacity, then publishes it by storing the incremented head with release
+ * semantics. It reads the state by loading the sequence, the block and the
+ * sequence again, retrying if the two differ or are odd. The channel
+ * reinitializes the file each time it starts; {@link SharedMemoryClient} is
+ * the Java client.
+ * <p>
+ * Invalid commands are counted and skipped. The channel applies commands in
+ * the order they were written and republishes the state after each batch.
+ * <p>
+ * Both ends order their accesses to the file with {@link MemoryFences}, which
+ * builds each fence from volatile accesses rather than
+ * <code>sun.misc.Unsafe</code>.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class SharedMemoryChannel {
+  /**
+   * Version of the file layout.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Default number of commands the ring holds.
+   */
+  public static final int CAPACITY_DEFAULT = 256;
+
+  /**
+   * Default number of microseconds between polls of the command ring.
+   */
+  public static final int POLL_DEFAULT_US = 250;
+
+  /**
+   * Default number of milliseconds between state samples when no commands arrive.
+   */
+  public static final int PERIOD_DEFAULT_MS = 10;
+
+  static final int MAGIC = 0x34425252;
+  static final int RECORD_SIZE = 16;
+  static final int MAGIC_OFFSET = 0;
+  static final int VERSION_OFFSET = 4;
+  static final int CAPACITY_OFFSET = 8;
+  static final int STRIDE_OFFSET = 12;
+  static final int RING_START_OFFSET = 16;
+  static final int HEAD_OFFSET = 64;
+  static final int TAIL_OFFSET = 96;
+  static final int SEQUENCE_OFFSET = 128;
+  static final int FLAGS_OFFSET = 132;
+  static final int TIME_OFFSET = 136;
+  static final int RANGE_OFFSET = 144;
+  static final int M1_DUTY_OFFSET = 148;
+  static final int M2_DUTY_OFFSET = 152;
+  static final int APPLIED_OFFSET = 156;
+  static final int REJECTED_OFFSET = 160;
+  static final int RING_OFFSET = 256;
+
+  static final int OP_MOTORS = 1;
+  static final int OP_OUTPUT = 2;
+
+  static final int SWITCH1_FLAG = 1;
+  static final int SWITCH2_FLAG = 2;
+  // Shifted left by the output's ordinal
+  static final int OUTPUT_FLAG = 4;
+
+  private static final BoardOutput[] OUTPUTS = BoardOutput.values();
+
+  private final RasPiRobot3 board;
+  private final Path path;
+  private final int capacity;
+  private final long pollNanos;
+  private final long periodNanos;
+  private final Object lifecycleLock = new Object();
+
+  // Owned by the polling thread
+  private int tail;
+  private int sequence;
+  private int applied;
+  private int rejected;
+  private long nextSampleNanos;
+
+  private volatile DoubleSupplier rangeSource;
+  private volatile boolean running;
+  private FileChannel file;
+  private MappedByteBuffer buffer;
+  private ClockLoop loop;
+
+  /**
+   * Uses the default capacity, polling interval and sampling period.
+   *
+   * @param board
+   *          The board to command, not null
+   * @param path
+   *          The file to share, created if it does not exist, not null
+   */
+  public SharedMemoryChannel(final RasPiRobot3 board, final Path path) {
+    this(board, path, CAPACITY_DEFAULT, POLL_DEFAULT_US, PERIOD_DEFAULT_MS);
+  }
+
+  /**
+   * @param board
+   *          The board to command, not null
+   * @param path
+   *          The file to share, created if it does not exist, not null
+   * @param capacity
+   *          Number of commands the ring holds, a power of two
+   * @param pollMicros
+   *          Number of microseconds between polls of the command ring, must be positive
+   * @param periodMillis
+   *          Number of milliseconds between state samples when no commands arrive, must be positive
+   */
+  public SharedMemoryChannel(final RasPiRobot3 board, final Path path, final int capacity, final int pollMicros, final int periodMillis) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.notNull(path, "Path can not be null");
+    Validate.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, "Capacity must be a power of two");
+    Validate.isTrue(pollMicros > 0, "Poll interval must be positive");
+    Validate.isTrue(periodMillis > 0, "Period must be positive");
+
+    this.board = board;
+    this.path = path;
+    this.capacity = capacity;
+    this.pollNanos = TimeUnit.MICROSECONDS.toNanos(pollMicros);
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+  }
+
+  /**
+   * Reads the range for each sample from the given source, such as
+   * <code>reflex::getLastRangeCm</code>. The channel never pings the
+   * rangefinder itself.
+   *
+   * @param source
+   *          Latest range reading in cm, or null to publish NaN
+   */
+  public void setRangeSource(final DoubleSupplier source) {
+    rangeSource = source;
+  }
+
+  /**
+   * Initializes the file and starts polling it for commands. Commands left in
+   * the file by an earlier run are discarded.
+   *
+   * @throws IOException
+   *           If the file can not be created or mapped
+   */
+  public void start() throws IOException {
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      final int size = fileSize(capacity);
+      file.truncate(size);
+      buffer = file.map(MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      initialize();
+
+      running = true;
+      loop = new ClockLoop(board.getClock(), "rrb4j-shared-memory", Thread.NORM_PRIORITY, this::step);
+      loop.start();
+    }
+  }
+
+  /**
+   * Stops polling. Clients can still read the last state published.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the poller to stop
+   * @throws IOException
+   *           If the file can not be closed
+   */
+  public void stop() throws InterruptedException, IOException {
+    synchronized (lifecycleLock) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      loop.stop();
+      loop = null;
+
+      // The mapping stays valid until the buffer is collected
+      file.close();
+      file = null;
+      buffer = null;
+    }
+  }
+
+  /**
+   * @return True if the channel is polling for commands
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return The number of commands the ring holds
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  static int fileSize(final int capacity) {
+    return RING_OFFSET + capacity * RECORD_SIZE;
+  }
+
+  private void initialize() {
+    for (int i = 0; i < buffer.capacity(); i += Integer.BYTES) {
+      buffer.putInt(i, 0);
+    }
+
+    tail = 0;
+    sequence = 0;
+    applied = 0;
+    rejected = 0;
+
+    buffer.putInt(VERSION_OFFSET, VERSION);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(STRIDE_OFFSET, RECORD_SIZE);
+    buffer.putInt(RING_START_OFFSET, RING_OFFSET);
+    final long now = board.currentTimeNanos();
+    nextSampleNanos = now + periodNanos;
+    publishState(now);
+
+    // Clients check the magic number last
+    MemoryFences.storeFence();
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+  }
+
+  // Polls the command ring once and returns the board time at which the next poll is due
+  private long step() {
+    if (!running) {
+      return ClockLoop.FINISHED;
+    }
+
+    final boolean commanded = drain();
+    final long now = board.currentTimeNanos();
+    if (commanded || now - nextSampleNanos >= 0) {
+      publishState(now);
+      nextSampleNanos = now + periodNanos;
+    }
+
+    return now + pollNanos;
+  }
+
+  // Applies every command the client has published; returns true if there were any
+  private boolean drain() {
+    final int head = buffer.getInt(HEAD_OFFSET);
+    MemoryFences.loadFence();
+
+    final int waiting = head - tail;
+    if (waiting == 0) {
+      return false;
+    }
+
+    if (waiting < 0 || waiting > capacity) {
+      // The client broke the protocol; nothing in the ring can be trusted
+      rejected += Math.min(Math.abs(waiting), capacity);
+    } else {
+      final int mask = capacity - 1;
+      for (int index = tail; index != head; index++) {
+        final int record = RING_OFFSET + (index & mask) * RECORD_SIZE;
+        apply(buffer.getInt(record), buffer.getInt(record + 4), buffer.getFloat(record + 8), buffer.getFloat(record + 12));
+      }
+    }
+
+    // The records must be read before the client may overwrite them
+    tail = head;
+    MemoryFences.loadFence();
+    buffer.putInt(TAIL_OFFSET, tail);
+    return true;
+  }
+
+  private void apply(final int opcode, final int argument, final float first, final float second) {
+    if (opcode == OP_MOTORS && isSpeed(first) && isSpeed(second)) {
+      board.setMotors(Math.abs(first), direction(first), Math.abs(second), direction(second));
+      applied++;
+    } else if (opcode == OP_OUTPUT && argument >= 0 && argument < OUTPUTS.length) {
+      board.setOutput(OUTPUTS[argument], first != 0.0f);
+      applied++;
+    } else {
+      rejected++;
+    }
+  }
+
+  private static boolean isSpeed(final float speed) {
+    // Also false for NaN
+    return speed >= -1.0f && speed <= 1.0f;
+  }
+
+  private static MotorDirection direction(final float speed) {
+    return speed < 0.0f ? MotorDirection.REVERSE : MotorDirection.FORWARD;
+  }
+
+  private void publishState(final long timeNanos) {
+    final DoubleSupplier source = rangeSource;
+    final float rangeCm = source == null ? Float.NaN : (float) source.getAsDouble();
+
+    int flags = 0;
+    if (board.switch1Closed()) {
+      flags |= SWITCH1_FLAG;
+    }
+    if (board.switch2Closed()) {
+      flags |= SWITCH2_FLAG;
+    }
+    for (final BoardOutput output : OUTPUTS) {
+      if (board.getOutputPin(output).isHigh()) {
+        flags |= OUTPUT_FLAG << output.ordinal();
+      }
+    }
+
+    sequence++;
+    buffer.putInt(SEQUENCE_OFFSET, sequence);
+    MemoryFences.storeFence();
+
+    buffer.putInt(FLAGS_OFFSET, flags);
+    buffer.putLong(TIME_OFFSET, timeNanos);
+    buffer.putFloat(RANGE_OFFSET, rangeCm);
+    buffer.putInt(M1_DUTY_OFFSET, signedDuty(board.getM1AppliedDuty(), board.m1Direction));
+    buffer.putInt(M2_DUTY_OFFSET, signedDuty(board.getM2AppliedDuty(), board.m2Direction));
+    buffer.putInt(APPLIED_OFFSET, applied);
+    buffer.putInt(REJECTED_OFFSET, rejected);
+
+    MemoryFences.storeFence();
+    sequence++;
+    buffer.putInt(SEQUENCE_OFFSET, sequence);
+  }
+
+  private static int signedDuty(final int duty, final MotorDirection direction) {
+    return direction == MotorDirection.REVERSE ? -duty : duty;
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Java side of a {@link SharedMemoryChannel} for controllers running in
+ * another JVM.
+ * <p>
+ * Sending commands and reading the state only touch shared memory. A client
+ * is the single producer of the command ring: only one client may send
+ * commands at a time, from one thread. Any number of clients may read the
+ * state.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class SharedMemoryClient implements Closeable {
+  // Attempts to read a consistent state before giving up
+  private static final int READ_ATTEMPTS = 64;
+
+  private final FileChannel file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final int mask;
+  private int head;
+  private int tail;
+
+  private SharedMemoryClient(final FileChannel file, final MappedByteBuffer buffer) {
+    this.file = file;
+    this.buffer = buffer;
+    this.capacity = buffer.getInt(SharedMemoryChannel.CAPACITY_OFFSET);
+    this.mask = capacity - 1;
+    this.head = buffer.getInt(SharedMemoryChannel.HEAD_OFFSET);
+    this.tail = buffer.getInt(SharedMemoryChannel.TAIL_OFFSET);
+  }
+
+  /**
+   * Maps a file initialized by a running {@link SharedMemoryChannel}.
+   *
+   * @param path
+   *          The shared file, not null
+   * @return A client of the channel
+   * @throws IOException
+   *           If the file can not be mapped or is not a channel of a supported version
+   */
+  public static SharedMemoryClient open(final Path path) throws IOException {
+    Validate.notNull(path, "Path can not be null");
+
+    final FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (file.size() < SharedMemoryChannel.RING_OFFSET) {
+        throw new IOException("Not a channel: " + path);
+      }
+
+      final MappedByteBuffer buffer = file.map(MapMode.READ_WRITE, 0, file.size());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt(SharedMemoryChannel.MAGIC_OFFSET) != SharedMemoryChannel.MAGIC) {
+        throw new IOException("Not a channel: " + path);
+      }
+
+      MemoryFences.loadFence();
+      final int version = buffer.getInt(SharedMemoryChannel.VERSION_OFFSET);
+      if (version != SharedMemoryChannel.VERSION) {
+        throw new IOException("Unsupported channel version " + version + ": " + path);
+      }
+
+      final int capacity = buffer.getInt(SharedMemoryChannel.CAPACITY_OFFSET);
+      if (file.size() < SharedMemoryChannel.fileSize(capacity)) {
+        throw new IOException("Truncated channel: " + path);
+      }
+
+      return new SharedMemoryClient(file, buffer);
+    } catch (final IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Commands both motors.
+   *
+   * @param m1Speed
+   *          Proportional speed of motor-1 in the range [-1.0, 1.0], negative in reverse
+   * @param m2Speed
+   *          Proportional speed of motor-2 in the range [-1.0, 1.0], negative in reverse
+   * @return True if the command was sent, false if the ring is full
+   */
+  public boolean sendMotors(final float m1Speed, final float m2Speed) {
+    Validate.inclusiveBetween(-1.0f, 1.0f, m1Speed, "Motor-1 speed must be in the range [-1, 1]");
+    Validate.inclusiveBetween(-1.0f, 1.0f, m2Speed, "Motor-2 speed must be in the range [-1, 1]");
+
+    return send(SharedMemoryChannel.OP_MOTORS, 0, m1Speed, m2Speed);
+  }
+
+  /**
+   * Switches one of the board outputs.
+   *
+   * @param output
+   *          The output to switch, not null
+   * @param enabled
+   *          True to turn the output on
+   * @return True if the command was sent, false if the ring is full
+   */
+  public boolean sendOutput(final BoardOutput output, final boolean enabled) {
+    Validate.notNull(output, "Output can not be null");
+
+    return send(SharedMemoryChannel.OP_OUTPUT, output.ordinal(), enabled ? 1.0f : 0.0f, 0.0f);
+  }
+
+  /**
+   * Reads the latest state published by the channel.
+   *
+   * @param state
+   *          The snapshot to fill in, not null
+   * @return True if the snapshot was filled in, false if no consistent state could be read
+   */
+  public boolean readState(final SharedMemoryState state) {
+    for (int i = 0; i < READ_ATTEMPTS; i++) {
+      final int sequence = buffer.getInt(SharedMemoryChannel.SEQUENCE_OFFSET);
+      if ((sequence & 1) != 0) {
+        continue;
+      }
+
+      MemoryFences.loadFence();
+      final int flags = buffer.getInt(SharedMemoryChannel.FLAGS_OFFSET);
+      final long timeNanos = buffer.getLong(SharedMemoryChannel.TIME_OFFSET);
+      final float rangeCm = buffer.getFloat(SharedMemoryChannel.RANGE_OFFSET);
+      final int m1Duty = buffer.getInt(SharedMemoryChannel.M1_DUTY_OFFSET);
+      final int m2Duty = buffer.getInt(SharedMemoryChannel.M2_DUTY_OFFSET);
+      final int applied = buffer.getInt(SharedMemoryChannel.APPLIED_OFFSET);
+      final int rejected = buffer.getInt(SharedMemoryChannel.REJECTED_OFFSET);
+      MemoryFences.loadFence();
+
+      if (buffer.getInt(SharedMemoryChannel.SEQUENCE_OFFSET) == sequence) {
+        state.sequence = sequence;
+        state.flags = flags;
+        state.timeNanos = timeNanos;
+        state.rangeCm = rangeCm;
+        state.m1Duty = m1Duty;
+        state.m2Duty = m2Duty;
+        state.applied = applied;
+        state.rejected = rejected;
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return The number of commands sent but not yet taken by the channel
+   */
+  public int getBacklog() {
+    return head - buffer.getInt(SharedMemoryChannel.TAIL_OFFSET);
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapping stays valid until the buffer is collected
+    file.close();
+  }
+
+  // Writes a raw command record; the channel validates it
+  boolean send(final int opcode, final int argument, final float first, final float second) {
+    if (head - tail >= capacity) {
+      tail = buffer.getInt(SharedMemoryChannel.TAIL_OFFSET);
+      if (head - tail >= capacity) {
+        return false;
+      }
+    }
+
+    // The channel must have taken the record before it is overwritten
+    MemoryFences.loadFence();
+    final int record = SharedMemoryChannel.RING_OFFSET + (head & mask) * SharedMemoryChannel.RECORD_SIZE;
+    buffer.putInt(record, opcode);
+    buffer.putInt(record + 4, argument);
+    buffer.putFloat(record + 8, first);
+    buffer.putFloat(record + 12, second);
+
+    head++;
+    MemoryFences.storeFence();
+    buffer.putInt(SharedMemoryChannel.HEAD_OFFSET, head);
+    return true;
+  }
+}
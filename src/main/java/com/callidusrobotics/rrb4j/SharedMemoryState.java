@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Snapshot of the board's state read from a {@link SharedMemoryChannel}.
+ * <p>
+ * A single instance can be reused for every read, so that polling the state
+ * does not allocate.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class SharedMemoryState {
+  // Written by SharedMemoryClient.readState()
+  int sequence;
+  int flags;
+  long timeNanos;
+  float rangeCm = Float.NaN;
+  int m1Duty;
+  int m2Duty;
+  int applied;
+  int rejected;
+
+  /**
+   * @return The sequence number of the sample; increases with every sample
+   */
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The board time of the sample in nanoseconds
+   */
+  public long getTimeNanos() {
+    return timeNanos;
+  }
+
+  /**
+   * @return The range in cm, or NaN if the channel has no range source
+   */
+  public float getRangeCm() {
+    return rangeCm;
+  }
+
+  /**
+   * @return The duty cycle applied to motor-1, negative in reverse
+   */
+  public int getM1Duty() {
+    return m1Duty;
+  }
+
+  /**
+   * @return The duty cycle applied to motor-2, negative in reverse
+   */
+  public int getM2Duty() {
+    return m2Duty;
+  }
+
+  /**
+   * @return True if switch-1 is closed
+   */
+  public boolean isSwitch1Closed() {
+    return (flags & SharedMemoryChannel.SWITCH1_FLAG) != 0;
+  }
+
+  /**
+   * @return True if switch-2 is closed
+   */
+  public boolean isSwitch2Closed() {
+    return (flags & SharedMemoryChannel.SWITCH2_FLAG) != 0;
+  }
+
+  /**
+   * @param output
+   *          The output to check, not null
+   * @return True if the output is on
+   */
+  public boolean isOutputOn(final BoardOutput output) {
+    return (flags & SharedMemoryChannel.OUTPUT_FLAG << output.ordinal()) != 0;
+  }
+
+  /**
+   * @return The number of commands the channel has applied since it started
+   */
+  public int getAppliedCount() {
+    return applied;
+  }
+
+  /**
+   * @return The number of invalid commands the channel has skipped since it started
+   */
+  public int getRejectedCount() {
+    return rejected;
+  }
+
+  @Override
+  public String toString() {
+    return "#" + sequence + " m1=" + m1Duty + " m2=" + m2Duty + " range=" + rangeCm + "cm flags=0x" + Integer.toHexString(flags);
+  }
+}
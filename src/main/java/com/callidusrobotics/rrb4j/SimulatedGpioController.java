@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPin;
+import com.pi4j.io.gpio.GpioProvider;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.exception.GpioPinExistsException;
+import com.pi4j.io.gpio.impl.GpioPinImpl;
+
+/**
+ * Minimal GPIO controller for boards on a {@link SimulatedGpioProvider}.
+ * <p>
+ * pi4j's <code>GpioControllerImpl</code> registers a JVM shutdown hook that
+ * keeps every controller, and the board holding it, reachable until the JVM
+ * exits, and its <code>shutdown()</code> stops pi4j's executors for the whole
+ * JVM. This controller does neither. It only supports what a board needs:
+ * provisioning digital inputs and outputs, looking up provisioned pins and
+ * shutting down; every other method throws
+ * <code>UnsupportedOperationException</code>.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+final class SimulatedGpioController implements InvocationHandler {
+  private final SimulatedGpioProvider provider;
+
+  private final Object lock = new Object();
+  private final List<GpioPin> pins = new ArrayList<>();
+  private volatile boolean shutdown;
+
+  private SimulatedGpioController(final SimulatedGpioProvider provider) {
+    this.provider = provider;
+  }
+
+  /**
+   * @param provider
+   *          The provider the pins are exported on, not null
+   * @return A new controller backed by the provider
+   */
+  static GpioController create(final SimulatedGpioProvider provider) {
+    Validate.notNull(provider, "Provider can not be null");
+
+    return (GpioController) Proxy.newProxyInstance(GpioController.class.getClassLoader(), new Class<?>[] {GpioController.class}, new SimulatedGpioController(provider));
+  }
+
+  @Override
+  @SuppressWarnings("PMD.UseVarargs")
+  public Object invoke(final Object proxy, final Method method, final Object[] args) {
+    switch (method.getName()) {
+      case "provisionDigitalOutputPin":
+        return provision((GpioController) proxy, PinMode.DIGITAL_OUTPUT, args);
+      case "provisionDigitalInputPin":
+        return provision((GpioController) proxy, PinMode.DIGITAL_INPUT, args);
+      case "getProvisionedPin":
+        return findPin(args[0]);
+      case "getProvisionedPins":
+        synchronized (lock) {
+          return new ArrayList<>(pins);
+        }
+      case "isShutdown":
+        return shutdown;
+      case "shutdown":
+        shutdown = true;
+        provider.shutdown();
+        return null;
+      default:
+        return invokeObjectMethod(proxy, method, args);
+    }
+  }
+
+  // The methods every proxy must answer itself
+  @SuppressWarnings("PMD.UseVarargs")
+  private Object invokeObjectMethod(final Object proxy, final Method method, final Object[] args) {
+    switch (method.getName()) {
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+        return "SimulatedGpioController[" + provider.getName() + "]";
+      default:
+        throw new UnsupportedOperationException(method.getName() + " is not supported by a simulated controller");
+    }
+  }
+
+  // Mirrors GpioControllerImpl.provisionPin() for whichever overload was called
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private GpioPin provision(final GpioController controller, final PinMode mode, final Object... args) {
+    final Pin pin = argument(Pin.class, args);
+    final String name = argument(String.class, args);
+    final GpioProvider pinProvider = argument(GpioProvider.class, args);
+    Validate.notNull(pin, "Pin can not be null");
+    Validate.isTrue(pinProvider == null || pinProvider == provider, "Pins can only be provisioned on the simulated provider");
+
+    synchronized (lock) {
+      if (findPin(pin) != null) {
+        throw new GpioPinExistsException(pin);
+      }
+
+      final GpioPinImpl gpioPin = new GpioPinImpl(controller, provider, pin);
+      if (name != null) {
+        gpioPin.setName(name);
+      }
+      gpioPin.export(mode, argument(PinState.class, args));
+
+      final PinPullResistance pull = argument(PinPullResistance.class, args);
+      if (pull != null) {
+        gpioPin.setPullResistance(pull);
+      }
+
+      pins.add(gpioPin);
+      return gpioPin;
+    }
+  }
+
+  // First argument of the given type, or null if there is none
+  private static <T> T argument(final Class<T> type, final Object... args) {
+    for (final Object arg : args) {
+      if (type.isInstance(arg)) {
+        return type.cast(arg);
+      }
+    }
+
+    return null;
+  }
+
+  // Looks up a provisioned pin by pi4j pin or by name
+  private GpioPin findPin(final Object key) {
+    synchronized (lock) {
+      for (final GpioPin gpioPin : pins) {
+        if (gpioPin.getPin().equals(key) || gpioPin.getName().equals(key)) {
+          return gpioPin;
+        }
+      }
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioProviderBase;
+import com.pi4j.io.gpio.GpioProviderPinCache;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiGpioProvider;
+import com.pi4j.io.gpio.exception.InvalidPinModeException;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+
+/**
+ * In-memory GPIO provider for running the driver without hardware.
+ * <p>
+ * Pin modes and states are kept in pi4j's provider cache, so outputs read back
+ * whatever was last written and inputs read low until they are driven with
+ * {@link #setInputState(Pin, PinState)}. No native library is loaded, and
+ * reading or writing a pin does not allocate.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class SimulatedGpioProvider extends GpioProviderBase {
+  /**
+   * @return A new GPIO controller backed by a simulated provider
+   */
+  public static GpioController newController() {
+    return new GpioControllerImpl(new SimulatedGpioProvider());
+  }
+
+  /**
+   * Drives an input as the hardware attached to it would, notifying the
+   * pin's listeners if its state changes.
+   *
+   * @param pin
+   *          The provisioned input pin, not null
+   * @param state
+   *          The new state of the pin, not null
+   */
+  @SuppressWarnings("PMD.LawOfDemeter")
+  public void setInputState(final Pin pin, final PinState state) {
+    final GpioProviderPinCache pinCache = getPinCache(pin);
+    if (pinCache.getState() != state) {
+      pinCache.setState(state);
+      dispatchPinDigitalStateChangeEvent(pin, state);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("PMD.LawOfDemeter")
+  public PinState getState(final Pin pin) {
+    // GpioProviderBase checks the mode against a new EnumSet on every read
+    final PinMode mode = getMode(pin);
+    if (mode != PinMode.DIGITAL_INPUT && mode != PinMode.DIGITAL_OUTPUT) {
+      throw new InvalidPinModeException(pin, "Can not read the state of " + pin.getName() + " in mode " + mode.getName());
+    }
+
+    return getPinCache(pin).getState();
+  }
+
+  @Override
+  public String getName() {
+    // RaspiPin pins can only be provisioned on a provider with this name
+    return RaspiGpioProvider.NAME;
+  }
+}
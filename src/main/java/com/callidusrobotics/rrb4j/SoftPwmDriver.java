@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.wiringpi.SoftPwm;
+
+/**
+ * Default <code>PwmDriver</code> backed by the wiringPi SoftPwm library,
+ * which runs one native thread per pin.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class SoftPwmDriver implements PwmDriver {
+
+  /**
+   * Shared instance; wiringPi keeps all of its state in native code.
+   */
+  public static final SoftPwmDriver INSTANCE = new SoftPwmDriver();
+
+  private SoftPwmDriver() {
+    // Use the shared instance
+  }
+
+  @Override
+  public void create(final Pin pin) {
+    SoftPwm.softPwmCreate(pin.getAddress(), 0, RANGE);
+  }
+
+  @Override
+  public void stop(final Pin pin) {
+    SoftPwm.softPwmStop(pin.getAddress());
+  }
+
+  @Override
+  public void write(final Pin pin, final int value) {
+    SoftPwm.softPwmWrite(pin.getAddress(), value);
+  }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Closed-loop speed control of both motors, layered on
+ * {@link RasPiRobotBoard#setMotors(float, MotorDirection, float, MotorDirection)}.
+ * <p>
+ * A dedicated thread runs a PID loop per motor at a fixed rate on the board's
+ * {@link BoardClock}, scheduled from the start of the loop rather than from
+ * the previous iteration. Each
+ * iteration reads the measured speed of each wheel from its
+ * {@link VelocitySource}, computes a duty cycle from the feed-forward of the
+ * target speed plus the PID terms, and writes both motors with a single call
+ * to <code>setMotors()</code>. The derivative acts on the measured speed
+ * rather than the error, so target changes do not kick the output.
+ * <p>
+ * The duty cycle is limited to the range [0, 1] in the direction of the
+ * target; the controller never brakes by reversing a motor, which would cost
+ * the H-bridge dead time on every overshoot. The integral is clamped to what
+ * it takes to drive the output to either end of that range, so it does not
+ * wind up while a motor is stalled or at full duty. A target of zero stops
+ * the motor and clears its integral.
+ * <p>
+ * Targets and gains may be changed from any thread while the loop is
+ * running; the loop itself does not allocate. Every iteration commands the
+ * motors, so a running controller keeps a {@link CommandWatchdog} from ever
+ * tripping.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class SpeedController {
+
+  /**
+   * Default number of milliseconds between iterations of the loop.
+   */
+  public static final int PERIOD_DEFAULT_MS = 20;
+
+  private static final float NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final RasPiRobot3 board;
+  private final VelocitySource m1Source;
+  private final VelocitySource m2Source;
+  private final long periodNanos;
+  private final TimingStats loopStats = new TimingStats();
+  private final TimingStats latenessStats = new TimingStats();
+  private final Object lifecycleLock = new Object();
+
+  // Touched only by the loop thread, or while it is stopped
+  private final MotorLoop m1Loop = new MotorLoop();
+  private final MotorLoop m2Loop = new MotorLoop();
+  private long deadline;
+  private long lastTime;
+
+  private volatile PidGains gains;
+  private volatile float m1Target;
+  private volatile float m2Target;
+  private volatile float m1Duty;
+  private volatile float m2Duty;
+  private volatile boolean running;
+  private ClockLoop loop;
+  private BoardClock clock;
+
+  /**
+   * Uses the default loop period.
+   *
+   * @param board
+   *          The board whose motors are controlled, not null
+   * @param m1Source
+   *          The measured speed of motor 1, not null
+   * @param m2Source
+   *          The measured speed of motor 2, not null
+   * @param gains
+   *          The initial gains, not null
+   */
+  public SpeedController(final RasPiRobot3 board, final VelocitySource m1Source, final VelocitySource m2Source, final PidGains gains) {
+    this(board, m1Source, m2Source, gains, PERIOD_DEFAULT_MS);
+  }
+
+  /**
+   * @param board
+   *          The board whose motors are controlled, not null
+   * @param m1Source
+   *          The measured speed of motor 1, not null
+   * @param m2Source
+   *          The measured speed of motor 2, not null
+   * @param gains
+   *          The initial gains, not null
+   * @param periodMillis
+   *          Milliseconds between iterations of the loop, must be positive
+   */
+  public SpeedController(final RasPiRobot3 board, final VelocitySource m1Source, final VelocitySource m2Source, final PidGains gains, final int periodMillis) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.notNull(m1Source, "Motor 1 velocity source can not be null");
+    Validate.notNull(m2Source, "Motor 2 velocity source can not be null");
+    Validate.notNull(gains, "Gains can not be null");
+    Validate.isTrue(periodMillis > 0, "Period must be positive: %d", periodMillis);
+
+    this.board = board;
+    this.m1Source = m1Source;
+    this.m2Source = m2Source;
+    this.gains = gains;
+    this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+  }
+
+  /**
+   * Starts the control loop on a dedicated maximum-priority thread.
+   */
+  public void start() {
+    final ClockLoop started;
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      running = true;
+      clock = board.getClock();
+      lastTime = clock.nanoTime();
+      deadline = lastTime + periodNanos;
+      loop = new ClockLoop(clock, "rrb4j-speed-controller", Thread.MAX_PRIORITY, this::step);
+      started = loop;
+    }
+
+    // Outside the lifecycle lock, since on a virtual clock the iterations run on the thread that advances it
+    started.start();
+  }
+
+  /**
+   * Stops the control loop and commands both motors to zero speed.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the loop to stop
+   */
+  public void stop() throws InterruptedException {
+    final ClockLoop stopped;
+    synchronized (lifecycleLock) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      stopped = loop;
+      loop = null;
+    }
+
+    stopped.stop();
+    board.commandStop();
+    m1Loop.reset();
+    m2Loop.reset();
+    m1Duty = 0.0f;
+    m2Duty = 0.0f;
+  }
+
+  /**
+   * @return True if the control loop is running
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Sets the wheel speeds that the loop drives towards.
+   *
+   * @param m1TicksPerSecond
+   *          Signed target speed of motor 1, negative in reverse
+   * @param m2TicksPerSecond
+   *          Signed target speed of motor 2, negative in reverse
+   */
+  public void setTargets(final float m1TicksPerSecond, final float m2TicksPerSecond) {
+    m1Target = m1TicksPerSecond;
+    m2Target = m2TicksPerSecond;
+  }
+
+  /**
+   * Replaces the gains; the loop uses them from its next iteration.
+   *
+   * @param gains
+   *          The new gains, not null
+   */
+  public void setGains(final PidGains gains) {
+    Validate.notNull(gains, "Gains can not be null");
+
+    this.gains = gains;
+  }
+
+  /**
+   * @return The gains in use
+   */
+  public PidGains getGains() {
+    return gains;
+  }
+
+  /**
+   * @return The duty cycle last written to motor 1, in the range [0, 1]
+   */
+  public float getM1Duty() {
+    return m1Duty;
+  }
+
+  /**
+   * @return The duty cycle last written to motor 2, in the range [0, 1]
+   */
+  public float getM2Duty() {
+    return m2Duty;
+  }
+
+  /**
+   * Loop time: the time from reading the feedback until both motors have
+   * been written.
+   *
+   * @return The loop time statistics, updated live
+   */
+  public TimingStats getLoopStats() {
+    return loopStats;
+  }
+
+  /**
+   * Loop jitter: the time between the scheduled start of each iteration and
+   * its actual start.
+   *
+   * @return The lateness statistics, updated live
+   */
+  public TimingStats getLatenessStats() {
+    return latenessStats;
+  }
+
+  // Runs the iteration that is due and returns the board time at which the next one is due
+  private long step() {
+    if (!running) {
+      return ClockLoop.FINISHED;
+    }
+
+    final long startTime = clock.nanoTime();
+    if (startTime - deadline < 0) {
+      return deadline;
+    }
+
+    latenessStats.record(startTime - deadline);
+
+    update((startTime - lastTime) / NANOS_PER_SECOND);
+    lastTime = startTime;
+    loopStats.record(clock.nanoTime() - startTime);
+
+    // Skip iterations that were missed instead of running them back to back
+    if (startTime - deadline > periodNanos) {
+      deadline = startTime;
+    }
+
+    deadline += periodNanos;
+    return deadline;
+  }
+
+  // Runs one iteration of both loops and writes the motors
+  void update(final float elapsedSeconds) {
+    final PidGains current = gains;
+    final float m1Setpoint = m1Target;
+    final float m2Setpoint = m2Target;
+
+    m1Duty = m1Loop.compute(current, m1Setpoint, m1Source.getTicksPerSecond(), elapsedSeconds);
+    m2Duty = m2Loop.compute(current, m2Setpoint, m2Source.getTicksPerSecond(), elapsedSeconds);
+
+    board.setMotors(m1Duty, directionOf(m1Setpoint), m2Duty, directionOf(m2Setpoint));
+  }
+
+  private static MotorDirection directionOf(final float target) {
+    return target < 0.0f ? MotorDirection.REVERSE : MotorDirection.FORWARD;
+  }
+
+  // PID state of one motor
+  private static final class MotorLoop {
+    private float integral;
+    private float lastSpeed;
+    private boolean reversed;
+    private boolean primed;
+
+    void reset() {
+      integral = 0.0f;
+      primed = false;
+    }
+
+    // Returns the duty cycle for a signed target and measurement
+    float compute(final PidGains gains, final float target, final float measured, final float elapsedSeconds) {
+      if (target == 0.0f || elapsedSeconds <= 0.0f) {
+        reset();
+        return 0.0f;
+      }
+
+      // Work in the direction of the target so the output is never negative
+      final boolean reverse = target < 0.0f;
+      if (reverse != reversed) {
+        reversed = reverse;
+        reset();
+      }
+
+      final float sign = Math.signum(target);
+      final float setpoint = sign * target;
+      final float speed = sign * measured;
+      final float error = setpoint - speed;
+      final float rate = derivativeOf(speed, elapsedSeconds);
+
+      final float base = gains.getFeedForward() * setpoint + gains.getProportional() * error - gains.getDerivative() * rate;
+      final float integralGain = gains.getIntegral();
+      integral += error * elapsedSeconds;
+
+      // Anti-windup: the integral never holds more than it takes to reach either end of the duty range
+      if (integralGain > 0.0f) {
+        integral = clamp(integral, -base / integralGain, (1.0f - base) / integralGain);
+      }
+
+      return clamp(base + integralGain * integral, 0.0f, 1.0f);
+    }
+
+    // Rate of change of the measured speed since the previous iteration
+    private float derivativeOf(final float speed, final float elapsedSeconds) {
+      final float rate = primed ? (speed - lastSpeed) / elapsedSeconds : 0.0f;
+      lastSpeed = speed;
+      primed = true;
+
+      return rate;
+    }
+
+    private static float clamp(final float value, final float min, final float max) {
+      return Math.max(min, Math.min(max, value));
+    }
+  }
+}
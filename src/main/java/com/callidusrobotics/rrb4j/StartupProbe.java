@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.TimeUnit;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+
+/**
+ * Measures how long the driver takes from process start to its first motor
+ * command, on a simulated GPIO controller so that it runs without hardware.
+ * <p>
+ * Prints a single line, <code>READY &lt;millis&gt;</code>, as soon as the first
+ * call to <code>setMotors()</code> returns, where <code>millis</code> is the
+ * time since <code>main()</code> was entered. The line is meant to be timed
+ * from outside by a harness that also counts JVM (or native image) startup.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class StartupProbe {
+  private StartupProbe() {
+    // No need to initialize this class
+  }
+
+  /**
+   * @param args Ignored
+   * @throws InterruptedException If the thread is interrupted while shutting down
+   */
+  public static void main(final String[] args) throws InterruptedException {
+    final long startNanos = System.nanoTime();
+
+    final GpioController gpio = SimulatedGpioProvider.newController();
+    final RasPiRobot3 rrb3 = new RasPiRobot3(gpio, PinMap.RRB3);
+    final PwmEngine pwm = new PwmEngine(gpio);
+    rrb3.setPwmDriver(pwm);
+
+    rrb3.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    System.out.println("READY " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    System.out.flush();
+
+    rrb3.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    pwm.shutdown();
+    rrb3.shutdown();
+  }
+}
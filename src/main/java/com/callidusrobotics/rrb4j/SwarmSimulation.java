@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+/**
+ * Steps a swarm of {@link VirtualBoard}s in parallel, for testing fleet
+ * behavior and load-testing control code without hardware.
+ * <p>
+ * Every board has its own controller, which is called once per step on the
+ * board's simulated clock. Time advances in lock-step: all boards finish a
+ * step before any board starts the next one. Boards are split across a
+ * fork/join pool, but each board only ever sees its own controller and
+ * state, so the outcome for a given seed does not depend on the
+ * parallelism or on how the boards were scheduled.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class SwarmSimulation implements AutoCloseable {
+
+  /**
+   * Default radius of the arena in cm.
+   */
+  public static final float ARENA_DEFAULT_CM = 500.0f;
+
+  // Boards stepped by a single task before it stops splitting
+  private static final int BOARDS_PER_TASK = 64;
+
+  private final VirtualBoard[] boards;
+  private final Controller[] controllers;
+  private final long stepNanos;
+  private final ForkJoinPool pool;
+  private final StepTask rootTask;
+
+  private long steps;
+  private long elapsedNanos;
+
+  /**
+   * Places the boards at random positions and headings inside the default arena.
+   *
+   * @param boardCount
+   *          Number of boards, must be positive
+   * @param stepMillis
+   *          Simulated time of each step in ms, must be positive
+   * @param seed
+   *          Seed of the initial placement
+   * @param parallelism
+   *          Number of threads that step the boards, must be positive
+   * @param controllerFactory
+   *          Creates the controller of the board with the given index, not null
+   */
+  @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+  public SwarmSimulation(final int boardCount, final long stepMillis, final long seed, final int parallelism, final IntFunction<Controller> controllerFactory) {
+    Validate.isTrue(boardCount > 0, "Board count must be positive: %d", boardCount);
+    Validate.isTrue(stepMillis > 0, "Step must be positive: %d", stepMillis);
+    Validate.isTrue(parallelism > 0, "Parallelism must be positive: %d", parallelism);
+    Validate.notNull(controllerFactory, "Controller factory can not be null");
+
+    this.boards = new VirtualBoard[boardCount];
+    this.controllers = new Controller[boardCount];
+    this.stepNanos = TimeUnit.MILLISECONDS.toNanos(stepMillis);
+    this.pool = new ForkJoinPool(parallelism);
+    this.rootTask = new StepTask(0, boardCount);
+
+    final Random random = new Random(seed);
+    for (int i = 0; i < boardCount; i++) {
+      // Uniform over the inner half of the arena
+      final double radius = ARENA_DEFAULT_CM / 2 * Math.sqrt(random.nextDouble());
+      final double angle = 2 * Math.PI * random.nextDouble();
+      final float heading = (float) (2 * Math.PI * random.nextDouble());
+      boards[i] = new VirtualBoard(ARENA_DEFAULT_CM, (float) (radius * Math.cos(angle)), (float) (radius * Math.sin(angle)), heading);
+      controllers[i] = controllerFactory.apply(i);
+    }
+  }
+
+  /**
+   * Runs steps of the whole swarm.
+   *
+   * @param stepCount
+   *          Number of steps, not negative
+   */
+  public void run(final int stepCount) {
+    Validate.isTrue(stepCount >= 0, "Step count can not be negative: %d", stepCount);
+
+    final long startTime = System.nanoTime();
+    for (int i = 0; i < stepCount; i++) {
+      rootTask.reinitialize();
+      pool.invoke(rootTask);
+      steps++;
+    }
+    elapsedNanos += System.nanoTime() - startTime;
+  }
+
+  /**
+   * @param index
+   *          The index of the board
+   * @return The board
+   */
+  public VirtualBoard getBoard(final int index) {
+    return boards[index];
+  }
+
+  /**
+   * @return The number of boards
+   */
+  public int getBoardCount() {
+    return boards.length;
+  }
+
+  /**
+   * @return The number of steps run
+   */
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * @return The number of board steps run, the product of the steps and the boards
+   */
+  public long getBoardSteps() {
+    return steps * boards.length;
+  }
+
+  /**
+   * @return The wall-clock time spent running steps in ns
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * @return The aggregate throughput in board steps per wall-clock second
+   */
+  public double getBoardStepsPerSecond() {
+    return elapsedNanos == 0 ? 0.0 : getBoardSteps() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /**
+   * Stops the pool and shuts down every board.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+    for (final VirtualBoard board : boards) {
+      board.shutdown();
+    }
+  }
+
+  /**
+   * Drives forward until an obstacle is near or the bumper is pressed, then
+   * spins in place until the path is clear.
+   *
+   * @param speed
+   *          Proportional speed, valid values in the range [0, 1]
+   * @param clearCm
+   *          Distance ahead in cm that counts as clear
+   * @return A new controller for one board
+   */
+  public static Controller wander(final float speed, final float clearCm) {
+    final RangeReading reading = new RangeReading();
+
+    return board -> {
+      board.measureRange(reading);
+      if (board.switch1Closed() || reading.getDistanceCm() < clearCm) {
+        board.setMotors(speed, MotorDirection.FORWARD, speed, MotorDirection.REVERSE);
+      } else {
+        board.setMotors(speed, MotorDirection.FORWARD, speed, MotorDirection.FORWARD);
+      }
+    };
+  }
+
+  /**
+   * Control code of one board, called once per step.
+   */
+  @FunctionalInterface
+  public interface Controller {
+
+    /**
+     * Reads the sensors of a board and commands it. Called on a pool thread,
+     * never concurrently for the same board.
+     *
+     * @param board
+     *          The board to control
+     */
+    void step(VirtualBoard board);
+  }
+
+  // Steps a range of boards, splitting it across the pool
+  private final class StepTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int until;
+
+    StepTask(final int from, final int until) {
+      super();
+      this.from = from;
+      this.until = until;
+    }
+
+    @Override
+    protected void compute() {
+      if (until - from <= BOARDS_PER_TASK) {
+        for (int i = from; i < until; i++) {
+          controllers[i].step(boards[i]);
+          boards[i].advance(stepNanos);
+        }
+        return;
+      }
+
+      final int middle = (from + until) >>> 1;
+      invokeAll(new StepTask(from, middle), new StepTask(middle, until));
+    }
+  }
+}
@@ -0,0 +1,444 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Optional embedded HTTP server that shows the board's state live.
+ * <p>
+ * A publishing thread samples the board at a fixed rate: motor duty cycles
+ * as applied and directions, the switches, the outputs and, if a range
+ * source is set, the latest range reading. Each sample is serialized once
+ * into a reused buffer as a JSON object and served as:
+ * <ul>
+ * <li><code>GET /state</code>: the latest sample</li>
+ * <li><code>GET /events</code>: a Server-Sent Events stream of samples</li>
+ * <li><code>GET /</code>: a page that shows the stream in a browser</li>
+ * </ul>
+ * <p>
+ * The control loop is never involved: the board is only read. Each stream
+ * client is served by its own thread that always sends the newest sample, so
+ * a slow client skips samples rather than holding up the publisher or other
+ * clients.
+ * <p>
+ * The server exposes the robot's state without authentication; bind it to
+ * loopback or a trusted network.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.TooManyMethods", "PMD.GodClass", "PMD.TooManyFields", "PMD.LawOfDemeter"})
+public class TelemetryServer {
+
+  /**
+   * Default number of milliseconds between samples.
+   */
+  public static final int PERIOD_DEFAULT_MS = 100;
+
+  /**
+   * Default number of concurrent stream clients.
+   */
+  public static final int CLIENTS_DEFAULT = 8;
+
+  // Longest possible sample, so the frame buffers never grow
+  static final int FRAME_CAPACITY = 512;
+
+  private static final BoardOutput[] OUTPUTS = BoardOutput.values();
+  private static final String[] OUTPUT_KEYS = new String[OUTPUTS.length];
+  private static final byte[] EVENT_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EVENT_SUFFIX = "\n\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAGE = ("<!DOCTYPE html><html><head><title>RRB4J</title></head><body><pre id=\"state\">Connecting...</pre><script>"
+      + "new EventSource('events').onmessage = function(e) {"
+      + " document.getElementById('state').textContent = JSON.stringify(JSON.parse(e.data), null, 2); };"
+      + "</script></body></html>").getBytes(StandardCharsets.UTF_8);
+
+  static {
+    for (final BoardOutput output : OUTPUTS) {
+      OUTPUT_KEYS[output.ordinal()] = ",\"" + output.name().toLowerCase(Locale.ROOT) + "\":";
+    }
+  }
+
+  private final RasPiRobot3 board;
+  private final InetSocketAddress address;
+  private final long periodMillis;
+  private final int maxClients;
+  private final TimingStats sampleStats = new TimingStats();
+  private final Object lifecycleLock = new Object();
+
+  // Reused by the publishing thread for every sample
+  @SuppressWarnings("PMD.AvoidStringBufferField")
+  private final StringBuilder json = new StringBuilder(FRAME_CAPACITY);
+  private long samples;
+
+  // The latest sample, guarded by frameLock and replaced in place
+  private final Object frameLock = new Object();
+  private final byte[] frame = new byte[FRAME_CAPACITY];
+  private int frameLength;
+  private long frameSequence;
+  private int clients;
+
+  private volatile DoubleSupplier rangeSource;
+  private volatile boolean running;
+  private HttpServer server;
+  private ExecutorService executor;
+  private Thread thread;
+
+  /**
+   * Samples at the default rate and accepts the default number of stream clients.
+   *
+   * @param board
+   *          The board to show, not null
+   * @param address
+   *          The address to listen on, not null; port zero picks a free port
+   */
+  public TelemetryServer(final RasPiRobot3 board, final InetSocketAddress address) {
+    this(board, address, PERIOD_DEFAULT_MS, CLIENTS_DEFAULT);
+  }
+
+  /**
+   * @param board
+   *          The board to show, not null
+   * @param address
+   *          The address to listen on, not null; port zero picks a free port
+   * @param periodMillis
+   *          Number of milliseconds between samples, must be positive
+   * @param maxClients
+   *          Number of concurrent stream clients, must be positive
+   */
+  public TelemetryServer(final RasPiRobot3 board, final InetSocketAddress address, final int periodMillis, final int maxClients) {
+    Validate.notNull(board, "Board can not be null");
+    Validate.notNull(address, "Address can not be null");
+    Validate.isTrue(periodMillis > 0, "Period must be positive");
+    Validate.isTrue(maxClients > 0, "Maximum clients must be positive");
+
+    this.board = board;
+    this.address = address;
+    this.periodMillis = periodMillis;
+    this.maxClients = maxClients;
+    sample(Float.NaN);
+  }
+
+  /**
+   * Reads the range for each sample from the given source, such as
+   * <code>reflex::getLastRangeCm</code>. The telemetry never pings the
+   * rangefinder itself.
+   *
+   * @param source
+   *          Latest range reading in cm, or null to leave the range out
+   */
+  public void setRangeSource(final DoubleSupplier source) {
+    rangeSource = source;
+  }
+
+  /**
+   * Starts listening and sampling.
+   *
+   * @throws IOException
+   *           If the server can not listen on its address
+   */
+  public void start() throws IOException {
+    synchronized (lifecycleLock) {
+      if (running) {
+        return;
+      }
+
+      // Stream clients hold a thread each for as long as they are connected
+      executor = Executors.newFixedThreadPool(maxClients + 2, runnable -> {
+        final Thread handler = new Thread(runnable, "rrb4j-telemetry-http");
+        handler.setDaemon(true);
+        return handler;
+      });
+      server = HttpServer.create(address, 0);
+      server.createContext("/state", this::handleState);
+      server.createContext("/events", this::handleEvents);
+      server.createContext("/", this::handlePage);
+      server.setExecutor(executor);
+      server.start();
+
+      running = true;
+      thread = new Thread(this::run, "rrb4j-telemetry");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stops sampling and closes every connection.
+   *
+   * @throws InterruptedException
+   *           If the calling thread is interrupted while waiting for the server to stop
+   */
+  public void stop() throws InterruptedException {
+    final Thread publisher;
+    final HttpServer httpServer;
+    final ExecutorService handlers;
+    synchronized (lifecycleLock) {
+      if (!running) {
+        return;
+      }
+
+      running = false;
+      publisher = thread;
+      httpServer = server;
+      handlers = executor;
+      thread = null;
+      server = null;
+      executor = null;
+    }
+
+    // Let stream handlers end their responses properly before the connections are closed
+    synchronized (frameLock) {
+      frameLock.notifyAll();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (clients > 0 && System.nanoTime() < deadline) {
+        frameLock.wait(10);
+      }
+    }
+
+    publisher.interrupt();
+    publisher.join();
+    httpServer.stop(0);
+    handlers.shutdownNow();
+    handlers.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return True if the server is listening
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return The port the server listens on, or zero if it is not running
+   */
+  public int getPort() {
+    synchronized (lifecycleLock) {
+      return server == null ? 0 : server.getAddress().getPort();
+    }
+  }
+
+  /**
+   * @return The number of connected stream clients
+   */
+  public int getClientCount() {
+    synchronized (frameLock) {
+      return clients;
+    }
+  }
+
+  /**
+   * Sampling time: the time taken to read the board and serialize a sample.
+   *
+   * @return The sampling statistics, updated live
+   */
+  public TimingStats getSampleStats() {
+    return sampleStats;
+  }
+
+  private void run() {
+    while (running) {
+      final long startNanos = System.nanoTime();
+      final DoubleSupplier source = rangeSource;
+      sample(source == null ? Float.NaN : (float) source.getAsDouble());
+      sampleStats.record(System.nanoTime() - startNanos);
+
+      try {
+        Thread.sleep(periodMillis);
+      } catch (final InterruptedException e) {
+        // stop() interrupts the thread; the loop condition ends it
+      }
+    }
+  }
+
+  // Serializes the board's state and publishes it as the latest frame
+  @SuppressWarnings({"PMD.ConsecutiveLiteralAppends", "PMD.InsufficientStringBufferDeclaration"})
+  private void sample(final float rangeCm) {
+    samples++;
+    json.setLength(0);
+    json.append("{\"sequence\":").append(samples);
+    json.append(",\"m1Duty\":").append(board.getM1AppliedDuty());
+    appendDirection(",\"m1Direction\":", board.m1Direction);
+    json.append(",\"m2Duty\":").append(board.getM2AppliedDuty());
+    appendDirection(",\"m2Direction\":", board.m2Direction);
+    json.append(",\"rangeCm\":");
+    appendTenths(rangeCm);
+    json.append(",\"switch1\":").append(board.switch1Closed());
+    json.append(",\"switch2\":").append(board.switch2Closed());
+    for (final BoardOutput output : OUTPUTS) {
+      json.append(OUTPUT_KEYS[output.ordinal()]).append(board.getOutputPin(output).isHigh());
+    }
+    json.append('}');
+
+    synchronized (frameLock) {
+      // All of it is ASCII
+      final int length = json.length();
+      for (int i = 0; i < length; i++) {
+        frame[i] = (byte) json.charAt(i);
+      }
+      frameLength = length;
+      frameSequence = samples;
+      frameLock.notifyAll();
+    }
+  }
+
+  private void appendDirection(final String key, final MotorDirection direction) {
+    json.append(key);
+    if (direction == null) {
+      json.append("null");
+    } else {
+      json.append('"').append(direction.name()).append('"');
+    }
+  }
+
+  // JSON has no NaN or infinity; both mean there is no distance to show
+  private void appendTenths(final float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      json.append("null");
+      return;
+    }
+
+    final int tenths = Math.round(value * 10.0f);
+    if (tenths < 0) {
+      json.append('-');
+    }
+    json.append(Math.abs(tenths) / 10).append('.').append(Math.abs(tenths) % 10);
+  }
+
+  // Copies the latest frame, waiting for one newer than the given sequence; returns its sequence or -1 if stopped
+  private long copyFrame(final byte[] target, final int[] length, final long after) throws InterruptedException {
+    synchronized (frameLock) {
+      while (running && frameSequence <= after) {
+        frameLock.wait();
+      }
+
+      if (!running && after >= 0) {
+        return -1;
+      }
+
+      System.arraycopy(frame, 0, target, 0, frameLength);
+      length[0] = frameLength;
+
+      return frameSequence;
+    }
+  }
+
+  private void handleState(final HttpExchange exchange) throws IOException {
+    try {
+      final byte[] body = new byte[FRAME_CAPACITY];
+      final int[] length = new int[1];
+      copyFrame(body, length, -1);
+      send(exchange, "application/json", Arrays.copyOf(body, length[0]));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handlePage(final HttpExchange exchange) throws IOException {
+    try {
+      if ("/".equals(exchange.getRequestURI().getPath())) {
+        send(exchange, "text/html; charset=utf-8", PAGE);
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleEvents(final HttpExchange exchange) throws IOException {
+    if (!addClient()) {
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+
+    final byte[] event = new byte[FRAME_CAPACITY];
+    final int[] length = new int[1];
+    try (OutputStream body = exchange.getResponseBody()) {
+      exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      exchange.sendResponseHeaders(200, 0);
+
+      // Sends the current sample at once, then each newer one the client can keep up with
+      long sequence = copyFrame(event, length, -1);
+      while (sequence >= 0) {
+        body.write(EVENT_PREFIX);
+        body.write(event, 0, length[0]);
+        body.write(EVENT_SUFFIX);
+        body.flush();
+        sequence = copyFrame(event, length, sequence);
+      }
+    } catch (final InterruptedException e) {
+      // stop() shuts the handlers down
+      Thread.currentThread().interrupt();
+    } catch (final IOException e) {
+      // The client went away
+    } finally {
+      removeClient();
+      exchange.close();
+    }
+  }
+
+  private boolean addClient() {
+    synchronized (frameLock) {
+      if (clients >= maxClients) {
+        return false;
+      }
+
+      clients++;
+      return true;
+    }
+  }
+
+  private void removeClient() {
+    synchronized (frameLock) {
+      clients--;
+      frameLock.notifyAll();
+    }
+  }
+
+  private static void send(final HttpExchange exchange, final String contentType, final byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * CPU affinity and real-time priority for timing-sensitive threads on Linux.
+ * <p>
+ * A placement pins a thread to a set of cores and, optionally, moves it to the
+ * <code>SCHED_FIFO</code> scheduling class, so range pings, PWM edges and
+ * control loop deadlines are not delayed by the rest of the system. Java has
+ * no API for either, so the placement is applied with the <code>taskset</code>
+ * and <code>chrt</code> utilities against the thread's kernel id. Raising the
+ * priority needs root or <code>CAP_SYS_NICE</code>; when a part of the
+ * placement cannot be applied the thread keeps running where and as it was,
+ * and {@link #applyToCurrentThread()} reports the failure.
+ * <p>
+ * The library's own threads look up a placement by name when they start. The
+ * names are <code>rrb4j-pwm-engine</code>, <code>rrb4j-speed-controller</code>,
+ * <code>rrb4j-proximity-reflex</code>, <code>rrb4j-motion-script</code>,
+ * <code>rrb4j-pattern-engine</code>, <code>rrb4j-sensor-events</code>,
+ * <code>rrb4j-watchdog</code>, <code>rrb4j-motor-idle</code>,
+ * <code>rrb4j-shared-memory</code>, <code>rrb4j-gpiochip-events</code>,
+ * <code>rrb4j-gamepad</code> and the names given to asynchronous actions.
+ * Threads owned by the application, such as a control loop that calls
+ * {@link RasPiRobotBoard#getRangeCm()}, apply a placement
+ * themselves. The wiringPi SoftPwm threads are native and cannot be placed;
+ * use {@link PwmEngine} when PWM timing matters.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class ThreadPlacement {
+  private static final Logger LOGGER = Logger.getLogger(ThreadPlacement.class.getName());
+
+  /**
+   * Highest <code>SCHED_FIFO</code> priority accepted by Linux.
+   */
+  public static final int PRIORITY_MAX = 99;
+
+  private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+  private static final File DEV_NULL = new File("/dev/null");
+  private static final ConcurrentMap<String, ThreadPlacement> ASSIGNED = new ConcurrentHashMap<>();
+
+  private final int priority;
+  private final int[] cpus;
+
+  /**
+   * @param priority
+   *          The <code>SCHED_FIFO</code> priority to request, between 1 and
+   *          {@link #PRIORITY_MAX}, or 0 to leave the scheduling class alone
+   * @param cpus
+   *          The cores the thread may run on, or none to leave its affinity
+   *          alone
+   */
+  public ThreadPlacement(final int priority, final int... cpus) {
+    Validate.inclusiveBetween(0, PRIORITY_MAX, priority, "Priority must be between 0 and %d", PRIORITY_MAX);
+    for (final int cpu : cpus) {
+      Validate.isTrue(cpu >= 0, "CPU numbers must be non-negative: %d", cpu);
+    }
+
+    this.priority = priority;
+    this.cpus = cpus.clone();
+  }
+
+  /**
+   * Places every library thread with the given name as it starts. Threads that
+   * are already running are not moved.
+   *
+   * @param threadName
+   *          The name of the thread, not blank
+   * @param placement
+   *          The placement to apply, not null
+   */
+  public static void assign(final String threadName, final ThreadPlacement placement) {
+    Validate.notBlank(threadName);
+    Validate.notNull(placement);
+
+    ASSIGNED.put(threadName, placement);
+  }
+
+  /**
+   * Stops placing library threads with the given name.
+   *
+   * @param threadName
+   *          The name of the thread
+   */
+  public static void unassign(final String threadName) {
+    ASSIGNED.remove(threadName);
+  }
+
+  /**
+   * Applies the placement assigned to the current thread's name, if any.
+   * Called by library threads before they enter their loops.
+   */
+  static void placeCurrentThread() {
+    final ThreadPlacement placement = ASSIGNED.get(Thread.currentThread().getName());
+    if (placement != null) {
+      placement.applyToCurrentThread();
+    }
+  }
+
+  /**
+   * Pins the calling thread to this placement's cores and raises its priority.
+   *
+   * @return True if every part of the placement was applied, false if the
+   *         thread was left (at least partly) as it was
+   */
+  public boolean applyToCurrentThread() {
+    final String name = Thread.currentThread().getName();
+    final int tid = currentThreadId();
+    if (tid < 0) {
+      LOGGER.log(Level.WARNING, "Cannot place thread {0}: not running on Linux", name);
+      return false;
+    }
+
+    boolean applied = true;
+    if (cpus.length > 0 && !exec("taskset", "-p", "-c", StringUtils.join(cpus, ','), Integer.toString(tid))) {
+      LOGGER.log(Level.WARNING, "Cannot pin thread {0} to CPUs {1}", new Object[] {name, Arrays.toString(cpus)});
+      applied = false;
+    }
+
+    if (priority > 0 && !exec("chrt", "-f", "-p", Integer.toString(priority), Integer.toString(tid))) {
+      LOGGER.log(Level.WARNING, "Cannot raise thread {0} to SCHED_FIFO priority {1}; running without real-time priority", new Object[] {name, priority});
+      applied = false;
+    }
+
+    return applied;
+  }
+
+  /**
+   * @return The <code>SCHED_FIFO</code> priority requested, or 0 for none
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * @return The cores the thread is pinned to, or an empty array for any
+   */
+  public int[] getCpus() {
+    return cpus.clone();
+  }
+
+  @Override
+  public String toString() {
+    return "cpus=" + (cpus.length == 0 ? "any" : StringUtils.join(cpus, ',')) + " priority=" + (priority == 0 ? "default" : "fifo:" + priority);
+  }
+
+  /**
+   * @return The kernel id of the calling thread, or -1 if it is unavailable
+   */
+  static int currentThreadId() {
+    try {
+      // Links to <pid>/task/<tid>
+      final String target = Files.readSymbolicLink(THREAD_SELF).toString();
+      return Integer.parseInt(target.substring(target.lastIndexOf('/') + 1));
+    } catch (final IOException | UnsupportedOperationException | NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return The cores the calling thread may run on, in the kernel's list
+   *         format (e.g. <code>0-1,3</code>), or null if unavailable
+   */
+  static String currentAllowedCpus() {
+    try {
+      for (final String line : Files.readAllLines(THREAD_SELF.resolve("status"), StandardCharsets.US_ASCII)) {
+        if (line.startsWith("Cpus_allowed_list:")) {
+          return line.substring(line.indexOf(':') + 1).trim();
+        }
+      }
+    } catch (final IOException e) {
+      // Not Linux
+    }
+
+    return null;
+  }
+
+  private static boolean exec(final String... command) {
+    try {
+      final Process process = new ProcessBuilder(command).redirectOutput(DEV_NULL).redirectError(DEV_NULL).start();
+      return process.waitFor() == 0;
+    } catch (final IOException e) {
+      // Utility not installed
+      return false;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Hashed timer wheel for timeouts that are reset far more often than they
+ * expire.
+ * <p>
+ * Resetting a {@link Timeout} only records its new deadline; the worker thread
+ * moves the timeout to the right bucket when it reaches the old one. A reset
+ * on the hot path therefore costs one volatile write and one volatile read,
+ * and never allocates or takes a lock. Timeouts fire with a resolution of one
+ * tick.
+ * <p>
+ * The wheel ticks on a {@link BoardClock}. On a {@link VirtualClock} it has no
+ * worker thread: each tick, and any timeout that expires on it, runs on the
+ * thread that advances the clock.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings({"PMD.AvoidCatchingGenericException", "PMD.LawOfDemeter"})
+final class TimerWheel {
+  private static final Logger LOGGER = Logger.getLogger(TimerWheel.class.getName());
+
+  private static final int IDLE = 0;
+  private static final int SCHEDULED = 1;
+
+  private final String name;
+  private final long tickNanos;
+  private final Timeout[] buckets;
+  private final int mask;
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  private final ClockLoop loop;
+
+  // Owned by the worker
+  private long tick;
+  private long nextTickNanos;
+
+  /**
+   * Expiring task whose deadline can be reset cheaply from any thread.
+   */
+  static final class Timeout {
+    private final TimerWheel wheel;
+    private final Runnable task;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private volatile long deadlineNanos;
+    private volatile boolean cancelled;
+
+    // Bucket links and bookkeeping, owned by the worker thread
+    private Timeout prev, next;
+    private int bucket = -1;
+
+    Timeout(final TimerWheel wheel, final Runnable task) {
+      this.wheel = wheel;
+      this.task = task;
+    }
+
+    /**
+     * Arms the timeout, or pushes back its deadline if it is already armed.
+     *
+     * @param nowNanos
+     *          The current monotonic time in nanoseconds
+     * @param delayNanos
+     *          Time from now until the task runs
+     */
+    void reset(final long nowNanos, final long delayNanos) {
+      cancelled = false;
+      deadlineNanos = nowNanos + delayNanos;
+
+      if (state.get() == IDLE && state.compareAndSet(IDLE, SCHEDULED)) {
+        wheel.pending.add(this);
+      }
+    }
+
+    /**
+     * Arms the timeout, or pushes back its deadline if it is already armed.
+     *
+     * @param delayNanos
+     *          Time from now on the wheel's clock until the task runs
+     */
+    void reset(final long delayNanos) {
+      reset(wheel.loop.getClock().nanoTime(), delayNanos);
+    }
+
+    /**
+     * Prevents the task from running until the next call to {@link #reset(long, long)}.
+     */
+    void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * @return The monotonic time in nanoseconds at which the timeout expires
+     */
+    long getDeadlineNanos() {
+      return deadlineNanos;
+    }
+
+    /**
+     * @return True if the timeout is waiting to expire
+     */
+    boolean isArmed() {
+      return state.get() == SCHEDULED && !cancelled;
+    }
+  }
+
+  /**
+   * @param clock
+   *          The clock the wheel ticks on, not null
+   * @param name
+   *          Name of the worker thread
+   * @param tickMillis
+   *          Resolution of the wheel in milliseconds, must be positive
+   * @param wheelSize
+   *          Number of buckets, rounded up to a power of two
+   */
+  TimerWheel(final BoardClock clock, final String name, final long tickMillis, final int wheelSize) {
+    Validate.notNull(clock, "Clock can not be null");
+    Validate.isTrue(tickMillis > 0, "Tick duration must be positive");
+    Validate.isTrue(wheelSize > 0 && wheelSize <= 1 << 20, "Wheel size must be in the range [1, 2^20]");
+
+    this.name = name;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    final int size = Integer.highestOneBit(wheelSize - 1) << 1;
+    this.buckets = new Timeout[Math.max(1, size)];
+    this.mask = buckets.length - 1;
+    this.loop = new ClockLoop(clock, name, Thread.NORM_PRIORITY, this::nextTick);
+  }
+
+  /**
+   * Creates a timeout that is not yet armed.
+   *
+   * @param task
+   *          Runs on the worker thread when the timeout expires, not null
+   * @return A new timeout bound to this wheel
+   */
+  Timeout newTimeout(final Runnable task) {
+    Validate.notNull(task, "Task can not be null");
+
+    return new Timeout(this, task);
+  }
+
+  void start() {
+    if (!loop.isRunning()) {
+      nextTickNanos = loop.getClock().nanoTime();
+      loop.start();
+    }
+  }
+
+  void stop() throws InterruptedException {
+    loop.stop();
+  }
+
+  boolean isRunning() {
+    return loop.isRunning();
+  }
+
+  long getTickNanos() {
+    return tickNanos;
+  }
+
+  /**
+   * @return The clock the wheel ticks on
+   */
+  BoardClock getClock() {
+    return loop.getClock();
+  }
+
+  // Processes the tick that is due and returns when the next one is
+  private long nextTick() {
+    advance(nextTickNanos);
+    nextTickNanos += tickNanos;
+
+    return nextTickNanos;
+  }
+
+  // Processes one tick of the wheel; called only by the worker
+  void advance(final long nowNanos) {
+    Timeout timeout = pending.poll();
+    while (timeout != null) {
+      place(timeout, nowNanos);
+      timeout = pending.poll();
+    }
+
+    final int index = (int) (tick & mask);
+    timeout = buckets[index];
+    while (timeout != null) {
+      final Timeout next = timeout.next;
+      unlink(timeout);
+      if (!timeout.cancelled && timeout.deadlineNanos - nowNanos > 0) {
+        // Deadline was pushed back since the timeout was placed here; move it
+        place(timeout, nowNanos);
+      } else {
+        retire(timeout, nowNanos);
+      }
+
+      timeout = next;
+    }
+
+    tick++;
+  }
+
+  private void retire(final Timeout timeout, final long nowNanos) {
+    // Publish IDLE before re-reading the deadline so that a concurrent reset either
+    // sees IDLE and re-queues the timeout, or is seen here and reschedules it
+    timeout.state.set(IDLE);
+    if (timeout.cancelled) {
+      return;
+    }
+
+    if (timeout.deadlineNanos - nowNanos > 0) {
+      if (timeout.state.compareAndSet(IDLE, SCHEDULED)) {
+        place(timeout, nowNanos);
+      }
+
+      return;
+    }
+
+    try {
+      timeout.task.run();
+    } catch (final RuntimeException e) {
+      // Keep the wheel alive for the other timeouts
+      LOGGER.log(Level.SEVERE, "Timer task failed on " + name, e);
+    }
+  }
+
+  private void place(final Timeout timeout, final long nowNanos) {
+    final long remainingTicks = Math.max(0, (timeout.deadlineNanos - nowNanos + tickNanos - 1) / tickNanos);
+
+    // Timeouts further out than one revolution are re-checked when their bucket comes around
+    final long ticks = Math.min(remainingTicks, mask);
+    final int index = (int) ((tick + ticks) & mask);
+
+    timeout.bucket = index;
+    timeout.prev = null;
+    timeout.next = buckets[index];
+    if (buckets[index] != null) {
+      buckets[index].prev = timeout;
+    }
+    buckets[index] = timeout;
+  }
+
+  private void unlink(final Timeout timeout) {
+    if (timeout.prev == null) {
+      buckets[timeout.bucket] = timeout.next;
+    } else {
+      timeout.prev.next = timeout.next;
+    }
+
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Running statistics over a series of measured durations.
+ * <p>
+ * Updates must come from a single thread; any thread may read the statistics.
+ * Reads are not atomic across fields, so a reader may observe a count that is
+ * one sample ahead of or behind the other values.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+public final class TimingStats {
+  // Written only by the updating thread, then published through the volatile fields
+  private long samples;
+
+  private volatile long count;
+  private volatile long totalNanos;
+  private volatile long minNanos = Long.MAX_VALUE;
+  private volatile long maxNanos;
+  private volatile long lastNanos;
+
+  /**
+   * Adds a measured duration to the statistics.
+   *
+   * @param nanos
+   *          The measured duration in nanoseconds
+   */
+  public void record(final long nanos) {
+    lastNanos = nanos;
+    totalNanos += nanos;
+
+    if (nanos < minNanos) {
+      minNanos = nanos;
+    }
+
+    if (nanos > maxNanos) {
+      maxNanos = nanos;
+    }
+
+    samples++;
+    count = samples;
+  }
+
+  /**
+   * Discards all recorded durations.
+   */
+  public void reset() {
+    samples = 0;
+    count = 0;
+    totalNanos = 0;
+    minNanos = Long.MAX_VALUE;
+    maxNanos = 0;
+    lastNanos = 0;
+  }
+
+  /**
+   * @return The number of recorded durations
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return The shortest recorded duration in nanoseconds, or zero if nothing has been recorded
+   */
+  public long getMinNanos() {
+    return count == 0 ? 0 : minNanos;
+  }
+
+  /**
+   * @return The longest recorded duration in nanoseconds
+   */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /**
+   * @return The most recently recorded duration in nanoseconds
+   */
+  public long getLastNanos() {
+    return lastNanos;
+  }
+
+  /**
+   * @return The average recorded duration in nanoseconds, or zero if nothing has been recorded
+   */
+  public long getMeanNanos() {
+    final long recorded = count;
+
+    return recorded == 0 ? 0 : totalNanos / recorded;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + " min=" + getMinNanos() + "ns mean=" + getMeanNanos() + "ns max=" + getMaxNanos() + "ns";
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * In-memory board driving a simulated differential-drive robot inside a
+ * circular arena, for running control code without hardware.
+ * <p>
+ * The board runs the real driver on its own {@link SimulatedGpioProvider}, so
+ * commands go through the same code paths as on hardware. Only the timing
+ * and the sensors are simulated: the board runs on its own
+ * {@link VirtualClock}, which advances only when {@link #advance(long)} is
+ * called, delays such as the H-bridge dead time take no time, the rangefinder
+ * reports the distance to the arena wall straight ahead, and switch 1 closes
+ * while the robot is pressed against the wall. Motor 1 drives the left wheel
+ * and motor 2 the right wheel. Loops that run on the board's clock, such as a
+ * {@link CommandWatchdog}, run on the thread that advances the board.
+ * <p>
+ * The pins are provisioned through a {@link SimulatedGpioController} rather
+ * than pi4j's controller, so a board registers no shutdown hook and can simply
+ * be dropped, and {@link #shutdown()} leaves pi4j's shared executors running.
+ * <p>
+ * A virtual board is not thread-safe; it must be commanded and advanced by
+ * one thread at a time.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ * @see SwarmSimulation
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class VirtualBoard extends RasPiRobot3 {
+
+  /**
+   * Speed of a wheel at full duty in cm/s.
+   */
+  public static final float WHEEL_SPEED_CM_S = 50.0f;
+
+  /**
+   * Distance between the wheels in cm.
+   */
+  public static final float WHEEL_BASE_CM = 15.0f;
+
+  private static final float NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final SimulatedGpioProvider provider;
+  private final Pin bumperPin;
+  private final float arenaRadiusCm;
+  private final VirtualClock clock = new VirtualClock();
+
+  private float xCm;
+  private float yCm;
+  private float heading;
+  private int m1Output;
+  private int m2Output;
+
+  /**
+   * @param arenaRadiusCm
+   *          Radius of the arena, centered on the origin, must be positive
+   * @param xCm
+   *          Initial x coordinate, inside the arena
+   * @param yCm
+   *          Initial y coordinate, inside the arena
+   * @param heading
+   *          Initial heading in radians, counterclockwise from the x axis
+   */
+  public VirtualBoard(final float arenaRadiusCm, final float xCm, final float yCm, final float heading) {
+    this(new SimulatedGpioProvider(), arenaRadiusCm, xCm, yCm, heading);
+  }
+
+  private VirtualBoard(final SimulatedGpioProvider provider, final float arenaRadiusCm, final float xCm, final float yCm, final float heading) {
+    super(SimulatedGpioController.create(provider), PinMap.RRB3);
+    Validate.isTrue(arenaRadiusCm > 0.0f, "Arena radius must be positive: %f", arenaRadiusCm);
+    Validate.isTrue(Math.hypot(xCm, yCm) < arenaRadiusCm, "Position must be inside the arena");
+
+    this.provider = provider;
+    this.bumperPin = getPinMap().get(Role.SWITCH1);
+    this.arenaRadiusCm = arenaRadiusCm;
+    this.xCm = xCm;
+    this.yCm = yCm;
+    this.heading = heading;
+
+    clock.setInstantWaits(true);
+    setClock(clock);
+
+    // Switches are pulled up and read low when closed
+    provider.setInputState(bumperPin, PinState.HIGH);
+    provider.setInputState(getPinMap().get(Role.SWITCH2), PinState.HIGH);
+  }
+
+  /**
+   * Moves the robot by the commanded wheel speeds and advances the clock,
+   * running whatever falls due on it.
+   *
+   * @param stepNanos
+   *          The simulated time to advance, not negative
+   */
+  public void advance(final long stepNanos) {
+    final float seconds = stepNanos / NANOS_PER_SECOND;
+    final float left = wheelSpeed(m1Output, m1Direction);
+    final float right = wheelSpeed(m2Output, m2Direction);
+
+    final float distance = (left + right) / 2.0f * seconds;
+    heading += (right - left) / WHEEL_BASE_CM * seconds;
+    xCm += distance * (float) Math.cos(heading);
+    yCm += distance * (float) Math.sin(heading);
+    clock.advance(stepNanos);
+
+    // The wall stops the robot and presses the bumper
+    final float radius = (float) Math.hypot(xCm, yCm);
+    final boolean bumped = radius >= arenaRadiusCm;
+    if (bumped) {
+      final float scale = Math.nextDown(arenaRadiusCm) / radius;
+      xCm *= scale;
+      yCm *= scale;
+    }
+    provider.setInputState(bumperPin, bumped ? PinState.LOW : PinState.HIGH);
+  }
+
+  /**
+   * Reports the distance to the arena wall straight ahead.
+   */
+  @Override
+  public RangeReading measureRange(final RangeReading reading) {
+    Objects.requireNonNull(reading, "Reading can not be null");
+
+    // Distance along the heading to the circle: |p + t * d| = r
+    final float dirX = (float) Math.cos(heading);
+    final float dirY = (float) Math.sin(heading);
+    final float along = xCm * dirX + yCm * dirY;
+    final float distCm = (float) (Math.sqrt(along * along - (xCm * xCm + yCm * yCm - arenaRadiusCm * arenaRadiusCm)) - along);
+
+    // Round trip at the speed of sound
+    final long pulseNanos = (long) (distCm * 10.0f / SOS_MM_MICROS * 2.0f * 1000.0f);
+    if (distCm > RANGE_MAX_CM) {
+      reading.set(RangeReading.OUT_OF_RANGE, Float.POSITIVE_INFINITY, pulseNanos);
+    } else {
+      reading.set(distCm < RANGE_MIN_CM ? RangeReading.BELOW_MINIMUM : RangeReading.VALID, distCm, pulseNanos);
+    }
+
+    return reading;
+  }
+
+  /**
+   * @return The x coordinate in cm
+   */
+  public float getX() {
+    return xCm;
+  }
+
+  /**
+   * @return The y coordinate in cm
+   */
+  public float getY() {
+    return yCm;
+  }
+
+  /**
+   * @return The heading in radians, counterclockwise from the x axis
+   */
+  public float getHeading() {
+    return heading;
+  }
+
+  /**
+   * @return The simulated time in ns
+   */
+  public long getTimeNanos() {
+    return clock.peekNanos();
+  }
+
+  @Override
+  protected void softPwmCreate(final Pin pin) {
+    // The simulated motors read the duty cycle directly
+  }
+
+  @Override
+  protected void softPwmStop(final Pin pin) {
+    softPwmWrite(pin, 0);
+  }
+
+  @Override
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  protected void softPwmWrite(final Pin pin, final int value) {
+    if (pin == m1PwmPin) {
+      m1Output = value;
+    } else {
+      m2Output = value;
+    }
+  }
+
+  private static float wheelSpeed(final int duty, final MotorDirection direction) {
+    final float speed = WHEEL_SPEED_CM_S * duty / PWM_RANGE;
+    return direction == MotorDirection.REVERSE ? -speed : speed;
+  }
+}
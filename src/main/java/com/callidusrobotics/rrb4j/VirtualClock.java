@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Clock whose time only moves when it is advanced, for deterministic tests.
+ * <p>
+ * Delays and sleeps advance the clock by their length and return at once, so
+ * a thread that waits on the clock drives it. Tasks scheduled on the clock, such
+ * as the edges a simulated sensor produces, run on the advancing thread
+ * when their time is reached, in time order. Code that polls the clock in
+ * a loop, like the wait for the rangefinder's echo, needs time to pass
+ * between readings: {@link #setAutoAdvance(long)} moves the clock on with
+ * every reading. A simulation in which only its own steps take time can make
+ * waits instant with {@link #setInstantWaits(boolean)}.
+ * <p>
+ * The clock is thread-safe. Scheduled tasks run with the clock's lock held
+ * and may read, advance or schedule on the clock.
+ *
+ * @author Rusty Gerard
+ * @since 1.0.1
+ */
+@SuppressWarnings("PMD.LawOfDemeter")
+public final class VirtualClock implements BoardClock {
+  private final Object lock = new Object();
+  private final PriorityQueue<Scheduled> tasks = new PriorityQueue<>();
+  private long timeNanos;
+  private long autoAdvanceNanos;
+  private boolean instantWaits;
+  private long sequence;
+
+  private static final class Scheduled implements Comparable<Scheduled> {
+    private final long dueNanos;
+    private final long order;
+    private final Runnable action;
+
+    Scheduled(final long dueNanos, final long order, final Runnable action) {
+      this.dueNanos = dueNanos;
+      this.order = order;
+      this.action = action;
+    }
+
+    @Override
+    public int compareTo(final Scheduled other) {
+      final int byTime = Long.compare(dueNanos, other.dueNanos);
+      return byTime == 0 ? Long.compare(order, other.order) : byTime;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Scheduled && compareTo((Scheduled) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(order);
+    }
+  }
+
+  /**
+   * Starts the clock at zero.
+   */
+  public VirtualClock() {
+    this(0L);
+  }
+
+  /**
+   * @param startNanos
+   *          The initial time in nanoseconds
+   */
+  public VirtualClock(final long startNanos) {
+    timeNanos = startNanos;
+  }
+
+  /**
+   * Reads the time, first advancing it by the auto-advance step.
+   */
+  @Override
+  public long nanoTime() {
+    synchronized (lock) {
+      if (autoAdvanceNanos > 0) {
+        advance(autoAdvanceNanos);
+      }
+
+      return timeNanos;
+    }
+  }
+
+  @Override
+  public void delayMicros(final long micros) {
+    waitFor(TimeUnit.MICROSECONDS.toNanos(micros));
+  }
+
+  @Override
+  public void sleepMillis(final long millis) {
+    waitFor(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  /**
+   * Moves the time forward, running every task that falls due on the way.
+   *
+   * @param nanos
+   *          The time to advance by in nanoseconds, not negative
+   */
+  public void advance(final long nanos) {
+    Validate.isTrue(nanos >= 0, "Time can not go backwards: %d", nanos);
+
+    synchronized (lock) {
+      final long target = timeNanos + nanos;
+      while (!tasks.isEmpty() && tasks.peek().dueNanos <= target) {
+        final Scheduled task = tasks.poll();
+        timeNanos = Math.max(timeNanos, task.dueNanos);
+        task.action.run();
+      }
+
+      // A task may have advanced the clock beyond the target itself
+      timeNanos = Math.max(timeNanos, target);
+    }
+  }
+
+  /**
+   * Runs a task once the clock has advanced by a delay.
+   *
+   * @param delayNanos
+   *          The delay from now in nanoseconds, not negative
+   * @param task
+   *          The task to run, not null
+   */
+  public void schedule(final long delayNanos, final Runnable task) {
+    Validate.isTrue(delayNanos >= 0, "Delay can not be negative: %d", delayNanos);
+    Validate.notNull(task, "Task can not be null");
+
+    synchronized (lock) {
+      tasks.add(new Scheduled(timeNanos + delayNanos, sequence++, task));
+    }
+  }
+
+  // Runs a task at once with the clock's lock held, as scheduled tasks run
+  void runLocked(final Runnable task) {
+    synchronized (lock) {
+      task.run();
+    }
+  }
+
+  /**
+   * @param instant
+   *          True to make delays and sleeps return without advancing the
+   *          clock, false to advance it by their length
+   */
+  public void setInstantWaits(final boolean instant) {
+    synchronized (lock) {
+      instantWaits = instant;
+    }
+  }
+
+  /**
+   * @param nanosPerRead
+   *          The time each call to {@link #nanoTime()} advances the clock by,
+   *          or zero to only advance it explicitly
+   */
+  public void setAutoAdvance(final long nanosPerRead) {
+    Validate.isTrue(nanosPerRead >= 0, "Step can not be negative: %d", nanosPerRead);
+
+    synchronized (lock) {
+      autoAdvanceNanos = nanosPerRead;
+    }
+  }
+
+  /**
+   * @return The current time in nanoseconds, without auto-advancing
+   */
+  public long peekNanos() {
+    synchronized (lock) {
+      return timeNanos;
+    }
+  }
+
+  /**
+   * @return The number of scheduled tasks that have not run yet
+   */
+  public int getPendingCount() {
+    synchronized (lock) {
+      return tasks.size();
+    }
+  }
+
+  private void waitFor(final long nanos) {
+    synchronized (lock) {
+      if (!instantWaits) {
+        advance(nanos);
+      }
+    }
+  }
+}
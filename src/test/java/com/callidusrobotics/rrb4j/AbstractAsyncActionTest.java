@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.callidusrobotics.rrb4j.BehaviorTree.Status;
+
+public class AbstractAsyncActionTest {
+  final Blackboard blackboard = new Blackboard();
+  final VirtualBoard board = new VirtualBoard(100.0f, 80.0f, 0.0f, 0.0f);
+  final CountDownLatch started = new CountDownLatch(1);
+  final CountDownLatch release = new CountDownLatch(1);
+  final Gated gated = new Gated();
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  @After
+  public void after() throws InterruptedException {
+    release.countDown();
+    gated.close();
+    board.shutdown();
+  }
+
+  @Test
+  public void ticksDoNotWaitForWork() {
+    // Unit under test
+    final Status first = gated.tick(board, blackboard);
+    final Status second = gated.tick(board, blackboard);
+    release.countDown();
+
+    // Verify results
+    assertEquals(Status.RUNNING, first);
+    assertEquals(Status.RUNNING, second);
+    assertEquals(Status.SUCCESS, tickUntilDone(gated));
+    assertEquals(1, gated.performed);
+    assertFalse(gated.isBusy());
+  }
+
+  @Test
+  public void haltDiscardsResult() throws InterruptedException {
+    gated.tick(board, blackboard);
+    started.await();
+
+    // Unit under test
+    gated.halt();
+    assertEquals(Status.RUNNING, gated.tick(board, blackboard));
+    release.countDown();
+
+    // Verify results: the halted work finishes before the action starts over
+    while (gated.isBusy()) {
+      Thread.yield();
+    }
+    assertEquals(Status.RUNNING, gated.tick(board, blackboard));
+    assertEquals(Status.SUCCESS, tickUntilDone(gated));
+    assertEquals(2, gated.performed);
+  }
+
+  @Test
+  public void exceptionFails() throws InterruptedException {
+    final AbstractAsyncAction failing = new AbstractAsyncAction("failing") {
+      @Override
+      protected Status perform(final RasPiRobotBoard board) {
+        throw new IllegalStateException("Sensor unplugged");
+      }
+    };
+
+    try {
+      // Unit under test
+      failing.tick(board, blackboard);
+
+      // Verify results
+      assertEquals(Status.FAILURE, tickUntilDone(failing));
+    } finally {
+      failing.close();
+    }
+  }
+
+  @Test
+  public void rangePingStoresReading() throws InterruptedException {
+    final int rangeKey = blackboard.key("range");
+    final RangePing ping = new RangePing(rangeKey);
+
+    try {
+      // Unit under test
+      assertEquals(Status.RUNNING, ping.tick(board, blackboard));
+      final Status status = tickUntilDone(ping);
+
+      // Verify results
+      assertEquals(Status.SUCCESS, status);
+      assertEquals(20.0f, blackboard.get(rangeKey), 0.01f);
+    } finally {
+      ping.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void closedActionCanNotStart() throws InterruptedException {
+    gated.close();
+
+    // Unit under test
+    gated.tick(board, blackboard);
+  }
+
+  Status tickUntilDone(final AbstractAsyncAction action) {
+    Status status;
+    do {
+      Thread.yield();
+      status = action.tick(board, blackboard);
+    } while (status == Status.RUNNING);
+
+    return status;
+  }
+
+  class Gated extends AbstractAsyncAction {
+    volatile int performed;
+
+    Gated() {
+      super("gated");
+    }
+
+    @Override
+    protected Status perform(final RasPiRobotBoard board) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        return Status.FAILURE;
+      }
+
+      performed++;
+      return Status.SUCCESS;
+    }
+  }
+}
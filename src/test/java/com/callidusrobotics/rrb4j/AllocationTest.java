@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+
+/**
+ * Fails if a board hot path allocates once it has warmed up.
+ * <p>
+ * Allocation is measured with the JVM's per-thread allocated-bytes counter,
+ * so only the test thread is counted. Each call is warmed up first so that
+ * class loading, lazy initialization and JIT compilation are out of the way,
+ * and the smallest of several measured rounds is checked so that a one-off
+ * allocation by the JVM itself does not fail the build.
+ * <p>
+ * With escape analysis enabled the JIT may optimize away allocations that are
+ * still there whenever a call is not inlined, so the tests only run in a JVM
+ * started with <code>-XX:-DoEscapeAnalysis</code>. The build has a separate
+ * surefire execution for this; elsewhere the tests are skipped.
+ */
+public class AllocationTest {
+  static final int WARMUP_CALLS = 20_000;
+  static final int MEASURED_CALLS = 1_000;
+  static final int ROUNDS = 5;
+
+  // Echo pulse returned by the simulated rangefinder: 1 ms is a target at about 17 cm
+  static final long ECHO_DELAY_NANOS = 50_000L;
+  static final long ECHO_NANOS = 1_000_000L;
+
+  com.sun.management.ThreadMXBean threads;
+  long overhead;
+
+  SimulatedGpioProvider provider = new SimulatedGpioProvider();
+  RasPiRobot3 board = new RasPiRobot3(new GpioControllerImpl(provider));
+  EchoClock clock = new EchoClock(provider, PinMap.RRB3.get(Role.RANGE_ECHO));
+
+  boolean toggle;
+  float range;
+
+  RasPiRobot3 chipBoard;
+
+  @Before
+  public void before() {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    Assume.assumeTrue("Escape analysis must be disabled", !escapeAnalysis());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    overhead = allocatedBytes(() -> { });
+
+    board.setClock(clock);
+    board.setPwmDriver(new NullPwmDriver());
+  }
+
+  @After
+  public void after() {
+    if (chipBoard != null) {
+      chipBoard.shutdown();
+    }
+  }
+
+  @Test
+  public void measuresAllocation() {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> clock.garbage = new long[8]);
+
+    // Verify results
+    assertTrue("Allocated " + allocated + " bytes", allocated >= MEASURED_CALLS * 8L * Long.BYTES);
+  }
+
+  @Test
+  public void setMotorsDoesNotAllocate() {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> {
+      toggle = !toggle;
+      board.setMotors(toggle ? 0.5f : 0.25f, MotorDirection.FORWARD, 0.75f, MotorDirection.FORWARD);
+    });
+
+    // Verify results
+    assertEquals(0L, allocated);
+  }
+
+  @Test
+  public void reversingMotorsDoesNotAllocate() {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> {
+      toggle = !toggle;
+      board.setMotors(0.5f, toggle ? MotorDirection.FORWARD : MotorDirection.REVERSE, 0.5f, MotorDirection.REVERSE);
+    });
+
+    // Verify results
+    assertEquals(0L, allocated);
+  }
+
+  @Test
+  public void outputsDoNotAllocate() {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> {
+      toggle = !toggle;
+      board.setLed1(toggle);
+      board.setLed2(!toggle);
+      board.setOc1(toggle);
+      board.setOc2(!toggle);
+    });
+
+    // Verify results
+    assertEquals(0L, allocated);
+  }
+
+  @Test
+  public void switchReadsDoNotAllocate() {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> toggle = board.switch1Closed() ^ board.switch2Closed());
+
+    // Verify results
+    assertEquals(0L, allocated);
+  }
+
+  @Test
+  public void getRangeCmDoesNotAllocate() throws IOException {
+    // Unit under test
+    final long allocated = allocatedBytes(() -> range = board.getRangeCm());
+
+    // Verify results
+    assertEquals(0L, allocated);
+    assertEquals(17.0f, range, 0.5f);
+  }
+
+  @Test
+  public void chipBoardDoesNotAllocate() throws IOException {
+    // The board drives its motors with the PwmEngine it installs on the chip
+    chipBoard = new RasPiRobot3(new GpioChipProvider(new NullChip(), GpioChipProvider.DEVICE_DEFAULT, PinMap.RRB3));
+
+    // Unit under test: every call changes the duty cycles, so the PWM schedule is rebuilt
+    final long allocated = allocatedBytes(() -> {
+      toggle = !toggle;
+      chipBoard.setMotors(toggle ? 0.5f : 0.25f, toggle ? MotorDirection.FORWARD : MotorDirection.REVERSE, 0.5f, MotorDirection.FORWARD);
+      chipBoard.setLed1(toggle);
+      chipBoard.setOc2(toggle);
+      toggle = chipBoard.switch1Closed();
+    });
+
+    // Verify results
+    assertEquals(0L, allocated);
+  }
+
+  private static boolean escapeAnalysis() {
+    final HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+    return hotSpot == null || Boolean.parseBoolean(hotSpot.getVMOption("DoEscapeAnalysis").getValue());
+  }
+
+  // Smallest number of bytes allocated by the calling thread in a round of calls, less the cost of measuring
+  private long allocatedBytes(final Call call) {
+    try {
+      for (int i = 0; i < WARMUP_CALLS; i++) {
+        call.run();
+      }
+
+      final long threadId = Thread.currentThread().getId();
+      long least = Long.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        final long start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+          call.run();
+        }
+        least = Math.min(least, threads.getThreadAllocatedBytes(threadId) - start);
+      }
+
+      return least - overhead;
+    } catch (final IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  interface Call {
+    void run() throws IOException;
+  }
+
+  // Board clock that advances 1 us per reading and answers each trigger pulse with an echo, without allocating
+  static class EchoClock implements BoardClock {
+    final SimulatedGpioProvider provider;
+    final Pin echoPin;
+    long now;
+    long triggerNanos = -1;
+    long[] garbage;
+
+    EchoClock(final SimulatedGpioProvider provider, final Pin echoPin) {
+      this.provider = provider;
+      this.echoPin = echoPin;
+    }
+
+    @Override
+    public long nanoTime() {
+      now += 1000L;
+
+      final long sinceTrigger = now - triggerNanos;
+      final boolean echo = triggerNanos >= 0 && sinceTrigger > ECHO_DELAY_NANOS && sinceTrigger <= ECHO_DELAY_NANOS + ECHO_NANOS;
+      provider.setInputState(echoPin, echo ? PinState.HIGH : PinState.LOW);
+
+      return now;
+    }
+
+    @Override
+    public void delayMicros(final long micros) {
+      // The only busy delay is the trigger pulse
+      now += micros * 1000L;
+      triggerNanos = now;
+    }
+
+    @Override
+    public void sleepMillis(final long millis) {
+      now += millis * 1_000_000L;
+    }
+  }
+
+  static class NullPwmDriver implements PwmDriver {
+    @Override
+    public void create(final Pin pin) {
+      // Nothing to drive
+    }
+
+    @Override
+    public void stop(final Pin pin) {
+      // Nothing to drive
+    }
+
+    @Override
+    public void write(final Pin pin, final int value) {
+      // Nothing to drive
+    }
+  }
+
+  // Character device that accepts every request and never reports an edge
+  static class NullChip implements GpioChipDevice {
+    int nextHandle = 1;
+
+    @Override
+    public void open(final String path) {
+      // Nothing to open
+    }
+
+    @Override
+    public synchronized int requestOutputs(final int[] offsets, final boolean[] values, final String consumer) {
+      return nextHandle++;
+    }
+
+    @Override
+    public void setValues(final boolean[] values, final int handle) {
+      // The lines go nowhere
+    }
+
+    @Override
+    public synchronized int requestEvents(final int offset, final PinPullResistance pull, final String consumer) {
+      return nextHandle++;
+    }
+
+    @Override
+    public boolean getValue(final int handle) {
+      return true;
+    }
+
+    @Override
+    public boolean readEvent(final Event event, final long timeoutMillis) throws IOException {
+      try {
+        Thread.sleep(timeoutMillis);
+        return false;
+      } catch (final InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void release(final int handle) {
+      // Nothing to release
+    }
+
+    @Override
+    public void close() {
+      // Nothing to close
+    }
+  }
+}
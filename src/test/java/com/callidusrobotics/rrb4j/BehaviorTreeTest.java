@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static com.callidusrobotics.rrb4j.BehaviorTree.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.BehaviorTree.Behavior;
+import com.callidusrobotics.rrb4j.BehaviorTree.Status;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BehaviorTreeTest {
+  static final Status S = Status.SUCCESS;
+  static final Status F = Status.FAILURE;
+  static final Status R = Status.RUNNING;
+
+  @Mock RasPiRobotBoard mockBoard;
+
+  @Test
+  public void sequenceStopsAtFirstFailure() {
+    final Scripted first = new Scripted(S);
+    final Scripted second = new Scripted(F);
+    final Scripted third = new Scripted(S);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, sequence(leaf(first), leaf(second), leaf(third)));
+
+    // Unit under test
+    final Status status = tree.tick();
+
+    // Verify results
+    assertEquals(F, status);
+    assertEquals(1, first.ticks);
+    assertEquals(1, second.ticks);
+    assertEquals(0, third.ticks);
+    assertEquals(4, tree.size());
+  }
+
+  @Test
+  public void selectorStopsAtFirstSuccess() {
+    final Scripted first = new Scripted(F);
+    final Scripted second = new Scripted(S);
+    final Scripted third = new Scripted(S);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, selector(leaf(first), leaf(second), leaf(third)));
+
+    // Unit under test
+    final Status status = tree.tick();
+
+    // Verify results
+    assertEquals(S, status);
+    assertEquals(1, first.ticks);
+    assertEquals(1, second.ticks);
+    assertEquals(0, third.ticks);
+  }
+
+  @Test
+  public void resumesAtRunningChild() {
+    final Scripted first = new Scripted(S);
+    final Scripted second = new Scripted(R, R, S);
+    final Scripted third = new Scripted(S);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, sequence(leaf(first), selector(leaf(new Scripted(F)), leaf(second)), leaf(third)));
+
+    // Unit under test
+    final Status[] statuses = {tree.tick(), tree.tick(), tree.tick(), tree.tick()};
+
+    // Verify results
+    assertArrayEquals(new Status[] {R, R, S, S}, statuses);
+    assertEquals(2, first.ticks);
+    assertEquals(4, second.ticks);
+    assertEquals(2, third.ticks);
+    assertEquals(4, tree.getTicks());
+  }
+
+  @Test
+  public void parallelSucceedsAtThresholdAndHaltsTheRest() {
+    final Scripted quick = new Scripted(S);
+    final Scripted slow = new Scripted(R, S);
+    final Scripted endless = new Scripted(R);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, parallel(2, leaf(quick), leaf(slow), leaf(endless)));
+
+    // Unit under test
+    final Status[] statuses = {tree.tick(), tree.tick()};
+
+    // Verify results: a settled child is not ticked again
+    assertArrayEquals(new Status[] {R, S}, statuses);
+    assertEquals(1, quick.ticks);
+    assertEquals(2, slow.ticks);
+    assertEquals(2, endless.ticks);
+    assertEquals(1, endless.halts);
+    assertEquals(0, slow.halts);
+  }
+
+  @Test
+  public void parallelFailsWhenThresholdIsUnreachable() {
+    final Scripted endless = new Scripted(R);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, parallel(2, leaf(new Scripted(F)), leaf(endless), leaf(new Scripted(R, F))));
+
+    // Unit under test
+    final Status[] statuses = {tree.tick(), tree.tick()};
+
+    // Verify results
+    assertArrayEquals(new Status[] {R, F}, statuses);
+    assertEquals(1, endless.halts);
+  }
+
+  @Test
+  public void decorators() {
+    // Unit under test
+    final BehaviorTree inverted = new BehaviorTree(mockBoard, sequence(invert(leaf(new Scripted(F))), invert(leaf(new Scripted(S)))));
+    final BehaviorTree succeeded = new BehaviorTree(mockBoard, succeed(leaf(new Scripted(R, F))));
+
+    // Verify results
+    assertEquals(F, inverted.tick());
+    assertEquals(R, succeeded.tick());
+    assertEquals(S, succeeded.tick());
+  }
+
+  @Test
+  public void repeatRunsChildOncePerTick() {
+    final Scripted child = new Scripted(S);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, repeat(3, leaf(child)));
+
+    // Unit under test
+    final Status[] statuses = {tree.tick(), tree.tick(), tree.tick(), tree.tick()};
+
+    // Verify results: the count restarts once reached
+    assertArrayEquals(new Status[] {R, R, S, R}, statuses);
+    assertEquals(4, child.ticks);
+  }
+
+  @Test
+  public void repeatForeverUntilChildFails() {
+    final BehaviorTree tree = new BehaviorTree(mockBoard, repeat(0, leaf(new Scripted(S, S, F))));
+
+    // Unit under test
+    final Status[] statuses = {tree.tick(), tree.tick(), tree.tick()};
+
+    // Verify results
+    assertArrayEquals(new Status[] {R, R, F}, statuses);
+  }
+
+  @Test
+  public void haltRestartsTree() {
+    final Scripted first = new Scripted(S);
+    final Scripted second = new Scripted(R);
+    final BehaviorTree tree = new BehaviorTree(mockBoard, sequence(leaf(first), leaf(second)));
+    tree.tick();
+    tree.tick();
+
+    // Unit under test
+    tree.halt();
+    tree.tick();
+
+    // Verify results
+    assertEquals(1, second.halts);
+    assertEquals(2, first.ticks);
+  }
+
+  @Test
+  public void leavesShareBlackboard() {
+    final Blackboard blackboard = new Blackboard();
+    final int rangeKey = blackboard.key("range");
+    final int nearKey = blackboard.key("near");
+    when(mockBoard.switch1Closed()).thenReturn(true);
+    final Behavior sense = (board, values) -> {
+      values.set(rangeKey, board.switch1Closed() ? 5.0f : 50.0f);
+      return S;
+    };
+    final Behavior decide = (board, values) -> {
+      values.set(nearKey, values.get(rangeKey) < 10.0f);
+      return S;
+    };
+
+    // Unit under test
+    final Status status = new BehaviorTree(mockBoard, sequence(leaf(sense), leaf(decide)), blackboard).tick();
+
+    // Verify results
+    assertEquals(S, status);
+    assertEquals(rangeKey, blackboard.key("range"));
+    assertEquals(5.0f, blackboard.get(rangeKey), 0.0f);
+    assertTrue(blackboard.isSet(nearKey));
+    blackboard.clear();
+    assertTrue(Float.isNaN(blackboard.get(rangeKey)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parallelThresholdMustBeReachable() {
+    // Unit under test
+    parallel(3, leaf(new Scripted(S)), leaf(new Scripted(S)));
+  }
+
+  // Returns its statuses in turn, then repeats the last one
+  static class Scripted implements Behavior {
+    final Status[] statuses;
+    int ticks;
+    int halts;
+
+    Scripted(final Status... statuses) {
+      this.statuses = statuses;
+    }
+
+    @Override
+    public Status tick(final RasPiRobotBoard board, final Blackboard blackboard) {
+      return statuses[Math.min(ticks++, statuses.length - 1)];
+    }
+
+    @Override
+    public void halt() {
+      halts++;
+    }
+  }
+}
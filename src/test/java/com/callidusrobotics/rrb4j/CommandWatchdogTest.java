@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CommandWatchdogTest {
+  RasPiRobot3 board;
+  CommandWatchdog watchdog;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+  @Mock GpioPinDigitalOutput mockOc1Pin;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(1);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_22, "OC1", PinState.LOW)).thenReturn(mockOc1Pin);
+
+    board = spy(new RasPiRobot3(mockGpio, 6.0f, 6.0f));
+
+    doNothing().when(board).softPwmCreate(Matchers.any(Pin.class));
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+
+    watchdog = new CommandWatchdog(board, 20, 20);
+    watchdog.start();
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    watchdog.stop();
+  }
+
+  @Test
+  public void silenceStopsMotors() throws InterruptedException {
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    final boolean armed = watchdog.isMotorTimeoutArmed();
+    while (watchdog.getTripCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    assertTrue(armed);
+    assertFalse(watchdog.isMotorTimeoutArmed());
+    assertTrue(watchdog.getLastTripMillis() > 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_14, 0);
+  }
+
+  @Test
+  public void virtualClockTripsTimeout() throws InterruptedException {
+    final VirtualClock clock = new VirtualClock();
+    watchdog.stop();
+    board.setClock(clock);
+    watchdog = new CommandWatchdog(board, 20, 20);
+    watchdog.start();
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    clock.advance(10_000_000L);
+    final long tripsBeforeTimeout = watchdog.getTripCount();
+    clock.advance(30_000_000L);
+
+    // Verify results
+    assertEquals(0, tripsBeforeTimeout);
+    assertEquals(1, watchdog.getTripCount());
+    assertFalse(watchdog.isMotorTimeoutArmed());
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_14, 0);
+  }
+
+  @Test
+  public void speedControllerKeepsWatchdogArmed() throws InterruptedException {
+    final VirtualClock clock = new VirtualClock();
+    clock.setInstantWaits(true);
+    watchdog.stop();
+    board.setClock(clock);
+    watchdog = new CommandWatchdog(board, 20, 20);
+    watchdog.start();
+    final SpeedController controller = new SpeedController(board, () -> 0.0f, () -> 0.0f, new PidGains(0.0f, 0.0f, 0.0f, 0.001f), 5);
+    controller.setTargets(500.0f, 500.0f);
+
+    // Unit under test: the application goes quiet, but the controller still commands the motors
+    controller.start();
+    clock.advance(200_000_000L);
+    final long tripsWhileRunning = watchdog.getTripCount();
+    final boolean armedWhileRunning = watchdog.isMotorTimeoutArmed();
+    controller.stop();
+
+    // Verify results: the watchdog does not guard motors driven by the controller
+    assertEquals(0, tripsWhileRunning);
+    assertTrue(armedWhileRunning);
+    assertFalse(watchdog.isMotorTimeoutArmed());
+  }
+
+  @Test
+  public void freshCommandsKeepMotorsRunning() throws InterruptedException {
+    // Unit under test
+    final long endTime = System.nanoTime() + 100_000_000L;
+    while (System.nanoTime() < endTime) {
+      board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+      Thread.sleep(2);
+    }
+
+    // Verify results
+    assertEquals(0, watchdog.getTripCount());
+    assertTrue(watchdog.isMotorTimeoutArmed());
+  }
+
+  @Test
+  public void stoppedMotorsAreNotGuarded() throws InterruptedException {
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    Thread.sleep(60);
+
+    // Verify results
+    assertEquals(0, watchdog.getTripCount());
+    assertFalse(watchdog.isMotorTimeoutArmed());
+  }
+
+  @Test
+  public void silenceTurnsOffEnabledOc() throws InterruptedException {
+    // Unit under test
+    board.setOc1(true);
+    while (watchdog.getTripCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    verify(mockOc1Pin).setState(true);
+    verify(mockOc1Pin).setState(false);
+  }
+
+  @Test
+  public void disabledOcIsNotGuarded() throws InterruptedException {
+    board.setOc1(true);
+
+    // Unit under test
+    board.setOc1(false);
+    Thread.sleep(60);
+
+    // Verify results
+    assertEquals(0, watchdog.getTripCount());
+  }
+
+  @Test
+  public void stoppedWatchdogIgnoresCommands() throws InterruptedException {
+    watchdog.stop();
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    Thread.sleep(60);
+
+    // Verify results
+    assertEquals(0, watchdog.getTripCount());
+  }
+}
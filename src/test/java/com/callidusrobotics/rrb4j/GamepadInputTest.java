@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static com.callidusrobotics.rrb4j.GamepadInput.*;
+import static com.callidusrobotics.rrb4j.GamepadMapping.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GamepadInputTest {
+  GamepadMapping mapping;
+  Path recording;
+
+  @Mock RasPiRobotBoard mockBoard;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  @Before
+  public void before() throws IOException {
+    mapping = new GamepadMapping(mockBoard);
+    mapping.mapButton(BTN_SOUTH, BoardOutput.LED1, true);
+    recording = folder.newFile("event0").toPath();
+  }
+
+  @After
+  public void after() {
+    verifyNoMoreInteractions(mockBoard);
+  }
+
+  @Test
+  public void decodesRecording() throws IOException {
+    final ByteBuffer events = new Events(EVENT_SIZE_64)
+        .add(EV_ABS, ABS_Y, -32768)
+        .add(EV_KEY, BTN_SOUTH, 1)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .add(EV_KEY, BTN_SOUTH, 2)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .add(EV_ABS, ABS_Y, 0)
+        .add(EV_KEY, BTN_SOUTH, 0)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .toBuffer();
+    final GamepadInput input = new GamepadInput(recording, mapping, EVENT_SIZE_64);
+
+    // Unit under test
+    try (FileChannel channel = replay(events)) {
+      input.pump(channel);
+    }
+
+    // Verify results: the autorepeat and the release of the toggle change nothing
+    final InOrder inOrder = inOrder(mockBoard);
+    inOrder.verify(mockBoard).setLed1(true);
+    inOrder.verify(mockBoard).setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    inOrder.verify(mockBoard).setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    assertEquals(8, input.getEventCount());
+    assertEquals(2, input.getLatencyStats().getCount());
+  }
+
+  @Test
+  public void decodesRecordingFrom32BitKernel() throws IOException {
+    final ByteBuffer events = new Events(EVENT_SIZE_32)
+        .add(EV_ABS, ABS_Y, 32767)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .toBuffer();
+    final GamepadInput input = new GamepadInput(recording, mapping, EVENT_SIZE_32);
+
+    // Unit under test
+    try (FileChannel channel = replay(events)) {
+      input.pump(channel);
+    }
+
+    // Verify results
+    verify(mockBoard).setMotors(1.0f, MotorDirection.REVERSE, 1.0f, MotorDirection.REVERSE);
+  }
+
+  @Test
+  public void discardsReportsAfterOverflow() throws IOException {
+    final ByteBuffer events = new Events(EVENT_SIZE_64)
+        .add(EV_ABS, ABS_Y, -32768)
+        .add(EV_SYN, SYN_DROPPED, 0)
+        .add(EV_KEY, BTN_SOUTH, 1)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .add(EV_KEY, BTN_SOUTH, 1)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .toBuffer();
+    final GamepadInput input = new GamepadInput(recording, mapping, EVENT_SIZE_64);
+
+    // Unit under test
+    try (FileChannel channel = replay(events)) {
+      input.pump(channel);
+    }
+
+    // Verify results: the stick moved before the overflow and is applied with the next report
+    verify(mockBoard).setLed1(true);
+    verify(mockBoard).setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    assertEquals(1, input.getDroppedReports());
+  }
+
+  @Test
+  public void completesRecordsSplitAcrossReads() throws IOException, InterruptedException {
+    final Events builder = new Events(EVENT_SIZE_64);
+    for (int i = 0; i < BATCH_EVENTS; i++) {
+      builder.add(EV_SYN, SYN_REPORT, 0);
+    }
+    final ByteBuffer events = builder.add(EV_ABS, ABS_X, 32767).add(EV_SYN, SYN_REPORT, 0).toBuffer();
+    final Path fifo = mkfifo();
+    final GamepadInput input = new GamepadInput(fifo, mapping, EVENT_SIZE_64);
+
+    // Unit under test: a pipe delivers the recording in pieces that split records
+    final Thread writer = writeInPieces(fifo, events, 10);
+    input.start();
+    writer.join();
+    while (input.isRunning()) {
+      Thread.sleep(1);
+    }
+
+    // Verify results: the reader stopped at the end of the input and released the stick
+    verify(mockBoard).setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.REVERSE);
+    verify(mockBoard).setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    assertEquals(BATCH_EVENTS + 2, input.getEventCount());
+  }
+
+  @Test
+  public void truncatedInputStopsMotors() throws IOException, InterruptedException {
+    mapping.mapButton(BTN_EAST, BoardOutput.OC1, false);
+    final ByteBuffer events = new Events(EVENT_SIZE_64)
+        .add(EV_ABS, ABS_Y, -32768)
+        .add(EV_KEY, BTN_EAST, 1)
+        .add(EV_SYN, SYN_REPORT, 0)
+        .add(EV_ABS, ABS_Y, -32768)
+        .toBuffer();
+    Files.write(recording, Arrays.copyOf(events.array(), events.capacity() - 5));
+    final GamepadInput input = new GamepadInput(recording, mapping, EVENT_SIZE_64);
+
+    // Unit under test: the input ends mid-record with the throttle and a button held
+    input.start();
+    while (input.isRunning()) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    final InOrder inOrder = inOrder(mockBoard);
+    inOrder.verify(mockBoard).setOc1(true);
+    inOrder.verify(mockBoard).setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    inOrder.verify(mockBoard).setOc1(false);
+    inOrder.verify(mockBoard).setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void stopsWhileBlocked() throws Exception {
+    final ByteBuffer events = new Events(EVENT_SIZE_64).add(EV_KEY, BTN_SOUTH, 1).add(EV_SYN, SYN_REPORT, 0).toBuffer();
+    final Path fifo = mkfifo();
+    final Thread writer = new Thread(() -> {
+      try (OutputStream out = Files.newOutputStream(fifo)) {
+        out.write(events.array());
+        out.flush();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+      } catch (IOException | InterruptedException e) {
+        // The test is over
+      }
+    });
+    writer.setDaemon(true);
+    writer.start();
+    final GamepadInput input = new GamepadInput(fifo, mapping, EVENT_SIZE_64);
+    input.start();
+    while (mapping.getCommandCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // Unit under test
+    input.stop();
+
+    // Verify results
+    assertFalse(input.isRunning());
+    verify(mockBoard).setLed1(true);
+    writer.interrupt();
+  }
+
+  FileChannel replay(final ByteBuffer events) throws IOException {
+    Files.write(recording, events.array());
+
+    return FileChannel.open(recording);
+  }
+
+  Path mkfifo() throws IOException, InterruptedException {
+    final Path fifo = folder.getRoot().toPath().resolve("fifo");
+    final int status = new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor();
+    assumeTrue("mkfifo is not available", status == 0);
+
+    return fifo;
+  }
+
+  static Thread writeInPieces(final Path fifo, final ByteBuffer events, final int pieceSize) {
+    final Thread writer = new Thread(() -> {
+      try (OutputStream out = Files.newOutputStream(fifo)) {
+        final byte[] bytes = events.array();
+        for (int offset = 0; offset < bytes.length; offset += pieceSize) {
+          out.write(bytes, offset, Math.min(pieceSize, bytes.length - offset));
+          out.flush();
+          Thread.sleep(1);
+        }
+      } catch (IOException | InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    writer.start();
+
+    return writer;
+  }
+
+  // Encodes input events as the kernel lays them out, with zero timestamps
+  static class Events {
+    final int eventSize;
+    final ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.nativeOrder());
+
+    Events(final int eventSize) {
+      this.eventSize = eventSize;
+    }
+
+    Events add(final int type, final int code, final int value) {
+      buffer.position(buffer.position() + eventSize - 8);
+      buffer.putShort((short) type).putShort((short) code).putInt(value);
+      return this;
+    }
+
+    ByteBuffer toBuffer() {
+      final ByteBuffer events = ByteBuffer.allocate(buffer.position());
+      events.put(buffer.array(), 0, buffer.position());
+      return events;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static com.callidusrobotics.rrb4j.GamepadMapping.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GamepadMappingTest {
+  GamepadMapping mapping;
+
+  @Mock RasPiRobotBoard mockBoard;
+
+  @Before
+  public void before() {
+    mapping = new GamepadMapping(mockBoard);
+  }
+
+  @Test
+  public void normalizesAxisWithDeadzone() {
+    // Unit under test
+    mapping.axisMoved(ABS_X, 3000);
+    final float inside = mapping.getAxis(ABS_X);
+    mapping.axisMoved(ABS_X, 32767);
+    final float full = mapping.getAxis(ABS_X);
+    mapping.axisMoved(ABS_X, -16384);
+    final float half = mapping.getAxis(ABS_X);
+
+    // Verify results: the deadzone is cut out and the remainder stretched over the full range
+    assertEquals(0.0f, inside, 0.0f);
+    assertEquals(1.0f, full, 0.0001f);
+    assertEquals(-0.4444f, half, 0.0001f);
+  }
+
+  @Test
+  public void appliesCurve() {
+    mapping.configureAxis(ABS_RX, 0, 255, 0.0f, 1.0f, false);
+
+    // Unit under test
+    mapping.axisMoved(ABS_RX, 191);
+
+    // Verify results: a pure cubic curve
+    final float linear = (191 - 127.5f) / 127.5f;
+    assertEquals(linear * linear * linear, mapping.getAxis(ABS_RX), 0.0001f);
+  }
+
+  @Test
+  public void drivesArcadeStyle() {
+    // Unit under test: full forward with full right steering
+    mapping.axisMoved(ABS_Y, -32768);
+    mapping.axisMoved(ABS_X, 32767);
+    final int sent = mapping.apply();
+
+    // Verify results: the left motor leads and the right one stops
+    assertEquals(1, sent);
+    verify(mockBoard).setMotors(1.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void drivesBackwards() {
+    // Unit under test
+    mapping.axisMoved(ABS_Y, 32767);
+    mapping.apply();
+
+    // Verify results
+    verify(mockBoard).setMotors(1.0f, MotorDirection.REVERSE, 1.0f, MotorDirection.REVERSE);
+  }
+
+  @Test
+  public void sendsOnlyChangedCommands() {
+    mapping.axisMoved(ABS_Y, -32768);
+    mapping.apply();
+
+    // Unit under test: jitter inside the deadzone of the other axis and below the duty resolution
+    mapping.axisMoved(ABS_X, 1000);
+    final int jitter = mapping.apply();
+    mapping.axisMoved(ABS_Y, -32700);
+    final int subDuty = mapping.apply();
+    mapping.axisMoved(ABS_Y, 0);
+    final int stop = mapping.apply();
+
+    // Verify results
+    assertEquals(0, jitter);
+    assertEquals(0, subDuty);
+    assertEquals(1, stop);
+    assertEquals(2, mapping.getCommandCount());
+    verify(mockBoard).setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void idleStickSendsNothing() {
+    // Unit under test
+    final int sent = mapping.apply();
+
+    // Verify results
+    assertEquals(0, sent);
+    verifyZeroInteractions(mockBoard);
+  }
+
+  @Test
+  public void buttonsSwitchOutputs() {
+    mapping.mapButton(BTN_SOUTH, BoardOutput.LED1, true);
+    mapping.mapButton(BTN_EAST, BoardOutput.OC2, false);
+
+    // Unit under test
+    mapping.buttonChanged(BTN_SOUTH, true);
+    mapping.buttonChanged(BTN_EAST, true);
+    mapping.apply();
+    mapping.buttonChanged(BTN_SOUTH, false);
+    mapping.buttonChanged(BTN_EAST, false);
+    mapping.apply();
+    mapping.buttonChanged(BTN_SOUTH, true);
+    mapping.apply();
+
+    // Verify results: the toggle turns off on the second press, the momentary one on release
+    verify(mockBoard).setLed1(true);
+    verify(mockBoard).setOc2(true);
+    verify(mockBoard).setOc2(false);
+    verify(mockBoard).setLed1(false);
+    verify(mockBoard, never()).setMotors(anyFloat(), any(MotorDirection.class), anyFloat(), any(MotorDirection.class));
+  }
+
+  @Test
+  public void ignoresUnknownCodes() {
+    // Unit under test
+    mapping.axisMoved(ABS_COUNT, 0);
+    mapping.buttonChanged(KEY_COUNT, true);
+    mapping.buttonChanged(BTN_NORTH, true);
+
+    // Verify results
+    assertEquals(0, mapping.apply());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyAxisRange() {
+    // Unit under test
+    mapping.configureAxis(ABS_X, 10, 10, 0.0f, 0.0f, false);
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.GpioProviderBase;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiGpioProvider;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.RaspiPinNumberingScheme;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
+
+/**
+ * Compares the cost of updating four H-bridge style output pins with
+ * individual <code>setState</code> calls against a <code>GpioTransaction</code>
+ * commit, both when every pin changes and when the pins are already in the
+ * committed state, and counts the provider operations each one issues.
+ * <p>
+ * Usage, from the project directory after <code>mvn test-compile</code>:
+ *
+ * <pre>
+ * sudo java -cp target/test-classes:target/classes:$CLASSPATH com.callidusrobotics.rrb4j.GpioBenchmark MODE [ITERATIONS]
+ * </pre>
+ *
+ * where MODE is <code>hardware</code> to drive spare BCM pins 5, 6, 12 and 13
+ * on a Raspberry Pi, or <code>dry</code> to use an in-memory provider on any
+ * machine.
+ */
+public final class GpioBenchmark {
+  private static final Pin[] PINS = {RaspiPin.GPIO_05, RaspiPin.GPIO_06, RaspiPin.GPIO_12, RaspiPin.GPIO_13};
+
+  private static final AtomicLong PROVIDER_WRITES = new AtomicLong();
+
+  private GpioBenchmark() {
+    // Command line entry point only
+  }
+
+  public static void main(final String[] args) {
+    final String mode = args.length > 0 ? args[0] : "dry";
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+    final GpioController gpio;
+    if ("hardware".equals(mode)) {
+      GpioFactory.setDefaultProvider(new RaspiGpioProvider(RaspiPinNumberingScheme.BROADCOM_PIN_NUMBERING));
+      gpio = GpioFactory.getInstance();
+    } else {
+      gpio = new GpioControllerImpl(new CountingProvider());
+    }
+
+    final GpioPinDigitalOutput[] pins = new GpioPinDigitalOutput[PINS.length];
+    for (int i = 0; i < PINS.length; i++) {
+      pins[i] = gpio.provisionDigitalOutputPin(PINS[i], "Bench" + i, PinState.LOW);
+    }
+
+    final GpioTransaction transaction = new GpioTransaction(PINS.length);
+
+    // Warm up both paths before measuring
+    for (int pass = 0; pass < 2; pass++) {
+      final boolean report = pass == 1;
+      run("per-pin", iterations, report, forward -> {
+        pins[0].setState(!forward);
+        pins[1].setState(forward);
+        pins[2].setState(!forward);
+        pins[3].setState(forward);
+      });
+      run("transaction", iterations, report, forward -> {
+        transaction.set(pins[0], !forward).set(pins[1], forward).set(pins[2], !forward).set(pins[3], forward).commit();
+      });
+      run("unchanged", iterations, report, forward -> {
+        transaction.set(pins[0], false).set(pins[1], true).set(pins[2], false).set(pins[3], true).commit();
+      });
+    }
+
+    gpio.shutdown();
+  }
+
+  private interface Update {
+    void apply(boolean forward);
+  }
+
+  private static void run(final String name, final int iterations, final boolean report, final Update update) {
+    final long writesStart = PROVIDER_WRITES.get();
+    final long startNanos = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      update.apply((i & 1) == 0);
+    }
+    final long elapsedNanos = System.nanoTime() - startNanos;
+
+    if (report) {
+      System.out.printf("%-12s %8.1f ns/update, %.1f provider writes/update (dry mode only)%n",
+          name, (double) elapsedNanos / iterations, (double) (PROVIDER_WRITES.get() - writesStart) / iterations);
+    }
+  }
+
+  // In-memory provider that counts pin writes
+  private static final class CountingProvider extends GpioProviderBase {
+    @Override
+    public String getName() {
+      // RaspiPin pins can only be provisioned on a provider with this name
+      return RaspiGpioProvider.NAME;
+    }
+
+    @Override
+    public void setState(final Pin pin, final PinState state) {
+      PROVIDER_WRITES.incrementAndGet();
+      super.setState(pin, state);
+    }
+  }
+}
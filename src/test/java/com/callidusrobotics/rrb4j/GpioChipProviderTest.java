@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.RaspiPin;
+
+public class GpioChipProviderTest {
+  FakeChip chip = new FakeChip();
+  GpioChipProvider provider;
+  RasPiRobot3 board;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(10);
+
+  /**
+   * In-memory chip whose input edges are injected by the test.
+   */
+  static class FakeChip implements GpioChipDevice {
+    String path;
+    int[] outputOffsets;
+    boolean[] outputValues;
+    int setCount;
+    boolean closed;
+    final Map<Integer, PinPullResistance> pulls = new HashMap<>();
+    final List<Integer> released = new ArrayList<>();
+    final BlockingQueue<long[]> edges = new LinkedBlockingQueue<>();
+    int nextHandle = 100;
+
+    // Called with the output values after each ioctl
+    volatile Runnable onSet;
+
+    // Thrown by the next read, as when a line is released while it is being read
+    volatile IOException readFailure;
+
+    @Override
+    public void open(final String devicePath) {
+      path = devicePath;
+    }
+
+    @Override
+    public synchronized int requestOutputs(final int[] offsets, final boolean[] values, final String consumer) {
+      outputOffsets = offsets.clone();
+      outputValues = values.clone();
+      return nextHandle++;
+    }
+
+    @Override
+    public void setValues(final boolean[] values, final int handle) {
+      synchronized (this) {
+        outputValues = values.clone();
+        setCount++;
+      }
+
+      final Runnable hook = onSet;
+      if (hook != null) {
+        hook.run();
+      }
+    }
+
+    @Override
+    public synchronized int requestEvents(final int offset, final PinPullResistance pull, final String consumer) {
+      pulls.put(offset, pull);
+      return nextHandle++;
+    }
+
+    @Override
+    public boolean getValue(final int handle) {
+      // Inputs idle high, as the pulled-up switches do
+      return true;
+    }
+
+    @Override
+    public boolean readEvent(final Event event, final long timeoutMillis) throws IOException {
+      final IOException failure = readFailure;
+      if (failure != null) {
+        readFailure = null;
+        throw failure;
+      }
+
+      try {
+        final long[] edge = edges.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (edge == null) {
+          return false;
+        }
+
+        event.set((int) edge[0], edge[1] != 0, edge[2]);
+        return true;
+      } catch (final InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public synchronized void release(final int handle) {
+      released.add(handle);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    void emit(final int offset, final boolean rising, final long kernelNanos) {
+      edges.add(new long[] {offset, rising ? 1 : 0, kernelNanos});
+    }
+
+    synchronized boolean isHigh(final int offset) {
+      for (int i = 0; i < outputOffsets.length; i++) {
+        if (outputOffsets[i] == offset) {
+          return outputValues[i];
+        }
+      }
+
+      throw new IllegalArgumentException("Not an output: " + offset);
+    }
+
+    synchronized int getSetCount() {
+      return setCount;
+    }
+  }
+
+  @Before
+  public void before() throws IOException {
+    provider = new GpioChipProvider(chip, "/dev/gpiochip4", PinMap.RRB3);
+    board = new RasPiRobot3(provider);
+  }
+
+  @After
+  public void after() {
+    provider.shutdown();
+  }
+
+  static int offset(final Role role) {
+    return PinMap.RRB3.get(role).getAddress();
+  }
+
+  @Test
+  public void requestsOutputsAsOneHandle() {
+    // Verify results
+    assertEquals("/dev/gpiochip4", chip.path);
+    assertEquals(11, chip.outputOffsets.length);
+    for (final Role role : new Role[] {Role.LED1, Role.OC2, Role.M1_PHASE1, Role.M2_PHASE2, Role.RANGE_TRIGGER}) {
+      assertFalse(chip.isHigh(offset(role)));
+    }
+  }
+
+  @Test
+  public void writesOutputsInBulk() {
+    // Unit under test
+    board.setLed1(true);
+    board.setOc2(true);
+
+    // Verify results
+    assertTrue(chip.isHigh(offset(Role.LED1)));
+    assertTrue(chip.isHigh(offset(Role.OC2)));
+    assertFalse(chip.isHigh(offset(Role.LED2)));
+  }
+
+  @Test
+  public void commitsTransactionWithOneIoctl() {
+    final int before = chip.getSetCount();
+
+    // Unit under test
+    board.newTransaction().set(BoardOutput.LED1, true).set(BoardOutput.LED2, true).set(BoardOutput.OC1, true).commit();
+
+    // Verify results
+    assertEquals(before + 1, chip.getSetCount());
+    assertTrue(chip.isHigh(offset(Role.LED2)));
+    assertTrue(chip.isHigh(offset(Role.OC1)));
+  }
+
+  @Test
+  public void readsSwitchEdges() throws InterruptedException {
+    assertFalse(board.switch1Closed());
+
+    // Unit under test
+    chip.emit(offset(Role.SWITCH1), false, 1000L);
+    while (!board.switch1Closed()) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    assertFalse(board.switch2Closed());
+  }
+
+  @Test
+  public void readsEdgesAfterReadFailure() throws InterruptedException {
+    chip.readFailure = new IOException("Bad file descriptor");
+    while (chip.readFailure != null) {
+      Thread.sleep(1);
+    }
+
+    // Unit under test
+    chip.emit(offset(Role.SWITCH1), false, 1000L);
+    while (!board.switch1Closed()) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    assertFalse(board.switch2Closed());
+  }
+
+  @Test
+  public void timesEchoWithKernelTimestamps() throws InterruptedException {
+    // About 20 cm; far shorter than the test could time the pulse itself
+    final long pulseNanos = 1_176_000L;
+    final int trigger = offset(Role.RANGE_TRIGGER);
+    final int echo = offset(Role.RANGE_ECHO);
+    final long[] kernelNanos = {1_000_000_000L};
+    chip.onSet = () -> {
+      if (chip.isHigh(trigger)) {
+        kernelNanos[0] += 10_000_000L;
+        chip.emit(echo, true, kernelNanos[0]);
+        new Thread(() -> {
+          try {
+            Thread.sleep(5);
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          chip.emit(echo, false, kernelNanos[0] + pulseNanos);
+        }).start();
+      }
+    };
+
+    // Unit under test; the rising edge must reach the board within the echo delay, so allow a few attempts
+    final RangeReading reading = new RangeReading();
+    for (int i = 0; i < 5 && reading.getStatus() != RangeReading.VALID; i++) {
+      board.measureRange(reading);
+      Thread.sleep(10);
+    }
+
+    // Verify results
+    assertEquals(RangeReading.VALID, reading.getStatus());
+    assertEquals(pulseNanos, reading.getPulseNanos());
+    assertEquals(20.0f, reading.getDistanceCm(), 0.1f);
+  }
+
+  @Test
+  public void drivesMotorsWithPwmEngine() throws InterruptedException {
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    while (!chip.isHigh(offset(Role.M1_PWM)) || !chip.isHigh(offset(Role.M2_PWM))) {
+      Thread.sleep(1);
+    }
+    board.shutdown();
+
+    // Verify results: the engine drives its pins low before the board releases them
+    assertFalse(chip.isHigh(offset(Role.M1_PWM)));
+    assertFalse(chip.isHigh(offset(Role.M2_PWM)));
+  }
+
+  @Test
+  public void requestsBiasForPulledUpInputs() {
+    // Unit under test
+    board.enableEncoders();
+
+    // Verify results
+    assertEquals(PinPullResistance.PULL_UP, chip.pulls.get(offset(Role.ENCODER1_A)));
+    assertEquals(PinPullResistance.PULL_UP, chip.pulls.get(offset(Role.ENCODER2_B)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsOutputsOutsideHandle() {
+    // Unit under test
+    provider.export(RaspiPin.GPIO_05, PinMode.DIGITAL_OUTPUT);
+  }
+
+  @Test
+  public void releasesLinesOnShutdown() {
+    // Unit under test
+    provider.shutdown();
+
+    // Verify results
+    assertTrue(chip.closed);
+    assertTrue(chip.released.contains(100));
+    assertTrue(chip.released.size() >= 1 + chip.pulls.size());
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GpioTransactionTest {
+  GpioTransaction transaction;
+
+  @Mock GpioPinDigitalOutput mockPin1;
+  @Mock GpioPinDigitalOutput mockPin2;
+  @Mock GpioPinDigitalOutput mockPin3;
+  @Mock CommandListener mockListener;
+
+  @Before
+  public void before() {
+    transaction = new GpioTransaction(3);
+  }
+
+  @Test
+  public void commitClearsBeforeSetting() {
+    // Unit under test
+    transaction.set(mockPin1, true).set(mockPin2, false).set(mockPin3, true).commit();
+
+    // Verify results
+    final InOrder inOrder = inOrder(mockPin1, mockPin2, mockPin3);
+    inOrder.verify(mockPin2).setState(false);
+    inOrder.verify(mockPin1).setState(true);
+    inOrder.verify(mockPin3).setState(true);
+    verifyNoMoreInteractions(mockPin1, mockPin2, mockPin3);
+    assertEquals(0, transaction.getStagedCount());
+    assertEquals(3, transaction.getWriteCount());
+  }
+
+  @Test
+  public void setSamePinReplacesState() {
+    // Unit under test
+    transaction.set(mockPin1, true).set(mockPin1, false);
+
+    // Verify results
+    assertEquals(1, transaction.getStagedCount());
+
+    transaction.commit();
+    verify(mockPin1).setState(false);
+    verifyNoMoreInteractions(mockPin1);
+  }
+
+  @Test
+  public void commitSkipsUnchangedPins() {
+    // Unit under test
+    transaction.set(mockPin1, true).set(mockPin2, false).commit();
+    transaction.set(mockPin1, true).set(mockPin2, true).commit();
+
+    // Verify results
+    verify(mockPin1).setState(true);
+    verify(mockPin2).setState(false);
+    verify(mockPin2).setState(true);
+    verifyNoMoreInteractions(mockPin1, mockPin2);
+    assertEquals(3, transaction.getWriteCount());
+  }
+
+  @Test
+  public void invalidateRewritesPins() {
+    // Unit under test
+    transaction.set(mockPin1, true).commit();
+    transaction.invalidate();
+    transaction.set(mockPin1, true).commit();
+
+    // Verify results
+    verify(mockPin1, times(2)).setState(true);
+  }
+
+  @Test
+  public void clearDiscardsChanges() {
+    // Unit under test
+    transaction.set(mockPin1, true).clear();
+    transaction.commit();
+
+    // Verify results
+    verifyZeroInteractions(mockPin1);
+    assertEquals(0, transaction.getWriteCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void setBeyondCapacity() {
+    transaction.set(mockPin1, true).set(mockPin2, true).set(mockPin3, true);
+
+    // Unit under test
+    transaction.set(mock(GpioPinDigitalOutput.class), true);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void setBoardOutputUnbound() {
+    // Unit under test
+    transaction.set(BoardOutput.OC1, true);
+  }
+
+  @Test
+  public void setBoardOutputNotifiesListeners() {
+    // Initialize mocks
+    final GpioController mockGpio = mock(GpioController.class);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mock(GpioPinDigitalInput.class));
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mock(GpioPinDigitalInput.class));
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mock(GpioPinDigitalOutput.class));
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_08, "LED1", PinState.LOW)).thenReturn(mockPin1);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_22, "OC1", PinState.LOW)).thenReturn(mockPin2);
+
+    final RasPiRobot3 board = new RasPiRobot3(mockGpio);
+    board.addCommandListener(mockListener);
+
+    // Unit under test
+    board.newTransaction().set(BoardOutput.LED1, true).set(BoardOutput.OC1, false).commit();
+
+    // Verify results
+    verify(mockPin2).setState(false);
+    verify(mockPin1).setState(true);
+    verify(mockListener).outputCommanded(BoardOutput.LED1, true);
+    verify(mockListener).outputCommanded(BoardOutput.OC1, false);
+  }
+}
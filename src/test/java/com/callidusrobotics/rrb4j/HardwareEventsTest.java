@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HardwareEventsTest {
+  private static final String PREFIX = "com.callidusrobotics.rrb4j.";
+
+  RasPiRobot3 board;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+  @Mock PwmDriver mockPwmDriver;
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+    when(mockInputPin.getPin()).thenReturn(RaspiPin.GPIO_23);
+
+    board = spy(new RasPiRobot3(mockGpio));
+    board.setPwmDriver(mockPwmDriver);
+
+    doNothing().when(board).delayMicroseconds(Matchers.anyLong());
+  }
+
+  @Test
+  public void noTokensWithoutRecording() {
+    assumeTrue(!HardwareEvents.isRecording());
+
+    // Verify results
+    assertNull(HardwareEvents.beginGpioWait());
+    assertNull(HardwareEvents.beginPwmWrite());
+    assertNull(HardwareEvents.beginMotorCommand());
+
+    // Unit under test: null tokens are ignored
+    HardwareEvents.endRangePing(null, null);
+  }
+
+  @Test
+  public void eventsRecorded() throws Exception {
+    assumeTrue(HardwareEvents.isAvailable());
+
+    // Initialize mocks
+    final Set<String> names = new HashSet<>();
+    final Set<String> rangeResults = new HashSet<>();
+    final Path file = Files.createTempFile("rrb4j", ".jfr");
+
+    try (Recording recording = new Recording()) {
+      for (final String name : new String[] {"GpioWait", "PwmWrite", "MotorCommand", "DeadTime", "RangePing", "OutputWrite", "SwitchRead"}) {
+        recording.enable(PREFIX + name).withoutThreshold();
+      }
+      recording.start();
+
+      // Unit under test
+      board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.REVERSE);
+      board.setLed1(true);
+      board.switch1Closed();
+      final RangeReading reading = board.measureRange(new RangeReading());
+      assertEquals(RangeReading.NOT_CONNECTED, reading.getStatus());
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+      names.add(event.getEventType().getName());
+      if (event.getEventType().getName().equals(PREFIX + "RangePing")) {
+        rangeResults.add(event.getString("result"));
+      }
+    }
+    Files.delete(file);
+
+    // Verify results
+    assertTrue(names.contains(PREFIX + "PwmWrite"));
+    assertTrue(names.contains(PREFIX + "MotorCommand"));
+    assertTrue(names.contains(PREFIX + "DeadTime"));
+    assertTrue(names.contains(PREFIX + "OutputWrite"));
+    assertTrue(names.contains(PREFIX + "SwitchRead"));
+    assertTrue(names.contains(PREFIX + "GpioWait"));
+    assertTrue(names.contains(PREFIX + "RangePing"));
+    assertEquals(Collections.singleton("not connected"), rangeResults);
+    assertFalse(HardwareEvents.isRecording());
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the wake-up jitter of a periodic thread under different
+ * {@link ThreadPlacement}s.
+ * <p>
+ * Usage, from the project directory after <code>mvn test-compile</code>:
+ *
+ * <pre>
+ * sudo java -cp target/test-classes:target/classes:$CLASSPATH com.callidusrobotics.rrb4j.JitterBenchmark [CPU] [PRIORITY] [SECONDS] [LOAD_THREADS]
+ * </pre>
+ *
+ * A thread wakes every millisecond, as the control loops and timers do, and
+ * records how late each wake-up was. It runs once with the default placement,
+ * once pinned to CPU (default: the last core), once at
+ * <code>SCHED_FIFO</code> PRIORITY (default 50) and once with both, for
+ * SECONDS each (default 10). LOAD_THREADS busy threads (default: one per core)
+ * compete with it to stand in for the rest of the system. Runs on any Linux
+ * machine; without root the real-time runs report that the priority was not
+ * granted.
+ */
+public final class JitterBenchmark {
+  private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static volatile boolean loaded;
+
+  private JitterBenchmark() {
+    // Command line entry point only
+  }
+
+  public static void main(final String[] args) throws InterruptedException {
+    final int cores = Runtime.getRuntime().availableProcessors();
+    final int cpu = args.length > 0 ? Integer.parseInt(args[0]) : cores - 1;
+    final int priority = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    final int loadThreads = args.length > 3 ? Integer.parseInt(args[3]) : cores;
+
+    loaded = true;
+    for (int i = 0; i < loadThreads; i++) {
+      final Thread load = new Thread(JitterBenchmark::spin, "rrb4j-benchmark-load-" + i);
+      load.setDaemon(true);
+      load.start();
+    }
+
+    final ThreadPlacement[] placements = {
+      new ThreadPlacement(0), new ThreadPlacement(0, cpu), new ThreadPlacement(priority), new ThreadPlacement(priority, cpu)
+    };
+
+    System.out.printf("cores=%d load threads=%d period=1ms seconds=%d%n", cores, loadThreads, seconds);
+    for (final ThreadPlacement placement : placements) {
+      final long[] lateness = new long[(int) (TimeUnit.SECONDS.toNanos(seconds) / PERIOD_NANOS)];
+      final boolean[] applied = new boolean[1];
+      final Thread sampler = new Thread(() -> {
+        applied[0] = placement.applyToCurrentThread();
+        sample(lateness);
+      }, "rrb4j-benchmark-sampler");
+      sampler.start();
+      sampler.join();
+
+      report(placement, applied[0], lateness);
+    }
+
+    loaded = false;
+  }
+
+  // Sleeps until each deadline in turn and records how late it woke
+  private static void sample(final long[] lateness) {
+    long deadline = System.nanoTime();
+    for (int i = 0; i < lateness.length; i++) {
+      deadline += PERIOD_NANOS;
+      long now = System.nanoTime();
+      while (now < deadline) {
+        LockSupport.parkNanos(deadline - now);
+        now = System.nanoTime();
+      }
+
+      lateness[i] = now - deadline;
+    }
+  }
+
+  private static void report(final ThreadPlacement placement, final boolean applied, final long[] lateness) {
+    final TimingStats stats = new TimingStats();
+    for (final long nanos : lateness) {
+      stats.record(nanos);
+    }
+
+    final long[] sorted = lateness.clone();
+    Arrays.sort(sorted);
+    final long p99 = sorted[(int) (sorted.length * 0.99)];
+    final long p999 = sorted[(int) (sorted.length * 0.999)];
+    System.out.printf("%-30s applied=%-5b mean=%6dus p99=%6dus p99.9=%6dus max=%6dus%n", placement, applied,
+        TimeUnit.NANOSECONDS.toMicros(stats.getMeanNanos()), TimeUnit.NANOSECONDS.toMicros(p99), TimeUnit.NANOSECONDS.toMicros(p999),
+        TimeUnit.NANOSECONDS.toMicros(stats.getMaxNanos()));
+  }
+
+  private static void spin() {
+    long sink = 0;
+    while (loaded) {
+      sink += System.nanoTime() & 1;
+    }
+
+    if (sink < 0) {
+      System.out.println(sink);
+    }
+  }
+}
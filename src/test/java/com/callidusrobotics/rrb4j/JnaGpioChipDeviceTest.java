@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pi4j.io.gpio.PinPullResistance;
+
+public class JnaGpioChipDeviceTest {
+  JnaGpioChipDevice device = new JnaGpioChipDevice();
+
+  @After
+  public void after() throws IOException {
+    device.close();
+  }
+
+  static long iowr(final int number, final int size) {
+    return 3L << 30 | (long) size << 16 | 0xB4 << 8 | number;
+  }
+
+  @Test
+  public void ioctlNumbersMatchRequestSizes() {
+    // Verify results
+    assertEquals(iowr(0x03, JnaGpioChipDevice.HANDLE_SIZE), JnaGpioChipDevice.GET_LINEHANDLE);
+    assertEquals(iowr(0x04, JnaGpioChipDevice.EVENT_SIZE), JnaGpioChipDevice.GET_LINEEVENT);
+    assertEquals(iowr(0x08, JnaGpioChipDevice.MAX_HANDLE_LINES), JnaGpioChipDevice.GET_LINE_VALUES);
+    assertEquals(iowr(0x09, JnaGpioChipDevice.MAX_HANDLE_LINES), JnaGpioChipDevice.SET_LINE_VALUES);
+  }
+
+  @Test
+  public void mapsPullToBias() {
+    // Verify results
+    assertEquals(JnaGpioChipDevice.BIAS_PULL_UP, JnaGpioChipDevice.biasFlags(PinPullResistance.PULL_UP));
+    assertEquals(JnaGpioChipDevice.BIAS_PULL_DOWN, JnaGpioChipDevice.biasFlags(PinPullResistance.PULL_DOWN));
+    assertEquals(0, JnaGpioChipDevice.biasFlags(PinPullResistance.OFF));
+  }
+
+  @Test(expected = IOException.class)
+  public void openMissingChipFails() throws IOException {
+    // Unit under test
+    device.open("/dev/gpiochip-missing");
+  }
+
+  @Test
+  public void failedIoctlThrows() throws IOException {
+    device.open("/dev/null");
+
+    try {
+      // Unit under test
+      device.requestOutputs(new int[] {4, 5}, new boolean[] {false, true}, GpioChipProvider.CONSUMER);
+      fail("Expected an IOException");
+    } catch (final IOException e) {
+      // Verify results
+      assertTrue(e.getMessage().endsWith("/dev/null"));
+    }
+  }
+
+  @Test
+  public void readEventTimesOutWithoutHandles() throws IOException {
+    // Unit under test
+    final boolean read = device.readEvent(new GpioChipDevice.Event(), 5);
+
+    // Verify results
+    assertFalse(read);
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class MotionScriptTest {
+  @Test
+  public void parseOffsets() {
+    // Unit under test
+    final MotionScript script = MotionScript.parse("# comment\n\n100 led1 on\n+50 led1 off  # trailing comment\n1000 end\n");
+
+    // Verify results
+    assertEquals(3, script.size());
+    assertEquals(100, script.getOffsetMillis(0));
+    assertEquals(150, script.getOffsetMillis(1));
+    assertEquals(1000, script.getOffsetMillis(2));
+    assertEquals("+50 led1 off", script.getStepText(1));
+    assertEquals(1000, script.getDurationMillis());
+  }
+
+  @Test
+  public void parseAllCommands() {
+    // Unit under test
+    final MotionScript script = MotionScript.parse(
+        "0 motors 0.25 F 1 reverse\n"
+      + "0 STOP\n"
+      + "0 oc2 ON\n"
+      + "0 blink led2 500 500\n"
+      + "0 pulse oc1 1000\n"
+      + "0 stop led2\n"
+      + "0 print Range: {range}\n"
+      + "0 wait switch1 closed 5000\n"
+      + "0 wait switch2 open\n"
+      + "0 wait range < 20 100\n"
+      + "0 wait range > 50\n"
+      + "0 end\n");
+
+    // Verify results
+    assertEquals(12, script.size());
+    assertEquals(0, script.getDurationMillis());
+  }
+
+  @Test
+  public void parseEmpty() {
+    // Unit under test
+    final MotionScript script = MotionScript.parse("");
+
+    // Verify results
+    assertEquals(0, script.size());
+    assertEquals(0, script.getDurationMillis());
+  }
+
+  @Test
+  public void readDemoScript() throws IOException {
+    // Unit under test
+    final MotionScript script;
+    try (InputStream input = Main.class.getResourceAsStream("demo.script")) {
+      script = MotionScript.read(input);
+    }
+
+    // Verify results
+    assertEquals(31000, script.getDurationMillis());
+  }
+
+  @Test
+  public void parseErrorReportsLine() {
+    try {
+      // Unit under test
+      MotionScript.parse("0 led1 on\n\n100 led3 on\n");
+      fail("Expected IllegalArgumentException");
+    } catch (final IllegalArgumentException e) {
+      // Verify results
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Line 3: "));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseDecreasingOffset() {
+    // Unit under test
+    MotionScript.parse("100 led1 on\n50 led1 off\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseSpeedOutOfRange() {
+    // Unit under test
+    MotionScript.parse("0 motors 1.5 F 0 F\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseMissingArguments() {
+    // Unit under test
+    MotionScript.parse("0 blink led1 500\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseBadComparison() {
+    // Unit under test
+    MotionScript.parse("0 wait range = 20\n");
+  }
+}
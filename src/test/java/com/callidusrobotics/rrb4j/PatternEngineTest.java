@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PatternEngineTest {
+  RasPiRobot3 board;
+  PatternEngine engine;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+  @Mock GpioPinDigitalOutput mockLed1Pin;
+  @Mock GpioPinDigitalOutput mockLed2Pin;
+  @Mock GpioPinDigitalOutput mockOc1Pin;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(2);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_08, "LED1", PinState.LOW)).thenReturn(mockLed1Pin);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_07, "LED2", PinState.LOW)).thenReturn(mockLed2Pin);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_22, "OC1", PinState.LOW)).thenReturn(mockOc1Pin);
+
+    board = new RasPiRobot3(mockGpio);
+    engine = new PatternEngine(board);
+  }
+
+  // Replaces the engine with one scheduled on a virtual clock
+  VirtualClock useVirtualClock() throws InterruptedException {
+    final VirtualClock clock = new VirtualClock();
+    engine.shutdown();
+    board.setClock(clock);
+    engine = new PatternEngine(board);
+    return clock;
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    engine.shutdown();
+  }
+
+  @Test
+  public void blinkSegments() {
+    // Unit under test
+    final OutputPattern pattern = OutputPattern.blink(100, 300);
+
+    // Verify results
+    assertTrue(pattern.isRepeating());
+    assertEquals(2, pattern.getSegmentCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), pattern.getSegmentNanos(0));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(300), pattern.getSegmentNanos(1));
+  }
+
+  @Test
+  public void pulseTrainSegments() {
+    // Unit under test
+    final OutputPattern pattern = OutputPattern.pulseTrain(3, 10, 20, 500);
+
+    // Verify results
+    assertEquals(6, pattern.getSegmentCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(20), pattern.getSegmentNanos(3));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), pattern.getSegmentNanos(5));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(3 * 10 + 2 * 20 + 500), pattern.getCycleNanos());
+  }
+
+  @Test
+  public void morseSegments() {
+    // Unit under test: S = ..., O = ---
+    final OutputPattern pattern = OutputPattern.morse("so", 1);
+
+    // Verify results
+    final long[] expectedMillis = {1, 1, 1, 1, 1, 3, 3, 1, 3, 1, 3, 7};
+    assertEquals(expectedMillis.length, pattern.getSegmentCount());
+    for (int i = 0; i < expectedMillis.length; i++) {
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(expectedMillis[i]), pattern.getSegmentNanos(i));
+    }
+  }
+
+  @Test
+  public void morseWordGap() {
+    // Unit under test: E = ., T = -
+    final OutputPattern pattern = OutputPattern.morse("E T", 1);
+
+    // Verify results
+    assertEquals(4, pattern.getSegmentCount());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(7), pattern.getSegmentNanos(1));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(3), pattern.getSegmentNanos(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void morseInvalidCharacter() {
+    // Unit under test
+    OutputPattern.morse("SOS!", 1);
+  }
+
+  @Test
+  public void oncePatternDoesNotRepeat() {
+    // Unit under test
+    final OutputPattern pattern = OutputPattern.blink(1, 1).once();
+
+    // Verify results
+    assertFalse(pattern.isRepeating());
+    assertFalse(OutputPattern.pulse(1).isRepeating());
+  }
+
+  @Test
+  public void blinkTogglesOutput() throws InterruptedException {
+    // Unit under test
+    engine.play(BoardOutput.LED1, OutputPattern.blink(5, 5));
+    Thread.sleep(100);
+    engine.stop(BoardOutput.LED1);
+
+    // Verify results
+    verify(mockLed1Pin, atLeast(3)).setState(true);
+    verify(mockLed1Pin, atLeast(3)).setState(false);
+    assertFalse(engine.isPlaying(BoardOutput.LED1));
+  }
+
+  @Test
+  public void pulseEndsWithOutputOff() throws InterruptedException {
+    // Unit under test
+    engine.play(BoardOutput.OC1, OutputPattern.pulse(10));
+    while (engine.isPlaying(BoardOutput.OC1)) {
+      Thread.sleep(1);
+    }
+
+    // Verify results
+    verify(mockOc1Pin).setState(true);
+    verify(mockOc1Pin).setState(false);
+  }
+
+  @Test
+  public void virtualClockDrivesEdges() throws InterruptedException {
+    final VirtualClock clock = useVirtualClock();
+
+    // Unit under test
+    engine.play(BoardOutput.LED1, OutputPattern.blink(5, 5));
+    verify(mockLed1Pin).setState(true);
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(5) - 1);
+    verify(mockLed1Pin, never()).setState(false);
+    clock.advance(1);
+    verify(mockLed1Pin).setState(false);
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(5));
+
+    // Verify results
+    verify(mockLed1Pin, times(2)).setState(true);
+    assertEquals(3, engine.getWriteCount());
+    assertEquals(0, engine.getSkippedWriteCount());
+  }
+
+  @Test
+  public void playWhileAnotherThreadAdvancesClock() throws InterruptedException {
+    final VirtualClock clock = useVirtualClock();
+    engine.play(BoardOutput.LED1, OutputPattern.blink(1, 1));
+    final Thread advancer = new Thread(() -> {
+      for (int i = 0; i < 2000; i++) {
+        clock.advance(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    });
+
+    // Unit under test
+    advancer.start();
+    for (int i = 0; i < 2000; i++) {
+      engine.play(BoardOutput.LED2, OutputPattern.blink(1, 1));
+      engine.stop(BoardOutput.LED2);
+    }
+    advancer.join();
+
+    // Verify results
+    assertTrue(engine.isPlaying(BoardOutput.LED1));
+    assertFalse(engine.isPlaying(BoardOutput.LED2));
+  }
+
+  @Test
+  public void unchangedStateIsNotWritten() throws InterruptedException {
+    final VirtualClock clock = useVirtualClock();
+    board.setLed2(true);
+
+    // Unit under test: the first segment is on, which LED2 already is
+    engine.play(BoardOutput.LED2, OutputPattern.pulse(10));
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(10));
+    assertFalse(engine.isPlaying(BoardOutput.LED2));
+    engine.stop(BoardOutput.LED2);
+
+    // Verify results
+    verify(mockLed2Pin).setState(true);
+    verify(mockLed2Pin).setState(false);
+    assertEquals(1, engine.getWriteCount());
+    assertEquals(2, engine.getSkippedWriteCount());
+  }
+
+  @Test
+  public void outputsShareOneThread() throws InterruptedException {
+    // Unit under test
+    engine.play(BoardOutput.LED1, OutputPattern.blink(5, 5));
+    engine.play(BoardOutput.LED2, OutputPattern.morse("SOS", 2));
+    engine.play(BoardOutput.OC1, OutputPattern.pulseTrain(2, 3, 3, 10));
+    Thread.sleep(50);
+
+    // Verify results
+    int engineThreads = 0;
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if ("rrb4j-pattern-engine".equals(thread.getName())) {
+        engineThreads++;
+      }
+    }
+    assertEquals(1, engineThreads);
+    verify(mockLed1Pin, atLeastOnce()).setState(true);
+    verify(mockLed2Pin, atLeastOnce()).setState(true);
+    verify(mockOc1Pin, atLeastOnce()).setState(true);
+  }
+
+  @Test
+  public void shutdownTurnsOutputsOff() throws InterruptedException {
+    engine.play(BoardOutput.LED1, OutputPattern.blink(1000, 1000));
+    while (engine.getWriteCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // Unit under test
+    engine.shutdown();
+
+    // Verify results
+    verify(mockLed1Pin).setState(true);
+    verify(mockLed1Pin).setState(false);
+    assertFalse(engine.isPlaying(BoardOutput.LED1));
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.callidusrobotics.rrb4j.PinMap.Role;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.system.SystemInfo.BoardType;
+
+public class PinMapTest {
+  @Test
+  public void rev1DiffersOnlyInOc2() {
+    // Verify results
+    for (final Role role : Role.values()) {
+      if (role == Role.OC2) {
+        assertEquals(RaspiPin.GPIO_27, PinMap.RRB3.get(role));
+        assertEquals(RaspiPin.GPIO_21, PinMap.RRB3_REV1.get(role));
+      } else {
+        assertEquals(PinMap.RRB3.get(role), PinMap.RRB3_REV1.get(role));
+      }
+    }
+  }
+
+  @Test
+  public void withCreatesNewMap() {
+    // Unit under test
+    final PinMap custom = PinMap.RRB3.with(Role.LED1, RaspiPin.GPIO_05);
+
+    // Verify results
+    assertEquals(RaspiPin.GPIO_05, custom.get(Role.LED1));
+    assertEquals(RaspiPin.GPIO_08, PinMap.RRB3.get(Role.LED1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void withDuplicatePin() {
+    // Unit under test
+    PinMap.RRB3.with(Role.LED1, RaspiPin.GPIO_07);
+  }
+
+  @Test
+  public void forBoardTypeSelectsRevision() {
+    // Verify results
+    assertSame(PinMap.RRB3_REV1, PinMap.forBoardType(BoardType.RaspberryPi_B_Rev1));
+    assertSame(PinMap.RRB3, PinMap.forBoardType(BoardType.RaspberryPi_B_Rev2));
+    assertSame(PinMap.RRB3, PinMap.forBoardType(BoardType.RaspberryPi_3B));
+    assertSame(PinMap.RRB3, PinMap.forBoardType(BoardType.UNKNOWN));
+  }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+public class PoseEstimatorTest {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+  static final double SPEED = VirtualBoard.WHEEL_SPEED_CM_S * 0.33;
+
+  VirtualBoard board = new VirtualBoard(10000.0f, 0.0f, 0.0f, 0.0f);
+  PoseEstimator estimator;
+  PoseEstimate estimate = new PoseEstimate();
+
+  @Before
+  public void before() {
+    estimator = new PoseEstimator(board, VirtualBoard.WHEEL_SPEED_CM_S, VirtualBoard.WHEEL_BASE_CM);
+    estimator.start();
+  }
+
+  @After
+  public void after() {
+    estimator.stop();
+    board.shutdown();
+  }
+
+  @Test
+  public void integratesAppliedDuty() {
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.advance(SECOND);
+    estimator.update();
+
+    // Verify results: the default voltages scale half speed down to 33% duty
+    estimator.read(estimate);
+    assertEquals(SPEED, estimate.getX(), 1e-9);
+    assertEquals(0.0, estimate.getY(), 1e-9);
+    assertEquals(0.0, estimate.getHeading(), 1e-9);
+    assertEquals(SECOND, estimate.getTimeNanos());
+    assertTrue(estimate.getCovariance(0, 0) > 0.0);
+    assertTrue(estimate.getCovariance(2, 2) > 0.0);
+  }
+
+  @Test
+  public void followsArcs() {
+    board.setMotors(0.3f, MotorDirection.FORWARD, 0.9f, MotorDirection.FORWARD);
+
+    // Unit under test: integrated once at the end, while the board moves in small steps
+    for (int i = 0; i < 2000; i++) {
+      board.advance(SECOND / 1000);
+    }
+    estimator.update();
+
+    // Verify results
+    estimator.read(estimate);
+    assertEquals(board.getX(), estimate.getX(), 0.1);
+    assertEquals(board.getY(), estimate.getY(), 0.1);
+    assertEquals(board.getHeading(), estimate.getHeading(), 0.01);
+    assertEquals(estimate.getCovariance(0, 1), estimate.getCovariance(1, 0), 0.0);
+  }
+
+  @Test
+  public void followsReversal() {
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    board.advance(SECOND);
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.REVERSE, 0.5f, MotorDirection.REVERSE);
+    board.advance(SECOND / 2);
+    estimator.update();
+
+    // Verify results: the dead time takes no simulated time
+    estimator.read(estimate);
+    assertEquals(SPEED - SPEED * 0.5, estimate.getX(), 1e-9);
+    assertEquals(board.getX(), estimate.getX(), 1e-4);
+  }
+
+  @Test
+  public void followsForwardLimit() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    board.advance(SECOND);
+
+    // Unit under test: the proximity reflex clamps the duty without a command
+    board.limitForwardDuty(10);
+    board.advance(SECOND);
+    estimator.update();
+
+    // Verify results
+    estimator.read(estimate);
+    assertEquals(SPEED * 2.0 + VirtualBoard.WHEEL_SPEED_CM_S * 0.1, estimate.getX(), 1e-9);
+    assertEquals(board.getX(), estimate.getX(), 1e-4);
+  }
+
+  @Test
+  public void followsWatchdogStop() throws InterruptedException {
+    final CommandWatchdog watchdog = new CommandWatchdog(board, 20, 20);
+    watchdog.start();
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test: the watchdog runs on the board's clock and stops the motors without a command
+    for (int i = 0; i < 1000; i++) {
+      board.advance(SECOND / 1000);
+    }
+    watchdog.stop();
+    estimator.update();
+
+    // Verify results: the board moves in steps of 1ms, so it may overshoot the trip by one
+    estimator.read(estimate);
+    assertEquals(1, watchdog.getTripCount());
+    assertEquals(SPEED * 0.02, estimate.getX(), SPEED * 0.005);
+    assertEquals(board.getX(), estimate.getX(), SPEED * 0.001 + 1e-4);
+  }
+
+  @Test
+  public void positionFixPullsEstimate() {
+    estimator.setPose(0.0, 0.0, 0.0, 4.0, 0.0);
+
+    // Unit under test
+    estimator.correctPosition(10.0, -10.0, 4.0);
+
+    // Verify results: equal confidence meets halfway
+    estimator.read(estimate);
+    assertEquals(5.0, estimate.getX(), 1e-9);
+    assertEquals(-5.0, estimate.getY(), 1e-9);
+    assertEquals(2.0, estimate.getCovariance(0, 0), 1e-9);
+    assertEquals(2.0, estimate.getCovariance(1, 1), 1e-9);
+    assertEquals(0.0, estimate.getHeading(), 1e-9);
+  }
+
+  @Test
+  public void headingFixWrapsAround() {
+    estimator.setPose(0.0, 0.0, Math.PI - 0.1, 0.0, 0.04);
+
+    // Unit under test
+    estimator.correctHeading(-Math.PI + 0.1, 0.01);
+
+    // Verify results: the fix is 0.2 rad away across the wrap, not 2 pi - 0.2
+    estimator.read(estimate);
+    assertEquals(-Math.PI + 0.06, estimate.getHeading(), 1e-9);
+    assertEquals(0.008, estimate.getCovariance(2, 2), 1e-9);
+  }
+
+  @Test
+  public void integratesWheelFeedback() {
+    final AtomicLong left = new AtomicLong();
+    final AtomicLong right = new AtomicLong();
+    estimator.setWheelFeedback(left::get, right::get, 0.5, PoseEstimator.FEEDBACK_SLIP);
+
+    // Unit under test: the wheels turned although no motor was commanded
+    left.set(100);
+    right.set(100);
+    board.advance(SECOND);
+    estimator.update();
+
+    // Verify results
+    estimator.read(estimate);
+    assertEquals(50.0, estimate.getX(), 1e-9);
+    assertEquals(0.25, estimate.getCovariance(0, 0), 1e-9);
+  }
+
+  @Test
+  public void readsConsistentSnapshots() throws InterruptedException {
+    final Thread writer = new Thread(() -> {
+      for (int i = 1; i <= 100000; i++) {
+        estimator.setPose(i, i, 0.0, i, 0.0);
+      }
+    });
+
+    // Unit under test
+    writer.start();
+    long lastSequence = -1;
+    while (writer.isAlive()) {
+      estimator.read(estimate);
+
+      // Verify results
+      assertEquals(estimate.getX(), estimate.getY(), 0.0);
+      assertEquals(estimate.getX(), estimate.getCovariance(1, 1), 0.0);
+      assertTrue(estimate.getSequence() >= lastSequence);
+      lastSequence = estimate.getSequence();
+    }
+    writer.join();
+    assertEquals(100000.0, estimator.read(estimate).getX(), 0.0);
+  }
+}
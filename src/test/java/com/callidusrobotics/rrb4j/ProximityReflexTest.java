@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProximityReflexTest {
+  RasPiRobot3 board;
+  ProximityReflex reflex;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(1);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+
+    // Unity voltage ratio so that speeds map directly onto duty cycles
+    board = spy(new RasPiRobot3(mockGpio, 6.0f, 6.0f));
+
+    doNothing().when(board).softPwmCreate(Matchers.any(Pin.class));
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).delayMicroseconds(Matchers.anyLong());
+
+    // 10 cm minimum, 40 cm more at full speed, slow to 25% inside twice the stopping distance
+    reflex = new ProximityReflex(board, 10.0f, 40.0f, 2.0f, 0.25f, 1);
+  }
+
+  @Test
+  public void stopDistanceScalesWithSpeed() {
+    // Verify results
+    assertEquals(10.0f, reflex.getStopDistanceCm(0.0f), 0.001f);
+    assertEquals(30.0f, reflex.getStopDistanceCm(0.5f), 0.001f);
+    assertEquals(50.0f, reflex.getStopDistanceCm(1.0f), 0.001f);
+  }
+
+  @Test
+  public void clearPathDoesNotEngage() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    reflex.evaluate(150.0f, 0L);
+
+    // Verify results
+    assertFalse(reflex.isEngaged());
+    verify(board, never()).softPwmWrite(RaspiPin.GPIO_24, 25);
+    assertEquals(0, reflex.getLatencyStats().getCount());
+  }
+
+  @Test
+  public void obstacleInsideStopDistanceStopsMotors() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    reflex.evaluate(45.0f, 0L);
+
+    // Verify results
+    assertTrue(reflex.isEngaged());
+    assertEquals(45.0f, reflex.getLastRangeCm(), 0.001f);
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_14, 0);
+    assertEquals(1, reflex.getLatencyStats().getCount());
+  }
+
+  @Test
+  public void obstacleInsideSlowDistanceLimitsMotors() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 0.1f, MotorDirection.FORWARD);
+
+    // Unit under test
+    reflex.evaluate(80.0f, 0L);
+
+    // Verify results
+    assertTrue(reflex.isEngaged());
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 25);
+    verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_14, 10);
+  }
+
+  @Test
+  public void slowerSpeedShrinksStopDistance() {
+    board.setMotors(0.25f, MotorDirection.FORWARD, 0.25f, MotorDirection.FORWARD);
+
+    // Unit under test: stopping distance at 25% is 20 cm, slowing distance is 40 cm
+    reflex.evaluate(45.0f, 0L);
+
+    // Verify results
+    assertFalse(reflex.isEngaged());
+  }
+
+  @Test
+  public void limitOverridesLaterCommands() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    reflex.evaluate(5.0f, 0L);
+
+    // Unit under test
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Verify results
+    verify(board, times(1)).softPwmWrite(RaspiPin.GPIO_24, 100);
+    verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_24, 0);
+  }
+
+  @Test
+  public void reverseMotionIsNotLimited() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    reflex.evaluate(5.0f, 0L);
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.REVERSE, 0.5f, MotorDirection.FORWARD);
+
+    // Verify results
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 50);
+    verify(board, never()).softPwmWrite(RaspiPin.GPIO_14, 50);
+  }
+
+  @Test
+  public void clearPathReleasesLimitWithHysteresis() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    reflex.evaluate(45.0f, 0L);
+
+    // Unit under test
+    reflex.evaluate(51.0f, 0L);
+    final boolean engagedInsideHysteresis = reflex.isEngaged() && board.getForwardDutyLimit() == 0;
+    reflex.evaluate(120.0f, 0L);
+
+    // Verify results
+    assertTrue(engagedInsideHysteresis);
+    assertFalse(reflex.isEngaged());
+    verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_24, 100);
+  }
+
+  @Test
+  public void lostSensorStopsMotors() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    for (int i = 1; i < ProximityReflex.MAX_FAILED_PINGS; i++) {
+      reflex.evaluate(Float.NaN, 0L);
+    }
+    final boolean engagedEarly = reflex.isEngaged();
+    reflex.evaluate(Float.NaN, 0L);
+
+    // Verify results
+    assertFalse(engagedEarly);
+    assertTrue(reflex.isEngaged());
+  }
+
+  @Test
+  public void latencyIsMeasuredFromReading() {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    doReturn(1500L).when(board).currentTimeNanos();
+
+    // Unit under test
+    reflex.evaluate(5.0f, 1000L);
+
+    // Verify results
+    assertEquals(500L, reflex.getLatencyStats().getLastNanos());
+    assertEquals(500L, reflex.getLatencyStats().getMaxNanos());
+  }
+
+  @Test
+  public void reflexThreadStopsMotors() throws Exception {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    // Echo pulses end immediately, i.e. an obstacle right in front of the sensor
+    when(mockInputPin.getState()).thenAnswer(new Answer<PinState>() {
+      private boolean high;
+
+      @Override
+      public PinState answer(final InvocationOnMock invocation) {
+        high = !high;
+        return high ? PinState.HIGH : PinState.LOW;
+      }
+    });
+
+    // Unit under test
+    reflex.start();
+    while (!reflex.isEngaged()) {
+      Thread.sleep(1);
+    }
+    reflex.stop();
+
+    // Verify results
+    assertFalse(reflex.isRunning());
+    assertFalse(reflex.isEngaged());
+    verify(mockInputPin, atLeastOnce()).getState();
+  }
+
+  @Test
+  public void reflexThreadSurvivesDisconnectedSensor() throws Exception {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    when(mockInputPin.getState()).thenReturn(PinState.LOW);
+
+    // Unit under test
+    reflex.start();
+    while (!reflex.isEngaged()) {
+      Thread.sleep(1);
+    }
+    reflex.stop();
+
+    // Verify results
+    assertTrue(Float.isNaN(reflex.getLastRangeCm()));
+  }
+
+  @Test
+  public void reflexPingsOnBoardClock() throws Exception {
+    final VirtualClock clock = new VirtualClock();
+    board.setClock(clock);
+    final SensorHistory history = new SensorHistory(16, 4, 10);
+    reflex.setRangeHistory(history);
+    when(mockInputPin.getState()).thenAnswer(new Answer<PinState>() {
+      private boolean high;
+
+      @Override
+      public PinState answer(final InvocationOnMock invocation) {
+        high = !high;
+        return high ? PinState.HIGH : PinState.LOW;
+      }
+    });
+
+    // Unit under test: the first ping runs at once, the rest as the clock reaches them
+    reflex.start();
+    assertEquals(1, history.getRawSize());
+    clock.advance(TimeUnit.MICROSECONDS.toNanos(999));
+    assertEquals(1, history.getRawSize());
+    clock.advance(TimeUnit.MICROSECONDS.toNanos(1));
+    assertEquals(2, history.getRawSize());
+    reflex.stop();
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(5));
+
+    // Verify results
+    assertEquals(2, history.getRawSize());
+    assertFalse(reflex.isRunning());
+  }
+}
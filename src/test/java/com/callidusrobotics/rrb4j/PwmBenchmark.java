@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.RaspiGpioProvider;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.RaspiPinNumberingScheme;
+
+/**
+ * Compares the CPU cost of wiringPi SoftPwm with <code>PwmEngine</code>, and
+ * reports the edge jitter of the engine.
+ * <p>
+ * Usage, from the project directory after <code>mvn test-compile</code>:
+ *
+ * <pre>
+ * sudo java -cp target/test-classes:target/classes:$CLASSPATH com.callidusrobotics.rrb4j.PwmBenchmark MODE [CHANNELS] [SECONDS]
+ * </pre>
+ *
+ * where MODE is <code>softpwm</code> or <code>engine</code> to drive real pins
+ * on a Raspberry Pi, or <code>dry</code> to run the engine against no-op pins
+ * on any machine. Channels use spare BCM pins starting at GPIO 5.
+ */
+public final class PwmBenchmark {
+  private static final Pin[] PINS = {
+    RaspiPin.GPIO_05, RaspiPin.GPIO_06, RaspiPin.GPIO_12, RaspiPin.GPIO_13,
+    RaspiPin.GPIO_16, RaspiPin.GPIO_19, RaspiPin.GPIO_20, RaspiPin.GPIO_26
+  };
+
+  private PwmBenchmark() {
+    // Command line entry point only
+  }
+
+  public static void main(final String[] args) throws InterruptedException {
+    final String mode = args.length > 0 ? args[0] : "dry";
+    final int channels = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    final PwmDriver driver;
+    PwmEngine engine = null;
+    if ("softpwm".equals(mode)) {
+      GpioFactory.setDefaultProvider(new RaspiGpioProvider(RaspiPinNumberingScheme.BROADCOM_PIN_NUMBERING));
+      com.pi4j.wiringpi.Gpio.wiringPiSetupGpio();
+      driver = SoftPwmDriver.INSTANCE;
+    } else {
+      final GpioController gpio;
+      if ("engine".equals(mode)) {
+        GpioFactory.setDefaultProvider(new RaspiGpioProvider(RaspiPinNumberingScheme.BROADCOM_PIN_NUMBERING));
+        gpio = GpioFactory.getInstance();
+      } else {
+        gpio = noOpController();
+      }
+
+      engine = new PwmEngine(gpio);
+      driver = engine;
+    }
+
+    for (int i = 0; i < channels; i++) {
+      driver.create(PINS[i]);
+      driver.write(PINS[i], 10 + 80 * i / Math.max(1, channels - 1));
+    }
+
+    final com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    final long cpuStart = os.getProcessCpuTime();
+    final long engineCpuStart = engine == null ? 0 : engine.getCpuTimeNanos();
+    if (engine != null) {
+      engine.getJitterStats().reset();
+    }
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+
+    final double processCpu = (os.getProcessCpuTime() - cpuStart) / (seconds * 1e9);
+    System.out.printf("mode=%s channels=%d process CPU=%.1f%% of one core%n", mode, channels, 100 * processCpu);
+    if (engine != null) {
+      final double engineCpu = (engine.getCpuTimeNanos() - engineCpuStart) / (seconds * 1e9);
+      System.out.printf("engine thread CPU=%.1f%% of one core, edge jitter: %s%n", 100 * engineCpu, engine.getJitterStats());
+      engine.shutdown();
+    } else {
+      for (int i = 0; i < channels; i++) {
+        driver.stop(PINS[i]);
+      }
+    }
+  }
+
+  // GPIO controller whose output pins ignore every call
+  private static GpioController noOpController() {
+    return (GpioController) Proxy.newProxyInstance(PwmBenchmark.class.getClassLoader(), new Class<?>[] {GpioController.class},
+        (proxy, method, methodArgs) -> "provisionDigitalOutputPin".equals(method.getName()) ? noOpPin() : null);
+  }
+
+  private static GpioPinDigitalOutput noOpPin() {
+    return (GpioPinDigitalOutput) Proxy.newProxyInstance(PwmBenchmark.class.getClassLoader(), new Class<?>[] {GpioPinDigitalOutput.class},
+        (proxy, method, methodArgs) -> {
+          switch (method.getName()) {
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == methodArgs[0];
+            default:
+              return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+          }
+        });
+  }
+}
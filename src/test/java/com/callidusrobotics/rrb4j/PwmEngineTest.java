@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PwmEngineTest {
+  PwmEngine engine;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalOutput mockPin1;
+  @Mock GpioPinDigitalOutput mockPin2;
+  @Mock GpioPinDigitalOutput mockPin3;
+  @Mock GpioPinDigitalOutput mockLedPin;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(2);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_24, "PWM24", PinState.LOW)).thenReturn(mockPin1);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_14, "PWM14", PinState.LOW)).thenReturn(mockPin2);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_05, "PWM5", PinState.LOW)).thenReturn(mockPin3);
+    doReturn(mockLedPin).when(mockGpio).getProvisionedPin(RaspiPin.GPIO_08);
+
+    engine = new PwmEngine(mockGpio, 100, 100);
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    engine.shutdown();
+  }
+
+  static GpioPinDigitalOutput[] pulsed(final PwmEngine.Schedule schedule) {
+    return Arrays.copyOf(schedule.pulsed, schedule.pulsedCount);
+  }
+
+  static GpioPinDigitalOutput[] steadyHigh(final PwmEngine.Schedule schedule) {
+    return Arrays.copyOf(schedule.steadyHigh, schedule.highCount);
+  }
+
+  static GpioPinDigitalOutput[] steadyLow(final PwmEngine.Schedule schedule) {
+    return Arrays.copyOf(schedule.steadyLow, schedule.lowCount);
+  }
+
+  @Test
+  public void scheduleSortedByFallingEdge() {
+    engine.create(RaspiPin.GPIO_24);
+    engine.create(RaspiPin.GPIO_14);
+    engine.create(RaspiPin.GPIO_05);
+
+    // Unit under test
+    engine.write(RaspiPin.GPIO_24, 75);
+    engine.write(RaspiPin.GPIO_14, 25);
+    engine.write(RaspiPin.GPIO_05, 100);
+
+    // Verify results
+    final PwmEngine.Schedule schedule = engine.getSchedule();
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockPin2, mockPin1}, pulsed(schedule));
+    assertArrayEquals(new long[] {2_500_000L, 7_500_000L}, Arrays.copyOf(schedule.fallNanos, schedule.pulsedCount));
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockPin3}, steadyHigh(schedule));
+    assertEquals(0, schedule.lowCount);
+  }
+
+  @Test
+  public void unchangedDutyKeepsSchedule() {
+    engine.create(RaspiPin.GPIO_24);
+    engine.write(RaspiPin.GPIO_24, 40);
+    final PwmEngine.Schedule schedule = engine.getSchedule();
+
+    // Unit under test
+    engine.write(RaspiPin.GPIO_24, 40);
+
+    // Verify results
+    assertSame(schedule, engine.getSchedule());
+  }
+
+  @Test
+  public void changedDutyReusesBuffers() {
+    engine.create(RaspiPin.GPIO_24);
+    final Set<PwmEngine.Schedule> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // Unit under test: whether the engine thread swaps between writes is up to the scheduler
+    for (int duty = 1; duty < 100; duty++) {
+      engine.write(RaspiPin.GPIO_24, duty);
+      seen.add(engine.getSchedule());
+    }
+
+    // Verify results: only the pending and active schedules are ever used
+    final PwmEngine.Schedule last = engine.getSchedule();
+    seen.add(last);
+    assertTrue(seen.size() <= 2);
+    assertArrayEquals(new long[] {9_900_000L}, Arrays.copyOf(last.fallNanos, last.pulsedCount));
+  }
+
+  @Test
+  public void driverRangeScaledToResolution() throws InterruptedException {
+    engine.shutdown();
+    engine = new PwmEngine(mockGpio, 50, 1000);
+    engine.create(RaspiPin.GPIO_24);
+
+    // Unit under test
+    engine.write(RaspiPin.GPIO_24, 50);
+    final long halfPeriod = engine.getSchedule().fallNanos[0];
+    engine.writeSteps(RaspiPin.GPIO_24, 1);
+    final long oneStep = engine.getSchedule().fallNanos[0];
+
+    // Verify results
+    assertEquals(engine.getPeriodNanos() / 2, halfPeriod);
+    assertEquals(20_000L, oneStep);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void writeBeforeCreate() {
+    // Unit under test
+    engine.write(RaspiPin.GPIO_24, 50);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void resolutionTooFine() {
+    // Unit under test
+    new PwmEngine(mockGpio, 1000, 10000);
+  }
+
+  @Test
+  public void provisionedPinIsReused() {
+    // Unit under test
+    engine.create(RaspiPin.GPIO_08);
+    engine.write(RaspiPin.GPIO_08, 100);
+
+    // Verify results
+    verify(mockGpio, never()).provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class));
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockLedPin}, steadyHigh(engine.getSchedule()));
+  }
+
+  @Test
+  public void timingThreadGeneratesPulses() throws InterruptedException {
+    engine.create(RaspiPin.GPIO_24);
+    engine.create(RaspiPin.GPIO_14);
+
+    // Unit under test
+    engine.write(RaspiPin.GPIO_24, 30);
+    engine.write(RaspiPin.GPIO_14, 60);
+    while (engine.getJitterStats().getCount() < 10) {
+      Thread.sleep(5);
+    }
+
+    // Verify results
+    verify(mockPin1, atLeast(5)).setState(PinState.HIGH);
+    verify(mockPin1, atLeast(5)).setState(PinState.LOW);
+    verify(mockPin2, atLeast(5)).setState(PinState.HIGH);
+    verify(mockPin2, atLeast(5)).setState(PinState.LOW);
+    assertTrue(engine.getCpuTimeNanos() != 0);
+  }
+
+  @Test
+  public void stoppedPinDrivenLow() throws InterruptedException {
+    engine.create(RaspiPin.GPIO_24);
+    engine.write(RaspiPin.GPIO_24, 100);
+
+    // Unit under test
+    engine.stop(RaspiPin.GPIO_24);
+    engine.shutdown();
+
+    // Verify results
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockPin1}, steadyLow(engine.getSchedule()));
+    verify(mockPin1, atLeastOnce()).setState(PinState.LOW);
+  }
+
+  @Test
+  public void boardUsesEngineForMotors() {
+    final GpioPinDigitalOutput mockOutputPin = mock(GpioPinDigitalOutput.class);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mock(GpioPinDigitalInput.class));
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mock(GpioPinDigitalInput.class));
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), eq(PinState.LOW))).thenReturn(mockOutputPin);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_24, "PWM24", PinState.LOW)).thenReturn(mockPin1);
+    when(mockGpio.provisionDigitalOutputPin(RaspiPin.GPIO_14, "PWM14", PinState.LOW)).thenReturn(mockPin2);
+    final RasPiRobot3 board = new RasPiRobot3(mockGpio, 6.0f, 6.0f);
+    board.setPwmDriver(engine);
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Verify results
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockPin1}, pulsed(engine.getSchedule()));
+    assertArrayEquals(new GpioPinDigitalOutput[] {mockPin2}, steadyHigh(engine.getSchedule()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void driverFixedOnceMotorsStarted() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mock(GpioPinDigitalInput.class));
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), eq(PinState.LOW))).thenReturn(mock(GpioPinDigitalOutput.class));
+    final RasPiRobot3 board = spy(new RasPiRobot3(mockGpio));
+    doNothing().when(board).softPwmCreate(isA(Pin.class));
+    doNothing().when(board).softPwmWrite(isA(Pin.class), anyInt());
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.setPwmDriver(engine);
+  }
+}
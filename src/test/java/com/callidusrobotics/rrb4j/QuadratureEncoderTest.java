@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QuadratureEncoderTest {
+  static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  QuadratureEncoder encoder;
+
+  @Mock GpioPinDigitalInput mockPinA;
+  @Mock GpioPinDigitalInput mockPinB;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  @Before
+  public void before() {
+    // Both channels start low; 100 ms window of 10 slices
+    encoder = new QuadratureEncoder(mockPinA, mockPinB, 100, 10);
+
+    verify(mockPinA).addListener(encoder);
+    verify(mockPinB).addListener(encoder);
+  }
+
+  // Emits whole quadrature cycles, one edge every edgeNanos starting at startNanos
+  private long emitCycles(final int cycles, final boolean forward, final long startNanos, final long edgeNanos) {
+    final int lead = forward ? QuadratureEncoder.CHANNEL_A : QuadratureEncoder.CHANNEL_B;
+    final int lag = forward ? QuadratureEncoder.CHANNEL_B : QuadratureEncoder.CHANNEL_A;
+
+    long time = startNanos;
+    for (int i = 0; i < cycles; i++) {
+      encoder.edge(lead, true, time);
+      encoder.edge(lag, true, time += edgeNanos);
+      encoder.edge(lead, false, time += edgeNanos);
+      encoder.edge(lag, false, time += edgeNanos);
+      time += edgeNanos;
+    }
+
+    return time;
+  }
+
+  @Test
+  public void countsForward() {
+    // Unit under test
+    emitCycles(1000, true, 0, 1);
+
+    // Verify results
+    assertEquals(4000, encoder.getTicks());
+    assertEquals(0, encoder.getLostEdges());
+  }
+
+  @Test
+  public void countsReverse() {
+    emitCycles(10, true, 0, 1);
+
+    // Unit under test
+    emitCycles(25, false, 100, 1);
+
+    // Verify results
+    assertEquals(-60, encoder.getTicks());
+    assertEquals(0, encoder.getLostEdges());
+  }
+
+  @Test
+  public void countsInterruptEvents() {
+    // Unit under test
+    encoder.handleGpioPinDigitalStateChangeEvent(new GpioPinDigitalStateChangeEvent(mockPinA, mockPinA, PinState.HIGH));
+    encoder.handleGpioPinDigitalStateChangeEvent(new GpioPinDigitalStateChangeEvent(mockPinB, mockPinB, PinState.HIGH));
+
+    // Verify results
+    assertEquals(2, encoder.getTicks());
+  }
+
+  @Test
+  public void detectsLostEdge() {
+    encoder.edge(QuadratureEncoder.CHANNEL_A, true, 0);
+
+    // Unit under test: the falling edge of A was missed
+    encoder.edge(QuadratureEncoder.CHANNEL_A, true, 10);
+
+    // Verify results
+    assertEquals(1, encoder.getTicks());
+    assertEquals(1, encoder.getLostEdges());
+  }
+
+  @Test
+  public void velocityOverWindow() {
+    // 4000 ticks per second for 200 ms
+    final long end = emitCycles(200, true, 0, 250_000);
+
+    // Unit under test
+    final float velocity = encoder.getTicksPerSecond(end);
+
+    // Verify results
+    assertEquals(4000.0f, velocity, 1.0f);
+  }
+
+  @Test
+  public void velocityReverse() {
+    final long end = emitCycles(200, false, 0, 250_000);
+
+    // Unit under test
+    final float velocity = encoder.getTicksPerSecond(end);
+
+    // Verify results
+    assertEquals(-4000.0f, velocity, 1.0f);
+  }
+
+  @Test
+  public void velocityDecaysToZero() {
+    final long end = emitCycles(200, true, 0, 250_000);
+
+    // Unit under test
+    final float velocity = encoder.getTicksPerSecond(end + 200 * MS);
+
+    // Verify results
+    assertEquals(0.0f, velocity, 0.0f);
+  }
+
+  @Test
+  public void readsWhileDecodingAtHighRate() throws InterruptedException {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicBoolean monotonic = new AtomicBoolean(true);
+    final Thread reader = new Thread(() -> {
+      long last = 0;
+      while (running.get()) {
+        final long ticks = encoder.getTicks();
+        encoder.getTicksPerSecond();
+        if (ticks < last) {
+          monotonic.set(false);
+        }
+        last = ticks;
+      }
+    });
+    reader.start();
+
+    // Unit under test: one million edges as fast as the decoder accepts them
+    final long startTime = System.nanoTime();
+    for (int i = 0; i < 250_000; i++) {
+      encoder.edge(QuadratureEncoder.CHANNEL_A, true, System.nanoTime());
+      encoder.edge(QuadratureEncoder.CHANNEL_B, true, System.nanoTime());
+      encoder.edge(QuadratureEncoder.CHANNEL_A, false, System.nanoTime());
+      encoder.edge(QuadratureEncoder.CHANNEL_B, false, System.nanoTime());
+    }
+    final long elapsed = System.nanoTime() - startTime;
+
+    running.set(false);
+    reader.join();
+
+    // Verify results
+    assertEquals(1_000_000, encoder.getTicks());
+    assertEquals(0, encoder.getLostEdges());
+    assertTrue(monotonic.get());
+    assertTrue("Decoded " + 1_000_000 * TimeUnit.SECONDS.toNanos(1) / elapsed + " edges/s", elapsed < TimeUnit.SECONDS.toNanos(2));
+  }
+
+  @Test
+  public void closeRemovesListeners() {
+    // Unit under test
+    encoder.close();
+
+    // Verify results
+    verify(mockPinA).removeListener(encoder);
+    verify(mockPinB).removeListener(encoder);
+  }
+}
@@ -59,6 +59,7 @@ public class RasPiRobot3Rev1Test {
 
     // Verify constructor calls
     verify(mockGpio).provisionDigitalOutputPin(RaspiPin.GPIO_21, "OC2", PinState.LOW);
+    verify(mockGpio, never()).provisionDigitalOutputPin(RaspiPin.GPIO_27, "OC2", PinState.LOW);
   }
 
   @Test
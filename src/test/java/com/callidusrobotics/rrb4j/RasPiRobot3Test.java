@@ -24,6 +24,8 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -45,6 +47,7 @@ import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.PinPullResistance;
 import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.impl.GpioControllerImpl;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RasPiRobot3Test {
@@ -257,8 +260,8 @@ public class RasPiRobot3Test {
     // Verify results
     verify(board).softPwmCreate(RaspiPin.GPIO_24);
     verify(board).softPwmCreate(RaspiPin.GPIO_14);
-    verify(board).softPwmWrite(RaspiPin.GPIO_24, 0);
-    verify(board).softPwmWrite(RaspiPin.GPIO_14, 0);
+    verify(board, never()).softPwmWrite(RaspiPin.GPIO_24, 0);
+    verify(board, never()).softPwmWrite(RaspiPin.GPIO_14, 0);
     verify(board).softPwmWrite(RaspiPin.GPIO_24, (int) (100 * board.pwmScale));
     verify(board).softPwmWrite(RaspiPin.GPIO_14, (int) (100 * board.pwmScale));
 
@@ -302,8 +305,8 @@ public class RasPiRobot3Test {
     // Verify results
     verify(board).softPwmCreate(RaspiPin.GPIO_24);
     verify(board).softPwmCreate(RaspiPin.GPIO_14);
-    verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_24, 0);
-    verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_14, 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, 0);
+    verify(board).softPwmWrite(RaspiPin.GPIO_14, 0);
     verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_24, (int) (100 * board.pwmScale));
     verify(board, times(2)).softPwmWrite(RaspiPin.GPIO_14, (int) (100 * board.pwmScale));
 
@@ -456,6 +459,243 @@ public class RasPiRobot3Test {
     assertTrue(Float.isInfinite(estimatedDistCm));
   }
 
+  @Test
+  public void measureRange100Cm() {
+    final int durationMicros = 5877;
+
+    // Initialize mocks
+    when(mockEchoPin.getState()).thenReturn(PinState.LOW).thenReturn(PinState.HIGH).thenReturn(PinState.LOW);
+    doReturn(0L).doReturn(0L).doReturn(0L).doReturn(durationMicros * 1000L).when(board).currentTimeNanos();
+    final RangeReading reading = new RangeReading();
+
+    // Unit under test
+    assertSame(reading, board.measureRange(reading));
+
+    // Verify results
+    assertEquals(RangeReading.VALID, reading.getStatus());
+    assertEquals(100.0f, reading.getDistanceCm(), 0.1f);
+    assertEquals(durationMicros * 1000L, reading.getPulseNanos());
+  }
+
+  @Test
+  public void measureRangeBelowMinimum() {
+    // 2 * 1 cm / speed of sound = 58.773 microseconds
+    final int durationMicros = 59;
+
+    // Initialize mocks
+    when(mockEchoPin.getState()).thenReturn(PinState.LOW).thenReturn(PinState.HIGH).thenReturn(PinState.LOW);
+    doReturn(0L).doReturn(0L).doReturn(0L).doReturn(durationMicros * 1000L).when(board).currentTimeNanos();
+
+    // Unit under test
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertEquals(RangeReading.BELOW_MINIMUM, reading.getStatus());
+    assertEquals(1.0f, reading.getDistanceCm(), 0.1f);
+  }
+
+  @Test
+  public void measureRangeNotConnected() {
+    // Initialize mocks
+    when(mockEchoPin.getState()).thenReturn(PinState.LOW);
+    doReturn(0L).doReturn(RasPiRobotBoard.ECHO_DELAY_MICROS * 1000L).when(board).currentTimeNanos();
+
+    // Unit under test
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertEquals(RangeReading.NOT_CONNECTED, reading.getStatus());
+    assertTrue(Float.isNaN(reading.getDistanceCm()));
+    assertEquals(0L, reading.getPulseNanos());
+  }
+
+  @Test
+  public void measureRangeOutOfRange() {
+    // Initialize mocks
+    when(mockEchoPin.getState()).thenReturn(PinState.LOW).thenReturn(PinState.HIGH);
+    doReturn(0L).doReturn(0L).doReturn(0L).doReturn(0L).doReturn(RasPiRobotBoard.MAX_PULSE_MICROS * 1000L).when(board).currentTimeNanos();
+
+    // Unit under test
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertEquals(RangeReading.OUT_OF_RANGE, reading.getStatus());
+    assertEquals(Float.POSITIVE_INFINITY, reading.getDistanceCm(), 0.0f);
+    assertFalse(reading.isValid());
+  }
+
+  @Test
+  public void measureRangeOnVirtualClock() {
+    final VirtualClock clock = new VirtualClock();
+    board.setClock(clock);
+    doCallRealMethod().when(board).delayMicroseconds(Matchers.anyLong());
+
+    // Each poll of the echo pin takes a microsecond; the echo starts 450 us after the trigger and lasts 5877 us
+    clock.setAutoAdvance(1000L);
+    final PinState[] echo = {PinState.LOW};
+    when(mockEchoPin.getState()).thenAnswer(invocation -> echo[0]);
+    doAnswer(invocation -> {
+      clock.schedule(450_000L, () -> echo[0] = PinState.HIGH);
+      clock.schedule(450_000L + 5_877_000L, () -> echo[0] = PinState.LOW);
+      return null;
+    }).when(mockTriggerPin).setState(PinState.LOW);
+
+    // Unit under test
+    final long start = clock.peekNanos();
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertEquals(RangeReading.VALID, reading.getStatus());
+    assertEquals(5_877_000L, reading.getPulseNanos(), 2000L);
+    assertEquals(100.0f, reading.getDistanceCm(), 0.1f);
+    assertEquals(10_000L + 450_000L + 5_877_000L, clock.peekNanos() - start, 5000L);
+  }
+
+  @Test
+  public void setMotorsDeadTimeOnVirtualClock() {
+    final VirtualClock clock = new VirtualClock();
+    board.setClock(clock);
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+
+    // Unit under test
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    final long forwardNanos = clock.peekNanos();
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+    final long sameDirectionNanos = clock.peekNanos();
+    board.setMotors(1.0f, MotorDirection.REVERSE, 1.0f, MotorDirection.FORWARD);
+
+    // Verify results
+    assertEquals(forwardNanos, sameDirectionNanos);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(RasPiRobotBoard.HB_DELAY_MILLIS), clock.peekNanos() - sameDirectionNanos);
+  }
+
+  @Test
+  public void concurrentSetMotorsLeavesPhasesMatchingDirections() throws InterruptedException {
+    final SimulatedGpioProvider provider = new SimulatedGpioProvider();
+    final RasPiRobot3 simulated = new RasPiRobot3(new GpioControllerImpl(provider));
+    final PwmEngine pwm = new PwmEngine(simulated.gpio);
+    simulated.setPwmDriver(pwm);
+    simulated.setClock(new VirtualClock());
+
+    // Unit under test: each thread keeps reversing one motor or the other
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final MotorDirection m1Direction = i % 2 == 0 ? MotorDirection.FORWARD : MotorDirection.REVERSE;
+      final MotorDirection m2Direction = i < 2 ? MotorDirection.FORWARD : MotorDirection.REVERSE;
+      threads[i] = new Thread(() -> {
+        for (int j = 0; j < 500; j++) {
+          simulated.setMotors(0.5f, m1Direction, 0.5f, m2Direction);
+          simulated.setMotors(0.5f, m2Direction, 0.5f, m1Direction);
+        }
+      });
+      threads[i].setUncaughtExceptionHandler((thread, e) -> failure.set(e));
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    pwm.shutdown();
+
+    // Verify results
+    assertNull(failure.get());
+    final boolean m1Reverse = simulated.m1Direction == MotorDirection.REVERSE;
+    final boolean m2Reverse = simulated.m2Direction == MotorDirection.REVERSE;
+    assertEquals(m1Reverse, provider.getState(PinMap.RRB3.get(PinMap.Role.M1_PHASE1)).isHigh());
+    assertEquals(!m1Reverse, provider.getState(PinMap.RRB3.get(PinMap.Role.M1_PHASE2)).isHigh());
+    assertEquals(m2Reverse, provider.getState(PinMap.RRB3.get(PinMap.Role.M2_PHASE1)).isHigh());
+    assertEquals(!m2Reverse, provider.getState(PinMap.RRB3.get(PinMap.Role.M2_PHASE2)).isHigh());
+  }
+
+  @Test
+  public void setMotorsIdleTimeoutReleasesPwm() throws InterruptedException {
+    // Initialize mocks
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).softPwmStop(Matchers.any(Pin.class));
+    board.setMotorIdleTimeout(20);
+
+    // Unit under test
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    board.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+
+    // Verify results
+    verify(board, timeout(500)).softPwmStop(RaspiPin.GPIO_24);
+    verify(board, timeout(500)).softPwmStop(RaspiPin.GPIO_14);
+    assertFalse(board.isMotorPwmActive());
+
+    // Unit under test
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Verify results
+    assertTrue(board.isMotorPwmActive());
+    verify(board, times(2)).softPwmCreate(RaspiPin.GPIO_24);
+    verify(board, times(2)).softPwmCreate(RaspiPin.GPIO_14);
+    verify(board).softPwmWrite(RaspiPin.GPIO_24, (int) (50 * board.pwmScale));
+    verify(board).softPwmWrite(RaspiPin.GPIO_14, (int) (50 * board.pwmScale));
+
+    board.setMotorIdleTimeout(0);
+  }
+
+  @Test
+  public void setMotorsZeroAfterIdleReleaseLeavesPwmStopped() throws InterruptedException {
+    // Initialize mocks
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).softPwmStop(Matchers.any(Pin.class));
+    board.setMotorIdleTimeout(20);
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    board.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    verify(board, timeout(500)).softPwmStop(RaspiPin.GPIO_14);
+
+    // Unit under test
+    board.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    board.setMotors(0.0f, MotorDirection.REVERSE, 0.0f, MotorDirection.REVERSE);
+
+    // Verify results
+    assertFalse(board.isMotorPwmActive());
+    verify(board, times(1)).softPwmCreate(RaspiPin.GPIO_24);
+    verify(board, times(1)).softPwmCreate(RaspiPin.GPIO_14);
+
+    board.setMotorIdleTimeout(0);
+  }
+
+  @Test
+  public void setMotorsIdleTimeoutCancelledByCommand() throws InterruptedException {
+    // Initialize mocks
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).softPwmStop(Matchers.any(Pin.class));
+    board.setMotorIdleTimeout(20);
+
+    // Unit under test
+    board.setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.FORWARD);
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+    Thread.sleep(100);
+
+    // Verify results
+    verify(board, never()).softPwmStop(Matchers.any(Pin.class));
+    assertTrue(board.isMotorPwmActive());
+
+    board.setMotorIdleTimeout(0);
+  }
+
+  @Test
+  public void shutdownReleasesPwm() {
+    // Initialize mocks
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).softPwmStop(Matchers.any(Pin.class));
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.shutdown();
+
+    // Verify results
+    verify(board).softPwmStop(RaspiPin.GPIO_24);
+    verify(board).softPwmStop(RaspiPin.GPIO_14);
+    assertFalse(board.isMotorPwmActive());
+    verify(mockGpio).shutdown();
+  }
+
   @Test
   public void shutdownSuccess() {
     // Unit under test
@@ -464,4 +704,30 @@ public class RasPiRobot3Test {
     // Verify results
     verify(mockGpio).shutdown();
   }
+
+  @Test
+  public void enableEncodersProvisionsInputs() {
+    // Initialize mocks
+    final GpioPinDigitalInput mockEncoderPin = mock(GpioPinDigitalInput.class);
+    when(mockGpio.provisionDigitalInputPin(Matchers.any(Pin.class), Matchers.anyString(), Matchers.eq(PinPullResistance.PULL_UP))).thenReturn(mockEncoderPin);
+
+    // Unit under test
+    board.enableEncoders();
+    board.enableEncoders();
+
+    // Verify results
+    verify(mockGpio).provisionDigitalInputPin(RaspiPin.GPIO_16, "Encoder1A", PinPullResistance.PULL_UP);
+    verify(mockGpio).provisionDigitalInputPin(RaspiPin.GPIO_19, "Encoder1B", PinPullResistance.PULL_UP);
+    verify(mockGpio).provisionDigitalInputPin(RaspiPin.GPIO_20, "Encoder2A", PinPullResistance.PULL_UP);
+    verify(mockGpio).provisionDigitalInputPin(RaspiPin.GPIO_26, "Encoder2B", PinPullResistance.PULL_UP);
+    verify(mockEncoderPin, times(4)).addListener(Matchers.any(QuadratureEncoder.class));
+    assertEquals(0, board.getEncoder1().getTicks());
+    assertEquals(0, board.getEncoder2().getTicks());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void getEncoderNotEnabled() {
+    // Unit under test
+    board.getEncoder1();
+  }
 }
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.callidusrobotics.rrb4j.ScriptRunner.Status;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScriptRunnerTest {
+  RasPiRobot3 board;
+  ScriptRunner runner;
+  ByteArrayOutputStream output;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(2);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+
+    board = spy(new RasPiRobot3(mockGpio, 6.0f, 6.0f));
+
+    doNothing().when(board).softPwmCreate(Matchers.any(Pin.class));
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).delayMicroseconds(Matchers.anyLong());
+
+    output = new ByteArrayOutputStream();
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    if (runner != null) {
+      runner.cancel();
+    }
+  }
+
+  private ScriptRunner newRunner(final String text) {
+    runner = new ScriptRunner(board, MotionScript.parse(text), new PrintStream(output, true));
+    return runner;
+  }
+
+  private String printed() {
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void playsStepsAtOffsets() throws InterruptedException {
+    newRunner("0 led1 on\n+20 motors 0.5 F 0.5 R\n+20 print hello\n+20 end\n");
+
+    // Unit under test
+    final long startTime = System.nanoTime();
+    runner.start();
+    final Status status = runner.await();
+    final long elapsed = System.nanoTime() - startTime;
+
+    // Verify results
+    assertEquals(Status.COMPLETED, status);
+    assertEquals(4, runner.getCompletedSteps());
+    assertEquals(4, runner.getLatenessStats().getCount());
+    assertTrue(runner.getLatenessNanos(3) >= 0);
+    assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(60));
+    assertEquals("hello" + System.lineSeparator(), printed());
+
+    final InOrder inOrder = inOrder(board);
+    inOrder.verify(board).setOutput(BoardOutput.LED1, true);
+    inOrder.verify(board).setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.REVERSE);
+    verify(board, never()).stopMotors();
+  }
+
+  @Test
+  public void virtualClockPlaysStepsOnTime() throws InterruptedException {
+    final VirtualClock clock = new VirtualClock();
+    board.setClock(clock);
+    newRunner("0 led1 on\n+20 print hello\n+20 end\n");
+
+    // Unit under test
+    runner.start();
+    final int stepsAtStart = runner.getCompletedSteps();
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(20) - 1);
+    final int stepsBeforeOffset = runner.getCompletedSteps();
+    clock.advance(1);
+    final String printedAtOffset = printed();
+    clock.advance(TimeUnit.MILLISECONDS.toNanos(20));
+
+    // Verify results
+    assertEquals(1, stepsAtStart);
+    assertEquals(1, stepsBeforeOffset);
+    assertEquals("hello" + System.lineSeparator(), printedAtOffset);
+    assertEquals(Status.COMPLETED, runner.getStatus());
+    assertEquals(3, runner.getCompletedSteps());
+    assertEquals(0, runner.getLatenessStats().getMaxNanos());
+    verify(board).setOutput(BoardOutput.LED1, true);
+  }
+
+  @Test
+  public void waitShiftsLaterSteps() throws InterruptedException {
+    when(mockInputPin.isLow()).thenReturn(false, false, false, false, false, true);
+    newRunner("0 wait switch1 closed 1000\n+0 led1 on\n");
+
+    // Unit under test
+    runner.start();
+    final Status status = runner.await();
+
+    // Verify results
+    assertEquals(Status.COMPLETED, status);
+    verify(mockInputPin, times(6)).isLow();
+    verify(board).setOutput(BoardOutput.LED1, true);
+
+    // The step after the wait is scheduled from the end of the wait, not the start of the script
+    assertTrue(runner.getLatenessNanos(1) < TimeUnit.MILLISECONDS.toNanos(25));
+  }
+
+  @Test
+  public void waitTimeoutStopsMotors() throws InterruptedException {
+    when(mockInputPin.isLow()).thenReturn(false);
+    newRunner("0 motors 0.5 F 0.5 F\n+0 wait switch1 closed 30\n+0 led1 on\n");
+
+    // Unit under test
+    runner.start();
+    final Status status = runner.await();
+
+    // Verify results
+    assertEquals(Status.TIMED_OUT, status);
+    assertEquals(1, runner.getCompletedSteps());
+    verify(board).stopMotors();
+    verify(board, never()).setOutput(BoardOutput.LED1, true);
+  }
+
+  @Test
+  public void cancelStopsMotors() throws InterruptedException {
+    newRunner("0 motors 0.5 F 0.5 F\n10000 end\n");
+    runner.start();
+
+    // Unit under test
+    runner.cancel();
+
+    // Verify results
+    assertEquals(Status.CANCELLED, runner.getStatus());
+    assertFalse(runner.isRunning());
+    verify(board).stopMotors();
+  }
+
+  @Test
+  public void stopStepCommandsZeroSpeed() throws InterruptedException {
+    newRunner("0 motors 0.5 F 0.5 R\n+0 stop\n");
+
+    // Unit under test
+    runner.start();
+    final Status status = runner.await();
+
+    // Verify results
+    assertEquals(Status.COMPLETED, status);
+    final InOrder inOrder = inOrder(board);
+    inOrder.verify(board).setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.REVERSE);
+    inOrder.verify(board).setMotors(0.0f, MotorDirection.FORWARD, 0.0f, MotorDirection.REVERSE);
+    verify(board, never()).stopMotors();
+  }
+
+  @Test
+  public void printExpandsReadings() throws InterruptedException {
+    when(mockInputPin.isLow()).thenReturn(true);
+    newRunner("0 print Switches: {switch1} {switch2}\n");
+
+    // Unit under test
+    runner.start();
+    runner.await();
+
+    // Verify results
+    assertEquals("Switches: closed closed" + System.lineSeparator(), printed());
+  }
+
+  @Test
+  public void failingStepFailsScript() throws InterruptedException {
+    final IllegalStateException error = new IllegalStateException("Board has been shut down");
+    doThrow(error).when(board).setOutput(BoardOutput.LED1, true);
+    newRunner("0 led1 on\n");
+
+    // Unit under test
+    runner.start();
+    final Status status = runner.await();
+
+    // Verify results
+    assertEquals(Status.FAILED, status);
+    assertSame(error, runner.getFailure());
+    verify(board).stopMotors();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void startTwice() {
+    newRunner("0 end\n");
+    runner.start();
+
+    // Unit under test
+    runner.start();
+  }
+}
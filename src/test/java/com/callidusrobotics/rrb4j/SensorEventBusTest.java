@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.callidusrobotics.rrb4j.SensorEvent.Type;
+import com.callidusrobotics.rrb4j.SensorEventBus.OverflowPolicy;
+import com.callidusrobotics.rrb4j.SensorEventBus.Subscription;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.GpioPinListener;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
+public class SensorEventBusTest {
+  static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+  VirtualBoard board = new VirtualBoard(100.0f, 0.0f, 0.0f, 0.0f);
+  SensorEventBus bus;
+  SensorEvent event = new SensorEvent();
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  @After
+  public void after() throws InterruptedException {
+    bus.stop();
+    board.shutdown();
+  }
+
+  @Test
+  public void publishesSwitchEdges() throws InterruptedException {
+    bus = new SensorEventBus(board, 16, OverflowPolicy.BLOCK, 0);
+    final Subscription subscription = bus.subscribe();
+
+    // Unit under test: pi4j dispatches edges on a shared executor, so deliver them directly
+    bus.start();
+    assertEquals(1, board.switch1Pin.getListeners().size());
+    assertEquals(1, board.switch2Pin.getListeners().size());
+    edge(board.switch1Pin, PinState.LOW);
+    edge(board.switch2Pin, PinState.LOW);
+    edge(board.switch1Pin, PinState.HIGH);
+    bus.stop();
+
+    // Verify results
+    assertTrue(board.switch1Pin.getListeners().isEmpty());
+    assertTrue(board.switch2Pin.getListeners().isEmpty());
+
+    final String[] expected = {"#0 switch1 closed", "#1 switch2 closed", "#2 switch1 open"};
+    for (final String text : expected) {
+      assertTrue(subscription.take(event, 0));
+      assertEquals(text, event.toString());
+    }
+    assertFalse(subscription.take(event, 0));
+  }
+
+  @Test
+  public void samplesRangefinder() throws InterruptedException {
+    bus = new SensorEventBus(board, 16, OverflowPolicy.DROP_OLDEST, 5);
+    final Subscription subscription = bus.subscribe();
+
+    // Unit under test
+    bus.start();
+
+    // Verify results: the board faces the wall from the centre of the arena
+    assertTrue(subscription.take(event, 1000));
+    assertEquals(Type.RANGE, event.getType());
+    assertEquals(100.0f, event.getValue(), 0.01f);
+    assertEquals(0, event.getTimeNanos());
+    assertFalse(subscription.poll(event));
+
+    // The next reading falls due on the board's clock
+    board.advance(4 * MILLISECOND);
+    assertFalse(subscription.poll(event));
+    board.advance(MILLISECOND);
+    assertTrue(subscription.poll(event));
+    assertEquals(5 * MILLISECOND, event.getTimeNanos());
+  }
+
+  @Test
+  public void stopReleasesBlockedSampler() throws InterruptedException {
+    bus = new SensorEventBus(board, 1, OverflowPolicy.BLOCK, 5);
+    bus.subscribe();
+    bus.start();
+
+    // Unit under test: the second reading waits for room that never comes
+    final Thread sampler = new Thread(() -> board.advance(5 * MILLISECOND));
+    sampler.start();
+    sampler.join(100);
+    assertTrue(sampler.isAlive());
+    bus.stop();
+    sampler.join();
+
+    // Verify results
+    assertFalse(bus.isRunning());
+    assertEquals(1, bus.getPublishedCount());
+  }
+
+  @Test
+  public void publishesThresholdCrossingsWithHysteresis() {
+    bus = new SensorEventBus(board, 16, OverflowPolicy.BLOCK, 0);
+    assertEquals(0, bus.addRangeThreshold(30.0f));
+    assertEquals(1, bus.addRangeThreshold(10.0f));
+    final Subscription subscription = bus.subscribe();
+
+    // Unit under test
+    bus.publishRange(50.0f, 0);
+    bus.publishRange(25.0f, 1);
+    bus.publishRange(31.0f, 2);
+    bus.publishRange(Float.NaN, 3);
+    bus.publishRange(5.0f, 4);
+    bus.publishRange(33.0f, 5);
+
+    // Verify results
+    final String[] expected = {
+      "#0 range 50.0 cm",
+      "#1 range 25.0 cm",
+      "#2 threshold0 below 25.0 cm",
+      "#3 range 31.0 cm",
+      "#4 range NaN cm",
+      "#5 range 5.0 cm",
+      "#6 threshold1 below 5.0 cm",
+      "#7 range 33.0 cm",
+      "#8 threshold0 above 33.0 cm",
+      "#9 threshold1 above 33.0 cm"
+    };
+    for (final String text : expected) {
+      assertTrue(subscription.poll(event));
+      assertEquals(text, event.toString());
+    }
+    assertFalse(subscription.poll(event));
+  }
+
+  @Test
+  public void addingThresholdKeepsExistingCrossings() {
+    bus = new SensorEventBus(board, 16, OverflowPolicy.BLOCK, 0);
+    bus.addRangeThreshold(30.0f);
+    bus.publishRange(25.0f, 0);
+    final Subscription subscription = bus.subscribe();
+
+    // Unit under test
+    assertEquals(1, bus.addRangeThreshold(10.0f));
+    bus.publishRange(20.0f, 1);
+
+    // Verify results: threshold 0 is still below and does not cross again
+    assertTrue(subscription.poll(event));
+    assertEquals("#2 range 20.0 cm", event.toString());
+    assertFalse(subscription.poll(event));
+  }
+
+  @Test
+  public void everySubscriptionSeesTheWholeStream() {
+    bus = new SensorEventBus(board, 4, OverflowPolicy.BLOCK, 0);
+    final Subscription first = bus.subscribe();
+    final Subscription second = bus.subscribe();
+
+    // Unit under test
+    bus.publishRange(1.0f, 0);
+    bus.publishSwitch(2, true);
+
+    // Verify results
+    for (final Subscription subscription : new Subscription[] {first, second}) {
+      assertEquals(2, subscription.getBacklog());
+      assertTrue(subscription.poll(event));
+      assertEquals(Type.RANGE, event.getType());
+      assertTrue(subscription.poll(event));
+      assertEquals(Type.SWITCH, event.getType());
+      assertEquals(2, event.getSource());
+      assertFalse(subscription.poll(event));
+    }
+  }
+
+  @Test
+  public void dropsOldestForSlowSubscriptions() {
+    bus = new SensorEventBus(board, 4, OverflowPolicy.DROP_OLDEST, 0);
+    final Subscription slow = bus.subscribe();
+    final Subscription fast = bus.subscribe();
+
+    // Unit under test
+    for (int i = 0; i < 10; i++) {
+      bus.publishRange(i, i);
+      assertTrue(fast.poll(event));
+    }
+
+    // Verify results
+    assertEquals(10, bus.getPublishedCount());
+    assertEquals(0, fast.getDroppedCount());
+    assertEquals(6, slow.getDroppedCount());
+    assertEquals(4, slow.getBacklog());
+    assertTrue(slow.poll(event));
+    assertEquals(6, event.getSequence());
+    assertEquals(6.0f, event.getValue(), 0.0f);
+  }
+
+  @Test
+  public void coalescesUntakenRangeReadings() {
+    bus = new SensorEventBus(board, 2, OverflowPolicy.COALESCE, 0);
+    final Subscription subscription = bus.subscribe();
+
+    // Unit under test
+    bus.publishSwitch(1, true);
+    bus.publishRange(10.0f, 1);
+    bus.publishRange(20.0f, 2);
+    bus.publishRange(30.0f, 3);
+
+    // Verify results
+    assertEquals(2, bus.getPublishedCount());
+    assertEquals(2, bus.getCoalescedCount());
+    assertTrue(subscription.poll(event));
+    assertEquals(Type.SWITCH, event.getType());
+    assertTrue(subscription.poll(event));
+    assertEquals(30.0f, event.getValue(), 0.0f);
+    assertEquals(3, event.getTimeNanos());
+    assertFalse(subscription.poll(event));
+  }
+
+  @Test
+  public void blocksUntilSlowestSubscriptionTakes() throws InterruptedException {
+    bus = new SensorEventBus(board, 1, OverflowPolicy.BLOCK, 0);
+    final Subscription subscription = bus.subscribe();
+    bus.publishRange(1.0f, 0);
+
+    // Unit under test
+    final Thread publisher = new Thread(() -> bus.publishRange(2.0f, 1));
+    publisher.start();
+    publisher.join(100);
+    assertTrue(publisher.isAlive());
+    assertTrue(subscription.poll(event));
+    publisher.join();
+
+    // Verify results
+    assertTrue(subscription.poll(event));
+    assertEquals(2.0f, event.getValue(), 0.0f);
+  }
+
+  @Test
+  public void measuresDelay() {
+    bus = new SensorEventBus(board, 4, OverflowPolicy.BLOCK, 0);
+    final Subscription subscription = bus.subscribe();
+    bus.publishRange(1.0f, board.currentTimeNanos());
+
+    // Unit under test
+    board.advance(3 * MILLISECOND);
+    assertTrue(subscription.poll(event));
+
+    // Verify results
+    assertEquals(1, subscription.getDelayStats().getCount());
+    assertEquals(3 * MILLISECOND, subscription.getDelayStats().getLastNanos());
+  }
+
+  @Test
+  public void closeReleasesPublishers() {
+    bus = new SensorEventBus(board, 1, OverflowPolicy.BLOCK, 0);
+    final Subscription subscription = bus.subscribe();
+    bus.publishRange(1.0f, 0);
+
+    // Unit under test
+    subscription.close();
+    bus.publishRange(2.0f, 1);
+
+    // Verify results
+    assertEquals(2, bus.getPublishedCount());
+    assertFalse(subscription.poll(event));
+    assertEquals(0, subscription.getBacklog());
+  }
+
+  private static void edge(final GpioPinDigitalInput pin, final PinState state) {
+    for (final GpioPinListener listener : pin.getListeners()) {
+      ((GpioPinListenerDigital) listener).handleGpioPinDigitalStateChangeEvent(new GpioPinDigitalStateChangeEvent(pin, pin, state));
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.callidusrobotics.rrb4j.SensorHistory.Aggregate;
+
+public class SensorHistoryTest {
+  static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  SensorHistory history;
+  Aggregate result;
+
+  @Before
+  public void before() {
+    // 10 raw readings, 8 buckets each of 100 ms and 1 s
+    history = new SensorHistory(10, 8, 100, 1000);
+    result = new Aggregate();
+  }
+
+  // One reading every 10 ms with values 0, 1, 2, ...
+  private void recordReadings(final int count) {
+    for (int i = 0; i < count; i++) {
+      history.record(i * 10 * MS, i);
+    }
+  }
+
+  @Test
+  public void aggregateRawWindow() {
+    recordReadings(5);
+
+    // Unit under test
+    history.aggregate(10 * MS, 30 * MS, result);
+
+    // Verify results
+    assertEquals(3, result.getCount());
+    assertEquals(1.0f, result.getMin(), 0.0f);
+    assertEquals(3.0f, result.getMax(), 0.0f);
+    assertEquals(2.0f, result.getMean(), 0.0001f);
+    assertEquals(0, result.getResolutionNanos());
+  }
+
+  @Test
+  public void aggregateLatestWindow() {
+    recordReadings(5);
+
+    // Unit under test
+    history.aggregateLatest(15 * MS, result);
+
+    // Verify results
+    assertEquals(2, result.getCount());
+    assertEquals(3.0f, result.getMin(), 0.0f);
+    assertEquals(4.0f, result.getMax(), 0.0f);
+  }
+
+  @Test
+  public void aggregateEmptyWindow() {
+    // Unit under test
+    history.aggregate(0, 100 * MS, result);
+
+    // Verify results
+    assertEquals(0, result.getCount());
+    assertTrue(Float.isNaN(result.getMin()));
+    assertTrue(Float.isNaN(result.getMean()));
+  }
+
+  @Test
+  public void nanIsNotRecorded() {
+    history.record(0, 5.0f);
+
+    // Unit under test
+    history.record(10 * MS, Float.NaN);
+
+    // Verify results
+    assertEquals(1, history.getRawSize());
+    assertEquals(5.0f, history.aggregate(0, 10 * MS, result).getMean(), 0.0f);
+  }
+
+  @Test
+  public void aggregateFallsBackToBuckets() {
+    // 500 ms of readings overflows the raw ring but not the 100 ms buckets
+    recordReadings(50);
+
+    // Unit under test
+    history.aggregate(0, 490 * MS, result);
+
+    // Verify results
+    assertEquals(100 * MS, result.getResolutionNanos());
+    assertEquals(50, result.getCount());
+    assertEquals(0.0f, result.getMin(), 0.0f);
+    assertEquals(49.0f, result.getMax(), 0.0f);
+    assertEquals(24.5f, result.getMean(), 0.0001f);
+  }
+
+  @Test
+  public void aggregateFallsBackToCoarsestBuckets() {
+    // 2 s of readings overflows the 100 ms buckets
+    recordReadings(200);
+
+    // Unit under test
+    history.aggregate(0, 1990 * MS, result);
+
+    // Verify results
+    assertEquals(1000 * MS, result.getResolutionNanos());
+    assertEquals(200, result.getCount());
+    assertEquals(0.0f, result.getMin(), 0.0f);
+    assertEquals(199.0f, result.getMax(), 0.0f);
+  }
+
+  @Test
+  public void wrappedWindowsMatchScan() {
+    // Enough readings to wrap both rings several times, with values that are not monotonic
+    final SensorHistory wrapped = new SensorHistory(16, 8, 40);
+    for (int i = 0; i < 100; i++) {
+      wrapped.record(i * 10 * MS, (i * 37) % 23);
+    }
+
+    // Unit under test: every window inside the raw ring, which holds readings 84 to 99
+    for (int from = 84; from <= 99; from++) {
+      for (int to = from; to <= 99; to++) {
+        wrapped.aggregate(from * 10 * MS, to * 10 * MS, result);
+
+        // Verify results
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        double sum = 0.0;
+        for (int i = from; i <= to; i++) {
+          min = Math.min(min, (i * 37) % 23);
+          max = Math.max(max, (i * 37) % 23);
+          sum += (i * 37) % 23;
+        }
+        assertEquals(to - from + 1, result.getCount());
+        assertEquals(min, result.getMin(), 0.0f);
+        assertEquals(max, result.getMax(), 0.0f);
+        assertEquals(sum / (to - from + 1), result.getMean(), 0.0001f);
+      }
+    }
+
+    // Unit under test: the bucket ring holds readings 68 to 99, in buckets of four
+    wrapped.aggregate(680 * MS, 990 * MS, result);
+
+    // Verify results
+    float min = Float.MAX_VALUE;
+    float max = -Float.MAX_VALUE;
+    for (int i = 68; i <= 99; i++) {
+      min = Math.min(min, (i * 37) % 23);
+      max = Math.max(max, (i * 37) % 23);
+    }
+    assertEquals(40 * MS, result.getResolutionNanos());
+    assertEquals(32, result.getCount());
+    assertEquals(min, result.getMin(), 0.0f);
+    assertEquals(max, result.getMax(), 0.0f);
+  }
+
+  @Test
+  public void bucketWindowRoundsDown() {
+    recordReadings(50);
+
+    // Unit under test
+    history.aggregate(250 * MS, 490 * MS, result);
+
+    // Verify results: the 200 ms bucket overlaps the window and is included whole
+    assertEquals(30, result.getCount());
+    assertEquals(20.0f, result.getMin(), 0.0f);
+  }
+
+  @Test
+  public void forEachBucketOldestFirst() {
+    recordReadings(30);
+    final float[] means = new float[3];
+    final long[] starts = new long[3];
+    final int[] visited = new int[1];
+
+    // Unit under test
+    final int count = history.forEachBucket(0, 100 * MS, (startNanos, min, max, mean, readings) -> {
+      starts[visited[0]] = startNanos;
+      means[visited[0]] = mean;
+      visited[0]++;
+      assertEquals(10, readings);
+    });
+
+    // Verify results
+    assertEquals(2, count);
+    assertEquals(100 * MS, starts[0]);
+    assertEquals(14.5f, means[0], 0.0001f);
+    assertEquals(200 * MS, starts[1]);
+    assertEquals(24.5f, means[1], 0.0001f);
+  }
+
+  @Test
+  public void memoryIsFixed() {
+    final long bytes = history.getMemoryBytes();
+
+    // Unit under test
+    recordReadings(1000);
+
+    // Verify results
+    assertEquals(bytes, history.getMemoryBytes());
+    assertEquals(10, history.getRawSize());
+  }
+
+  @Test
+  public void clearDiscardsReadings() {
+    recordReadings(50);
+
+    // Unit under test
+    history.clear();
+
+    // Verify results
+    assertEquals(0, history.getRawSize());
+    assertEquals(0, history.aggregate(0, 490 * MS, result).getCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void recordOutOfOrder() {
+    history.record(10 * MS, 1.0f);
+
+    // Unit under test
+    history.record(0, 1.0f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void widthsMustNest() {
+    // Unit under test
+    new SensorHistory(10, 8, 100, 250);
+  }
+}
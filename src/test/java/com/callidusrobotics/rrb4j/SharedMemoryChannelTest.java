@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+public class SharedMemoryChannelTest {
+  // The channel polls on the board's virtual clock, so the tests advance the board to run it
+  static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  VirtualBoard board = new VirtualBoard(100.0f, 0.0f, 0.0f, 0.0f);
+  SharedMemoryState state = new SharedMemoryState();
+  SharedMemoryChannel channel;
+  SharedMemoryClient client;
+  Path path;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  @Rule public Timeout globalTimeout = Timeout.seconds(30);
+
+  @Before
+  public void before() throws IOException {
+    path = folder.getRoot().toPath().resolve("rrb4j.shm");
+    channel = new SharedMemoryChannel(board, path, 8, 100, 5);
+    channel.start();
+    client = SharedMemoryClient.open(path);
+  }
+
+  @After
+  public void after() throws InterruptedException, IOException {
+    client.close();
+    channel.stop();
+    board.shutdown();
+  }
+
+  // Reads the state until it has caught up with every command sent
+  void awaitCommands(final int count) {
+    while (!client.readState(state) || state.getAppliedCount() + state.getRejectedCount() < count) {
+      board.advance(POLL_NANOS);
+    }
+  }
+
+  @Test
+  public void appliesMotorCommands() {
+    // Unit under test
+    assertTrue(client.sendMotors(0.5f, -1.0f));
+    awaitCommands(1);
+
+    // Verify results
+    assertEquals(33, board.getM1AppliedDuty());
+    assertEquals(MotorDirection.FORWARD, board.m1Direction);
+    assertEquals(MotorDirection.REVERSE, board.m2Direction);
+    assertEquals(33, state.getM1Duty());
+    assertEquals(-board.getM2AppliedDuty(), state.getM2Duty());
+    assertEquals(1, state.getAppliedCount());
+  }
+
+  @Test
+  public void appliesOutputCommands() {
+    // Unit under test
+    client.sendOutput(BoardOutput.LED2, true);
+    client.sendOutput(BoardOutput.OC1, true);
+    client.sendOutput(BoardOutput.OC1, false);
+    awaitCommands(3);
+
+    // Verify results
+    assertTrue(board.getOutputPin(BoardOutput.LED2).isHigh());
+    assertTrue(state.isOutputOn(BoardOutput.LED2));
+    assertFalse(state.isOutputOn(BoardOutput.OC1));
+    assertFalse(state.isOutputOn(BoardOutput.LED1));
+  }
+
+  @Test
+  public void rejectsInvalidCommands() {
+    // Unit under test
+    client.send(SharedMemoryChannel.OP_MOTORS, 0, Float.NaN, 0.0f);
+    client.send(SharedMemoryChannel.OP_OUTPUT, 7, 1.0f, 0.0f);
+    client.send(99, 0, 0.0f, 0.0f);
+    awaitCommands(3);
+
+    // Verify results
+    assertEquals(0, state.getAppliedCount());
+    assertEquals(3, state.getRejectedCount());
+    assertEquals(0, board.getM1AppliedDuty());
+  }
+
+  @Test
+  public void publishesRange() {
+    channel.setRangeSource(() -> 42.5);
+
+    // Unit under test
+    while (!client.readState(state) || state.getRangeCm() != 42.5f) {
+      board.advance(POLL_NANOS);
+    }
+
+    // Verify results
+    assertEquals(42.5f, state.getRangeCm(), 0.0f);
+    assertFalse(state.isSwitch1Closed());
+  }
+
+  @Test
+  public void refusesCommandsWhenFull() throws InterruptedException, IOException {
+    channel.stop();
+
+    // Unit under test
+    for (int i = 0; i < channel.getCapacity(); i++) {
+      assertTrue(client.sendOutput(BoardOutput.LED1, true));
+    }
+
+    // Verify results
+    assertFalse(client.sendOutput(BoardOutput.LED1, true));
+    assertEquals(channel.getCapacity(), client.getBacklog());
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsForeignFile() throws IOException {
+    final Path foreign = folder.newFile().toPath();
+    Files.write(foreign, new byte[SharedMemoryChannel.fileSize(8)]);
+
+    // Unit under test
+    SharedMemoryClient.open(foreign);
+  }
+
+  @Test
+  public void servesClientInAnotherJvm() throws IOException, InterruptedException {
+    final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), SharedMemoryChannelTest.class.getName(), path.toString())
+        .redirectOutput(new File(folder.getRoot(), "client.out")).redirectErrorStream(true).start();
+
+    // Unit under test
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while (!process.waitFor(1, TimeUnit.MILLISECONDS)) {
+      assertTrue(System.nanoTime() < deadline);
+      board.advance(POLL_NANOS);
+    }
+
+    // Verify results
+    assertEquals(new String(Files.readAllBytes(folder.getRoot().toPath().resolve("client.out")), "UTF-8"), 0, process.exitValue());
+    assertEquals(33, board.getM1AppliedDuty());
+    assertEquals(MotorDirection.REVERSE, board.m2Direction);
+    assertTrue(board.getOutputPin(BoardOutput.LED1).isHigh());
+  }
+
+  /**
+   * Client half of {@link #servesClientInAnotherJvm()}: commands the board and
+   * waits to see the commands applied.
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    final SharedMemoryState reply = new SharedMemoryState();
+    try (SharedMemoryClient remote = SharedMemoryClient.open(Paths.get(args[0]))) {
+      remote.sendMotors(0.5f, -0.5f);
+      remote.sendOutput(BoardOutput.LED1, true);
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!remote.readState(reply) || reply.getM1Duty() != 33 || reply.getM2Duty() != -33 || !reply.isOutputOn(BoardOutput.LED1)) {
+        if (System.nanoTime() > deadline) {
+          System.out.println("Commands not applied: " + reply);
+          System.exit(1);
+        }
+        Thread.sleep(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SpeedControllerTest {
+  RasPiRobot3 board;
+  SpeedController controller;
+
+  @Mock GpioController mockGpio;
+  @Mock GpioPinDigitalInput mockInputPin;
+  @Mock GpioPinDigitalOutput mockOutputPin;
+  @Mock VelocitySource mockM1Source;
+  @Mock VelocitySource mockM2Source;
+  @Mock CommandListener mockListener;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(2);
+
+  @Before
+  public void before() {
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalInputPin(isA(Pin.class), isA(String.class), isA(PinPullResistance.class))).thenReturn(mockInputPin);
+    when(mockGpio.provisionDigitalOutputPin(isA(Pin.class), isA(String.class), isA(PinState.class))).thenReturn(mockOutputPin);
+
+    // Unity voltage ratio so that speeds map directly onto duty cycles
+    board = spy(new RasPiRobot3(mockGpio, 6.0f, 6.0f));
+
+    doNothing().when(board).softPwmCreate(Matchers.any(Pin.class));
+    doNothing().when(board).softPwmWrite(Matchers.any(Pin.class), Matchers.anyInt());
+    doNothing().when(board).delayMicroseconds(Matchers.anyLong());
+    board.addCommandListener(mockListener);
+
+    // Full duty at 1000 ticks/s
+    controller = new SpeedController(board, mockM1Source, mockM2Source, new PidGains(0.0f, 0.0f, 0.0f, 0.001f), 5);
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    controller.stop();
+  }
+
+  @Test
+  public void feedForward() {
+    controller.setTargets(500.0f, 250.0f);
+
+    // Unit under test
+    controller.update(0.02f);
+
+    // Verify results
+    verify(mockListener).motorsCommanded(50, MotorDirection.FORWARD, 25, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void proportional() {
+    controller.setGains(new PidGains(0.001f, 0.0f, 0.0f, 0.0f));
+    controller.setTargets(500.0f, -500.0f);
+    when(mockM1Source.getTicksPerSecond()).thenReturn(300.0f);
+    when(mockM2Source.getTicksPerSecond()).thenReturn(-400.0f);
+
+    // Unit under test
+    controller.update(0.02f);
+
+    // Verify results
+    assertEquals(0.2f, controller.getM1Duty(), 0.0001f);
+    assertEquals(0.1f, controller.getM2Duty(), 0.0001f);
+    verify(mockListener).motorsCommanded(20, MotorDirection.FORWARD, 10, MotorDirection.REVERSE);
+  }
+
+  @Test
+  public void integralRemovesSteadyStateError() {
+    // Feed-forward alone would reach 500 ticks/s, but load slows the wheel to 400
+    controller.setGains(new PidGains(0.0f, 0.001f, 0.0f, 0.001f));
+    controller.setTargets(500.0f, 0.0f);
+    when(mockM1Source.getTicksPerSecond()).thenReturn(400.0f);
+
+    // Unit under test
+    controller.update(1.0f);
+    controller.update(1.0f);
+
+    // Verify results
+    assertEquals(0.7f, controller.getM1Duty(), 0.0001f);
+  }
+
+  @Test
+  public void integralDoesNotWindUp() {
+    // Stalled motor saturates the output
+    controller.setGains(new PidGains(0.0f, 1.0f, 0.0f, 0.0f));
+    controller.setTargets(500.0f, 0.0f);
+    when(mockM1Source.getTicksPerSecond()).thenReturn(0.0f);
+    for (int i = 0; i < 100; i++) {
+      controller.update(0.1f);
+    }
+    assertEquals(1.0f, controller.getM1Duty(), 0.0f);
+
+    // Unit under test: the wheel breaks free and overshoots
+    when(mockM1Source.getTicksPerSecond()).thenReturn(600.0f);
+    controller.update(0.1f);
+
+    // Verify results
+    assertEquals(0.0f, controller.getM1Duty(), 0.0f);
+  }
+
+  @Test
+  public void derivativeOpposesAcceleration() {
+    controller.setGains(new PidGains(0.0f, 0.0f, 0.0001f, 0.001f));
+    controller.setTargets(500.0f, 0.0f);
+    when(mockM1Source.getTicksPerSecond()).thenReturn(0.0f).thenReturn(100.0f);
+    controller.update(0.1f);
+
+    // Unit under test: 1000 ticks/s^2 of acceleration
+    controller.update(0.1f);
+
+    // Verify results
+    assertEquals(0.4f, controller.getM1Duty(), 0.0001f);
+  }
+
+  @Test
+  public void zeroTargetStopsMotor() {
+    controller.setGains(new PidGains(0.001f, 0.001f, 0.0f, 0.001f));
+    controller.setTargets(0.0f, 0.0f);
+    when(mockM1Source.getTicksPerSecond()).thenReturn(100.0f);
+
+    // Unit under test
+    controller.update(0.02f);
+
+    // Verify results
+    verify(mockListener).motorsCommanded(0, MotorDirection.FORWARD, 0, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void loopRunsAndAcceptsNewGains() throws InterruptedException {
+    controller.setTargets(500.0f, 500.0f);
+
+    // Unit under test
+    controller.start();
+    verify(mockListener, timeout(500).atLeastOnce()).motorsCommanded(50, MotorDirection.FORWARD, 50, MotorDirection.FORWARD);
+    controller.setGains(new PidGains(0.0f, 0.0f, 0.0f, 0.002f));
+    verify(mockListener, timeout(500).atLeastOnce()).motorsCommanded(100, MotorDirection.FORWARD, 100, MotorDirection.FORWARD);
+    controller.stop();
+
+    // Verify results
+    assertFalse(controller.isRunning());
+    assertTrue(controller.getLoopStats().getCount() > 0);
+    assertEquals(controller.getLoopStats().getCount(), controller.getLatenessStats().getCount());
+    verify(board).commandStop();
+    verify(board, never()).stopMotors();
+    verify(mockListener).motorsCommanded(0, MotorDirection.FORWARD, 0, MotorDirection.FORWARD);
+  }
+
+  @Test
+  public void loopRunsOnBoardClock() throws InterruptedException {
+    final long millisecond = TimeUnit.MILLISECONDS.toNanos(1);
+    final VirtualClock clock = new VirtualClock();
+    // So that the dead time of the first command does not shift the schedule
+    clock.setInstantWaits(true);
+    board.setClock(clock);
+    controller.setTargets(500.0f, 500.0f);
+
+    // Unit under test
+    controller.start();
+    verify(mockListener, never()).motorsCommanded(anyInt(), Matchers.any(MotorDirection.class), anyInt(), Matchers.any(MotorDirection.class));
+    clock.advance(5 * millisecond);
+    verify(mockListener).motorsCommanded(50, MotorDirection.FORWARD, 50, MotorDirection.FORWARD);
+    clock.advance(4 * millisecond);
+    verify(mockListener).motorsCommanded(50, MotorDirection.FORWARD, 50, MotorDirection.FORWARD);
+    clock.advance(millisecond);
+
+    // Verify results
+    verify(mockListener, times(2)).motorsCommanded(50, MotorDirection.FORWARD, 50, MotorDirection.FORWARD);
+    assertEquals(2, controller.getLoopStats().getCount());
+    assertEquals(0, controller.getLatenessStats().getMaxNanos());
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the time from process launch to the first <code>setMotors()</code>
+ * call for the JVM jar, the JVM jar with class-data sharing, and the native
+ * image, all running <code>StartupProbe</code> on a simulated GPIO controller.
+ * <p>
+ * Usage, from the project directory after <code>mvn package</code> (and
+ * <code>mvn -Pnative package</code> with GraalVM for the native image):
+ *
+ * <pre>
+ * java -cp target/test-classes com.callidusrobotics.rrb4j.StartupBenchmark [RUNS]
+ * </pre>
+ *
+ * The JVM runs use the <code>java</code> launcher of the JVM running the
+ * benchmark. The CDS run first archives the classes loaded by one probe run,
+ * which needs Java 10 or later. Modes whose artifacts are missing are
+ * skipped.
+ */
+public final class StartupBenchmark {
+  private static final String PROBE = "com.callidusrobotics.rrb4j.StartupProbe";
+  private static final File TARGET = new File("target");
+
+  private StartupBenchmark() {
+    // Command line entry point only
+  }
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    final int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+    final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+    final File jar = findJar();
+    final File nativeImage = new File(TARGET, "rrb4j-startup-probe");
+
+    if (jar == null) {
+      System.out.println("jvm: skipped, run mvn package first");
+    } else {
+      report("jvm", runs, java, "-cp", jar.getPath(), PROBE);
+      final String[] cds = cdsCommand(java, jar);
+      if (cds == null) {
+        System.out.println("jvm+cds: skipped, application class-data sharing needs Java 10 or later");
+      } else {
+        report("jvm+cds", runs, cds);
+      }
+    }
+
+    if (nativeImage.canExecute()) {
+      report("native", runs, nativeImage.getPath());
+    } else {
+      System.out.println("native: skipped, run mvn -Pnative package with GraalVM first");
+    }
+  }
+
+  private static File findJar() {
+    final File[] jars = TARGET.listFiles((dir, name) -> name.endsWith("-jar-with-dependencies.jar"));
+    return jars == null || jars.length == 0 ? null : jars[0];
+  }
+
+  // Command line for a run with application class-data sharing, or null if the JVM does not support it
+  private static String[] cdsCommand(final String java, final File jar) throws IOException, InterruptedException {
+    final int version = Integer.parseInt(System.getProperty("java.specification.version").replaceFirst("^1\\.", ""));
+    final String archive = new File(TARGET, "rrb4j-startup.jsa").getPath();
+
+    if (version >= 13) {
+      launch(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", jar.getPath(), PROBE);
+    } else if (version >= 10) {
+      final String classList = new File(TARGET, "rrb4j-startup.classlist").getPath();
+      launch(java, "-XX:DumpLoadedClassList=" + classList, "-cp", jar.getPath(), PROBE);
+      dump(java, "-Xshare:dump", "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + archive, "-cp", jar.getPath());
+    } else {
+      return null;
+    }
+
+    return new String[] {java, "-Xshare:on", "-XX:SharedArchiveFile=" + archive, "-cp", jar.getPath(), PROBE};
+  }
+
+  private static void dump(final String... command) throws IOException, InterruptedException {
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+    if (process.waitFor() != 0) {
+      throw new IOException("Failed to create class-data archive: " + Arrays.toString(command));
+    }
+  }
+
+  private static void report(final String mode, final int runs, final String... command) throws IOException, InterruptedException {
+    final List<Long> launchMillis = new ArrayList<>();
+    final List<Long> mainMillis = new ArrayList<>();
+    for (int i = 0; i < runs; i++) {
+      final long[] result = launch(command);
+      launchMillis.add(result[0]);
+      mainMillis.add(result[1]);
+    }
+
+    Collections.sort(launchMillis);
+    Collections.sort(mainMillis);
+    System.out.printf("%-8s first setMotors() after %5d ms from launch (%d ms from main), median of %d runs%n",
+        mode, launchMillis.get(runs / 2), mainMillis.get(runs / 2), runs);
+  }
+
+  // Runs the probe and returns the milliseconds from launch and from main() until it reported ready
+  private static long[] launch(final String... command) throws IOException, InterruptedException {
+    final long startNanos = System.nanoTime();
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+    long launchMillis = -1;
+    long mainMillis = -1;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      while (line != null) {
+        if (line.startsWith("READY ") && launchMillis < 0) {
+          launchMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+          mainMillis = Long.parseLong(line.substring("READY ".length()).trim());
+        }
+        line = reader.readLine();
+      }
+    }
+
+    if (process.waitFor() != 0 || launchMillis < 0) {
+      throw new IOException("Probe failed: " + Arrays.toString(command));
+    }
+
+    return new long[] {launchMillis, mainMillis};
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+/**
+ * Measures the aggregate throughput of a {@link SwarmSimulation} of wandering
+ * boards, serially and on every available processor.
+ * <p>
+ * Usage, from the project directory after <code>mvn test-compile</code>:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:$CLASSPATH com.callidusrobotics.rrb4j.SwarmBenchmark [BOARDS] [STEPS]
+ * </pre>
+ */
+public final class SwarmBenchmark {
+  private SwarmBenchmark() {
+    // Command line entry point only
+  }
+
+  public static void main(final String[] args) {
+    final int boardCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    final int steps = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    final int processors = Runtime.getRuntime().availableProcessors();
+
+    for (final int parallelism : new int[] {1, processors}) {
+      final long startTime = System.nanoTime();
+      try (SwarmSimulation swarm = new SwarmSimulation(boardCount, 20, 42L, parallelism, index -> SwarmSimulation.wander(0.5f, 30.0f))) {
+        final long setupMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        // Warm up, then measure a fresh run
+        swarm.run(steps / 10);
+        final long warmupSteps = swarm.getBoardSteps();
+        final long warmupNanos = swarm.getElapsedNanos();
+        swarm.run(steps);
+
+        final double rate = (swarm.getBoardSteps() - warmupSteps) * 1e9 / (swarm.getElapsedNanos() - warmupNanos);
+        System.out.printf("parallelism=%d boards=%d steps=%d setup=%d ms  %,.0f board-steps/s%n", parallelism, boardCount, steps, setupMillis, rate);
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+public class SwarmSimulationTest {
+  @Rule public Timeout globalTimeout = Timeout.seconds(30);
+
+  private static SwarmSimulation newSwarm(final int parallelism) {
+    return new SwarmSimulation(300, 20, 42L, parallelism, index -> SwarmSimulation.wander(0.5f, 30.0f));
+  }
+
+  @Test
+  public void deterministicAcrossParallelism() {
+    try (SwarmSimulation serial = newSwarm(1); SwarmSimulation parallel = newSwarm(4)) {
+      // Unit under test
+      serial.run(200);
+      parallel.run(200);
+
+      // Verify results
+      for (int i = 0; i < serial.getBoardCount(); i++) {
+        assertEquals(serial.getBoard(i).getX(), parallel.getBoard(i).getX(), 0.0f);
+        assertEquals(serial.getBoard(i).getY(), parallel.getBoard(i).getY(), 0.0f);
+        assertEquals(serial.getBoard(i).getHeading(), parallel.getBoard(i).getHeading(), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void advancesInLockStep() {
+    try (SwarmSimulation swarm = newSwarm(4)) {
+      // Unit under test
+      swarm.run(50);
+
+      // Verify results
+      for (int i = 0; i < swarm.getBoardCount(); i++) {
+        assertEquals(50 * 20_000_000L, swarm.getBoard(i).getTimeNanos());
+      }
+    }
+  }
+
+  @Test
+  public void reportsThroughput() {
+    try (SwarmSimulation swarm = newSwarm(2)) {
+      // Unit under test
+      swarm.run(10);
+
+      // Verify results
+      assertEquals(10, swarm.getSteps());
+      assertEquals(3000, swarm.getBoardSteps());
+      assertTrue(swarm.getElapsedNanos() > 0);
+      assertTrue(swarm.getBoardStepsPerSecond() > 0.0);
+    }
+  }
+
+  @Test
+  public void wanderersStayInArena() {
+    try (SwarmSimulation swarm = newSwarm(4)) {
+      // Unit under test: one simulated minute
+      swarm.run(3000);
+
+      // Verify results
+      for (int i = 0; i < swarm.getBoardCount(); i++) {
+        final VirtualBoard board = swarm.getBoard(i);
+        assertTrue(Math.hypot(board.getX(), board.getY()) < SwarmSimulation.ARENA_DEFAULT_CM);
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+
+public class TelemetryServerTest {
+  VirtualBoard board = new VirtualBoard(100.0f, 0.0f, 0.0f, 0.0f);
+  TelemetryServer server;
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(10);
+
+  @Before
+  public void before() throws IOException {
+    server = new TelemetryServer(board, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 5, 2);
+    server.start();
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    server.stop();
+    board.shutdown();
+  }
+
+  @Test
+  public void servesSnapshot() throws IOException, InterruptedException {
+    board.setMotors(0.5f, MotorDirection.FORWARD, 1.0f, MotorDirection.REVERSE);
+    board.setLed2(true);
+    server.setRangeSource(() -> 42.25f);
+
+    // Unit under test
+    String state = get("/state");
+    while (!state.contains("\"rangeCm\":42.3")) {
+      Thread.sleep(5);
+      state = get("/state");
+    }
+
+    // Verify results
+    assertTrue(state, state.startsWith("{\"sequence\":"));
+    assertTrue(state, state.endsWith(",\"m1Duty\":33,\"m1Direction\":\"FORWARD\",\"m2Duty\":66,\"m2Direction\":\"REVERSE\","
+        + "\"rangeCm\":42.3,\"switch1\":false,\"switch2\":false,\"led1\":false,\"led2\":true,\"oc1\":false,\"oc2\":false}"));
+  }
+
+  @Test
+  public void showsAppliedDuty() throws IOException, InterruptedException {
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.limitForwardDuty(10);
+    String state = get("/state");
+    while (!state.contains("\"m1Duty\":10,")) {
+      Thread.sleep(5);
+      state = get("/state");
+    }
+
+    // Verify results
+    assertTrue(state, state.contains("\"m2Duty\":10,"));
+    assertTrue(state, state.contains("\"rangeCm\":null,"));
+  }
+
+  @Test
+  public void streamsEvents() throws IOException {
+    final HttpURLConnection connection = open("/events");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("text/event-stream", connection.getContentType());
+
+    // Unit under test
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII))) {
+      final long first = sequenceOf(reader.readLine());
+      assertEquals("", reader.readLine());
+      final long second = sequenceOf(reader.readLine());
+
+      // Verify results
+      assertTrue(second > first);
+      assertEquals(1, server.getClientCount());
+    }
+  }
+
+  @Test
+  public void slowClientsDoNotHoldUpSampling() throws IOException, InterruptedException {
+    final HttpURLConnection stalled = open("/events");
+    assertEquals(200, stalled.getResponseCode());
+    final long samples = server.getSampleStats().getCount();
+
+    // Unit under test: the stalled client never reads
+    Thread.sleep(100);
+
+    // Verify results
+    assertTrue(server.getSampleStats().getCount() > samples + 5);
+    assertTrue(get("/state").startsWith("{"));
+    stalled.disconnect();
+  }
+
+  @Test
+  public void rejectsClientsBeyondMaximum() throws IOException {
+    final HttpURLConnection first = open("/events");
+    final HttpURLConnection second = open("/events");
+    assertEquals(200, first.getResponseCode());
+    assertEquals(200, second.getResponseCode());
+
+    // Unit under test
+    final HttpURLConnection third = open("/events");
+
+    // Verify results
+    assertEquals(503, third.getResponseCode());
+    first.disconnect();
+    second.disconnect();
+  }
+
+  @Test
+  public void servesPage() throws IOException {
+    // Unit under test
+    final String page = get("/");
+
+    // Verify results
+    assertTrue(page, page.contains("new EventSource('events')"));
+    assertEquals(404, open("/missing").getResponseCode());
+  }
+
+  @Test
+  public void stopEndsStreams() throws IOException, InterruptedException {
+    final HttpURLConnection connection = open("/events");
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII))) {
+      reader.readLine();
+
+      // Unit under test
+      server.stop();
+
+      // Verify results
+      String line = reader.readLine();
+      while (line != null) {
+        line = reader.readLine();
+      }
+      assertFalse(server.isRunning());
+      assertEquals(0, server.getPort());
+    }
+  }
+
+  HttpURLConnection open(final String path) throws IOException {
+    return (HttpURLConnection) new URL("http", "127.0.0.1", server.getPort(), path).openConnection();
+  }
+
+  String get(final String path) throws IOException {
+    final HttpURLConnection connection = open(path);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      final StringBuilder body = new StringBuilder();
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        body.append(line);
+      }
+      return body.toString();
+    }
+  }
+
+  static long sequenceOf(final String event) {
+    assertTrue(event, event.startsWith("data: {\"sequence\":"));
+
+    return Long.parseLong(event.substring(18, event.indexOf(',')));
+  }
+}
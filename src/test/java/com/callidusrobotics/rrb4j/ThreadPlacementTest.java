@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThreadPlacementTest {
+  static final String THREAD_NAME = "rrb4j-placement-test";
+
+  String startingCpus;
+
+  @Before
+  public void before() {
+    startingCpus = ThreadPlacement.currentAllowedCpus();
+  }
+
+  @After
+  public void after() {
+    ThreadPlacement.unassign(THREAD_NAME);
+  }
+
+  // Runs a task on a new thread so placements do not leak into the test runner
+  static <T> T runInThread(final Callable<T> task) throws InterruptedException, ExecutionException {
+    // Placement needs Linux's /proc
+    assumeTrue(ThreadPlacement.currentThreadId() > 0);
+
+    final FutureTask<T> future = new FutureTask<>(task);
+    final Thread thread = new Thread(future, THREAD_NAME);
+    thread.start();
+    thread.join();
+    return future.get();
+  }
+
+  @Test
+  public void pinsCurrentThread() throws Exception {
+    final ThreadPlacement placement = new ThreadPlacement(0, 0);
+
+    // Unit under test
+    final String allowed = runInThread(() -> placement.applyToCurrentThread() ? ThreadPlacement.currentAllowedCpus() : null);
+
+    // Verify results
+    assertEquals("0", allowed);
+  }
+
+  @Test
+  public void fallsBackWhenCpuMissing() throws Exception {
+    final ThreadPlacement placement = new ThreadPlacement(0, 4095);
+
+    // Unit under test
+    final String allowed = runInThread(() -> placement.applyToCurrentThread() ? null : ThreadPlacement.currentAllowedCpus());
+
+    // Verify results
+    assertEquals(startingCpus, allowed);
+  }
+
+  @Test
+  public void placesAssignedThreadByName() throws Exception {
+    ThreadPlacement.assign(THREAD_NAME, new ThreadPlacement(0, 0));
+
+    // Unit under test
+    final String allowed = runInThread(() -> {
+      ThreadPlacement.placeCurrentThread();
+      return ThreadPlacement.currentAllowedCpus();
+    });
+
+    // Verify results
+    assertEquals("0", allowed);
+  }
+
+  @Test
+  public void leavesUnassignedThreadAlone() throws Exception {
+    ThreadPlacement.assign("rrb4j-other-thread", new ThreadPlacement(0, 4095));
+
+    try {
+      // Unit under test
+      final String allowed = runInThread(() -> {
+        ThreadPlacement.placeCurrentThread();
+        return ThreadPlacement.currentAllowedCpus();
+      });
+
+      // Verify results
+      assertEquals(startingCpus, allowed);
+    } finally {
+      ThreadPlacement.unassign("rrb4j-other-thread");
+    }
+  }
+
+  @Test
+  public void describesPlacement() {
+    // Verify results
+    assertEquals("cpus=2,3 priority=fifo:50", new ThreadPlacement(50, 2, 3).toString());
+    assertEquals("cpus=any priority=default", new ThreadPlacement(0).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsPriorityAboveMax() {
+    // Unit under test
+    new ThreadPlacement(ThreadPlacement.PRIORITY_MAX + 1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeCpu() {
+    // Unit under test
+    new ThreadPlacement(0, -1);
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+  static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  TimerWheel wheel;
+  AtomicInteger fired;
+  TimerWheel.Timeout timeout;
+  long now;
+
+  @Before
+  public void before() {
+    wheel = new TimerWheel(BoardClock.SYSTEM, "test-wheel", 10, 8);
+    fired = new AtomicInteger();
+    timeout = wheel.newTimeout(fired::incrementAndGet);
+    now = 0;
+  }
+
+  // Advances the wheel by a number of ticks
+  void advance(final int ticks) {
+    for (int i = 0; i < ticks; i++) {
+      wheel.advance(now);
+      now += TICK_NANOS;
+    }
+  }
+
+  @Test
+  public void firesAfterDelay() {
+    // Unit under test
+    timeout.reset(now, 3 * TICK_NANOS);
+    advance(3);
+    final int firedEarly = fired.get();
+    advance(1);
+
+    // Verify results
+    assertEquals(0, firedEarly);
+    assertEquals(1, fired.get());
+    assertFalse(timeout.isArmed());
+  }
+
+  @Test
+  public void resetPushesBackDeadline() {
+    timeout.reset(now, 3 * TICK_NANOS);
+
+    // Unit under test
+    for (int i = 0; i < 20; i++) {
+      advance(1);
+      timeout.reset(now, 3 * TICK_NANOS);
+    }
+
+    // Verify results
+    assertEquals(0, fired.get());
+    assertTrue(timeout.isArmed());
+
+    advance(4);
+    assertEquals(1, fired.get());
+  }
+
+  @Test
+  public void cancelPreventsFiring() {
+    timeout.reset(now, 2 * TICK_NANOS);
+
+    // Unit under test
+    timeout.cancel();
+    advance(10);
+
+    // Verify results
+    assertEquals(0, fired.get());
+    assertFalse(timeout.isArmed());
+  }
+
+  @Test
+  public void resetAfterCancelRearms() {
+    timeout.reset(now, 2 * TICK_NANOS);
+    timeout.cancel();
+
+    // Unit under test
+    timeout.reset(now, 2 * TICK_NANOS);
+    advance(3);
+
+    // Verify results
+    assertEquals(1, fired.get());
+  }
+
+  @Test
+  public void rearmsAfterFiring() {
+    timeout.reset(now, TICK_NANOS);
+    advance(2);
+
+    // Unit under test
+    timeout.reset(now, TICK_NANOS);
+    advance(2);
+
+    // Verify results
+    assertEquals(2, fired.get());
+  }
+
+  @Test
+  public void delayLongerThanOneRevolution() {
+    // Unit under test: 8 buckets, 20 ticks
+    timeout.reset(now, 20 * TICK_NANOS);
+    advance(20);
+    final int firedEarly = fired.get();
+    advance(1);
+
+    // Verify results
+    assertEquals(0, firedEarly);
+    assertEquals(1, fired.get());
+  }
+
+  @Test
+  public void independentTimeouts() {
+    final AtomicInteger otherFired = new AtomicInteger();
+    final TimerWheel.Timeout other = wheel.newTimeout(otherFired::incrementAndGet);
+
+    // Unit under test
+    timeout.reset(now, 2 * TICK_NANOS);
+    other.reset(now, 5 * TICK_NANOS);
+    advance(3);
+    final int otherFiredEarly = otherFired.get();
+    advance(3);
+
+    // Verify results
+    assertEquals(1, fired.get());
+    assertEquals(0, otherFiredEarly);
+    assertEquals(1, otherFired.get());
+  }
+
+  @Test
+  public void failingTaskDoesNotStopWheel() {
+    final TimerWheel.Timeout failing = wheel.newTimeout(() -> {
+      throw new IllegalStateException("Task failure");
+    });
+
+    // Unit under test
+    failing.reset(now, TICK_NANOS);
+    timeout.reset(now, TICK_NANOS);
+    advance(2);
+
+    // Verify results
+    assertEquals(1, fired.get());
+  }
+
+  @Test(timeout = 1000)
+  public void workerThreadFires() throws Exception {
+    wheel.start();
+
+    // Unit under test
+    timeout.reset(System.nanoTime(), TICK_NANOS);
+    while (fired.get() == 0) {
+      Thread.sleep(1);
+    }
+    wheel.stop();
+
+    // Verify results
+    assertFalse(wheel.isRunning());
+  }
+
+  @Test
+  public void virtualClockDrivesWorker() throws Exception {
+    final VirtualClock clock = new VirtualClock();
+    final TimerWheel virtualWheel = new TimerWheel(clock, "test-wheel", 10, 8);
+    final TimerWheel.Timeout virtualTimeout = virtualWheel.newTimeout(fired::incrementAndGet);
+    virtualWheel.start();
+
+    // Unit under test
+    virtualTimeout.reset(3 * TICK_NANOS);
+    clock.advance(3 * TICK_NANOS - 1);
+    final int firedEarly = fired.get();
+    clock.advance(1);
+    virtualWheel.stop();
+
+    // Verify results
+    assertEquals(0, firedEarly);
+    assertEquals(1, fired.get());
+    assertFalse(virtualWheel.isRunning());
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.callidusrobotics.rrb4j.RasPiRobotBoard.MotorDirection;
+import com.pi4j.concurrent.ExecutorServiceFactory;
+import com.pi4j.io.gpio.GpioFactory;
+
+public class VirtualBoardTest {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  VirtualBoard board;
+
+  @After
+  public void after() {
+    board.shutdown();
+  }
+
+  @Test
+  public void drivesStraight() {
+    // Unity voltage ratio: full speed is full duty
+    board = new VirtualBoard(1000.0f, 0.0f, 0.0f, 0.0f);
+    board.setMotors(0.5f, MotorDirection.FORWARD, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.advance(SECOND);
+
+    // Verify results: the default voltages scale full speed down to 2/3 duty
+    final float expected = VirtualBoard.WHEEL_SPEED_CM_S * 33 / 100;
+    assertEquals(expected, board.getX(), 0.001f);
+    assertEquals(0.0f, board.getY(), 0.001f);
+    assertEquals(SECOND, board.getTimeNanos());
+    assertEquals(SECOND, board.currentTimeNanos());
+  }
+
+  @Test
+  public void spinsInPlace() {
+    board = new VirtualBoard(1000.0f, 0.0f, 0.0f, 0.0f);
+    board.setMotors(0.5f, MotorDirection.REVERSE, 0.5f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.advance(SECOND);
+
+    // Verify results
+    assertEquals(0.0f, board.getX(), 0.001f);
+    assertEquals(0.0f, board.getY(), 0.001f);
+    assertEquals(2 * VirtualBoard.WHEEL_SPEED_CM_S * 33 / 100 / VirtualBoard.WHEEL_BASE_CM, board.getHeading(), 0.001f);
+  }
+
+  @Test
+  public void measuresDistanceToWall() {
+    board = new VirtualBoard(100.0f, 50.0f, 0.0f, 0.0f);
+
+    // Unit under test
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertTrue(reading.isValid());
+    assertEquals(50.0f, reading.getDistanceCm(), 0.001f);
+  }
+
+  @Test
+  public void wallOutOfRange() {
+    board = new VirtualBoard(1000.0f, 0.0f, 0.0f, (float) Math.PI);
+
+    // Unit under test
+    final RangeReading reading = board.measureRange(new RangeReading());
+
+    // Verify results
+    assertEquals(RangeReading.OUT_OF_RANGE, reading.getStatus());
+  }
+
+  @Test
+  public void wallPressesBumper() {
+    board = new VirtualBoard(100.0f, 90.0f, 0.0f, 0.0f);
+    assertFalse(board.switch1Closed());
+    assertFalse(board.switch2Closed());
+    board.setMotors(1.0f, MotorDirection.FORWARD, 1.0f, MotorDirection.FORWARD);
+
+    // Unit under test
+    board.advance(SECOND);
+
+    // Verify results
+    assertTrue(board.switch1Closed());
+    assertTrue(Math.hypot(board.getX(), board.getY()) < 100.0);
+
+    // Backing away releases the bumper
+    board.setMotors(1.0f, MotorDirection.REVERSE, 1.0f, MotorDirection.REVERSE);
+    board.advance(SECOND);
+    assertFalse(board.switch1Closed());
+  }
+
+  @Test
+  public void registersNoShutdownHook() throws ReflectiveOperationException {
+    final int hooks = shutdownHookCount();
+
+    // Unit under test
+    for (int i = 0; i < 10; i++) {
+      board = new VirtualBoard(100.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    // Verify results
+    assertEquals(hooks, shutdownHookCount());
+  }
+
+  @Test
+  public void shutdownLeavesSharedExecutorsRunning() {
+    final ExecutorServiceFactory executors = GpioFactory.getExecutorServiceFactory();
+    final ExecutorServiceFactory mockExecutors = mock(ExecutorServiceFactory.class);
+    GpioFactory.setExecutorServiceFactory(mockExecutors);
+    board = new VirtualBoard(100.0f, 0.0f, 0.0f, 0.0f);
+
+    // Unit under test
+    try {
+      board.shutdown();
+    } finally {
+      GpioFactory.setExecutorServiceFactory(executors);
+    }
+
+    // Verify results
+    assertTrue(board.gpio.isShutdown());
+    verify(mockExecutors, never()).shutdown();
+  }
+
+  static int shutdownHookCount() throws ReflectiveOperationException {
+    final Field field = Class.forName("java.lang.ApplicationShutdownHooks").getDeclaredField("hooks");
+    field.setAccessible(true);
+
+    synchronized (Class.forName("java.lang.ApplicationShutdownHooks")) {
+      return ((Map<?, ?>) field.get(null)).size();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2016 Rusty Gerard
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ */
+
+package com.callidusrobotics.rrb4j;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VirtualClockTest {
+  VirtualClock clock = new VirtualClock(1000L);
+  List<String> ran = new ArrayList<>();
+
+  @Test
+  public void standsStillUntilAdvanced() {
+    // Unit under test
+    final long first = clock.nanoTime();
+    final long second = clock.nanoTime();
+    clock.advance(500L);
+
+    // Verify results
+    assertEquals(1000L, first);
+    assertEquals(1000L, second);
+    assertEquals(1500L, clock.nanoTime());
+  }
+
+  @Test
+  public void waitsAdvanceTime() {
+    // Unit under test
+    clock.delayMicros(10);
+    clock.sleepMillis(20);
+
+    // Verify results
+    assertEquals(1000L + 10_000L + 20_000_000L, clock.nanoTime());
+  }
+
+  @Test
+  public void instantWaitsLeaveTime() {
+    clock.setInstantWaits(true);
+
+    // Unit under test
+    clock.delayMicros(10);
+    clock.sleepMillis(20);
+
+    // Verify results
+    assertEquals(1000L, clock.nanoTime());
+  }
+
+  @Test
+  public void runsTasksInTimeOrder() {
+    clock.schedule(300L, () -> ran.add("late@" + clock.peekNanos()));
+    clock.schedule(100L, () -> ran.add("early@" + clock.peekNanos()));
+    clock.schedule(100L, () -> ran.add("tied@" + clock.peekNanos()));
+    clock.schedule(900L, () -> ran.add("never"));
+
+    // Unit under test
+    clock.advance(500L);
+
+    // Verify results
+    assertEquals("[early@1100, tied@1100, late@1300]", ran.toString());
+    assertEquals(1500L, clock.peekNanos());
+    assertEquals(1, clock.getPendingCount());
+  }
+
+  @Test
+  public void runsTasksScheduledByTasks() {
+    clock.schedule(100L, () -> clock.schedule(100L, () -> ran.add("chained@" + clock.peekNanos())));
+
+    // Unit under test
+    clock.advance(1000L);
+
+    // Verify results
+    assertEquals("[chained@1200]", ran.toString());
+  }
+
+  @Test
+  public void autoAdvancesOnRead() {
+    clock.setAutoAdvance(10L);
+    clock.schedule(25L, () -> ran.add("due@" + clock.peekNanos()));
+
+    // Unit under test
+    clock.nanoTime();
+    clock.nanoTime();
+    final long third = clock.nanoTime();
+
+    // Verify results
+    assertEquals(1030L, third);
+    assertEquals("[due@1025]", ran.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void refusesToGoBackwards() {
+    // Unit under test
+    clock.advance(-1L);
+  }
+}